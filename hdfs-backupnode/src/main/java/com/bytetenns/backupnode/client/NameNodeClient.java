@@ -6,15 +6,21 @@ import com.bytetenns.backupnode.fsimage.EditsLogFetcher;
 import com.bytetenns.backupnode.fsimage.FsImageCheckPointer;
 import com.bytetenns.backupnode.ha.NodeRoleSwitcher;
 import com.bytetenns.dfs.model.backup.*;
+import com.bytetenns.common.enums.CompressionType;
 import com.bytetenns.common.enums.PacketType;
 import com.bytetenns.common.exception.RequestTimeoutException;
 import com.bytetenns.namenode.NameNodeConfig;
 import com.bytetenns.common.netty.NettyPacket;
 import com.bytetenns.common.network.NetClient;
 import com.bytetenns.common.scheduler.DefaultScheduler;
+import com.bytetenns.common.scheduler.NamedThreadFactory;
+import com.bytetenns.common.utils.CompressUtil;
 import com.google.protobuf.InvalidProtocolBufferException;
 import lombok.extern.slf4j.Slf4j;
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -39,6 +45,16 @@ public class NameNodeClient {
 
     private volatile boolean shutdown = false;
 
+    // 是否已经订阅了NameNode推送editLog
+    private volatile boolean subscribed = false;
+
+    // 抓取editLog
+    private EditsLogFetcher editsLogFetcher;
+
+    // 回放推送的editLog，单线程保证顺序，不占用netty的IO线程
+    private final ExecutorService replayExecutor = Executors.newSingleThreadExecutor(
+            new NamedThreadFactory("BackupNode-EditLog-Replay-", true));
+
     //有参构造
     public NameNodeClient(DefaultScheduler defaultScheduler, BackupNodeConfig backupnodeConfig, InMemoryNameSystem nameSystem) {
         this.netClient = new NetClient("BackupNode-NameNode-" + backupnodeConfig.getNameNodeHostname(), defaultScheduler, 3);
@@ -61,6 +77,7 @@ public class NameNodeClient {
             }
         });
         this.netClient.addConnectListener(connected -> {  //添加连接状态监听器
+            subscribed = false;
             if (connected) {
                 reportBackupNodeInfo();  //主动往NameNode上报自己的信息
             }
@@ -71,10 +88,12 @@ public class NameNodeClient {
                 log.info("收到NameNode下发的Slots信息.");
                 BackupNodeSlots backupNodeSlots = BackupNodeSlots.parseFrom(request.getBody());
                 NodeRoleSwitcher.getInstance().setSlots(backupNodeSlots.getSlotsMap());
+            } else if (request.getPacketType() == PacketType.PUSH_EDIT_LOG.getValue()) {
+                replayExecutor.execute(() -> onPushEditLog(request));
             }
         });
         this.netClient.connect(backupnodeConfig.getNameNodeHostname(), backupnodeConfig.getNameNodePort());
-        EditsLogFetcher editsLogFetcher = new EditsLogFetcher(backupnodeConfig, this, nameSystem);
+        this.editsLogFetcher = new EditsLogFetcher(backupnodeConfig, this, nameSystem);
         defaultScheduler.schedule("抓取editLog", editsLogFetcher,
                 backupnodeConfig.getFetchEditLogInterval(), backupnodeConfig.getFetchEditLogInterval(), TimeUnit.MILLISECONDS);
         FsImageCheckPointer fsImageCheckpointer = new FsImageCheckPointer(this, nameSystem, backupnodeConfig);
@@ -87,6 +106,7 @@ public class NameNodeClient {
      */
     public void shutdown() {
         this.netClient.shutdown();
+        this.replayExecutor.shutdownNow();
     }
 
     /**
@@ -129,13 +149,82 @@ public class NameNodeClient {
         FetchEditsLogRequest request = FetchEditsLogRequest.newBuilder()
                 .setTxId(txId)
                 .setNeedSlots(!hasSlots)
+                .setAcceptCompression(true)
                 .build();
         NettyPacket req = NettyPacket.buildPacket(request.toByteArray(), PacketType.FETCH_EDIT_LOG);
         NettyPacket nettyPacket = netClient.sendSync(req);
-        FetchEditsLogResponse response = FetchEditsLogResponse.parseFrom(nettyPacket.getBody());
+        return parseEditLogs(nettyPacket.getBody());
+    }
+
+    /**
+     * 解析NameNode返回或者推送的editLog，压缩过的先解压
+     */
+    private List<EditLog> parseEditLogs(byte[] body) throws InvalidProtocolBufferException {
+        FetchEditsLogResponse response = FetchEditsLogResponse.parseFrom(body);
+        if (response.getCompression() != CompressionType.NONE.getValue()) {
+            try {
+                byte[] raw = CompressUtil.decompress(CompressionType.getEnum(response.getCompression()),
+                        response.getCompressedEditLogs().toByteArray(), response.getRawLength());
+                response = FetchEditsLogResponse.parseFrom(raw);
+            } catch (IOException e) {
+                throw new InvalidProtocolBufferException(e.getMessage());
+            }
+        }
         return response.getEditLogsList();
     }
 
+    /**
+     * 订阅NameNode推送的editLog
+     *
+     * @param txId 已经回放的最大txId
+     */
+    public synchronized void subscribeEditLog(long txId) throws InterruptedException {
+        EditLogSubscription subscription = EditLogSubscription.newBuilder()
+                .setTxId(txId)
+                .setAcceptCompression(true)
+                .build();
+        netClient.send(NettyPacket.buildPacket(subscription.toByteArray(), PacketType.SUBSCRIBE_EDIT_LOG));
+        subscribed = true;
+        log.info("订阅NameNode推送的editLog: [txId={}]", txId);
+    }
+
+    public boolean isSubscribed() {
+        return subscribed;
+    }
+
+    /**
+     * 在回放线程中回放NameNode推送的editLog并确认，txid不连续时重新订阅
+     */
+    private void onPushEditLog(NettyPacket request) {
+        if (!subscribed || editsLogFetcher == null) {
+            return;
+        }
+        if (request.isError()) {
+            // NameNode已经清理了需要的editLog，内存中的元数据再也追不上，继续运行只会生成错误的FsImage
+            subscribed = false;
+            log.error("NameNode上已经没有BackupNode需要的editLog，BackupNode无法继续同步元数据，程序即将退出: [error={}]",
+                    request.getError());
+            System.exit(1);
+            return;
+        }
+        try {
+            List<EditLog> editLogs = parseEditLogs(request.getBody());
+            if (!editsLogFetcher.onPushed(editLogs)) {
+                subscribeEditLog(nameSystem.getMaxTxId());
+                return;
+            }
+            EditLogAck ack = EditLogAck.newBuilder()
+                    .setTxId(nameSystem.getMaxTxId())
+                    .build();
+            netClient.send(NettyPacket.buildPacket(ack.toByteArray(), PacketType.PUSH_EDIT_LOG_ACK));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("回放NameNode推送的editLog失败，等待重新订阅：", e);
+            subscribed = false;
+        }
+    }
+
     public DefaultScheduler getDefaultScheduler() {
         return defaultScheduler;
     }
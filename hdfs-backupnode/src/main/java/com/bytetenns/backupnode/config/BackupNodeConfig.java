@@ -31,9 +31,18 @@ public class BackupNodeConfig {
     // 每次拉取editslog的数量
     private int fetchEditLogSize = 10;
 
+    // 是否订阅NameNode主动推送的editslog，关闭后退化为定时拉取
+    private boolean subscribeEditLog = true;
+
     // checkpoint操作的时间间隔, 默认60分钟
     private long checkpointInterval = 3600000;
 
+    // 两次全量checkpoint之间最多的增量checkpoint次数，0表示只做全量checkpoint
+    private int deltaCheckpoints = 10;
+
+    // 是否使用InodeArena保存内存目录树，减少堆内存占用和GC停顿
+    private boolean fsDirectoryArena = false;
+
     // namenode地址
     private String nameNodeServer = "localhost:2345";
 
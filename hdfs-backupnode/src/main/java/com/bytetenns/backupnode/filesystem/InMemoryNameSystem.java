@@ -3,8 +3,12 @@ package com.bytetenns.backupnode.filesystem;
 import com.bytetenns.backupnode.config.BackupNodeConfig;
 import com.bytetenns.dfs.model.namenode.Metadata;
 import com.bytetenns.namenode.fs.AbstractFsNameSystem;
+import com.bytetenns.namenode.fs.ArenaFsDirectory;
+import com.bytetenns.namenode.fs.FsDirectory;
 import com.bytetenns.namenode.fs.FsImage;
+import com.bytetenns.namenode.fs.FsImageBase;
 import lombok.extern.slf4j.Slf4j;
+import java.io.IOException;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -27,6 +31,7 @@ public class InMemoryNameSystem extends AbstractFsNameSystem {
 
     // 有参构造
     public InMemoryNameSystem(BackupNodeConfig backupNodeConfig) {
+        super(backupNodeConfig.isFsDirectoryArena() ? new ArenaFsDirectory() : new FsDirectory());
         this.backupNodeConfig = backupNodeConfig;
     }
 
@@ -67,13 +72,26 @@ public class InMemoryNameSystem extends AbstractFsNameSystem {
     }
 
     /**
-     * 获取FSImage
-     * @return FsImage
+     * 把内存目录树保存为全量FSImage文件
+     * @param path FsImage文件路径
+     * @return 全量FsImage的快照信息，maxTxId为FsImage对应的maxTxId
+     * @throws IOException IO异常
      */
-    public FsImage getFsImage() {
-        FsImage fsImage = directory.getFsImage();
-        fsImage.setMaxTxId(maxTxId);
-        return fsImage;
+    public FsImageBase saveFsImage(String path) throws IOException {
+        return directory.saveFsImage(maxTxId, path);
+    }
+
+    /**
+     * 把内存目录树保存为增量FSImage文件
+     * @param path FsImage文件路径
+     * @param base 全量FsImage的快照信息
+     * @return FsImage对应的maxTxId
+     * @throws IOException IO异常
+     */
+    public long saveDeltaFsImage(String path, FsImageBase base) throws IOException {
+        long txId = maxTxId;
+        directory.saveDeltaFsImage(txId, path, base);
+        return txId;
     }
 
     public long getMaxTxId() {
@@ -45,32 +45,65 @@ public class EditsLogFetcher implements Runnable {
                 Thread.sleep(1000);
                 return;
             }
+            if (backupnodeConfig.isSubscribeEditLog()) {
+                // 订阅模式下只需要保证订阅关系存在，editslog由NameNode主动推送
+                if (!nameNode.isSubscribed()) {
+                    nameNode.subscribeEditLog(nameSystem.getMaxTxId());
+                }
+                return;
+            }
             List<EditLog> editLogs = nameNode.fetchEditsLog(nameSystem.getMaxTxId());
             if (editLogs.size() < backupnodeConfig.getFetchEditLogSize()) {
                 return;
             }
             log.info("抓取到editLog: [max txId={}, size={}]", nameSystem.getMaxTxId(), editLogs.size());
-            for (int i = 0; i < editLogs.size(); i++) {
-                EditLog editLog = editLogs.get(i);
-                if (editLog != null) {
-                    int op = editLog.getOpType();
-                    long txId = editLog.getTxId();
-                    if (nameSystem.getMaxTxId() < txId) {
-                        if (FsOpType.MKDIR.getValue() == op) {
-                            nameSystem.mkdir(editLog.getPath(), editLog.getAttrMap());
-                        } else if (FsOpType.CREATE.getValue() == op) {
-                            nameSystem.createFile(editLog.getPath(), editLog.getAttrMap());
-                        } else if (FsOpType.DELETE.getValue() == op) {
-                            nameSystem.deleteFile(editLog.getPath());
-                        }
-                        nameSystem.setMaxTxId(txId);
+            apply(editLogs);
+        } catch (Exception e) {
+            log.error("抓取EditLog线程出现异常:", e);
+        }
+    }
+
+    /**
+     * 处理NameNode推送的editslog
+     *
+     * @param editLogs editslog
+     * @return txid是否和已经回放的editslog连续，不连续时需要重新订阅
+     */
+    public boolean onPushed(List<EditLog> editLogs) {
+        if (editLogs.isEmpty()) {
+            return true;
+        }
+        if (editLogs.get(0).getTxId() > nameSystem.getMaxTxId() + 1) {
+            log.warn("推送的editLog不连续，重新订阅: [max txId={}, first txId={}]", nameSystem.getMaxTxId(),
+                    editLogs.get(0).getTxId());
+            return false;
+        }
+        apply(editLogs);
+        return true;
+    }
+
+    /**
+     * 按顺序回放editslog，跳过已经回放过的
+     */
+    private synchronized void apply(List<EditLog> editLogs) {
+        for (int i = 0; i < editLogs.size(); i++) {
+            EditLog editLog = editLogs.get(i);
+            if (editLog != null) {
+                int op = editLog.getOpType();
+                long txId = editLog.getTxId();
+                if (nameSystem.getMaxTxId() < txId) {
+                    if (FsOpType.MKDIR.getValue() == op) {
+                        nameSystem.mkdir(editLog.getPath(), editLog.getAttrMap());
+                    } else if (FsOpType.CREATE.getValue() == op) {
+                        nameSystem.createFile(editLog.getPath(), editLog.getAttrMap());
+                    } else if (FsOpType.DELETE.getValue() == op) {
+                        nameSystem.deleteFile(editLog.getPath());
                     }
-                } else {
-                    log.debug("EditLog is empty : {} ", editLogs.toString());
+                    nameSystem.setMaxTxId(txId);
                 }
+            } else {
+                log.debug("EditLog is empty : {} ", editLogs.toString());
             }
-        } catch (Exception e) {
-            log.error("抓取EditLog线程出现异常:", e);
         }
     }
 }
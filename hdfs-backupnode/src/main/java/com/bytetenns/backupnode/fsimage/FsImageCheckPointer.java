@@ -3,10 +3,10 @@ package com.bytetenns.backupnode.fsimage;
 import com.bytetenns.backupnode.client.NameNodeClient;
 import com.bytetenns.backupnode.config.BackupNodeConfig;
 import com.bytetenns.backupnode.filesystem.InMemoryNameSystem;
-import com.bytetenns.common.network.file.FileTransportClient;
-import com.bytetenns.common.utils.FileUtil;
+import com.bytetenns.namenode.fs.FsImageBase;
 import lombok.extern.slf4j.Slf4j;
-import java.nio.ByteBuffer;
+
+import java.io.File;
 
 /**
  * FsImage 检查点
@@ -22,6 +22,13 @@ import java.nio.ByteBuffer;
  *      2.1 假设上面第3个FsImage文件不合法，保存到一半的时候BackupNode宕机了，或者传给NameNode的时候传了一半BackupNode宕机了，导致整个文件不完整
  *      2.2 首先判断第3个文件，校验得出第3个不合法，删除第三个文件。继续校验第2个文件，文件合法。把第一个文件删除。只保留第2个文件
  *  3. NameNode基于第2步得到的FsImage文件，读取其中的TxId，然后删除比txId小的EditLogs文件
+ *
+ *  增量checkpoint：
+ *
+ *  1. 全量FsImage之后，只写入根目录下有修改的目录分段，文件名规则不变
+ *  2. 增量次数达到deltaCheckpoints，或者增量FsImage超过全量FsImage大小的一半，下一次写入全量FsImage
+ *  3. 上传失败或者BackupNode重启之后，下一次写入全量FsImage
+ *  4. 清理FsImage时会保留最新的增量FsImage对应的全量FsImage
  */
 @Slf4j
 public class FsImageCheckPointer implements Runnable {
@@ -29,15 +36,22 @@ public class FsImageCheckPointer implements Runnable {
     private BackupNodeConfig backupNodeConfig;
     private InMemoryNameSystem nameSystem;
     private NameNodeClient namenodeClient;
-    private FileTransportClient fileTransportClient;
+    private FsImageUploader fsImageUploader;
     private long lastCheckpointTxId;
     private FsImageClearTask fsImageClearTask;
 
+    /**
+     * 最近一次全量FsImage的快照信息，为null时下一次写入全量FsImage
+     */
+    private FsImageBase fsImageBase;
+    private long fsImageBaseSize;
+    private int deltaCount;
+
     public FsImageCheckPointer(NameNodeClient namenodeClient, InMemoryNameSystem nameSystem, BackupNodeConfig backupnodeConfig) {
         this.nameSystem = nameSystem;
         this.namenodeClient = namenodeClient;
         this.backupNodeConfig = backupnodeConfig;
-        this.fileTransportClient = new FileTransportClient(namenodeClient.getNetClient(), false);
+        this.fsImageUploader = new FsImageUploader(namenodeClient.getNetClient());
         this.lastCheckpointTxId = nameSystem.getMaxTxId();
         this.fsImageClearTask = new FsImageClearTask(nameSystem, backupnodeConfig.getBaseDir());
     }
@@ -54,17 +68,18 @@ public class FsImageCheckPointer implements Runnable {
                 log.info("EditLog和上次没有变化，不进行checkpoint: [txId={}]", lastCheckpointTxId);
                 return;
             }
-            com.bytetenns.namenode.fs.FsImage fsImage = nameSystem.getFsImage();
-            lastCheckpointTxId = fsImage.getMaxTxId();
-            String fsImageFile = backupNodeConfig.getFsImageFile(String.valueOf(System.currentTimeMillis()));
+            String time = String.valueOf(System.currentTimeMillis());
+            String fsImageFile = backupNodeConfig.getFsImageFile(time);
 
-            log.info("开始执行checkpoint操作: [maxTxId={}]", fsImage.getMaxTxId());
+            log.info("开始执行checkpoint操作: [maxTxId={}]", nameSystem.getMaxTxId());
 
             // 写入FsImage文件
-            doCheckpoint(fsImage, fsImageFile);
+            lastCheckpointTxId = doCheckpoint(fsImageFile);
 
-            // 上传FsImage给NameNode
-            uploadFsImage(fsImageFile);
+            // 上传FsImage给NameNode，失败时下一次写入全量FsImage，保证NameNode上的增量FsImage都有对应的全量FsImage
+            if (!uploadFsImage(fsImageFile, time)) {
+                fsImageBase = null;
+            }
 
             // 删除旧的FSImage
             namenodeClient.getDefaultScheduler().scheduleOnce("删除FSImage任务", fsImageClearTask, 0);
@@ -74,24 +89,39 @@ public class FsImageCheckPointer implements Runnable {
     }
 
     /**
-     * 上传FsImage到NameNode
+     * 分块上传FsImage到NameNode，网络异常时从NameNode确认的位置续传
      */
-    private void uploadFsImage(String path) {
-        try {
-            log.info("开始上传fsImage文件：[file={}]", path);
-            fileTransportClient.sendFile(path);
-            log.info("结束上传fsImage文件：[file={}]", path);
-        } catch (Exception e) {
-            log.info("上传FsImage异常：", e);
-        }
+    private boolean uploadFsImage(String path, String time) throws InterruptedException {
+        log.info("开始上传fsImage文件：[file={}]", path);
+        String uploadId = time + "_" + new File(path).length();
+        boolean success = fsImageUploader.upload(path, uploadId);
+        log.info("结束上传fsImage文件：[file={}, success={}]", path, success);
+        return success;
     }
 
     /**
-     * 写入fsImage文件
+     * 写入fsImage文件，根据上一次全量FsImage决定写入全量还是增量
+     *
+     * @return fsImage对应的maxTxId
      */
-    private void doCheckpoint(com.bytetenns.namenode.fs.FsImage fsImage, String path) throws Exception {
-        ByteBuffer buffer = ByteBuffer.wrap(fsImage.toByteArray());
-        FileUtil.saveFile(path, true, buffer);
-        log.info("保存FsImage文件：[file={}]", path);
+    private long doCheckpoint(String path) throws Exception {
+        if (fsImageBase == null || fsImageBase.getMaxTxId() <= 0
+                || deltaCount >= backupNodeConfig.getDeltaCheckpoints()) {
+            fsImageBase = nameSystem.saveFsImage(path);
+            fsImageBaseSize = new File(path).length();
+            deltaCount = 0;
+            log.info("保存全量FsImage文件：[file={}, maxTxId={}]", path, fsImageBase.getMaxTxId());
+            return fsImageBase.getMaxTxId();
+        }
+        long maxTxId = nameSystem.saveDeltaFsImage(path, fsImageBase);
+        long size = new File(path).length();
+        deltaCount++;
+        if (size > fsImageBaseSize / 2) {
+            // 增量已经接近全量的大小，下一次直接写入全量
+            deltaCount = backupNodeConfig.getDeltaCheckpoints();
+        }
+        log.info("保存增量FsImage文件：[file={}, maxTxId={}, baseTxId={}, deltaCount={}]",
+                path, maxTxId, fsImageBase.getMaxTxId(), deltaCount);
+        return maxTxId;
     }
 }
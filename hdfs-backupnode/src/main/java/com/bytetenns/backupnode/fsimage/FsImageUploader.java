@@ -0,0 +1,164 @@
+package com.bytetenns.backupnode.fsimage;
+
+import com.bytetenns.common.enums.PacketType;
+import com.bytetenns.common.netty.NettyPacket;
+import com.bytetenns.common.network.NetClient;
+import com.bytetenns.common.utils.Crc32C;
+import com.bytetenns.common.utils.FileUtil;
+import com.bytetenns.dfs.model.backup.FsImageChunk;
+import com.bytetenns.dfs.model.backup.FsImageUploadCommit;
+import com.bytetenns.dfs.model.backup.FsImageUploadRequest;
+import com.bytetenns.dfs.model.backup.FsImageUploadResponse;
+import com.google.protobuf.ByteString;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Checksum;
+
+/**
+ * <pre>
+ * 分块上传FsImage到NameNode，支持断点续传
+ *
+ * 1. 先发送FSIMAGE_UPLOAD_BEGIN，NameNode返回已经收到的字节数，从这个位置开始上传
+ * 2. 每个分块带有CRC32C，同步等待NameNode确认之后再发送下一个分块
+ * 3. 网络异常时等待一段时间重新发送FSIMAGE_UPLOAD_BEGIN，从NameNode确认的位置续传，已经上传的数据不会重新发送
+ * 4. 边上传边计算整个文件的CRC32C，续传时只需要在本地重新计算已经确认部分的校验和
+ * 5. 全部上传之后发送FSIMAGE_UPLOAD_COMMIT，NameNode校验整个文件之后才生成FsImage文件，
+ *    校验大文件比较耗时，COMMIT使用单独的超时时间；即使超时，NameNode对同一个uploadId的重试也直接返回成功
+ * </pre>
+ */
+@Slf4j
+public class FsImageUploader {
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int MAX_RETRIES = 10;
+    private static final long RETRY_INTERVAL = 3000;
+    private static final long COMMIT_TIMEOUT = 5 * 60 * 1000;
+
+    private final NetClient netClient;
+
+    public FsImageUploader(NetClient netClient) {
+        this.netClient = netClient;
+    }
+
+    /**
+     * 上传FsImage
+     *
+     * @param path     FsImage文件路径
+     * @param uploadId 上传任务id，同一个文件重试时保持不变
+     * @return 是否上传成功
+     */
+    public boolean upload(String path, String uploadId) throws InterruptedException {
+        try (RandomAccessFile raf = new RandomAccessFile(path, "r");
+             FileInputStream fis = new FileInputStream(raf.getFD());
+             FileChannel channel = fis.getChannel()) {
+            long size = raf.length();
+            Checksum checksum = Crc32C.create();
+            long checksumOffset = 0;
+            int retries = 0;
+            while (true) {
+                try {
+                    long offset = begin(uploadId, size);
+                    if (offset != checksumOffset) {
+                        checksum = checksumOf(channel, offset);
+                        checksumOffset = offset;
+                    }
+                    ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+                    while (offset < size) {
+                        buffer.clear();
+                        buffer.limit((int) Math.min(CHUNK_SIZE, size - offset));
+                        while (buffer.hasRemaining()) {
+                            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                                throw new IOException("FsImage文件提前结束：" + path);
+                            }
+                        }
+                        byte[] data = buffer.array();
+                        int length = buffer.position();
+                        long ackOffset = sendChunk(uploadId, offset, data, length);
+                        if (ackOffset != offset + length) {
+                            throw new IOException("NameNode确认的位置不一致：[offset=" + offset + ", ack=" + ackOffset + "]");
+                        }
+                        checksum.update(data, 0, length);
+                        offset = ackOffset;
+                        checksumOffset = offset;
+                    }
+                    commit(uploadId, (int) checksum.getValue());
+                    log.info("上传FsImage完成：[file={}, size={}, retries={}]", path, FileUtil.formatSize(size), retries);
+                    return true;
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    if (++retries > MAX_RETRIES) {
+                        log.error("上传FsImage失败：[file={}]", path, e);
+                        return false;
+                    }
+                    log.warn("上传FsImage异常，稍后续传：[file={}, retries={}, error={}]", path, retries, e.getMessage());
+                    Thread.sleep(RETRY_INTERVAL);
+                }
+            }
+        } catch (IOException e) {
+            log.error("读取FsImage失败：[file={}]", path, e);
+            return false;
+        }
+    }
+
+    private long begin(String uploadId, long size) throws Exception {
+        FsImageUploadRequest request = FsImageUploadRequest.newBuilder()
+                .setUploadId(uploadId)
+                .setSize(size)
+                .build();
+        return sendSync(NettyPacket.buildPacket(request.toByteArray(), PacketType.FSIMAGE_UPLOAD_BEGIN)).getOffset();
+    }
+
+    private long sendChunk(String uploadId, long offset, byte[] data, int length) throws Exception {
+        FsImageChunk chunk = FsImageChunk.newBuilder()
+                .setUploadId(uploadId)
+                .setOffset(offset)
+                .setData(ByteString.copyFrom(data, 0, length))
+                .setCrc32c(Crc32C.compute(data, 0, length))
+                .build();
+        return sendSync(NettyPacket.buildPacket(chunk.toByteArray(), PacketType.FSIMAGE_UPLOAD_CHUNK)).getOffset();
+    }
+
+    private void commit(String uploadId, int crc32c) throws Exception {
+        FsImageUploadCommit commit = FsImageUploadCommit.newBuilder()
+                .setUploadId(uploadId)
+                .setCrc32c(crc32c)
+                .build();
+        NettyPacket request = NettyPacket.buildPacket(commit.toByteArray(), PacketType.FSIMAGE_UPLOAD_COMMIT);
+        request.setTimeoutInMs(COMMIT_TIMEOUT);
+        sendSync(request);
+    }
+
+    private FsImageUploadResponse sendSync(NettyPacket request) throws Exception {
+        NettyPacket response = netClient.sendSync(request);
+        if (response.isError()) {
+            throw new IOException(response.getError());
+        }
+        return FsImageUploadResponse.parseFrom(response.getBody());
+    }
+
+    /**
+     * 计算文件前offset个字节的CRC32C，用于从NameNode确认的位置续传
+     */
+    private static Checksum checksumOf(FileChannel channel, long offset) throws IOException {
+        Checksum checksum = Crc32C.create();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long position = 0;
+        while (position < offset) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), offset - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("FsImage文件提前结束");
+            }
+            checksum.update(buffer.array(), 0, read);
+            position += read;
+        }
+        return checksum;
+    }
+}
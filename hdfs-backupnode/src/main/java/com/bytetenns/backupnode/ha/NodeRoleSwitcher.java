@@ -12,7 +12,6 @@ import com.bytetenns.common.utils.NetUtils;
 import com.bytetenns.dfs.model.namenode.NameNodeSlots;
 import com.bytetenns.namenode.NameNode;
 import com.bytetenns.namenode.NameNodeConfig;
-import com.bytetenns.namenode.fs.FsImage;
 import io.netty.channel.Channel;
 import io.netty.channel.socket.SocketChannel;
 import lombok.extern.slf4j.Slf4j;
@@ -138,12 +137,10 @@ public class NodeRoleSwitcher {
             log.error("升级为NameNode失败，没有足够的配置信息. 程序即将退出 !!");
             System.exit(0);
         }
-        FsImage fsImage = backupNode.getNameSystem().getFsImage();
         try {
             // 保存FSImage
             String nameNodeFsImage = nameNodeConfig.getFsimageFile(String.valueOf(System.currentTimeMillis()));
-            ByteBuffer buffer = ByteBuffer.wrap(fsImage.toByteArray());
-            FileUtil.saveFile(nameNodeFsImage, true, buffer);
+            backupNode.getNameSystem().saveFsImage(nameNodeFsImage);
 
             // 保存Slots信息
             String slotFile = nameNodeConfig.getSlotFile();
@@ -152,7 +149,7 @@ public class NodeRoleSwitcher {
                 slotsBuilder.putAllNewSlots(this.slotsMap);
             }
             NameNodeSlots slots = slotsBuilder.build();
-            buffer = ByteBuffer.wrap(slots.toByteArray());
+            ByteBuffer buffer = ByteBuffer.wrap(slots.toByteArray());
             FileUtil.saveFile(slotFile, true, buffer);
             log.info("基于BackupNode最新的内存目录树保存为NameNode的FsImage文件：[file={}]", nameNodeFsImage);
 
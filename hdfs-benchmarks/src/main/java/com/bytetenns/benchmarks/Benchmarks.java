@@ -0,0 +1,50 @@
+package com.bytetenns.benchmarks;
+
+import com.bytetenns.common.netty.Constants;
+import com.bytetenns.common.utils.FileUtil;
+import com.bytetenns.namenode.NameNodeConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * benchmark共用的工具方法
+ */
+final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    /**
+     * 在临时目录下创建NameNode配置，其他配置使用默认值
+     */
+    static NameNodeConfig tempConfig() throws IOException {
+        NameNodeConfig nameNodeConfig = new NameNodeConfig();
+        nameNodeConfig.setBaseDir(Files.createTempDirectory("hdfs-benchmarks").toString());
+        return nameNodeConfig;
+    }
+
+    static void deleteBaseDir(NameNodeConfig nameNodeConfig) throws IOException {
+        FileUtil.deleteDirectory(new File(nameNodeConfig.getBaseDir()));
+    }
+
+    /**
+     * 上传文件时editlog里常见的属性
+     */
+    static Map<String, String> fileAttr() {
+        Map<String, String> attr = new HashMap<>();
+        attr.put(Constants.ATTR_FILE_SIZE, "1048576");
+        attr.put(Constants.ATTR_REPLICA_NUM, "2");
+        return attr;
+    }
+
+    /**
+     * 第index个文件的路径：/user{index % 100}/dir{index / 100 % 1000}/file-{index}
+     */
+    static String filePath(long index) {
+        return "/user" + (index % 100) + "/dir" + (index / 100 % 1000) + "/file-" + index;
+    }
+}
@@ -0,0 +1,88 @@
+package com.bytetenns.benchmarks;
+
+import com.bytetenns.common.enums.FsOpType;
+import com.bytetenns.common.utils.FileUtil;
+import com.bytetenns.namenode.NameNodeConfig;
+import com.bytetenns.namenode.editlog.EditLogSegment;
+import com.bytetenns.namenode.editlog.EditLogWrapper;
+import com.bytetenns.namenode.editlog.EditslogInfo;
+import com.bytetenns.namenode.editlog.buffer.DoubleBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <pre>
+ * 单线程测试一个批次的editlog：写入DoubleBuffer、交换缓冲区、追加写入分段文件
+ *
+ * 分段文件滚动之后直接删除，避免测试过程中占满磁盘
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class DoubleBufferBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    private int batchSize;
+
+    @Param({"true", "false"})
+    private boolean forceSync;
+
+    private NameNodeConfig nameNodeConfig;
+    private DoubleBuffer doubleBuffer;
+    private EditLogSegment segment;
+    private EditLogWrapper[] editLogs;
+    private long txId = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        nameNodeConfig = Benchmarks.tempConfig();
+        nameNodeConfig.setEditLogForceSync(forceSync);
+        doubleBuffer = new DoubleBuffer(nameNodeConfig);
+        segment = new EditLogSegment(nameNodeConfig);
+        Map<String, String> attr = Benchmarks.fileAttr();
+        editLogs = new EditLogWrapper[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            editLogs[i] = new EditLogWrapper(FsOpType.CREATE.getValue(), Benchmarks.filePath(i), attr);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        segment.finalizeSegment();
+        Benchmarks.deleteBaseDir(nameNodeConfig);
+    }
+
+    @Benchmark
+    public void writeAndFlush() throws IOException {
+        for (EditLogWrapper editLog : editLogs) {
+            editLog.setTxId(++txId);
+            doubleBuffer.write(editLog);
+        }
+        doubleBuffer.setReadyToSync();
+        doubleBuffer.flush(segment);
+        if (segment.shouldRoll()) {
+            EditslogInfo editslogInfo = segment.finalizeSegment();
+            FileUtil.delete(editslogInfo.getName());
+            segment = new EditLogSegment(nameNodeConfig);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.bytetenns.benchmarks;
+
+import com.bytetenns.common.enums.FsOpType;
+import com.bytetenns.dfs.model.backup.TypedEditLog;
+import com.bytetenns.namenode.editlog.EditLogWrapper;
+import com.bytetenns.namenode.editlog.TypedEditLogCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <pre>
+ * 一个批次editlog的序列化和解析
+ *
+ * 1. serialize：按照typedRecord选择的格式序列化到堆外缓冲
+ * 2. parse：解析同样格式的一个批次
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class EditLogWrapperBenchmark {
+
+    @Param({"1000"})
+    private int batchSize;
+
+    @Param({"true", "false"})
+    private boolean typedRecord;
+
+    private EditLogWrapper[] editLogs;
+    private ByteBuffer buffer;
+    private ByteBuffer serialized;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Map<String, String> attr = Benchmarks.fileAttr();
+        editLogs = new EditLogWrapper[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            editLogs[i] = new EditLogWrapper(FsOpType.CREATE.getValue(), Benchmarks.filePath(i), attr);
+            editLogs[i].setTxId(i + 1);
+        }
+        buffer = ByteBuffer.allocateDirect(batchSize * 1024);
+        ByteBuffer data = serialize();
+        serialized = ByteBuffer.allocateDirect(data.remaining());
+        serialized.put(data);
+        serialized.flip();
+    }
+
+    @Benchmark
+    public ByteBuffer serialize() throws IOException {
+        buffer.clear();
+        String previousPath = null;
+        for (EditLogWrapper editLog : editLogs) {
+            if (typedRecord) {
+                TypedEditLog typedEditLog = TypedEditLogCodec.encode(editLog.getEditLog(), previousPath);
+                EditLogWrapper.writeRecord(buffer, EditLogWrapper.TYPED_MAGIC, typedEditLog);
+                previousPath = editLog.getEditLog().getPath();
+            } else {
+                editLog.writeTo(buffer);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Benchmark
+    public List<EditLogWrapper> parse() {
+        return EditLogWrapper.parseFrom(serialized.duplicate());
+    }
+}
@@ -0,0 +1,88 @@
+package com.bytetenns.benchmarks;
+
+import com.bytetenns.namenode.fs.AbstractFsDirectory;
+import com.bytetenns.namenode.fs.ArenaFsDirectory;
+import com.bytetenns.namenode.fs.FsDirectory;
+import com.bytetenns.namenode.fs.Node;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <pre>
+ * 在预先构建好的目录树上测试FsDirectory的createFile、mkdir、listFiles
+ *
+ * 1. 目录树有treeSize个文件，分布在100 * 1000个目录下，见{@link Benchmarks#filePath(long)}
+ * 2. createFile和mkdir每次都创建新的文件或者目录，测试过程中目录树会继续增长
+ * 3. 构建100万个文件的目录树需要比较大的堆，建议使用 -jvmArgs "-Xmx4g"
+ * 4. storage=heap测试基于Node的{@link FsDirectory}，storage=arena测试基于InodeArena的{@link ArenaFsDirectory}
+ * 5. pathCacheSize只对storage=heap生效，listHotFile模拟集中访问1000个热点文件，对比开启路径缓存前后的查询耗时
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FsDirectoryBenchmark {
+
+    @Param({"1000000"})
+    private int treeSize;
+
+    @Param({"heap", "arena"})
+    private String storage;
+
+    @Param({"0", "65536"})
+    private int pathCacheSize;
+
+    private AbstractFsDirectory fsDirectory;
+    private Map<String, String> attr;
+    private AtomicLong index;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        fsDirectory = "arena".equals(storage) ? new ArenaFsDirectory() : new FsDirectory(pathCacheSize);
+        attr = Benchmarks.fileAttr();
+        for (int i = 0; i < treeSize; i++) {
+            fsDirectory.createFile(Benchmarks.filePath(i), attr);
+        }
+        index = new AtomicLong(treeSize);
+    }
+
+    @Benchmark
+    public boolean createFile() {
+        return fsDirectory.createFile(Benchmarks.filePath(index.getAndIncrement()), attr);
+    }
+
+    @Benchmark
+    public void mkdir() {
+        long i = index.getAndIncrement();
+        fsDirectory.mkdir("/user" + (i % 100) + "/mkdir-" + i, attr);
+    }
+
+    @Benchmark
+    public Node listFiles() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return fsDirectory.listFiles("/user" + random.nextInt(100) + "/dir" + random.nextInt(1000));
+    }
+
+    @Benchmark
+    public Node listHotFile() {
+        return fsDirectory.unsafeListFiles(Benchmarks.filePath(ThreadLocalRandom.current().nextInt(1000)));
+    }
+}
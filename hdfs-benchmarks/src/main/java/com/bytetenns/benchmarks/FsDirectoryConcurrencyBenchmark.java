@@ -0,0 +1,147 @@
+package com.bytetenns.benchmarks;
+
+import com.bytetenns.namenode.fs.AbstractFsDirectory;
+import com.bytetenns.namenode.fs.ArenaFsDirectory;
+import com.bytetenns.namenode.fs.FsDirectory;
+import com.bytetenns.namenode.fs.Node;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <pre>
+ * 多线程并发修改FsDirectory，观察吞吐量随线程数的变化
+ *
+ * 1. 每个线程模拟一个用户，只在自己的/user{n}目录下创建和删除文件，子树互不相交
+ * 2. createFile只创建文件，目录树持续增长；createAndDelete创建之后立即删除，会逐级删除空文件夹
+ * 3. 用 -t 指定线程数，分别运行 -t 1、-t 2、-t 4、-t max 对比吞吐量：
+ *    storage=heap使用路径锁，不同用户可以并发修改；storage=arena仍然使用一把全局锁，作为对照
+ * 4. readWhileWriting一半线程创建文件，一半线程查询用户目录的汇总信息，storage=heap的查询不加锁，不会等待写入
+ * 5. 直接运行main方法会依次用1、2、4和CPU核数个线程运行createFile和createAndDelete，最后输出吞吐量和相对单线程的加速比
+ * 6. 路径锁是按路径哈希分段的，不同用户的目录落到同一个分段时仍然会互相等待，
+ *    所以即使子树互不相交，加速比也可能达不到线程数；分段越少、线程越多，碰撞越明显
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FsDirectoryConcurrencyBenchmark {
+
+    @Param({"heap", "arena"})
+    private String storage;
+
+    private AbstractFsDirectory fsDirectory;
+    private Map<String, String> attr;
+    private final AtomicInteger users = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        fsDirectory = "arena".equals(storage) ? new ArenaFsDirectory() : new FsDirectory();
+        attr = Benchmarks.fileAttr();
+    }
+
+    /**
+     * 每个线程独占一个用户目录
+     */
+    @State(Scope.Thread)
+    public static class User {
+        private String home;
+        private long index;
+
+        @Setup(Level.Trial)
+        public void setup(FsDirectoryConcurrencyBenchmark benchmark) {
+            home = "/user" + benchmark.users.getAndIncrement();
+        }
+
+        private String nextFile() {
+            long i = index++;
+            return home + "/dir" + (i / 1000) + "/file-" + i;
+        }
+    }
+
+    @Benchmark
+    public boolean createFile(User user) {
+        return fsDirectory.createFile(user.nextFile(), attr);
+    }
+
+    @Benchmark
+    public Node createAndDelete(User user) {
+        String filename = user.nextFile();
+        fsDirectory.createFile(filename, attr);
+        return fsDirectory.delete(filename);
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(2)
+    public boolean writer(User user) {
+        return fsDirectory.createFile(user.nextFile(), attr);
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(2)
+    public Node reader() {
+        return fsDirectory.listFiles("/user" + ThreadLocalRandom.current().nextInt(Math.max(1, users.get())), 0);
+    }
+
+    /**
+     * <pre>
+     * 在互不相交的用户目录上测试吞吐量随线程数的变化：
+     *
+     * java -cp benchmarks.jar com.bytetenns.benchmarks.FsDirectoryConcurrencyBenchmark
+     * </pre>
+     */
+    public static void main(String[] args) throws RunnerException {
+        SortedSet<Integer> threadCounts = new TreeSet<>(Arrays.asList(1, 2, 4,
+                Runtime.getRuntime().availableProcessors()));
+        Map<String, Double> singleThread = new HashMap<>();
+        StringBuilder report = new StringBuilder(String.format("%-16s %-8s %8s %12s %8s%n",
+                "benchmark", "storage", "threads", "ops/ms", "speedup"));
+        for (int threads : threadCounts) {
+            Options options = new OptionsBuilder()
+                    .include(FsDirectoryConcurrencyBenchmark.class.getName() + "\\.(createFile|createAndDelete)$")
+                    .threads(threads)
+                    .build();
+            for (RunResult result : new Runner(options).run()) {
+                String benchmark = result.getParams().getBenchmark();
+                benchmark = benchmark.substring(benchmark.lastIndexOf('.') + 1);
+                String storage = result.getParams().getParam("storage");
+                double score = result.getPrimaryResult().getScore();
+                // 线程数从小到大运行，第一次出现的就是单线程的结果
+                double baseline = singleThread.computeIfAbsent(benchmark + "-" + storage, key -> score);
+                report.append(String.format("%-16s %-8s %8d %12.1f %8.2f%n",
+                        benchmark, storage, threads, score, score / baseline));
+            }
+        }
+        System.out.println(report);
+    }
+}
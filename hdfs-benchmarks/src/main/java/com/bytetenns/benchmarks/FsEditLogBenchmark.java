@@ -0,0 +1,74 @@
+package com.bytetenns.benchmarks;
+
+import com.bytetenns.common.enums.FsOpType;
+import com.bytetenns.namenode.NameNodeConfig;
+import com.bytetenns.namenode.editlog.EditLogWrapper;
+import com.bytetenns.namenode.editlog.FsEditLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <pre>
+ * 多个线程并发调用FsEditLog.logEdit，每次调用都会等到editlog刷盘之后才返回
+ *
+ * 线程数通过 -t 指定，例如：java -jar benchmarks.jar FsEditLogBenchmark -t 32
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Threads(8)
+@Fork(1)
+public class FsEditLogBenchmark {
+
+    @Param({"true", "false"})
+    private boolean groupCommit;
+
+    @Param({"true", "false"})
+    private boolean forceSync;
+
+    private NameNodeConfig nameNodeConfig;
+    private FsEditLog fsEditLog;
+    private Map<String, String> attr;
+    private final AtomicLong index = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        nameNodeConfig = Benchmarks.tempConfig();
+        nameNodeConfig.setEditLogGroupCommit(groupCommit);
+        nameNodeConfig.setEditLogForceSync(forceSync);
+        fsEditLog = new FsEditLog(nameNodeConfig);
+        attr = Benchmarks.fileAttr();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fsEditLog.shutdown();
+        Benchmarks.deleteBaseDir(nameNodeConfig);
+    }
+
+    @Benchmark
+    public void logEdit() {
+        String path = Benchmarks.filePath(index.getAndIncrement());
+        fsEditLog.logEdit(new EditLogWrapper(FsOpType.CREATE.getValue(), path, attr));
+    }
+}
@@ -0,0 +1,41 @@
+package com.bytetenns.common.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 压缩算法
+ */
+@Getter
+@AllArgsConstructor
+public enum CompressionType {
+
+    /**
+     * 压缩算法
+     */
+    NONE(0, "none", "不压缩"),
+    DEFLATE(1, "deflate", "Deflate压缩"),
+    LZ4(2, "lz4", "LZ4压缩");
+
+    private int value;
+    private String codec;
+    private String desc;
+
+    public static CompressionType getEnum(int value) {
+        for (CompressionType compressionType : values()) {
+            if (compressionType.value == value) {
+                return compressionType;
+            }
+        }
+        return NONE;
+    }
+
+    public static CompressionType getEnum(String codec) {
+        for (CompressionType compressionType : values()) {
+            if (compressionType.codec.equalsIgnoreCase(codec)) {
+                return compressionType;
+            }
+        }
+        return NONE;
+    }
+}
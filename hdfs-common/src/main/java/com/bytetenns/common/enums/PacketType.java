@@ -60,6 +60,12 @@ public enum PacketType {
     CLIENT_READ_STORAGE_INFO(45, "客户端获取文件存储信息"),
     CLIENT_PRE_CALCULATE(46, "客户端导出文件/文件夹前计算文件数量的请求"),
     CLIENT_GET_ALL_FILENAME(47, "客户端获取文件/文件夹包含的所有文件全路径"),
+    SUBSCRIBE_EDIT_LOG(48, "BackupNode往NameNode订阅EditLog，NameNode刷盘之后主动推送"),
+    PUSH_EDIT_LOG(49, "NameNode往BackupNode推送EditLog"),
+    PUSH_EDIT_LOG_ACK(50, "BackupNode往NameNode确认已经回放的EditLog"),
+    FSIMAGE_UPLOAD_BEGIN(51, "BackupNode开始或者续传FsImage，NameNode返回已经收到的字节数"),
+    FSIMAGE_UPLOAD_CHUNK(52, "BackupNode往NameNode上传FsImage的一个分块"),
+    FSIMAGE_UPLOAD_COMMIT(53, "BackupNode通知NameNode FsImage上传完成"),
     ;
 
     public int value;
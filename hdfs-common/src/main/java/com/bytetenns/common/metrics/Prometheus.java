@@ -108,6 +108,37 @@ public class Prometheus {
         }
     }
 
+    /**
+     * 记录一个值到直方图，第一次使用时按照给定的桶创建直方图
+     *
+     * @param metricsName 指标名称
+     * @param help        指标说明
+     * @param buckets     直方图的桶上界，升序
+     * @param value       观测值
+     */
+    public static void observe(String metricsName, String help, double[] buckets, double value) {
+        try {
+            Histogram histogram = histogramMap.get(metricsName);
+            if (histogram == null) {
+                synchronized (Prometheus.class) {
+                    histogram = histogramMap.get(metricsName);
+                    if (histogram == null) {
+                        histogram = Histogram.build()
+                                .name(metricsName)
+                                .help(help)
+                                .buckets(buckets)
+                                .labelNames("hostname")
+                                .register();
+                        histogramMap.put(metricsName, histogram);
+                    }
+                }
+            }
+            histogram.labels(NetUtils.getHostName()).observe(value);
+        } catch (Exception e) {
+            log.warn("Metrics error.", e);
+        }
+    }
+
     private static class QpsGauge extends Collector {
         private Gauge gauge;
         private RollingWindow rollingWindow;
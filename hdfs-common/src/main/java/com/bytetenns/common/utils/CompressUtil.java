@@ -0,0 +1,105 @@
+package com.bytetenns.common.utils;
+
+import com.bytetenns.common.enums.CompressionType;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 压缩工具类
+ */
+public class CompressUtil {
+
+    private static final LZ4Factory LZ4_FACTORY = LZ4Factory.fastestInstance();
+
+    private CompressUtil() {
+    }
+
+    /**
+     * 压缩数据
+     *
+     * @param type 压缩算法
+     * @param data 原始数据
+     * @return 压缩后的数据，解压时需要原始数据的长度
+     */
+    public static byte[] compress(CompressionType type, byte[] data) {
+        switch (type) {
+            case DEFLATE:
+                return deflate(data);
+            case LZ4:
+                return LZ4_FACTORY.fastCompressor().compress(data);
+            default:
+                return data;
+        }
+    }
+
+    /**
+     * 解压数据
+     *
+     * @param type      压缩算法
+     * @param data      压缩后的数据
+     * @param rawLength 原始数据的长度
+     * @return 原始数据
+     * @throws IOException 数据损坏
+     */
+    public static byte[] decompress(CompressionType type, byte[] data, int rawLength) throws IOException {
+        switch (type) {
+            case DEFLATE:
+                return inflate(data, rawLength);
+            case LZ4:
+                try {
+                    return LZ4_FACTORY.fastDecompressor().decompress(data, rawLength);
+                } catch (LZ4Exception e) {
+                    throw new IOException("LZ4解压失败", e);
+                }
+            default:
+                return data;
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                outputStream.write(buffer, 0, count);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data, int rawLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] ret = new byte[rawLength];
+            int offset = 0;
+            while (offset < rawLength && !inflater.finished()) {
+                int count = inflater.inflate(ret, offset, rawLength - offset);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += count;
+            }
+            if (offset != rawLength) {
+                throw new IOException("Deflate解压后的长度不正确：[expect=" + rawLength + ", actual=" + offset + "]");
+            }
+            return ret;
+        } catch (DataFormatException e) {
+            throw new IOException("Deflate解压失败", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
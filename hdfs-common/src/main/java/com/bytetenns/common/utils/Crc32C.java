@@ -0,0 +1,137 @@
+package com.bytetenns.common.utils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * <pre>
+ * CRC32C校验工具类
+ *
+ * 运行在JDK9以上时使用 java.util.zip.CRC32C（有硬件指令加速），JDK8上退化为查表实现
+ * </pre>
+ */
+public class Crc32C {
+
+    private static final MethodHandle JDK_CRC32C;
+    private static final MethodHandle UPDATE_BYTE_BUFFER;
+
+    static {
+        MethodHandle constructor = null;
+        MethodHandle updateByteBuffer = null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> clazz = Class.forName("java.util.zip.CRC32C");
+            constructor = lookup.findConstructor(clazz, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Checksum.class));
+            updateByteBuffer = lookup.findVirtual(Checksum.class, "update",
+                    MethodType.methodType(void.class, ByteBuffer.class));
+        } catch (ReflectiveOperationException e) {
+            // JDK8
+        }
+        JDK_CRC32C = constructor;
+        UPDATE_BYTE_BUFFER = updateByteBuffer;
+    }
+
+    private Crc32C() {
+    }
+
+    /**
+     * 创建一个CRC32C校验器
+     */
+    public static Checksum create() {
+        if (JDK_CRC32C != null) {
+            try {
+                return (Checksum) JDK_CRC32C.invokeExact();
+            } catch (Throwable e) {
+                // 不会发生
+            }
+        }
+        return new PureJavaCrc32C();
+    }
+
+    /**
+     * 计算数组中指定区间的CRC32C
+     */
+    public static int compute(byte[] data, int offset, int length) {
+        Checksum checksum = create();
+        checksum.update(data, offset, length);
+        return (int) checksum.getValue();
+    }
+
+    /**
+     * 计算ByteBuffer剩余数据的CRC32C，不会改变ByteBuffer的position
+     */
+    public static int compute(ByteBuffer buffer) {
+        Checksum checksum = create();
+        ByteBuffer data = buffer.duplicate();
+        if (UPDATE_BYTE_BUFFER != null && !(checksum instanceof PureJavaCrc32C)) {
+            try {
+                UPDATE_BYTE_BUFFER.invokeExact(checksum, data);
+                return (int) checksum.getValue();
+            } catch (Throwable e) {
+                // 不会发生
+            }
+        }
+        if (data.hasArray()) {
+            checksum.update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        } else {
+            ((PureJavaCrc32C) checksum).update(data);
+        }
+        return (int) checksum.getValue();
+    }
+
+    /**
+     * CRC32C的查表实现，多项式 0x82F63B78
+     */
+    static class PureJavaCrc32C implements Checksum {
+
+        private static final int[] TABLE = new int[256];
+
+        static {
+            for (int i = 0; i < 256; i++) {
+                int crc = i;
+                for (int j = 0; j < 8; j++) {
+                    crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x82F63B78 : crc >>> 1;
+                }
+                TABLE[i] = crc;
+            }
+        }
+
+        private int crc = 0xFFFFFFFF;
+
+        @Override
+        public void update(int b) {
+            crc = (crc >>> 8) ^ TABLE[(crc ^ b) & 0xFF];
+        }
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            int c = crc;
+            for (int i = off; i < off + len; i++) {
+                c = (c >>> 8) ^ TABLE[(c ^ b[i]) & 0xFF];
+            }
+            crc = c;
+        }
+
+        void update(ByteBuffer buffer) {
+            int c = crc;
+            while (buffer.hasRemaining()) {
+                c = (c >>> 8) ^ TABLE[(c ^ buffer.get()) & 0xFF];
+            }
+            crc = c;
+        }
+
+        @Override
+        public long getValue() {
+            return (~crc) & 0xFFFFFFFFL;
+        }
+
+        @Override
+        public void reset() {
+            crc = 0xFFFFFFFF;
+        }
+    }
+}
@@ -5,6 +5,8 @@ import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 
 import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.nio.ByteBuffer;
@@ -286,6 +288,46 @@ public class FileUtil {
         }
     }
 
+    /**
+     * <pre>
+     * 立即释放mmap映射的内存，不用等到GC回收MappedByteBuffer
+     *
+     * 1. Java 9及以上通过Unsafe#invokeCleaner释放，Java 8通过DirectBuffer#cleaner释放
+     * 2. 只能释放map直接返回的buffer，duplicate或者slice出来的buffer不会处理
+     * 3. 释放之后再访问这个buffer或者它的duplicate会导致JVM崩溃，调用方必须保证已经不再使用
+     * </pre>
+     *
+     * @param buffer mmap映射的buffer，不是直接内存时什么都不做
+     */
+    public static void unmap(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException e) {
+                invokeCleaner = null;
+            }
+            if (invokeCleaner != null) {
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+                return;
+            }
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception e) {
+            log.warn("释放内存映射失败，等待GC回收：{}", e.toString());
+        }
+    }
+
     public interface OnZipProgressListener {
         /**
          * 写了xx字节
@@ -1,6 +1,7 @@
 package com.bytetenns.namenode;
 
 import com.bytetenns.dfs.model.backup.NameNodeConf;
+import com.bytetenns.common.enums.CompressionType;
 import com.bytetenns.common.enums.NameNodeLaunchMode;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -51,6 +52,70 @@ public class NameNodeConfig {
      * 默认检查DataNode是否心跳超时的时间间隔
      */
     private final int DEFAULT_DATANODE_ALIVE_CHECK_INTERVAL = 30000;//50*60
+    /**
+     * 默认是否开启EditLog组提交
+     */
+    private final boolean DEFAULT_EDITLOG_GROUP_COMMIT = true;
+    /**
+     * 默认组提交一个批次的最大字节数
+     */
+    private final int DEFAULT_EDITLOG_MAX_BATCH_BYTES = 524288;//512*1024
+    /**
+     * 默认组提交一个批次的最大攒批等待时间，单位毫秒
+     */
+    private final long DEFAULT_EDITLOG_MAX_BATCH_DELAY = 0;
+    /**
+     * 默认editlog分段文件滚动的大小阈值
+     */
+    private final int DEFAULT_EDITLOG_SEGMENT_SIZE = 67108864;//64*1024*1024
+    /**
+     * 默认editlog分段文件滚动的txid数量阈值
+     */
+    private final long DEFAULT_EDITLOG_SEGMENT_TXIDS = 1000000;
+    /**
+     * 默认editlog分段文件每次预分配的大小
+     */
+    private final int DEFAULT_EDITLOG_PREALLOCATE_SIZE = 1048576;//1024*1024
+    /**
+     * 默认启动时并行解析editlog文件的线程数
+     */
+    private final int DEFAULT_EDITLOG_RECOVERY_THREADS = 2;
+    /**
+     * 默认每次刷盘是否fsync
+     */
+    private final boolean DEFAULT_EDITLOG_FORCE_SYNC = true;
+    /**
+     * 默认editlog分段文件的压缩算法
+     */
+    private final String DEFAULT_EDITLOG_COMPRESSION = "none";
+    /**
+     * 默认BackupNode拉取editlog响应的压缩算法
+     */
+    private final String DEFAULT_EDITLOG_FETCH_COMPRESSION = "none";
+    /**
+     * 默认内存中缓存最近的editlog条数
+     */
+    private final int DEFAULT_EDITLOG_TAIL_CACHE_SIZE = 65536;
+    /**
+     * 默认推送给BackupNode但还没有确认的editlog最大条数
+     */
+    private final int DEFAULT_EDITLOG_PUSH_WINDOW = 10000;
+    /**
+     * 默认editlog文件是否使用紧凑格式
+     */
+    private final boolean DEFAULT_EDITLOG_TYPED_RECORD = true;
+    /**
+     * 默认启动时是否延迟加载FsImage
+     */
+    private final boolean DEFAULT_FSIMAGE_LAZY_LOAD = true;
+    /**
+     * 默认是否使用InodeArena保存内存目录树
+     */
+    private final boolean DEFAULT_FS_DIRECTORY_ARENA = false;
+    /**
+     * 默认路径缓存的槽位数量，0表示不开启
+     */
+    private final int DEFAULT_FS_PATH_CACHE_SIZE = 0;
 
 
     private String baseDir ="/bytetenns/hdfs/namenode";//默认的文件目录
@@ -68,6 +133,22 @@ public class NameNodeConfig {
     private int nameNodeApiCoreSize=200;//namenode处理线程池相关||核心线程数量
     private int nameNodeApiMaximumPoolSize=200;//线程池最大线程数量
     private int nameNodeApiQueueSize=2000;//线程队列大小
+    private boolean editLogGroupCommit = true;//是否开启EditLog组提交，由单独的线程批量刷盘
+    private int editLogMaxBatchBytes = 524288;//组提交一个批次的最大字节数，达到后立即刷盘
+    private long editLogMaxBatchDelay = 0;//组提交一个批次的最大攒批等待时间，单位毫秒，0表示有数据就刷盘
+    private int editLogSegmentSize = 67108864;//editlog分段文件达到这个大小后滚动
+    private long editLogSegmentTxids = 1000000;//editlog分段文件包含的txid数量达到这个值后滚动
+    private int editLogPreallocateSize = 1048576;//editlog分段文件每次预分配的大小
+    private int editLogRecoveryThreads = 2;//启动时提前解析editlog文件的线程数，0表示单线程顺序回放
+    private boolean editLogForceSync = true;//每次刷盘是否fsync，关闭后依赖记录的CRC32C校验在宕机后截断写坏的尾部
+    private String editLogCompression = "none";//editlog分段文件结束之后的压缩算法：none、deflate、lz4
+    private String editLogFetchCompression = "none";//BackupNode拉取editlog响应的压缩算法：none、deflate、lz4
+    private int editLogTailCacheSize = 65536;//内存中缓存最近的editlog条数，BackupNode拉取时优先从缓存读取，0表示关闭
+    private int editLogPushWindow = 10000;//推送给BackupNode但还没有确认的editlog最大条数
+    private boolean editLogTypedRecord = true;//editlog文件是否使用紧凑格式：路径前缀压缩、数值属性用varint保存
+    private boolean fsImageLazyLoad = true;//启动时是否延迟加载FsImage中根目录下的目录，第一次访问时再解析，后台线程预热
+    private boolean fsDirectoryArena = false;//是否使用InodeArena保存内存目录树，节点保存在基本类型数组中，减少堆内存占用和GC停顿
+    private int fsPathCacheSize = 0;//热点路径缓存的槽位数量，大于0时给每个节点分配inode id并建立索引，0表示不开启
 
     public NameNodeConfig(NameNodeConf nameNodeConf) {//NameNodeConf通过protobuf生成的一个序列化文件
         this.baseDir = nameNodeConf.getValuesOrDefault("baseDir", DEFAULT_BASEDIR);
@@ -89,6 +170,37 @@ public class NameNodeConfig {
         this.nameNodeApiCoreSize = Integer.parseInt(nameNodeConf.getValuesOrThrow("nameNodeApiCoreSize"));
         this.nameNodeApiMaximumPoolSize = Integer.parseInt(nameNodeConf.getValuesOrThrow("nameNodeApiMaximumPoolSize"));
         this.nameNodeApiQueueSize = Integer.parseInt(nameNodeConf.getValuesOrThrow("nameNodeApiQueueSize"));
+        this.editLogGroupCommit = Boolean.parseBoolean(nameNodeConf.getValuesOrDefault("editLogGroupCommit",
+                DEFAULT_EDITLOG_GROUP_COMMIT + ""));
+        this.editLogMaxBatchBytes = Integer.parseInt(nameNodeConf.getValuesOrDefault("editLogMaxBatchBytes",
+                DEFAULT_EDITLOG_MAX_BATCH_BYTES + ""));
+        this.editLogMaxBatchDelay = Long.parseLong(nameNodeConf.getValuesOrDefault("editLogMaxBatchDelay",
+                DEFAULT_EDITLOG_MAX_BATCH_DELAY + ""));
+        this.editLogSegmentSize = Integer.parseInt(nameNodeConf.getValuesOrDefault("editLogSegmentSize",
+                DEFAULT_EDITLOG_SEGMENT_SIZE + ""));
+        this.editLogSegmentTxids = Long.parseLong(nameNodeConf.getValuesOrDefault("editLogSegmentTxids",
+                DEFAULT_EDITLOG_SEGMENT_TXIDS + ""));
+        this.editLogPreallocateSize = Integer.parseInt(nameNodeConf.getValuesOrDefault("editLogPreallocateSize",
+                DEFAULT_EDITLOG_PREALLOCATE_SIZE + ""));
+        this.editLogRecoveryThreads = Integer.parseInt(nameNodeConf.getValuesOrDefault("editLogRecoveryThreads",
+                DEFAULT_EDITLOG_RECOVERY_THREADS + ""));
+        this.editLogForceSync = Boolean.parseBoolean(nameNodeConf.getValuesOrDefault("editLogForceSync",
+                DEFAULT_EDITLOG_FORCE_SYNC + ""));
+        this.editLogCompression = nameNodeConf.getValuesOrDefault("editLogCompression", DEFAULT_EDITLOG_COMPRESSION);
+        this.editLogFetchCompression = nameNodeConf.getValuesOrDefault("editLogFetchCompression",
+                DEFAULT_EDITLOG_FETCH_COMPRESSION);
+        this.editLogTailCacheSize = Integer.parseInt(nameNodeConf.getValuesOrDefault("editLogTailCacheSize",
+                DEFAULT_EDITLOG_TAIL_CACHE_SIZE + ""));
+        this.editLogPushWindow = Integer.parseInt(nameNodeConf.getValuesOrDefault("editLogPushWindow",
+                DEFAULT_EDITLOG_PUSH_WINDOW + ""));
+        this.editLogTypedRecord = Boolean.parseBoolean(nameNodeConf.getValuesOrDefault("editLogTypedRecord",
+                DEFAULT_EDITLOG_TYPED_RECORD + ""));
+        this.fsImageLazyLoad = Boolean.parseBoolean(nameNodeConf.getValuesOrDefault("fsImageLazyLoad",
+                DEFAULT_FSIMAGE_LAZY_LOAD + ""));
+        this.fsDirectoryArena = Boolean.parseBoolean(nameNodeConf.getValuesOrDefault("fsDirectoryArena",
+                DEFAULT_FS_DIRECTORY_ARENA + ""));
+        this.fsPathCacheSize = Integer.parseInt(nameNodeConf.getValuesOrDefault("fsPathCacheSize",
+                DEFAULT_FS_PATH_CACHE_SIZE + ""));
     }
 
     public Map<String, String> getConfig() {
@@ -108,6 +220,22 @@ public class NameNodeConfig {
         ret.put("nameNodeApiCoreSize", nameNodeApiCoreSize + "");
         ret.put("nameNodeApiMaximumPoolSize", nameNodeApiMaximumPoolSize + "");
         ret.put("nameNodeApiQueueSize", nameNodeApiQueueSize + "");
+        ret.put("editLogGroupCommit", editLogGroupCommit + "");
+        ret.put("editLogMaxBatchBytes", editLogMaxBatchBytes + "");
+        ret.put("editLogMaxBatchDelay", editLogMaxBatchDelay + "");
+        ret.put("editLogSegmentSize", editLogSegmentSize + "");
+        ret.put("editLogSegmentTxids", editLogSegmentTxids + "");
+        ret.put("editLogPreallocateSize", editLogPreallocateSize + "");
+        ret.put("editLogRecoveryThreads", editLogRecoveryThreads + "");
+        ret.put("editLogForceSync", editLogForceSync + "");
+        ret.put("editLogCompression", editLogCompression);
+        ret.put("editLogFetchCompression", editLogFetchCompression);
+        ret.put("editLogTailCacheSize", editLogTailCacheSize + "");
+        ret.put("editLogPushWindow", editLogPushWindow + "");
+        ret.put("editLogTypedRecord", editLogTypedRecord + "");
+        ret.put("fsImageLazyLoad", fsImageLazyLoad + "");
+        ret.put("fsDirectoryArena", fsDirectoryArena + "");
+        ret.put("fsPathCacheSize", fsPathCacheSize + "");
         return ret;
     }
 
@@ -128,6 +256,22 @@ public class NameNodeConfig {
         int nameNodeApiCoreSize = Integer.parseInt((String) properties.get("namenode.api.coreSize"));
         int nameNodeApiMaximumPoolSize = Integer.parseInt((String) properties.get("namenode.api.maximumPoolSize"));
         int nameNodeApiQueueSize = Integer.parseInt((String) properties.get("namenode.api.queueSize"));
+        boolean editLogGroupCommit = Boolean.parseBoolean(properties.getProperty("editlogs.group.commit", "true"));
+        int editLogMaxBatchBytes = Integer.parseInt(properties.getProperty("editlogs.max.batch.bytes", "524288"));
+        long editLogMaxBatchDelay = Long.parseLong(properties.getProperty("editlogs.max.batch.delay", "0"));
+        int editLogSegmentSize = Integer.parseInt(properties.getProperty("editlogs.segment.size", "67108864"));
+        long editLogSegmentTxids = Long.parseLong(properties.getProperty("editlogs.segment.txids", "1000000"));
+        int editLogPreallocateSize = Integer.parseInt(properties.getProperty("editlogs.preallocate.size", "1048576"));
+        int editLogRecoveryThreads = Integer.parseInt(properties.getProperty("editlogs.recovery.threads", "2"));
+        boolean editLogForceSync = Boolean.parseBoolean(properties.getProperty("editlogs.force.sync", "true"));
+        String editLogCompression = properties.getProperty("editlogs.compression", "none");
+        String editLogFetchCompression = properties.getProperty("editlogs.fetch.compression", "none");
+        int editLogTailCacheSize = Integer.parseInt(properties.getProperty("editlogs.tail.cache.size", "65536"));
+        int editLogPushWindow = Integer.parseInt(properties.getProperty("editlogs.push.window", "10000"));
+        boolean editLogTypedRecord = Boolean.parseBoolean(properties.getProperty("editlogs.typed.record", "true"));
+        boolean fsImageLazyLoad = Boolean.parseBoolean(properties.getProperty("fsimage.lazy.load", "true"));
+        boolean fsDirectoryArena = Boolean.parseBoolean(properties.getProperty("fs.directory.arena", "false"));
+        int fsPathCacheSize = Integer.parseInt(properties.getProperty("fs.path.cache.size", "0"));
         return NameNodeConfig.builder()
                 .baseDir(baseDir)
                 .port(port)
@@ -144,6 +288,22 @@ public class NameNodeConfig {
                 .nameNodeApiCoreSize(nameNodeApiCoreSize)
                 .nameNodeApiMaximumPoolSize(nameNodeApiMaximumPoolSize)
                 .nameNodeApiQueueSize(nameNodeApiQueueSize)
+                .editLogGroupCommit(editLogGroupCommit)
+                .editLogMaxBatchBytes(editLogMaxBatchBytes)
+                .editLogMaxBatchDelay(editLogMaxBatchDelay)
+                .editLogSegmentSize(editLogSegmentSize)
+                .editLogSegmentTxids(editLogSegmentTxids)
+                .editLogPreallocateSize(editLogPreallocateSize)
+                .editLogRecoveryThreads(editLogRecoveryThreads)
+                .editLogForceSync(editLogForceSync)
+                .editLogCompression(editLogCompression)
+                .editLogFetchCompression(editLogFetchCompression)
+                .editLogTailCacheSize(editLogTailCacheSize)
+                .editLogPushWindow(editLogPushWindow)
+                .editLogTypedRecord(editLogTypedRecord)
+                .fsImageLazyLoad(fsImageLazyLoad)
+                .fsDirectoryArena(fsDirectoryArena)
+                .fsPathCacheSize(fsPathCacheSize)
                 .build();
     }
 
@@ -151,6 +311,10 @@ public class NameNodeConfig {
         return baseDir + File.separator + "editslog-" + start + "_" + end + ".log";
     }
 
+    public String getEditlogsInProgressFile(long start) {
+        return baseDir + File.separator + "editslog-" + start + "_inprogress.log";
+    }
+
     public String getFsimageFile(String time) {
         return baseDir + File.separator + "fsimage-" + time;
     }
@@ -171,6 +335,14 @@ public class NameNodeConfig {
         return NameNodeLaunchMode.getEnum(nameNodeLaunchMode);
     }
 
+    public CompressionType getEditLogCompressionType() {
+        return CompressionType.getEnum(editLogCompression);
+    }
+
+    public CompressionType getEditLogFetchCompressionType() {
+        return CompressionType.getEnum(editLogFetchCompression);
+    }
+
     public long getClearStorageThreshold() {
         return nameNodeTrashClearThreshold;
     }
@@ -16,6 +16,7 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
@@ -45,6 +46,8 @@ public class DataNodeManager {
      *        datanode01,
      *        datanode02
      *    ]
+     *
+     * 列表不能修改，在replicaLock的写锁内复制之后整体替换，查询时不加锁
      * </pre>
      */
     private final Map<String, List<DataNodeInfo>> replicaByFilename = new ConcurrentHashMap<>();
@@ -349,8 +352,8 @@ public class DataNodeManager {
             DataNodeInfo dataNode = dataNodes.get(fileInfo.getHostname());
 
             // 获取该文件对应的DataNode列表
-            List<DataNodeInfo> dataNodeInfos = replicaByFilename.computeIfAbsent(fileInfo.getFileName(),
-                    k -> new ArrayList<>());
+            List<DataNodeInfo> dataNodeInfos = replicaByFilename.getOrDefault(fileInfo.getFileName(),
+                    Collections.emptyList());
 
             // 文件目录树有可能被移动到.Trash目录下面了，所以除了正常查找一遍文件目录树之外，还要查一遍垃圾箱。
             Node node = maybeInTrash(fileInfo.getFileName());
@@ -361,8 +364,7 @@ public class DataNodeManager {
                 dataNode.addRemoveReplicaTask(task);
                 return;
             }
-            int replicaNum = Integer.parseInt(node.getAttr().getOrDefault(Constants.ATTR_REPLICA_NUM,
-                    String.valueOf(nameNodeConfig.getReplicaNum())));
+            int replicaNum = node.getReplicaNum(nameNodeConfig.getReplicaNum());
             // 如果该文件的副本数量超过配置的数量，则让该DataNode删除文件
             if (dataNodeInfos.size() >= replicaNum) {
                 RemoveReplicaTask task = new RemoveReplicaTask(dataNode.getHostname(), fileInfo.getFileName());
@@ -372,7 +374,9 @@ public class DataNodeManager {
             }
 
             // 副本数量没有超过，将文件信息维护起来
-            dataNodeInfos.add(dataNode);
+            List<DataNodeInfo> updated = new ArrayList<>(dataNodeInfos);
+            updated.add(dataNode);
+            replicaByFilename.put(fileInfo.getFileName(), Collections.unmodifiableList(updated));
             Map<String, FileInfo> files = filesByDataNode.computeIfAbsent(fileInfo.getHostname(), k -> new HashMap<>(PrettyCodes.trimMapSize()));
             files.put(fileInfo.getFileName(), fileInfo);
             if (log.isDebugEnabled()) {
@@ -416,29 +420,38 @@ public class DataNodeManager {
      * @return 可读的DataNode
      */
     public DataNodeInfo chooseReadableDataNodeByFileName(String filename, DataNodeInfo toRemoveDataNode) {
-        //保证当前datanode只有一个副本任务在读写
-        replicaLock.readLock().lock();
+        //通过文件名获取当前文件所存储在的datanode，只读取时不加锁
+        List<DataNodeInfo> dataNodeInfos = toRemoveDataNode == null ? replicaByFilename.get(filename)
+                : removeReplica(filename, toRemoveDataNode);
+        if (dataNodeInfos == null || dataNodeInfos.isEmpty()) {
+            return null;
+        }
+        //获取存储了当前文件的所有datanode，即有几个datanode存储了当前文件
+        int size = dataNodeInfos.size();
+        int i = ThreadLocalRandom.current().nextInt(size);
+        //在这几个datanode中随机返回一个datanode
+        return dataNodeInfos.get(i);
+    }
+
+    /**
+     * 从文件对应的DataNode列表中删除不可读的DataNode
+     *
+     * @return 删除之后的DataNode列表，文件不存在返回null
+     */
+    private List<DataNodeInfo> removeReplica(String filename, DataNodeInfo toRemoveDataNode) {
+        replicaLock.writeLock().lock();
         try {
-            //通过文件名获取当前文件所存储在的datanode
             List<DataNodeInfo> dataNodeInfos = replicaByFilename.get(filename);
-            if (dataNodeInfos == null) {
-                return null;
-            }
-            if (toRemoveDataNode != null) {
-                dataNodeInfos.remove(toRemoveDataNode);
+            if (dataNodeInfos == null || !dataNodeInfos.contains(toRemoveDataNode)) {
+                return dataNodeInfos;
             }
-            if (dataNodeInfos.isEmpty()) {
-                return null;
-            }
-            //获取存储了当前文件的所有datanode，即有几个datanode存储了当前文件
-            int size = dataNodeInfos.size();
-            Random random = new Random();
-            int i = random.nextInt(size);
-            //在这几个datanode中随机返回一个datanode
-            return dataNodeInfos.get(i);
+            List<DataNodeInfo> updated = new ArrayList<>(dataNodeInfos);
+            updated.remove(toRemoveDataNode);
+            dataNodeInfos = Collections.unmodifiableList(updated);
+            replicaByFilename.put(filename, dataNodeInfos);
+            return dataNodeInfos;
         } finally {
-            //释放锁
-            replicaLock.readLock().unlock();
+            replicaLock.writeLock().unlock();
         }
     }
 
@@ -449,12 +462,7 @@ public class DataNodeManager {
      * @return DataNode信息
      */
     public List<DataNodeInfo> getDataNodeByFileName(String filename) {
-        replicaLock.readLock().lock();
-        try {
-            return replicaByFilename.getOrDefault(filename, new ArrayList<>(PrettyCodes.trimListSize()));
-        } finally {
-            replicaLock.readLock().unlock();
-        }
+        return replicaByFilename.getOrDefault(filename, Collections.emptyList());
     }
 
 
@@ -0,0 +1,160 @@
+package com.bytetenns.namenode.editlog;
+
+import com.bytetenns.common.enums.CompressionType;
+import com.bytetenns.common.scheduler.NamedThreadFactory;
+import com.bytetenns.common.utils.CompressUtil;
+import com.bytetenns.common.utils.Crc32C;
+import com.bytetenns.common.utils.FileUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+
+/**
+ * <pre>
+ * 后台压缩已经结束的editlog分段文件
+ *
+ * 压缩之后的文件格式为：
+ *
+ *    magic(4字节) + 压缩算法(1字节) + 原始长度(4字节) + 原始数据的CRC32C(4字节) + 压缩后的数据
+ *
+ * 压缩文件先写到临时文件，再原子重命名覆盖原来的文件，文件名不变
+ * </pre>
+ */
+@Slf4j
+public class EditLogCompressor {
+
+    /**
+     * 压缩文件的魔数
+     */
+    public static final int MAGIC = 0x45444C5A;
+
+    private static final int HEADER_SIZE = 13;
+
+    private static final String TMP_SUFFIX = ".compressing";
+
+    private final CompressionType compressionType;
+    private final ExecutorService executor;
+
+    public EditLogCompressor(CompressionType compressionType) {
+        this.compressionType = compressionType;
+        this.executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("FsEditLog-Compress-", true));
+    }
+
+    /**
+     * 提交一个压缩任务
+     *
+     * @param info  editlog文件
+     * @param alive 压缩完成之后判断文件是否还需要保留，不需要保留说明压缩过程中文件被清理了
+     */
+    public void submit(EditslogInfo info, Predicate<EditslogInfo> alive) {
+        executor.execute(() -> {
+            try {
+                compress(info, alive);
+            } catch (Exception e) {
+                log.error("压缩editlog文件失败：[file={}]", info.getName(), e);
+            }
+        });
+    }
+
+    private void compress(EditslogInfo info, Predicate<EditslogInfo> alive) throws IOException {
+        File file = new File(info.getName());
+        if (!file.exists()) {
+            return;
+        }
+        ByteBuffer raw = FileUtil.readBuffer(info.getName());
+        if (isCompressed(raw)) {
+            return;
+        }
+        byte[] data = new byte[raw.remaining()];
+        raw.get(data);
+        ByteBuffer buffer = compress(compressionType, data);
+        if (buffer == null) {
+            return;
+        }
+        String tmpPath = info.getName() + TMP_SUFFIX;
+        FileUtil.saveFile(tmpPath, true, buffer);
+        Files.move(Paths.get(tmpPath), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        if (!alive.test(info)) {
+            FileUtil.delete(file);
+            return;
+        }
+        log.info("压缩editlog文件：[file={}, raw={}, compressed={}]", info.getName(), data.length, buffer.limit());
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 按照压缩文件的格式压缩editlog数据
+     *
+     * @param compressionType 压缩算法
+     * @param data            原始的editlog数据
+     * @return 压缩文件的内容，压缩之后没有变小返回null
+     */
+    public static ByteBuffer compress(CompressionType compressionType, byte[] data) {
+        byte[] compressed = CompressUtil.compress(compressionType, data);
+        if (compressed.length + HEADER_SIZE >= data.length) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + compressed.length);
+        buffer.putInt(MAGIC);
+        buffer.put((byte) compressionType.getValue());
+        buffer.putInt(data.length);
+        buffer.putInt(Crc32C.compute(data, 0, data.length));
+        buffer.put(compressed);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 压缩文件使用的压缩算法
+     */
+    public static CompressionType compressionType(ByteBuffer buffer) {
+        return CompressionType.getEnum(buffer.get(buffer.position() + 4));
+    }
+
+    /**
+     * 是否是压缩过的editlog文件
+     */
+    public static boolean isCompressed(ByteBuffer buffer) {
+        return buffer.remaining() >= HEADER_SIZE && buffer.getInt(buffer.position()) == MAGIC;
+    }
+
+    /**
+     * 是否是压缩过程中留下的临时文件
+     */
+    public static boolean isTmpFile(String name) {
+        return name.endsWith(TMP_SUFFIX);
+    }
+
+    /**
+     * 解压editlog文件
+     *
+     * @param buffer 压缩文件的内容
+     * @return 原始的editlog数据
+     * @throws IOException 文件损坏
+     */
+    public static ByteBuffer decompress(ByteBuffer buffer) throws IOException {
+        ByteBuffer data = buffer.duplicate();
+        data.getInt();
+        CompressionType type = CompressionType.getEnum(data.get());
+        int rawLength = data.getInt();
+        int crc = data.getInt();
+        byte[] compressed = new byte[data.remaining()];
+        data.get(compressed);
+        byte[] raw = CompressUtil.decompress(type, compressed, rawLength);
+        if (Crc32C.compute(raw, 0, raw.length) != crc) {
+            throw new IOException("editlog文件解压之后校验和不正确");
+        }
+        return ByteBuffer.wrap(raw);
+    }
+}
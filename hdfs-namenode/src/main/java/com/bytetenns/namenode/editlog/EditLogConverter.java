@@ -0,0 +1,129 @@
+package com.bytetenns.namenode.editlog;
+
+import com.bytetenns.common.enums.CompressionType;
+import com.bytetenns.common.utils.FileUtil;
+import com.bytetenns.dfs.model.backup.TypedEditLog;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * <pre>
+ * 把旧格式的editlog文件转换成紧凑格式
+ *
+ * 1. 只转换已经结束的分段文件，需要在NameNode停止的时候执行：
+ *
+ *     java com.bytetenns.namenode.editlog.EditLogConverter /bytetenns/hdfs/namenode
+ *
+ * 2. 原来是压缩文件的，转换之后使用同样的算法压缩
+ * 3. 先写临时文件，再原子重命名覆盖原来的文件，文件名不变
+ * 4. 读取到损坏记录的文件不转换
+ * 5. 参数错误或者有文件转换失败时退出码为1
+ * </pre>
+ */
+@Slf4j
+public class EditLogConverter {
+
+    private static final Pattern FINALIZED_PATTERN = Pattern.compile("editslog-\\d+_\\d+\\.log$");
+
+    private static final String TMP_SUFFIX = ".converting";
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            log.error("Usage: EditLogConverter <baseDir>");
+            System.exit(1);
+            return;
+        }
+        File[] files = new File(args[0]).listFiles();
+        if (files == null) {
+            log.error("目录不存在：{}", args[0]);
+            System.exit(1);
+            return;
+        }
+        int converted = 0;
+        int failed = 0;
+        for (File file : files) {
+            if (!FINALIZED_PATTERN.matcher(file.getName()).find()) {
+                continue;
+            }
+            try {
+                if (convert(file)) {
+                    converted++;
+                }
+            } catch (IOException e) {
+                failed++;
+                log.error("转换editlog文件失败：[file={}]", file.getAbsolutePath(), e);
+            }
+        }
+        log.info("转换editlog文件完成：[converted={}, failed={}]", converted, failed);
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 转换一个editlog文件
+     *
+     * @param file editlog文件
+     * @return 是否进行了转换，已经是紧凑格式或者文件损坏时返回false
+     * @throws IOException IO异常
+     */
+    public static boolean convert(File file) throws IOException {
+        ByteBuffer raw = FileUtil.readBuffer(file.getAbsolutePath());
+        CompressionType compressionType = CompressionType.NONE;
+        if (EditLogCompressor.isCompressed(raw)) {
+            compressionType = EditLogCompressor.compressionType(raw);
+            raw = EditLogCompressor.decompress(raw);
+        }
+        if (raw.remaining() < 4 || raw.getInt(raw.position()) == EditLogWrapper.TYPED_MAGIC) {
+            return false;
+        }
+        List<TypedEditLog> typedEditLogs = new ArrayList<>();
+        int size = 0;
+        EditLogReader reader = new EditLogReader(raw, file.getAbsolutePath());
+        String previousPath = null;
+        while (reader.hasNext()) {
+            EditLogWrapper editLog = reader.next();
+            TypedEditLog typedEditLog = TypedEditLogCodec.encode(editLog.getEditLog(), previousPath);
+            typedEditLogs.add(typedEditLog);
+            size += EditLogWrapper.HEADER_SIZE + typedEditLog.getSerializedSize();
+            previousPath = editLog.getEditLog().getPath();
+        }
+        if (reader.isCorrupted()) {
+            log.warn("editlog文件有损坏的记录，不进行转换：[file={}]", file.getAbsolutePath());
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (TypedEditLog typedEditLog : typedEditLogs) {
+            EditLogWrapper.writeRecord(buffer, EditLogWrapper.TYPED_MAGIC, typedEditLog);
+        }
+        buffer.flip();
+        if (compressionType != CompressionType.NONE) {
+            byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            ByteBuffer compressed = EditLogCompressor.compress(compressionType, data);
+            buffer = compressed != null ? compressed : ByteBuffer.wrap(data);
+        }
+        int rawSize = (int) file.length();
+        String tmpPath = file.getAbsolutePath() + TMP_SUFFIX;
+        FileUtil.saveFile(tmpPath, true, buffer);
+        Files.move(Paths.get(tmpPath), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        log.info("转换editlog文件：[file={}, before={}, after={}]", file.getAbsolutePath(), rawSize, file.length());
+        return true;
+    }
+
+    /**
+     * 是否是转换过程中留下的临时文件
+     */
+    public static boolean isTmpFile(String name) {
+        return name.endsWith(TMP_SUFFIX);
+    }
+}
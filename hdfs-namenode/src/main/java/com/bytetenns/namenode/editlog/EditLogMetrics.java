@@ -0,0 +1,83 @@
+package com.bytetenns.namenode.editlog;
+
+import com.bytetenns.common.metrics.Prometheus;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <pre>
+ * editlog写入链路的直方图指标
+ *
+ * 1. 等待调度刷盘、写入缓冲区、fsync的耗时
+ * 2. 每次刷盘的批次大小：editlog条数和字节数
+ * 3. 每次刷盘开始时还没有刷盘的txid数量：txIdSeq - syncTxid
+ * 4. 和其他指标一样名称不带单位后缀，耗时统一以毫秒为单位，写在指标的说明里
+ * </pre>
+ */
+public final class EditLogMetrics {
+
+    private static final double[] MILLIS_BUCKETS = {0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 25, 50, 100, 250, 500, 1000, 2500};
+
+    private static final double[] FINE_MILLIS_BUCKETS = {0.001, 0.002, 0.005, 0.01, 0.02, 0.05, 0.1, 0.2, 0.5, 1, 5};
+
+    private static final double[] COUNT_BUCKETS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 50000};
+
+    private static final double[] BYTES_BUCKETS = {256, 1024, 4096, 16384, 65536, 262144, 1048576, 4194304, 16777216};
+
+    private EditLogMetrics() {
+    }
+
+    /**
+     * 写入editlog之前等待其他线程调度刷盘的耗时
+     */
+    public static void waitSchedulingSync(long nanos) {
+        Prometheus.observe("namenode_editlog_wait_scheduling_sync", "NameNode写入EditLog前等待调度刷盘的耗时，单位毫秒",
+                MILLIS_BUCKETS, toMillis(nanos));
+    }
+
+    /**
+     * 组提交模式下等待所在批次刷盘完成的耗时
+     */
+    public static void groupCommitWait(long nanos) {
+        Prometheus.observe("namenode_editlog_group_commit_wait", "NameNode组提交等待刷盘完成的耗时，单位毫秒",
+                MILLIS_BUCKETS, toMillis(nanos));
+    }
+
+    /**
+     * 序列化一条editlog写入缓冲区的耗时
+     */
+    public static void bufferWrite(long nanos) {
+        Prometheus.observe("namenode_editlog_buffer_write", "NameNode写入EditLog缓冲区的耗时，单位毫秒",
+                FINE_MILLIS_BUCKETS, toMillis(nanos));
+    }
+
+    /**
+     * 分段文件fsync的耗时
+     */
+    public static void fsync(long nanos) {
+        Prometheus.observe("namenode_editlog_fsync", "NameNode EditLog分段文件fsync的耗时，单位毫秒",
+                MILLIS_BUCKETS, toMillis(nanos));
+    }
+
+    /**
+     * 一次刷盘的批次大小
+     */
+    public static void batch(long edits, int bytes) {
+        Prometheus.observe("namenode_editlog_batch_edits", "NameNode每次刷盘的EditLog条数",
+                COUNT_BUCKETS, edits);
+        Prometheus.observe("namenode_editlog_batch_bytes", "NameNode每次刷盘的EditLog字节数",
+                BYTES_BUCKETS, bytes);
+    }
+
+    /**
+     * 刷盘开始时已经分配但是还没有刷盘的txid数量
+     */
+    public static void syncLag(long lag) {
+        Prometheus.observe("namenode_editlog_sync_txid_lag", "NameNode刷盘开始时txIdSeq和syncTxid的差值",
+                COUNT_BUCKETS, lag);
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
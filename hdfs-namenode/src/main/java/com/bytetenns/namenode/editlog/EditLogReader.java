@@ -0,0 +1,285 @@
+package com.bytetenns.namenode.editlog;
+
+import com.bytetenns.common.metrics.Prometheus;
+import com.bytetenns.common.utils.Crc32C;
+import com.bytetenns.common.utils.FileUtil;
+import com.bytetenns.dfs.model.backup.EditLog;
+import com.bytetenns.dfs.model.backup.TypedEditLog;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <pre>
+ * 流式读取editlog文件
+ *
+ * 1. 通过mmap映射整个文件，每次只解析一条EditLog，不会把整个文件读到堆内存中，关闭时立即释放映射
+ * 2. 支持跳过小于等于某个txid的editlog，跳过的时候只解析txid，不会反序列化整条editlog
+ * 3. 遇到长度为0或者不完整的数据时认为文件结束
+ * 4. 带CRC32C校验的记录遇到魔数、长度、校验和不对或者无法解析的紧凑格式记录时停止，记录损坏指标，后面的数据都不会再读取
+ * 5. 兼容没有校验和的旧格式文件：文件开头不是魔数时按照 长度 + EditLog 解析
+ * 6. 压缩过的文件先整体解压到内存中再读取
+ * 7. 每条记录根据魔数区分是EditLog还是紧凑格式的TypedEditLog，紧凑格式的路径依赖上一条记录，跳过时也需要解析路径
+ * </pre>
+ */
+@Slf4j
+public class EditLogReader implements Iterator<EditLogWrapper>, Closeable {
+
+    private static final int TXID_TAG = (EditLog.TXID_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_VARINT;
+
+    private final String path;
+    private final ByteBuffer buffer;
+    private final boolean mapped;//buffer是否是自己映射的，关闭时需要释放
+    private final boolean checksummed;
+    private byte[] body = new byte[1024];
+    private EditLogWrapper next;
+    private boolean corrupted = false;
+    private boolean closed = false;
+    private boolean typed = false;//当前记录是否是紧凑格式
+    private String previousPath;//上一条紧凑格式记录的路径
+
+    public EditLogReader(String path) throws IOException {
+        this(map(path), path, true);
+    }
+
+    public EditLogReader(ByteBuffer buffer, String path) {
+        this(buffer, path, false);
+    }
+
+    private EditLogReader(ByteBuffer buffer, String path, boolean mapped) {
+        this.path = path;
+        this.buffer = buffer;
+        this.mapped = mapped && buffer instanceof MappedByteBuffer;
+        this.checksummed = buffer.remaining() < 4 || isMagic(buffer.getInt(buffer.position()));
+    }
+
+    private static ByteBuffer map(String path) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(path, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (!EditLogCompressor.isCompressed(buffer)) {
+                return buffer;
+            }
+            try {
+                // 解压之后的数据在堆内存中，压缩文件的映射马上就可以释放
+                return EditLogCompressor.decompress(buffer);
+            } finally {
+                FileUtil.unmap(buffer);
+            }
+        }
+    }
+
+    /**
+     * 跳过所有txid小于等于指定值的editlog
+     *
+     * @param txId txid
+     */
+    public void skipTo(long txId) {
+        if (next != null) {
+            if (next.getTxId() > txId) {
+                return;
+            }
+            next = null;
+        }
+        while (true) {
+            int position = buffer.position();
+            int bodyLength = nextBodyLength();
+            if (bodyLength < 0) {
+                return;
+            }
+            if (typed) {
+                EditLogWrapper editLog = parseTyped(bodyLength);
+                if (editLog != null && editLog.getTxId() > txId) {
+                    next = editLog;
+                    return;
+                }
+                continue;
+            }
+            long recordTxId = peekTxId(bodyLength);
+            if (recordTxId > txId) {
+                buffer.position(position);
+                return;
+            }
+            buffer.position(buffer.position() + bodyLength);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null) {
+            int bodyLength = nextBodyLength();
+            if (bodyLength < 0) {
+                return false;
+            }
+            if (typed) {
+                next = parseTyped(bodyLength);
+                continue;
+            }
+            if (body.length < bodyLength) {
+                body = new byte[Math.max(bodyLength, body.length * 2)];
+            }
+            buffer.get(body, 0, bodyLength);
+            try {
+                next = new EditLogWrapper(EditLog.parseFrom(CodedInputStream.newInstance(body, 0, bodyLength)));
+            } catch (IOException e) {
+                log.error("Parse EditLog failed: [file={}]", path, e);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public EditLogWrapper next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        EditLogWrapper ret = next;
+        next = null;
+        return ret;
+    }
+
+    /**
+     * 已经读取的完整editlog的结束位置
+     *
+     * @return 字节偏移量
+     */
+    public int position() {
+        return buffer.position();
+    }
+
+    /**
+     * 是否遇到了损坏的记录
+     */
+    public boolean isCorrupted() {
+        return corrupted;
+    }
+
+    /**
+     * 读取下一条editlog的长度，返回之后position指向EditLog的开头
+     *
+     * @return 长度，如果已经没有完整的editlog返回-1，此时position指向最后一条完整记录的结尾
+     */
+    private int nextBodyLength() {
+        if (corrupted || closed) {
+            return -1;
+        }
+        return checksummed ? nextChecksummedBodyLength() : nextLegacyBodyLength();
+    }
+
+    private int nextChecksummedBodyLength() {
+        int position = buffer.position();
+        int remaining = buffer.remaining();
+        if (remaining < 4 || buffer.getInt(position) == 0) {
+            //文件结尾或者分段文件预分配的空白区域
+            return -1;
+        }
+        if (remaining < EditLogWrapper.HEADER_SIZE) {
+            return corrupt(position, "记录头不完整");
+        }
+        int magic = buffer.getInt();
+        int bodyLength = buffer.getInt();
+        int crc = buffer.getInt();
+        if (!isMagic(magic)) {
+            return corrupt(position, "魔数不正确");
+        }
+        typed = magic == EditLogWrapper.TYPED_MAGIC;
+        if (bodyLength <= 0 || bodyLength > buffer.remaining()) {
+            return corrupt(position, "长度不正确");
+        }
+        ByteBuffer data = buffer.duplicate();
+        data.limit(data.position() + bodyLength);
+        if (Crc32C.compute(data) != crc) {
+            return corrupt(position, "校验和不正确");
+        }
+        return bodyLength;
+    }
+
+    private static boolean isMagic(int magic) {
+        return magic == EditLogWrapper.MAGIC || magic == EditLogWrapper.TYPED_MAGIC;
+    }
+
+    /**
+     * 解析一条紧凑格式的记录，解析之后position指向记录的结尾
+     *
+     * @return editlog，解析失败时标记为损坏并返回null，后面记录的路径依赖这条记录，不能跳过继续读取
+     */
+    private EditLogWrapper parseTyped(int bodyLength) {
+        int position = buffer.position();
+        if (body.length < bodyLength) {
+            body = new byte[Math.max(bodyLength, body.length * 2)];
+        }
+        buffer.get(body, 0, bodyLength);
+        try {
+            TypedEditLog typedEditLog = TypedEditLog.parseFrom(CodedInputStream.newInstance(body, 0, bodyLength));
+            EditLog editLog = TypedEditLogCodec.decode(typedEditLog, previousPath);
+            previousPath = editLog.getPath();
+            return new EditLogWrapper(editLog);
+        } catch (IOException | RuntimeException e) {
+            log.error("Parse TypedEditLog failed: [file={}]", path, e);
+            corrupt(position - EditLogWrapper.HEADER_SIZE, "无法解析紧凑格式的记录");
+            return null;
+        }
+    }
+
+    private int corrupt(int position, String reason) {
+        buffer.position(position);
+        corrupted = true;
+        Prometheus.incCounter("namenode_editlog_corrupted_records", "NameNode读取到的损坏的EditLog记录数量");
+        log.warn("EditLog记录损坏，停止读取：[file={}, offset={}, reason={}]", path, position, reason);
+        return -1;
+    }
+
+    private int nextLegacyBodyLength() {
+        if (buffer.remaining() < 4) {
+            return -1;
+        }
+        int position = buffer.position();
+        int bodyLength = buffer.getInt();
+        //长度为0说明到了分段文件预分配的空白区域，长度不合法说明是没有写完整的数据
+        if (bodyLength <= 0 || bodyLength > buffer.remaining()) {
+            buffer.position(position);
+            return -1;
+        }
+        return bodyLength;
+    }
+
+    /**
+     * 只解析txid，txid是第1个字段，序列化的时候总是在最前面
+     */
+    private long peekTxId(int bodyLength) {
+        int position = buffer.position();
+        try {
+            int length = Math.min(bodyLength, 11);
+            buffer.get(body, 0, length);
+            CodedInputStream inputStream = CodedInputStream.newInstance(body, 0, length);
+            return inputStream.readTag() == TXID_TAG ? inputStream.readInt64() : 0L;
+        } catch (IOException e) {
+            return 0L;
+        } finally {
+            buffer.position(position);
+        }
+    }
+
+    /**
+     * 关闭之后释放文件映射，读取出来的EditLog都已经拷贝到堆内存中，不会再引用映射的内存
+     */
+    @Override
+    public void close() {
+        next = null;
+        if (!closed) {
+            closed = true;
+            if (mapped) {
+                FileUtil.unmap(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.bytetenns.namenode.editlog;
+
+import com.bytetenns.common.utils.FileUtil;
+import com.bytetenns.namenode.NameNodeConfig;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * <pre>
+ * 正在写入的editlog分段文件
+ *
+ * 1. 每次刷盘都是在同一个文件上追加写入并fsync（可以配置关闭），文件名为：editslog-{startTxid}_inprogress.log
+ * 2. 文件按照固定大小预分配，减少追加写入时文件元数据的更新
+ * 3. 文件大小或者txid数量达到阈值之后滚动，截断预分配的部分，重命名为：editslog-{startTxid}_{endTxid}.log
+ * </pre>
+ */
+@Slf4j
+public class EditLogSegment {
+
+    /**
+     * 预分配时用来填充文件的全0缓冲
+     */
+    private static final ByteBuffer FILL = ByteBuffer.allocateDirect(64 * 1024);
+
+    private final NameNodeConfig nameNodeConfig;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private String path;
+    private volatile long startTxid = -1L;
+    private volatile long endTxid = -1L;
+    private volatile boolean finalized = false;
+
+    /**
+     * 已经写入的字节数
+     */
+    private long position = 0L;
+
+    /**
+     * 已经预分配的文件大小
+     */
+    private long preallocatedSize = 0L;
+
+    public EditLogSegment(NameNodeConfig nameNodeConfig) {
+        this.nameNodeConfig = nameNodeConfig;
+    }
+
+    /**
+     * 追加写入一批editlog，第一次写入时创建文件
+     *
+     * @param data      editlog数据
+     * @param startTxid 这批数据的起始txid
+     * @param endTxid   这批数据的结束txid
+     * @throws IOException IO异常
+     */
+    public void append(ByteBuffer data, long startTxid, long endTxid) throws IOException {
+        if (channel == null) {
+            open(startTxid);
+        }
+        int length = data.remaining();
+        preallocate(position + length);
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+        if (nameNodeConfig.isEditLogForceSync()) {
+            long start = System.nanoTime();
+            channel.force(false);
+            EditLogMetrics.fsync(System.nanoTime() - start);
+        }
+        this.endTxid = endTxid;
+    }
+
+    private void open(long startTxid) throws IOException {
+        this.startTxid = startTxid;
+        this.path = nameNodeConfig.getEditlogsInProgressFile(startTxid);
+        FileUtil.mkdirParent(path);
+        this.raf = new RandomAccessFile(path, "rw");
+        this.channel = raf.getChannel();
+        log.info("创建editslog分段文件：[file={}]", path);
+    }
+
+    /**
+     * 文件剩余的预分配空间不足时，往文件末尾填充0
+     */
+    private void preallocate(long required) throws IOException {
+        if (required <= preallocatedSize) {
+            return;
+        }
+        int preallocateSize = nameNodeConfig.getEditLogPreallocateSize();
+        long newSize = preallocatedSize;
+        while (newSize < required) {
+            newSize += preallocateSize;
+        }
+        ByteBuffer fill = FILL.duplicate();
+        long offset = preallocatedSize;
+        while (offset < newSize) {
+            fill.clear();
+            fill.limit((int) Math.min(fill.capacity(), newSize - offset));
+            offset += channel.write(fill, offset);
+        }
+        preallocatedSize = newSize;
+    }
+
+    /**
+     * 是否需要滚动到新的分段文件
+     */
+    public boolean shouldRoll() {
+        return position >= nameNodeConfig.getEditLogSegmentSize()
+                || endTxid - startTxid + 1 >= nameNodeConfig.getEditLogSegmentTxids();
+    }
+
+    /**
+     * 结束当前分段：截断预分配的空间，重命名为最终的文件名
+     *
+     * @return 分段文件信息，如果没有写入任何数据返回null
+     * @throws IOException IO异常
+     */
+    public EditslogInfo finalizeSegment() throws IOException {
+        if (channel == null) {
+            return null;
+        }
+        channel.truncate(position);
+        channel.force(true);
+        channel.close();
+        raf.close();
+        String finalPath = nameNodeConfig.getEditlogsFile(startTxid, endTxid);
+        Files.move(Paths.get(path), Paths.get(finalPath), StandardCopyOption.ATOMIC_MOVE);
+        finalized = true;
+        log.info("保存editslog文件：[file={}]", finalPath);
+        return new EditslogInfo(startTxid, endTxid, finalPath);
+    }
+
+    /**
+     * 获取正在写入的分段文件信息
+     *
+     * @return 如果还没有数据或者已经结束返回null
+     */
+    public EditslogInfo getInProgressInfo() {
+        if (finalized || endTxid < 0) {
+            return null;
+        }
+        return new EditslogInfo(startTxid, endTxid, path);
+    }
+
+    /**
+     * NameNode启动时恢复上次没有结束的分段文件：截断到最后一条完整的editlog，并重命名为最终的文件名
+     *
+     * @param nameNodeConfig 配置
+     * @param file           未结束的分段文件
+     * @param startTxid      分段的起始txid
+     * @return 分段文件信息，如果文件中没有任何editlog则删除文件并返回null
+     * @throws IOException IO异常
+     */
+    public static EditslogInfo recover(NameNodeConfig nameNodeConfig, File file, long startTxid) throws IOException {
+        long endTxid = -1L;
+        int validLength;
+        try (EditLogReader reader = new EditLogReader(file.getAbsolutePath())) {
+            while (reader.hasNext()) {
+                endTxid = reader.next().getTxId();
+            }
+            validLength = reader.position();
+        }
+        if (endTxid < 0) {
+            FileUtil.delete(file);
+            log.info("删除空的editslog分段文件：[file={}]", file.getAbsolutePath());
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            channel.truncate(validLength);
+            channel.force(true);
+        }
+        String finalPath = nameNodeConfig.getEditlogsFile(startTxid, endTxid);
+        Files.move(file.toPath(), Paths.get(finalPath), StandardCopyOption.ATOMIC_MOVE);
+        log.info("恢复editslog分段文件：[file={}]", finalPath);
+        return new EditslogInfo(startTxid, endTxid, finalPath);
+    }
+}
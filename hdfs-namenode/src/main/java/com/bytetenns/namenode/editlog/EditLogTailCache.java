@@ -0,0 +1,53 @@
+package com.bytetenns.namenode.editlog;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <pre>
+ * 最近写入的editlog的环形缓存，按照txid取模定位槽位
+ *
+ * 1. 写入方只有持有FsEditLog锁的线程，每次写入覆盖槽位里最旧的editlog
+ * 2. 读取方不加锁，读到的槽位txid不匹配说明已经被覆盖，此时需要从磁盘读取
+ * </pre>
+ */
+public class EditLogTailCache {
+
+    private final AtomicReferenceArray<EditLogWrapper> ring;
+    private final int mask;
+
+    public EditLogTailCache(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * 写入一条已经分配了txid的editlog
+     */
+    public void append(EditLogWrapper editLog) {
+        ring.lazySet((int) (editLog.getTxId() & mask), editLog);
+    }
+
+    /**
+     * 读取[fromTxId, toTxId]之间的editlog
+     *
+     * @param fromTxId 起始txid，包含
+     * @param toTxId   结束txid，包含
+     * @param result   读取结果
+     * @return 如果有任何一条editlog已经不在缓存中返回false，此时result中的数据不完整
+     */
+    public boolean read(long fromTxId, long toTxId, List<EditLogWrapper> result) {
+        if (toTxId - fromTxId + 1 > ring.length()) {
+            return false;
+        }
+        for (long txId = fromTxId; txId <= toTxId; txId++) {
+            EditLogWrapper editLog = ring.get((int) (txId & mask));
+            if (editLog == null || editLog.getTxId() != txId) {
+                return false;
+            }
+            result.add(editLog);
+        }
+        return true;
+    }
+}
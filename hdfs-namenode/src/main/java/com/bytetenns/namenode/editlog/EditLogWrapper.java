@@ -2,11 +2,15 @@ package com.bytetenns.namenode.editlog;
 
 
 import com.alibaba.fastjson.JSONObject;
-import com.bytetenns.common.utils.ByteUtil;
+import com.bytetenns.common.utils.Crc32C;
 import com.bytetenns.common.utils.PrettyCodes;
 import com.bytetenns.dfs.model.backup.EditLog;
+import com.bytetenns.dfs.model.backup.TypedEditLog;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -21,7 +25,22 @@ import java.util.Map;
   * @return
   **/
 @Slf4j
-public class EditLogWrapper {//一条editlog占4个字节
+public class EditLogWrapper {
+
+    /**
+     * 带CRC32C校验的记录格式的魔数，旧格式的记录以长度开头，不会等于这个值
+     */
+    public static final int MAGIC = 0x45444C31;
+
+    /**
+     * 紧凑格式记录的魔数，记录体是{@link TypedEditLog}
+     */
+    public static final int TYPED_MAGIC = 0x45444C32;
+
+    /**
+     * 记录头的长度：magic + 长度 + CRC32C
+     */
+    public static final int HEADER_SIZE = 12;
 
     private EditLog editLog;
 
@@ -56,12 +75,58 @@ public class EditLogWrapper {//一条editlog占4个字节
     }
 
     public byte[] toByteArray() {
-        byte[] body = editLog.toByteArray();
-        int bodyLength = body.length;
-        byte[] ret = new byte[body.length + 4];
-        ByteUtil.setInt(ret, 0, bodyLength);
-        System.arraycopy(body, 0, ret, 4, bodyLength);
-        return ret;
+        ByteBuffer buffer = ByteBuffer.allocate(getSerializedSize());
+        try {
+            writeTo(buffer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * 序列化之后占用的字节数，包括记录头
+     */
+    public int getSerializedSize() {
+        return editLog.getSerializedSize() + HEADER_SIZE;
+    }
+
+    /**
+     * <pre>
+     * 直接序列化到ByteBuffer中，不产生中间的字节数组，记录格式为：
+     *
+     *    magic(4字节) + 长度(4字节) + CRC32C(4字节) + EditLog
+     * </pre>
+     *
+     * @param buffer 剩余空间不小于{@link #getSerializedSize()}的ByteBuffer
+     * @throws IOException IO异常
+     */
+    public void writeTo(ByteBuffer buffer) throws IOException {
+        writeRecord(buffer, MAGIC, editLog);
+    }
+
+    /**
+     * 写入一条带记录头的记录
+     *
+     * @param buffer 剩余空间不小于 记录头 + 记录体 的ByteBuffer
+     * @param magic  记录的魔数
+     * @param body   记录体
+     * @throws IOException IO异常
+     */
+    public static void writeRecord(ByteBuffer buffer, int magic, MessageLite body) throws IOException {
+        int bodyLength = body.getSerializedSize();
+        int headerPosition = buffer.position();
+        buffer.putInt(magic);
+        buffer.putInt(bodyLength);
+        buffer.putInt(0);
+        int bodyPosition = buffer.position();
+        CodedOutputStream outputStream = CodedOutputStream.newInstance(buffer);
+        body.writeTo(outputStream);
+        outputStream.flush();
+        ByteBuffer data = buffer.duplicate();
+        data.position(bodyPosition);
+        data.limit(bodyPosition + bodyLength);
+        buffer.putInt(headerPosition + 8, Crc32C.compute(data));
     }
 
     public static List<EditLogWrapper> parseFrom(byte[] bytes) {
@@ -69,23 +134,14 @@ public class EditLogWrapper {//一条editlog占4个字节
         return parseFrom(byteBuffer);
     }
 
+    /**
+     * 解析ByteBuffer中的所有EditLog，遇到不完整或者校验失败的记录时停止
+     */
     public static List<EditLogWrapper> parseFrom(ByteBuffer byteBuffer) {
         List<EditLogWrapper> ret = new LinkedList<>();
-        //判断当前byteBuffer是否还有元素
-        while (byteBuffer.hasRemaining()) {
-            try {
-                //获取当前位置后面的4个字节
-                int bodyLength = byteBuffer.getInt();
-                //初始化一个字节数组
-                byte[] body = new byte[bodyLength];
-                //将byteBuffer里面的值给boby
-                byteBuffer.get(body);
-                //将boby信息反序列化，得到editLog
-                EditLog editLog = EditLog.parseFrom(body);
-                ret.add(new EditLogWrapper(editLog));
-            } catch (Exception e) {
-                log.error("Parse EditLog failed.", e);
-            }
+        EditLogReader reader = new EditLogReader(byteBuffer, "memory");
+        while (reader.hasNext()) {
+            ret.add(reader.next());
         }
         return ret;
     }
@@ -1,5 +1,8 @@
 package com.bytetenns.namenode.editlog;
 
+import com.bytetenns.common.enums.CompressionType;
+import com.bytetenns.common.scheduler.DefaultThread;
+import com.bytetenns.common.scheduler.NamedThreadFactory;
 import com.bytetenns.common.utils.FileUtil;
 import com.bytetenns.namenode.NameNodeConfig;
 import com.bytetenns.namenode.editlog.buffer.DoubleBuffer;
@@ -8,10 +11,22 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.time.StopWatch;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -27,6 +42,8 @@ public class FsEditLog {
 
     private static Pattern indexPattern = Pattern.compile("(\\d+)_(\\d+)");
 
+    private static Pattern inProgressPattern = Pattern.compile("(\\d+)_inprogress");
+
     private NameNodeConfig nameNodeConfig;
 
     /**
@@ -64,10 +81,64 @@ public class FsEditLog {
      */
     private List<EditslogInfo> editLogInfos = null;
 
+    /**
+     * 组提交模式下负责交换缓冲区并刷盘的线程
+     */
+    private DefaultThread syncThread;
+
+    /**
+     * 组提交线程是否在运行
+     */
+    private volatile boolean running = false;
+
+    /**
+     * 刷盘失败的原因，刷盘失败之后磁盘上的editlog已经不完整，之后的写入都直接失败
+     */
+    private volatile IOException syncError;
+
+    /**
+     * 当前正在追加写入的editlog分段文件
+     */
+    private volatile EditLogSegment currentSegment;
+
+    /**
+     * 保证同一时刻只有一个线程写分段文件
+     */
+    private final Object segmentLock = new Object();
+
+    /**
+     * 后台压缩已经结束的分段文件，没有开启压缩时为null
+     */
+    private EditLogCompressor compressor;
+
+    /**
+     * 最近写入的editlog的缓存，没有开启时为null
+     */
+    private EditLogTailCache tailCache;
+
+    /**
+     * 每次刷盘完成之后的回调
+     */
+    private List<Runnable> syncListeners = new CopyOnWriteArrayList<>();
+
     public FsEditLog(NameNodeConfig nameNodeConfig) {
         this.nameNodeConfig = nameNodeConfig;
         this.editLogBuffer = new DoubleBuffer(nameNodeConfig);
         this.loadEditLogInfos();
+        if (nameNodeConfig.getEditLogTailCacheSize() > 0) {
+            this.tailCache = new EditLogTailCache(nameNodeConfig.getEditLogTailCacheSize());
+        }
+        if (nameNodeConfig.getEditLogCompressionType() != CompressionType.NONE) {
+            this.compressor = new EditLogCompressor(nameNodeConfig.getEditLogCompressionType());
+            for (EditslogInfo editslogInfo : editLogInfos) {
+                compressor.submit(editslogInfo, editLogInfos::contains);
+            }
+        }
+        if (nameNodeConfig.isEditLogGroupCommit()) {
+            this.running = true;
+            this.syncThread = new DefaultThread("FsEditLog-GroupCommit", this::groupCommitLoop, true);
+            this.syncThread.start();
+        }
     }
 
 
@@ -77,21 +148,25 @@ public class FsEditLog {
      * @param editLog 内容
      */
     public void logEdit(EditLogWrapper editLog) {
+        if (running) {
+            logEditGroupCommit(editLog);
+            return;
+        }
         synchronized (this) {
+            checkSyncError();
             // 刚进来就直接检查一下是否有人正在调度一次刷盘的操作
             waitSchedulingSync();
 
             txIdSeq++;
-            // 保存txid到线程
             long txid = txIdSeq;
-            localTxId.set(txid);
 
             // 构造一条editlog写入缓冲区
             editLog.setTxId(txid);
-            try {
-                editLogBuffer.write(editLog);
-            } catch (IOException e) {
-                e.printStackTrace();
+            writeBuffer(editLog);
+            // 保存txid到线程
+            localTxId.set(txid);
+            if (tailCache != null) {
+                tailCache.append(editLog);
             }
 
             /*if (!editLogBuffer.shouldForceSync()) {
@@ -105,10 +180,143 @@ public class FsEditLog {
         logSync();
     }
 
+    /**
+     * <pre>
+     * 组提交模式写入一条editlog：
+     *
+     * 1. 持有锁的时间只包括分配txid和写入内存缓冲区，写完之后唤醒刷盘线程
+     * 2. 在锁上等待，直到刷盘线程把包含该txid的批次刷入磁盘
+     * 3. 刷盘线程每完成一个批次，会一次性唤醒所有txid小于等于syncTxid的等待者
+     * 4. 刷盘失败时syncTxid不会前进，该批次的等待者和之后的写入都会抛出异常
+     * 5. 等待过程中被中断时也抛出异常，不能把还没有刷盘的editlog当成写入成功
+     * </pre>
+     *
+     * @param editLog 内容
+     */
+    private void logEditGroupCommit(EditLogWrapper editLog) {
+        synchronized (this) {
+            checkSyncError();
+            txIdSeq++;
+            long txid = txIdSeq;
+            editLog.setTxId(txid);
+            writeBuffer(editLog);
+            if (tailCache != null) {
+                tailCache.append(editLog);
+            }
+            LockSupport.unpark(syncThread);
+            long waitStart = System.nanoTime();
+            while (txid > syncTxid) {
+                checkSyncError();
+                try {
+                    wait(1000);
+                } catch (InterruptedException e) {
+                    throw interrupted(txid);
+                }
+            }
+            EditLogMetrics.groupCommitWait(System.nanoTime() - waitStart);
+        }
+    }
+
+    /**
+     * 刷盘失败之后不能再确认任何写入，否则内存中的元数据和磁盘上的editlog会不一致
+     */
+    private void checkSyncError() {
+        if (syncError != null) {
+            throw new UncheckedIOException("EditLog刷盘失败，不再接受新的写入", syncError);
+        }
+    }
+
+    /**
+     * 等待刷盘时被中断，editlog是否已经刷盘未知，按照写入失败处理
+     */
+    private UncheckedIOException interrupted(long txid) {
+        Thread.currentThread().interrupt();
+        log.warn("等待EditLog刷盘被中断：[txid={}]", txid);
+        return new UncheckedIOException(new InterruptedIOException("等待EditLog刷盘被中断：txid=" + txid));
+    }
+
+    /**
+     * <pre>
+     * 把editlog写入当前的内存缓冲区，调用方需要持有锁
+     *
+     * 写入失败时txid已经分配出去，缓冲区中却没有这条editlog，之后的txid不再连续，
+     * 所以和刷盘失败一样停止接受新的写入
+     * </pre>
+     */
+    private void writeBuffer(EditLogWrapper editLog) {
+        long start = System.nanoTime();
+        try {
+            editLogBuffer.write(editLog);
+        } catch (IOException e) {
+            log.error("写入EditLog缓冲区失败，停止写入editlog：", e);
+            syncError = e;
+            notifyAll();
+            throw new UncheckedIOException("写入EditLog缓冲区失败", e);
+        }
+        EditLogMetrics.bufferWrite(System.nanoTime() - start);
+    }
+
+    /**
+     * 组提交刷盘线程：缓冲区有数据时开始攒批，达到批次大小或者最大等待时间后交换缓冲区并刷盘
+     */
+    private void groupCommitLoop() {
+        int maxBatchBytes = nameNodeConfig.getEditLogMaxBatchBytes();
+        long maxBatchDelayNanos = TimeUnit.MILLISECONDS.toNanos(nameNodeConfig.getEditLogMaxBatchDelay());
+        while (running) {
+            if (currentBufferSize() == 0) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+                continue;
+            }
+            long deadline = System.nanoTime() + maxBatchDelayNanos;
+            while (running && currentBufferSize() < maxBatchBytes) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+            if (running) {
+                syncBatch();
+            }
+        }
+    }
+
+    /**
+     * 交换缓冲区，把整个批次刷入磁盘，然后唤醒该批次内所有的等待者；刷盘失败时唤醒等待者抛出异常
+     */
+    private void syncBatch() {
+        long batchTxid;
+        synchronized (this) {
+            batchTxid = txIdSeq;
+            EditLogMetrics.syncLag(txIdSeq - syncTxid);
+            editLogBuffer.setReadyToSync();
+        }
+        try {
+            flushSyncBuffer();
+        } catch (IOException e) {
+            log.error("FSEditlog刷磁盘失败，停止写入editlog：", e);
+            synchronized (this) {
+                syncError = e;
+                notifyAll();
+            }
+            return;
+        }
+        synchronized (this) {
+            syncTxid = batchTxid;
+            notifyAll();
+        }
+        invokeSyncListeners();
+    }
+
+    private synchronized int currentBufferSize() {
+        return editLogBuffer.currentSize();
+    }
+
     /**
      * 等待正在调度的刷磁盘的操作
      */
     private void waitSchedulingSync() {
+        long start = System.nanoTime();
         try {
             while (isSchedulingSync) {
                 wait(1000);
@@ -118,14 +326,21 @@ public class FsEditLog {
         } catch (Exception e) {
             log.info("waitSchedulingSync has interrupted !!");
         }
+        EditLogMetrics.waitSchedulingSync(System.nanoTime() - start);
     }
 
     /**
+     * <pre>
      * 异步刷磁盘
+     *
+     * 刷盘成功之后才推进syncTxid并唤醒等待的线程，刷盘失败时等待的线程抛出异常，
+     * 拉取和推送editlog也只会读到已经刷盘的数据
+     * </pre>
      */
     private void logSync() {
+        long txId;
         synchronized (this) {
-            long txId = localTxId.get();//获取到本地线程的副本
+            txId = localTxId.get();//获取到本地线程的副本
             localTxId.remove();
             /*
              * 在这种情况下需要等待：
@@ -136,7 +351,7 @@ public class FsEditLog {
                 try {
                     wait(1000);
                 } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    throw interrupted(txId);
                 }
             }
             /*
@@ -147,13 +362,14 @@ public class FsEditLog {
             if (txId <= syncTxid) {
                 return;
             }
+            // 包含当前txid的批次刷盘失败了
+            checkSyncError();
+
+            EditLogMetrics.syncLag(txIdSeq - syncTxid);
 
             // 交换两块缓冲区
             editLogBuffer.setReadyToSync();
 
-            // 记录最大的txid  || txid=30代表，在30之前的editslog都会刷入到磁盘中去
-            syncTxid = txId;
-
             // 设置当前正在同步到磁盘的标志位
             isSchedulingSync = false;
 
@@ -164,22 +380,30 @@ public class FsEditLog {
             isSyncRunning = true;
         }
 
+        IOException error = null;
         try {
-            //flush()将数据刷回磁盘
-            EditslogInfo editslogInfo = editLogBuffer.flush();
-            if (editslogInfo != null) {
-                //将磁盘刷新的信息保存起来
-                editLogInfos.add(editslogInfo);
-            }
+            //将数据追加写入到分段文件
+            flushSyncBuffer();
         } catch (IOException e) {
-            log.info("FSEditlog刷磁盘失败：", e);
+            log.error("FSEditlog刷磁盘失败，停止写入editlog：", e);
+            error = e;
         }
 
         synchronized (this) {
+            if (error == null) {
+                // 记录最大的txid  || txid=30代表，在30之前的editslog都已经刷入到磁盘中去
+                syncTxid = txId;
+            } else {
+                syncError = error;
+            }
             // 同步完了磁盘之后，就会将标志位复位，再释放锁
             isSyncRunning = false;
             notifyAll();
         }
+        if (error != null) {
+            throw new UncheckedIOException("EditLog刷盘失败", error);
+        }
+        invokeSyncListeners();
     }
 
     /**
@@ -189,14 +413,151 @@ public class FsEditLog {
         synchronized (this) {
             try {
                 editLogBuffer.setReadyToSync();
-                EditslogInfo editslogInfo = editLogBuffer.flush();
-                if (editslogInfo != null) {
-                    editLogInfos.add(editslogInfo);
-                }
+                flushSyncBuffer();
+                syncTxid = txIdSeq;
             } catch (IOException e) {
                 log.error("强制刷新EditLog缓冲区到磁盘失败.", e);
+                syncError = e;
             }
+            notifyAll();
         }
+        invokeSyncListeners();
+    }
+
+    /**
+     * 添加刷盘完成的回调，回调在刷盘线程中执行，不能阻塞
+     *
+     * @param listener 回调
+     */
+    public void addSyncListener(Runnable listener) {
+        syncListeners.add(listener);
+    }
+
+    private void invokeSyncListeners() {
+        for (Runnable listener : syncListeners) {
+            try {
+                listener.run();
+            } catch (Exception e) {
+                log.error("Exception occur on invoke sync listener :", e);
+            }
+        }
+    }
+
+    /**
+     * 当前已经刷盘的最大txid
+     */
+    public long getSyncTxid() {
+        return syncTxid;
+    }
+
+    /**
+     * 把同步缓冲区的数据追加写入到当前的分段文件，分段文件达到阈值后滚动
+     */
+    private void flushSyncBuffer() throws IOException {
+        synchronized (segmentLock) {
+            if (currentSegment == null) {
+                currentSegment = new EditLogSegment(nameNodeConfig);
+            }
+            editLogBuffer.flush(currentSegment);
+            if (currentSegment.shouldRoll()) {
+                rollSegment();
+            }
+        }
+    }
+
+    /**
+     * 结束当前的分段文件，下次刷盘时会创建新的分段文件
+     */
+    private void rollSegment() throws IOException {
+        synchronized (segmentLock) {
+            if (currentSegment == null) {
+                return;
+            }
+            EditslogInfo editslogInfo = currentSegment.finalizeSegment();
+            if (editslogInfo != null) {
+                editLogInfos.add(editslogInfo);
+                if (compressor != null) {
+                    compressor.submit(editslogInfo, editLogInfos::contains);
+                }
+            }
+            currentSegment = null;
+        }
+    }
+
+    /**
+     * 停止组提交线程，把内存缓冲里剩余的数据刷入磁盘，并结束当前的分段文件
+     */
+    public void shutdown() {
+        if (running) {
+            running = false;
+            LockSupport.unpark(syncThread);
+            try {
+                syncThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+        try {
+            rollSegment();
+        } catch (IOException e) {
+            log.error("结束editlog分段文件失败.", e);
+        }
+        if (compressor != null) {
+            compressor.shutdown();
+        }
+    }
+
+    /**
+     * 从内存缓存中读取已经刷盘的editlog，不需要加锁
+     *
+     * @param txId     读取比txId大的editlog
+     * @param maxCount 最多读取的条数
+     * @return editlog列表，如果需要的editlog已经不在缓存中返回null
+     */
+    public List<EditLogWrapper> fetchFromTailCache(long txId, int maxCount) {
+        if (tailCache == null) {
+            return null;
+        }
+        long endTxId = Math.min(syncTxid, txId + maxCount);
+        if (endTxId <= txId) {
+            return new ArrayList<>();
+        }
+        List<EditLogWrapper> result = new ArrayList<>((int) (endTxId - txId));
+        return tailCache.read(txId + 1, endTxId, result) ? result : null;
+    }
+
+    /**
+     * 读取已经刷盘的editlog，优先从内存缓存中读取，缓存中没有时再读取磁盘文件
+     *
+     * @param txId     读取比txId大的editlog
+     * @param maxCount 最多读取的条数
+     * @return editlog列表
+     * @throws IOException IO异常
+     */
+    public List<EditLogWrapper> readSyncedEditLogs(long txId, int maxCount) throws IOException {
+        List<EditLogWrapper> cached = fetchFromTailCache(txId, maxCount);
+        if (cached != null) {
+            return cached;
+        }
+        long endTxId = Math.min(syncTxid, txId + maxCount);
+        List<EditLogWrapper> result = new ArrayList<>();
+        List<EditslogInfo> files = getSortedEditLogFiles(txId);
+        for (int i = 0; i < files.size(); i++) {
+            EditslogInfo info = files.get(i);
+            try (EditLogReader reader = openReader(info)) {
+                reader.skipTo(txId);
+                while (reader.hasNext()) {
+                    EditLogWrapper editLog = reader.next();
+                    if (editLog.getTxId() > endTxId) {
+                        return result;
+                    }
+                    result.add(editLog);
+                }
+                checkCorrupted(reader, info, i == files.size() - 1);
+            }
+        }
+        return result;
     }
 
     /**
@@ -218,36 +579,38 @@ public class FsEditLog {
      * @throws IOException IO异常
      */
     public void playbackEditLog(long txiId, PlaybackEditLogCallback callback) throws IOException {
-        //保存当前传进来的Txid
-        long currentTxSeq = txiId;
         //以当前加载editlog文件的txid值为初始自增txid
-        this.txIdSeq = currentTxSeq;
+        this.txIdSeq = txiId;
         //获取比txiId更大的EditslogInfo
         List<EditslogInfo> sortedEditLogsFiles = getSortedEditLogFiles(txiId);
+        int recoveryThreads = nameNodeConfig.getEditLogRecoveryThreads();
+        if (recoveryThreads > 0 && sortedEditLogsFiles.size() > 1) {
+            pipelinedPlayback(txiId, sortedEditLogsFiles, recoveryThreads, callback);
+        } else {
+            sequentialPlayback(sortedEditLogsFiles, callback);
+        }
+        // 回放的editlog都已经在磁盘中了
+        this.syncTxid = this.txIdSeq;
+    }
+
+    /**
+     * 单线程顺序回放：流式读取文件，每解析一条就回放一条
+     */
+    private void sequentialPlayback(List<EditslogInfo> sortedEditLogsFiles, PlaybackEditLogCallback callback)
+            throws IOException {
         StopWatch stopWatch = new StopWatch();
         //遍历获取到的所有比txid更大的EditslogInfo
-        for (EditslogInfo info : sortedEditLogsFiles) {
-            //如果当前EditslogInfo的txid小于currentTxSeq，跳过该条EditslogInfo
-            if (info.getEnd() <= currentTxSeq) {
+        for (int i = 0; i < sortedEditLogsFiles.size(); i++) {
+            EditslogInfo info = sortedEditLogsFiles.get(i);
+            //如果当前EditslogInfo的txid小于txIdSeq，跳过该条EditslogInfo
+            if (info.getEnd() <= txIdSeq) {
                 continue;
             }
-            //如果当前EditslogInfo的txid大于currentTxSeq,则该条EditslogInfo所包含的所有EditLogWrapper
-            List<EditLogWrapper> editLogWrappers = readEditLogFromFile(info.getName());
             stopWatch.start();
-            for (EditLogWrapper editLogWrapper : editLogWrappers) {
-                //获取当前editLogWrapper的txid
-                long tmpTxId = editLogWrapper.getTxId();
-                if (tmpTxId <= currentTxSeq) {
-                    continue;
-                }
-                //交换txid，保证currentTxSeq不会重复加载同一条editLogWrapper
-                currentTxSeq = tmpTxId;
-                //保证txIdSeq实时更新，不会覆盖掉别的edit log
-                this.txIdSeq = currentTxSeq;
-                if (callback != null) {
-                    //回放符合条件的txid
-                    callback.playback(editLogWrapper);
-                }
+            try (EditLogReader reader = openReader(info)) {
+                reader.skipTo(txIdSeq);
+                playback(reader, callback);
+                checkCorrupted(reader, info, i == sortedEditLogsFiles.size() - 1);
             }
             stopWatch.stop();
             log.info("回放editLog文件: [file={}, cost={} s]", info.getName(), stopWatch.getTime() / 1000.0D);
@@ -255,16 +618,167 @@ public class FsEditLog {
         }
     }
 
+    /**
+     * <pre>
+     * 流水线回放：
+     *
+     * 1. 解析线程池提前解析后面的editlog文件，最多同时有 recoveryThreads + 1 个文件处于解析中或者已解析待回放，控制内存占用
+     * 2. 当前线程按照文件顺序回放已经解析好的editlog，回放完一个文件就提交下一个文件的解析任务
+     * </pre>
+     */
+    private void pipelinedPlayback(long txiId, List<EditslogInfo> sortedEditLogsFiles, int recoveryThreads,
+                                   PlaybackEditLogCallback callback) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(recoveryThreads,
+                new NamedThreadFactory("FsEditLog-Recovery-", true));
+        try {
+            Deque<Future<DecodedEditLog>> pending = new ArrayDeque<>();
+            EditslogInfo lastFile = sortedEditLogsFiles.get(sortedEditLogsFiles.size() - 1);
+            Iterator<EditslogInfo> files = sortedEditLogsFiles.iterator();
+            while (files.hasNext() && pending.size() <= recoveryThreads) {
+                EditslogInfo info = files.next();
+                pending.add(submitDecode(executor, info, txiId, info == lastFile));
+            }
+            StopWatch stopWatch = new StopWatch();
+            while (!pending.isEmpty()) {
+                DecodedEditLog decoded = awaitDecode(pending.poll());
+                if (files.hasNext()) {
+                    EditslogInfo info = files.next();
+                    pending.add(submitDecode(executor, info, txiId, info == lastFile));
+                }
+                stopWatch.start();
+                playback(decoded.editLogs.iterator(), callback);
+                stopWatch.stop();
+                log.info("回放editLog文件: [file={}, decode={} s, apply={} s]", decoded.name,
+                        decoded.decodeCost / 1000.0D, stopWatch.getTime() / 1000.0D);
+                stopWatch.reset();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Future<DecodedEditLog> submitDecode(ExecutorService executor, EditslogInfo info, long txiId,
+                                                boolean last) {
+        return executor.submit(() -> {
+            long start = System.currentTimeMillis();
+            List<EditLogWrapper> editLogs = new ArrayList<>();
+            try (EditLogReader reader = openReader(info)) {
+                reader.skipTo(txiId);
+                while (reader.hasNext()) {
+                    editLogs.add(reader.next());
+                }
+                checkCorrupted(reader, info, last);
+            }
+            return new DecodedEditLog(info.getName(), editLogs, System.currentTimeMillis() - start);
+        });
+    }
+
+    private DecodedEditLog awaitDecode(Future<DecodedEditLog> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("回放editLog被中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("解析editLog文件失败", cause);
+        }
+    }
+
+    /**
+     * 只有最后一个分段文件允许结尾有不完整的记录，比如宕机时没有写完的数据；
+     * 前面的分段文件都已经正常结束，读到损坏的记录说明中间的editlog丢失了，不能跳过它继续回放后面的文件
+     *
+     * @param last 是否是最后一个分段文件
+     */
+    private static void checkCorrupted(EditLogReader reader, EditslogInfo info, boolean last) throws IOException {
+        if (!reader.isCorrupted()) {
+            return;
+        }
+        if (!last) {
+            throw new IOException("editLog文件已损坏：[file=" + info.getName() + ", offset=" + reader.position() + "]");
+        }
+        log.warn("最后一个editLog文件结尾不完整，忽略后面的数据：[file={}, offset={}]", info.getName(), reader.position());
+    }
+
+    /**
+     * 按顺序回放txid比txIdSeq大的editlog
+     */
+    private void playback(Iterator<EditLogWrapper> editLogs, PlaybackEditLogCallback callback) {
+        while (editLogs.hasNext()) {
+            EditLogWrapper editLogWrapper = editLogs.next();
+            //获取当前editLogWrapper的txid
+            long tmpTxId = editLogWrapper.getTxId();
+            if (tmpTxId <= txIdSeq) {
+                continue;
+            }
+            //保证txIdSeq实时更新，不会重复加载同一条editLogWrapper
+            this.txIdSeq = tmpTxId;
+            if (callback != null) {
+                //回放符合条件的txid
+                callback.playback(editLogWrapper);
+            }
+        }
+    }
+
+    /**
+     * 解析好的一个editlog文件
+     */
+    private static class DecodedEditLog {
+        private final String name;
+        private final List<EditLogWrapper> editLogs;
+        private final long decodeCost;
+
+        private DecodedEditLog(String name, List<EditLogWrapper> editLogs, long decodeCost) {
+            this.name = name;
+            this.editLogs = editLogs;
+            this.decodeCost = decodeCost;
+        }
+    }
+
     /**
      * 从文件中读取EditLog
      *
-     * @param absolutePath 绝对路径
+     * @param info editlog文件信息
      * @return EditLog
      * @throws IOException IO异常
      */
-    public List<EditLogWrapper> readEditLogFromFile(String absolutePath) throws IOException {
-        //返回一个Bytebuffer，buffer为读模式
-        return EditLogWrapper.parseFrom(FileUtil.readBuffer(absolutePath));
+    public List<EditLogWrapper> readEditLogFromFile(EditslogInfo info) throws IOException {
+        List<EditLogWrapper> ret = new ArrayList<>();
+        try (EditLogReader reader = openReader(info)) {
+            while (reader.hasNext()) {
+                ret.add(reader.next());
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * 打开getSortedEditLogFiles返回的文件。正在写入的分段文件可能在这之后刚好滚动并重命名，
+     * 打开时找不到文件就改用结束之后的文件名；rollSegment在segmentLock内重命名文件并登记文件信息，
+     * 所以拿到segmentLock之后一定能找到
+     */
+    private EditLogReader openReader(EditslogInfo info) throws IOException {
+        try {
+            return new EditLogReader(info.getName());
+        } catch (FileNotFoundException e) {
+            String finalizedName = null;
+            synchronized (segmentLock) {
+                for (EditslogInfo editslogInfo : editLogInfos) {
+                    if (editslogInfo.getStart() == info.getStart()) {
+                        finalizedName = editslogInfo.getName();
+                        break;
+                    }
+                }
+            }
+            if (finalizedName == null || finalizedName.equals(info.getName())) {
+                throw e;
+            }
+            return new EditLogReader(finalizedName);
+        }
     }
 
 
@@ -278,12 +792,16 @@ public class FsEditLog {
      *      2001_3000.log
      *
      * 如果minTxId=1500，则会返回: [1001_2000.log, 2001_3000.log]
+     *
+     * 最后一个可能是正在写入的分段文件，它随时可能滚动并重命名，读取时要通过readEditLogFromFile打开
      * </pre>
      *
      * @param minTxId 最小的txid
      * @return 排序后的文件信息
      */
     public List<EditslogInfo> getSortedEditLogFiles(long minTxId) {
+        // 先拿到正在写入的分段，避免分段刚好滚动时漏掉数据
+        EditLogSegment segment = currentSegment;
         List<EditslogInfo> result = new ArrayList<>();
         for (EditslogInfo editslogInfo : editLogInfos) {
             if (editslogInfo.getEnd() <= minTxId) {
@@ -291,6 +809,11 @@ public class FsEditLog {
             }
             result.add(editslogInfo);
         }
+        EditslogInfo inProgressInfo = segment == null ? null : segment.getInProgressInfo();
+        if (inProgressInfo != null && inProgressInfo.getEnd() > minTxId
+                && (result.isEmpty() || result.get(result.size() - 1).getStart() != inProgressInfo.getStart())) {
+            result.add(inProgressInfo);
+        }
         return result;
     }
 
@@ -311,6 +834,25 @@ public class FsEditLog {
             if (!file.getName().contains("edits")) {
                 continue;
             }
+            if (EditLogCompressor.isTmpFile(file.getName()) || EditLogConverter.isTmpFile(file.getName())) {
+                // 上次压缩或者转换到一半的临时文件
+                FileUtil.delete(file);
+                continue;
+            }
+            Matcher matcher = inProgressPattern.matcher(file.getName());
+            if (matcher.find()) {
+                // 上次没有正常结束的分段文件
+                try {
+                    EditslogInfo editslogInfo = EditLogSegment.recover(nameNodeConfig, file,
+                            Long.parseLong(matcher.group(1)));
+                    if (editslogInfo != null) {
+                        this.editLogInfos.add(editslogInfo);
+                    }
+                } catch (IOException e) {
+                    log.error("恢复editslog分段文件失败：[file={}]", file.getAbsolutePath(), e);
+                }
+                continue;
+            }
             long[] index = getIndexFromFileName(file.getName());
             this.editLogInfos.add(new EditslogInfo(index[0], index[1],
                     nameNodeConfig.getBaseDir() + File.separator + file.getName()));
@@ -0,0 +1,104 @@
+package com.bytetenns.namenode.editlog;
+
+import com.bytetenns.common.netty.Constants;
+import com.bytetenns.dfs.model.backup.EditLog;
+import com.bytetenns.dfs.model.backup.TypedEditLog;
+import com.bytetenns.namenode.fs.NumericAttrs;
+
+import java.util.Map;
+
+/**
+ * <pre>
+ * EditLog和紧凑格式TypedEditLog之间的转换
+ *
+ * 1. 路径使用前缀压缩：只保存和上一条editlog路径不同的部分，同一目录下连续的操作只需要保存文件名
+ * 2. 文件大小、副本数、删除时间这些数值属性用varint保存，不再作为字符串放在map里
+ * 3. 前缀压缩的上下文在每个刷盘批次开始时重置，所以任意一个分段文件都可以独立解析
+ * 4. 回放时仍然解码成EditLog，数值属性转回字符串之后再由Node.putAttr解析成数值，
+ *    紧凑格式只减少了文件大小和读取的字节数，不会减少回放时属性的解析
+ * </pre>
+ */
+public class TypedEditLogCodec {
+
+    private TypedEditLogCodec() {
+    }
+
+    /**
+     * 编码成紧凑格式
+     *
+     * @param editLog      editlog
+     * @param previousPath 上一条editlog的路径，没有的时候为null
+     * @return 紧凑格式的editlog
+     */
+    public static TypedEditLog encode(EditLog editLog, String previousPath) {
+        String path = editLog.getPath();
+        int sharedPrefix = sharedPrefix(previousPath, path);
+        TypedEditLog.Builder builder = TypedEditLog.newBuilder()
+                .setTxId(editLog.getTxId())
+                .setOpType(editLog.getOpType())
+                .setSharedPrefix(sharedPrefix)
+                .setPathSuffix(path.substring(sharedPrefix));
+        int numericAttrs = 0;
+        for (Map.Entry<String, String> entry : editLog.getAttrMap().entrySet()) {
+            String key = entry.getKey();
+            String value = entry.getValue();
+            if (Constants.ATTR_FILE_SIZE.equals(key) && NumericAttrs.isCanonicalLong(value)) {
+                builder.setFileSize(Long.parseLong(value));
+                numericAttrs |= NumericAttrs.FILE_SIZE;
+            } else if (Constants.ATTR_REPLICA_NUM.equals(key) && NumericAttrs.isCanonicalInt(value)) {
+                builder.setReplicaNum(Integer.parseInt(value));
+                numericAttrs |= NumericAttrs.REPLICA_NUM;
+            } else if (Constants.ATTR_FILE_DEL_TIME.equals(key) && NumericAttrs.isCanonicalLong(value)) {
+                builder.setDelTime(Long.parseLong(value));
+                numericAttrs |= NumericAttrs.DEL_TIME;
+            } else {
+                builder.putAttr(key, value);
+            }
+        }
+        return builder.setNumericAttrs(numericAttrs).build();
+    }
+
+    /**
+     * 解码成EditLog
+     *
+     * @param typedEditLog 紧凑格式的editlog
+     * @param previousPath 上一条editlog的路径，没有的时候为null
+     * @return editlog
+     */
+    public static EditLog decode(TypedEditLog typedEditLog, String previousPath) {
+        String path = typedEditLog.getSharedPrefix() == 0 ? typedEditLog.getPathSuffix()
+                : previousPath.substring(0, typedEditLog.getSharedPrefix()) + typedEditLog.getPathSuffix();
+        EditLog.Builder builder = EditLog.newBuilder()
+                .setTxId(typedEditLog.getTxId())
+                .setOpType(typedEditLog.getOpType())
+                .setPath(path)
+                .putAllAttr(typedEditLog.getAttrMap());
+        int numericAttrs = typedEditLog.getNumericAttrs();
+        if ((numericAttrs & NumericAttrs.FILE_SIZE) != 0) {
+            builder.putAttr(Constants.ATTR_FILE_SIZE, String.valueOf(typedEditLog.getFileSize()));
+        }
+        if ((numericAttrs & NumericAttrs.REPLICA_NUM) != 0) {
+            builder.putAttr(Constants.ATTR_REPLICA_NUM, String.valueOf(typedEditLog.getReplicaNum()));
+        }
+        if ((numericAttrs & NumericAttrs.DEL_TIME) != 0) {
+            builder.putAttr(Constants.ATTR_FILE_DEL_TIME, String.valueOf(typedEditLog.getDelTime()));
+        }
+        return builder.build();
+    }
+
+    private static int sharedPrefix(String previousPath, String path) {
+        if (previousPath == null) {
+            return 0;
+        }
+        int length = Math.min(previousPath.length(), path.length());
+        int i = 0;
+        while (i < length && previousPath.charAt(i) == path.charAt(i)) {
+            i++;
+        }
+        // 不拆开UTF-16代理对
+        if (i > 0 && Character.isHighSurrogate(path.charAt(i - 1))) {
+            i--;
+        }
+        return i;
+    }
+}
@@ -2,7 +2,7 @@ package com.bytetenns.namenode.editlog.buffer;
 
 import com.bytetenns.namenode.NameNodeConfig;
 import com.bytetenns.namenode.editlog.EditLogWrapper;
-import com.bytetenns.namenode.editlog.EditslogInfo;
+import com.bytetenns.namenode.editlog.EditLogSegment;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
@@ -46,13 +46,13 @@ public class DoubleBuffer {
 
     /**
      * 把缓冲区的editlog数据刷新到磁盘
+     *
+     * @param segment 当前正在写入的editlog分段文件
      */
-    public EditslogInfo flush() throws IOException {
-        EditslogInfo editslogInfo = syncBuffer.flush();
-        if (editslogInfo != null) {
+    public void flush(EditLogSegment segment) throws IOException {
+        if (syncBuffer.flush(segment)) {
             syncBuffer.clear();
         }
-        return editslogInfo;
     }
 
     /**
@@ -64,6 +64,15 @@ public class DoubleBuffer {
         return currentBuffer.size() >= nameNodeConfig.getEditLogFlushThreshold();
     }
 
+    /**
+     * 当前写入缓冲区的大小
+     *
+     * @return 字节数
+     */
+    public int currentSize() {
+        return currentBuffer.size();
+    }
+
     public List<EditLogWrapper> getCurrentEditLog() {
         return currentBuffer.getCurrentEditLog();
     }
@@ -1,13 +1,14 @@
 package com.bytetenns.namenode.editlog.buffer;
 
 
-import com.bytetenns.common.utils.FileUtil;
+import com.bytetenns.dfs.model.backup.TypedEditLog;
 import com.bytetenns.namenode.NameNodeConfig;
+import com.bytetenns.namenode.editlog.EditLogMetrics;
 import com.bytetenns.namenode.editlog.EditLogWrapper;
-import com.bytetenns.namenode.editlog.EditslogInfo;
+import com.bytetenns.namenode.editlog.EditLogSegment;
+import com.bytetenns.namenode.editlog.TypedEditLogCodec;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -25,13 +26,14 @@ import java.util.List;
 public class EditLogBuffer {
 
     private final NameNodeConfig nameNodeConfig;
-    private ByteArrayOutputStream buffer;//字节数组IO流
+    private ByteBuffer buffer;//堆外内存缓冲，刷盘之后复用
     private volatile long startTxid = -1L;
     private volatile long endTxid = 0L;
+    private String previousPath;//紧凑格式前缀压缩的上一条路径，每个批次重新开始
 
     public EditLogBuffer(NameNodeConfig nameNodeConfig) {
         this.nameNodeConfig = nameNodeConfig;
-        this.buffer = new ByteArrayOutputStream((nameNodeConfig.getEditLogFlushThreshold() * 2));
+        this.buffer = ByteBuffer.allocateDirect(nameNodeConfig.getEditLogFlushThreshold() * 2);
     }
 
     /**
@@ -45,8 +47,30 @@ public class EditLogBuffer {
             startTxid = editLog.getTxId();
         }
         endTxid = editLog.getTxId();
-        //将editLog转化为byte再写入bytebuffer中
-        buffer.write(editLog.toByteArray());
+        //将editLog直接序列化到堆外缓冲中
+        if (nameNodeConfig.isEditLogTypedRecord()) {
+            TypedEditLog typedEditLog = TypedEditLogCodec.encode(editLog.getEditLog(), previousPath);
+            ensureCapacity(EditLogWrapper.HEADER_SIZE + typedEditLog.getSerializedSize());
+            EditLogWrapper.writeRecord(buffer, EditLogWrapper.TYPED_MAGIC, typedEditLog);
+            previousPath = editLog.getEditLog().getPath();
+        } else {
+            ensureCapacity(editLog.getSerializedSize());
+            editLog.writeTo(buffer);
+        }
+    }
+
+    /**
+     * 剩余空间不够时扩容，扩容之后的缓冲会一直复用
+     */
+    private void ensureCapacity(int required) {
+        if (buffer.remaining() >= required) {
+            return;
+        }
+        int newCapacity = Math.max(buffer.capacity() * 2, buffer.position() + required);
+        ByteBuffer newBuffer = ByteBuffer.allocateDirect(newCapacity);
+        buffer.flip();
+        newBuffer.put(buffer);
+        buffer = newBuffer;
     }
 
     /**
@@ -55,41 +79,45 @@ public class EditLogBuffer {
      * @return 当前缓冲区的EditLog
      */
     public List<EditLogWrapper> getCurrentEditLog() {
-        byte[] bytes = buffer.toByteArray();
-        if (bytes.length == 0) {
+        if (buffer.position() == 0) {
             return new ArrayList<>();
         }
-        return EditLogWrapper.parseFrom(bytes);
+        ByteBuffer data = buffer.duplicate();
+        data.flip();
+        return EditLogWrapper.parseFrom(data);
     }
 
     /**
      * 清除缓冲区
      */
     public void clear() {
-        buffer.reset();
+        buffer.clear();
         startTxid = -1;
         endTxid = -1;
+        previousPath = null;
     }
 
     /**
      * 返回当前缓冲区大小
      */
     public Integer size() {
-        return buffer.size();
+        return buffer.position();
     }
 
     /**
-     * 刷磁盘
+     * 刷磁盘，追加写入到当前的editlog分段文件
+     *
+     * @param segment editlog分段文件
+     * @return 是否有数据写入
      */
-    public EditslogInfo flush() throws IOException {
-        if (buffer.size() <= 0) {
-            return null;
+    public boolean flush(EditLogSegment segment) throws IOException {
+        if (buffer.position() <= 0) {
+            return false;
         }
-        byte[] data = buffer.toByteArray();
-        ByteBuffer dataBuffer = ByteBuffer.wrap(data);
-        String path = nameNodeConfig.getEditlogsFile(startTxid, endTxid);
-        log.info("保存editslog文件：[file={}]", path);
-        FileUtil.saveFile(path, false, dataBuffer);
-        return new EditslogInfo(startTxid, endTxid, path);
+        ByteBuffer data = buffer.duplicate();
+        data.flip();
+        EditLogMetrics.batch(endTxid - startTxid + 1, data.remaining());
+        segment.append(data, startTxid, endTxid);
+        return true;
     }
 }
\ No newline at end of file
@@ -0,0 +1,152 @@
+package com.bytetenns.namenode.fs;
+
+import com.bytetenns.dfs.model.namenode.Metadata;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <pre>
+ * 内存目录树的公共操作，NameNode只依赖这里的方法，不关心目录树怎么存储
+ *
+ * 1. {@link FsDirectory}基于Node对象，使用路径锁并发修改，支持延迟加载和路径缓存
+ * 2. {@link ArenaFsDirectory}基于InodeArena，节点保存在基本类型数组中，使用一把全局锁
+ * 3. 查询返回的Node都是副本，只有unsafeListFiles可能直接返回目录树中的节点
+ * </pre>
+ */
+public abstract class AbstractFsDirectory {
+
+    /**
+     * 创建文件目录
+     *
+     * @param path 文件目录
+     * @param attr 目录的属性
+     */
+    public abstract void mkdir(String path, Map<String, String> attr);
+
+    /**
+     * 创建文件，父目录不存在时自动创建
+     *
+     * @param filename 文件名
+     * @param attr     文件的属性
+     * @return 文件已经存在时返回false
+     */
+    public abstract boolean createFile(String filename, Map<String, String> attr);
+
+    /**
+     * 删除文件或者空目录，之后逐级删除空的父目录
+     *
+     * @param filename 文件名
+     * @return 被删除的节点，不存在或者目录不为空时返回null
+     */
+    public abstract Node delete(String filename);
+
+    /**
+     * 生成目录树的快照，之后的修改都不会影响快照
+     *
+     * @return 快照的根节点，只能读取
+     */
+    public abstract Node snapshot();
+
+    /**
+     * 写入全量FsImage文件
+     *
+     * @param maxTxId 目录树对应的最大txId
+     * @param path    FsImage文件路径
+     * @return 全量FsImage的快照信息，用于后续写入增量FsImage
+     * @throws IOException IO异常
+     */
+    public abstract FsImageBase saveFsImage(long maxTxId, String path) throws IOException;
+
+    /**
+     * 写入增量FsImage文件
+     *
+     * @param maxTxId 目录树对应的最大txId
+     * @param path    FsImage文件路径
+     * @param base    全量FsImage的快照信息
+     * @throws IOException IO异常
+     */
+    public abstract void saveDeltaFsImage(long maxTxId, String path, FsImageBase base) throws IOException;
+
+    /**
+     * 根据FSImage初始化内存目录树
+     *
+     * @param fsImage FSImage
+     */
+    public abstract void applyFsImage(FsImage fsImage);
+
+    /**
+     * 查看某个目录文件
+     *
+     * @param parent 目录路径
+     * @param level  拷贝多少个孩子层级
+     * @return 目录的副本，不存在时返回null
+     */
+    public abstract Node listFiles(String parent, int level);
+
+    /**
+     * 查看某个目录文件，包含所有层级
+     *
+     * @param parent 目录路径
+     * @return 目录的副本，不存在时返回null
+     */
+    public Node listFiles(String parent) {
+        return listFiles(parent, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 查看某个目录文件，可能直接返回目录树中的节点，调用方不能修改
+     *
+     * @param parent 目录路径
+     * @return 目录节点，不存在时返回null
+     */
+    public abstract Node unsafeListFiles(String parent);
+
+    /**
+     * 查找属于某个slot的所有文件
+     *
+     * @param slot slot编号
+     * @return 文件的元数据
+     */
+    public abstract Set<Metadata> findAllFileBySlot(int slot);
+
+    /**
+     * <pre>
+     *     假设存在文件：
+     *
+     *     /aaa/bbb/c1.png
+     *     /aaa/bbb/c2.png
+     *     /bbb/ccc/c3.png
+     *
+     * 传入：/aaa，则返回：[/bbb/c1.png, /bbb/c2.png]
+     *
+     * </pre>
+     * <p>
+     * 返回文件名
+     */
+    public List<String> findAllFiles(String path) {
+        Node node = listFiles(path);
+        if (node == null) {
+            return new ArrayList<>();
+        }
+        List<String> ret = new ArrayList<>();
+        findAllFiles(node, "", ret);
+        return ret;
+    }
+
+    /**
+     * 遍历时拼接相对于起始节点的路径，不通过parent反推
+     */
+    private void findAllFiles(Node node, String fullPath, List<String> ret) {
+        if (node.isFile()) {
+            ret.add(fullPath);
+        } else {
+            for (Node child : node.getChildren().values()) {
+                findAllFiles(child, fullPath + "/" + child.getPath(), ret);
+            }
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package com.bytetenns.namenode.fs;
 
-import com.bytetenns.common.netty.Constants;
 import com.bytetenns.dfs.model.namenode.Metadata;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.time.StopWatch;
@@ -26,10 +25,14 @@ public abstract class AbstractFsNameSystem implements FsNameSystem {
     /**
      * 负责管理内存文件目录树的组件
      */
-    protected FsDirectory directory;
+    protected AbstractFsDirectory directory;
 
     public AbstractFsNameSystem() {
-        this.directory = new FsDirectory();
+        this(new FsDirectory());
+    }
+
+    public AbstractFsNameSystem(AbstractFsDirectory directory) {
+        this.directory = directory;
     }
 
     /**
@@ -79,6 +82,17 @@ public abstract class AbstractFsNameSystem implements FsNameSystem {
      * @return 最新并合法的FSImage
      */
     protected FsImage scanLatestValidFsImage(String baseDir) throws IOException {
+        return scanLatestValidFsImage(baseDir, false);
+    }
+
+    /**
+     * 扫描最新的FSImage文件：从新到旧依次尝试，文件损坏、增量FsImage缺少全量FsImage、
+     * 或者延迟加载的分段校验和不一致时，换用更早的FsImage
+     *
+     * @param lazy 是否延迟加载根目录下的目录分段
+     * @return 最新并合法的FSImage
+     */
+    protected FsImage scanLatestValidFsImage(String baseDir, boolean lazy) throws IOException {
         //扫描本地文件，把所有FsImage文件扫描出来，k-V->fsimage文件名中的数字：文件的绝对地址
         Map<Long, String> timeFsImageMap = scanFsImageMap(baseDir);
         //将Map中的key转换为List数组
@@ -93,15 +107,40 @@ public abstract class AbstractFsNameSystem implements FsNameSystem {
                  FileInputStream fis = new FileInputStream(raf.getFD());
                  FileChannel channel = fis.getChannel()) {
                 //parse()：解析FsImage文件
-                FsImage fsImage = FsImage.parse(channel, path, (int) raf.length());
-                if (fsImage != null) {
-                    return fsImage;
+                FsImage fsImage = FsImage.parse(channel, path, raf.length(), lazy);
+                if (fsImage == null
+                        || (fsImage.isDelta() && !mergeBaseFsImage(fsImage, timeFsImageMap, lazy))
+                        || !fsImage.verifyLazySections()) {
+                    log.warn("FsImage不可用，尝试更早的FsImage: [file={}]", path);
+                    continue;
                 }
+                return fsImage;
             }
         }
         return null;
     }
 
+    /**
+     * 增量FsImage合并对应的全量FsImage
+     *
+     * @return 全量FsImage不存在或者不合法时返回false
+     */
+    private boolean mergeBaseFsImage(FsImage fsImage, Map<Long, String> timeFsImageMap, boolean lazy)
+            throws IOException {
+        String basePath = FsImage.findBaseFsImage(timeFsImageMap, fsImage.getBaseTxId());
+        if (basePath == null) {
+            log.warn("增量FsImage对应的全量FsImage不存在: [maxTxId={}, baseTxId={}]",
+                    fsImage.getMaxTxId(), fsImage.getBaseTxId());
+            return false;
+        }
+        FsImage base = FsImage.parse(basePath, lazy);
+        if (base == null) {
+            return false;
+        }
+        fsImage.mergeBase(base);
+        return true;
+    }
+
     /**
      * 扫描本地文件，把所有FsImage文件扫描出来
      *
@@ -126,8 +165,8 @@ public abstract class AbstractFsNameSystem implements FsNameSystem {
             if (file.isDirectory()) {
                 continue;
             }
-            //文件名不包含fsimage则跳过
-            if (!file.getName().contains("fsimage")) {
+            //文件名不包含fsimage、或者是还没有写完的临时文件则跳过
+            if (!file.getName().contains("fsimage") || FsImageWriter.isTmpFile(file.getName())) {
                 continue;
             }
             //获取fsImage文件后面的数字
@@ -160,30 +199,15 @@ public abstract class AbstractFsNameSystem implements FsNameSystem {
         CalculateResult result = new CalculateResult();
         result.setFileCount(0);
         result.setTotalSize(0);
-        Node node = unsafeListFiles(path);
-        if (node == null) {
-            return result;
-        } else {
-            internalCalculate(node, result);
+        // 目录节点上已经汇总了子树的文件数量和大小，只需要拷贝这一个节点
+        Node node = listFiles(path, 0);
+        if (node != null) {
+            result.setFileCount((int) node.subtreeFileCount());
+            result.setTotalSize(node.subtreeSize());
         }
         return result;
     }
 
-    private void internalCalculate(Node node, CalculateResult result) {
-        if (node.isFile()) {
-            result.addFileCount();
-            String fileSizeStr = node.getAttr().getOrDefault(Constants.ATTR_FILE_SIZE, "0");
-            long fileSize = Long.parseLong(fileSizeStr);
-            result.addTotalSize(fileSize);
-        } else {
-            for (String key : node.getChildren().keySet()) {
-                Node children = node.getChildren().get(key);
-                internalCalculate(children, result);
-            }
-        }
-    }
-
-
     /**
      * 获取文件列表
      *
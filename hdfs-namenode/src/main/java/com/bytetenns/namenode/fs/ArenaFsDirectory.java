@@ -0,0 +1,293 @@
+package com.bytetenns.namenode.fs;
+
+import com.bytetenns.common.enums.NodeType;
+import com.bytetenns.common.netty.Constants;
+import com.bytetenns.common.utils.StringUtils;
+import com.bytetenns.dfs.model.namenode.Metadata;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <pre>
+ * 基于{@link InodeArena}的内存目录树，和{@link FsDirectory}一样实现{@link AbstractFsDirectory}的操作
+ *
+ * 1. 节点保存在分页的基本类型数组中，不再为每个文件创建Node、TreeMap、HashMap和String，
+ *    千万级文件时堆内存占用和GC停顿都小一个数量级
+ * 2. 查询结果仍然返回{@link Node}，只在返回时按需要的层级转换，调用方拿到的都是副本
+ * 3. 写入FsImage时在写锁内生成快照，快照只复制页表，之后逐个转换根目录下的目录并写成分段，
+ *    同一时间只有一个分段对应的Node在堆上
+ * 4. 根目录下的目录记录最后一次修改时的版本，用于写入增量FsImage
+ * 5. 不支持延迟加载，应用FsImage时会把所有分段导入到InodeArena
+ * 6. 没有{@link FsDirectory}的路径锁，InodeArena的哈希表和字节页由所有目录共享，所有修改使用一把全局写锁
+ * </pre>
+ */
+@Slf4j
+public class ArenaFsDirectory extends AbstractFsDirectory {
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+    private InodeArena arena = new InodeArena();
+    private long version = 0L;
+
+    @Override
+    public void mkdir(String path, Map<String, String> attr) {
+        lock.writeLock().lock();
+        try {
+            String[] paths = StringUtils.split(path, '/');
+            int current = InodeArena.ROOT;
+            for (int i = 0; i < paths.length; i++) {
+                current = arena.getOrCreateDirectory(current, paths[i]);
+                if (i == 0) {
+                    arena.setVersion(current, version);
+                }
+            }
+            arena.putAllAttr(current, attr);
+            arena.compactIfNecessary();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean createFile(String filename, Map<String, String> attr) {
+        lock.writeLock().lock();
+        try {
+            String[] paths = StringUtils.split(filename, '/');
+            int parent = getWritableFileParent(paths);
+            int child = arena.createFile(parent, paths[paths.length - 1]);
+            if (child == InodeArena.NIL) {
+                log.warn("文件已存在，创建失败 : {}", filename);
+                return false;
+            }
+            arena.putAllAttr(child, attr);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Node delete(String filename) {
+        lock.writeLock().lock();
+        try {
+            String[] paths = StringUtils.split(filename, '/');
+            int parent = getWritableFileParent(paths);
+            int child = arena.child(parent, paths[paths.length - 1]);
+            if (child == InodeArena.NIL) {
+                log.warn("文件不存在, 删除失败：[filename={}]", filename);
+                return null;
+            }
+            if (!arena.isFile(child) && arena.firstChild(child) != InodeArena.NIL) {
+                log.warn("文件夹存在子文件，删除失败：[filename={}]", filename);
+                return null;
+            }
+            Node removed = arena.toNode(child, 0);
+            arena.remove(child);
+            // 逐级删除空文件夹，从下往上删除
+            while (parent != InodeArena.ROOT && arena.firstChild(parent) == InodeArena.NIL) {
+                int next = arena.parent(parent);
+                arena.remove(parent);
+                parent = next;
+            }
+            arena.compactIfNecessary();
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 查找文件的父目录用于修改，目录不存在时创建，并更新路径所属的根目录下的目录的版本
+     */
+    private int getWritableFileParent(String[] paths) {
+        int current = InodeArena.ROOT;
+        for (int i = 0; i < paths.length - 1; i++) {
+            current = arena.getOrCreateDirectory(current, paths[i]);
+            if (i == 0) {
+                arena.setVersion(current, version);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 查找路径对应的节点，不会修改目录树
+     *
+     * @return 节点编号，不存在返回{@link InodeArena#NIL}
+     */
+    private int find(String path) {
+        int current = InodeArena.ROOT;
+        for (String p : StringUtils.split(path, '/')) {
+            current = arena.child(current, p);
+            if (current == InodeArena.NIL) {
+                break;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 生成目录树的完整快照，会把整棵树转换成Node，只用于实现{@link AbstractFsDirectory#snapshot()}
+     */
+    @Override
+    public Node snapshot() {
+        return takeSnapshot().arena.toNode(InodeArena.ROOT, Integer.MAX_VALUE);
+    }
+
+    private Snapshot takeSnapshot() {
+        lock.writeLock().lock();
+        try {
+            return new Snapshot(arena.snapshot(), version++);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public FsImageBase saveFsImage(long maxTxId, String path) throws IOException {
+        Snapshot snapshot = takeSnapshot();
+        Map<String, Integer> ids = new HashMap<>();
+        Set<String> directories = new HashSet<>();
+        try (FsImageWriter writer = new FsImageWriter(path, maxTxId)) {
+            for (Node directory : writer.writeRootSection(rootSection(snapshot.arena, ids))) {
+                writer.writeSection("/", snapshot.arena.toNode(ids.get(directory.getPath()), Integer.MAX_VALUE));
+                directories.add(directory.getPath());
+            }
+            writer.finish();
+        }
+        return new FsImageBase(maxTxId, snapshot.version, directories);
+    }
+
+    @Override
+    public void saveDeltaFsImage(long maxTxId, String path, FsImageBase base) throws IOException {
+        Snapshot snapshot = takeSnapshot();
+        Map<String, Integer> ids = new HashMap<>();
+        Set<String> removed = new HashSet<>(base.getDirectories());
+        try (FsImageWriter writer = new FsImageWriter(path, maxTxId)) {
+            for (Node directory : writer.writeRootSection(rootSection(snapshot.arena, ids))) {
+                removed.remove(directory.getPath());
+                int id = ids.get(directory.getPath());
+                if (snapshot.arena.version(id) > base.getVersion()
+                        || !base.getDirectories().contains(directory.getPath())) {
+                    writer.writeSection("/", snapshot.arena.toNode(id, Integer.MAX_VALUE));
+                }
+            }
+            writer.setDelta(base.getMaxTxId(), removed);
+            writer.finish();
+        }
+    }
+
+    /**
+     * 转换根目录所在的分段：根目录和根目录下的文件，根目录下的目录只转换节点本身
+     *
+     * @param view 目录树快照
+     * @param ids  根目录下的目录名称到节点编号的映射
+     */
+    private static Node rootSection(InodeArena view, Map<String, Integer> ids) {
+        Node root = view.toNode(InodeArena.ROOT, 0);
+        for (int child = view.firstChild(InodeArena.ROOT); child != InodeArena.NIL; child = view.nextSibling(child)) {
+            Node node = view.toNode(child, 0);
+            if (!node.isFile()) {
+                ids.put(node.getPath(), child);
+            }
+            root.addChildren(node);
+        }
+        return root;
+    }
+
+    /**
+     * 把FsImage导入到新的InodeArena，导入完成之后再替换，延迟加载的分段也在这里全部导入
+     */
+    @Override
+    public void applyFsImage(FsImage fsImage) {
+        long start = System.currentTimeMillis();
+        InodeArena loaded = new InodeArena();
+        Node root = fsImage.getRoot();
+        loaded.putAllAttr(InodeArena.ROOT, root.getAttr());
+        for (Node child : root.getChildren().values()) {
+            loaded.importNode(InodeArena.ROOT, child);
+        }
+        if (fsImage.getLoader() != null) {
+            fsImage.getLoader().loadAll(node -> loaded.importNode(InodeArena.ROOT, node));
+        }
+        lock.writeLock().lock();
+        try {
+            this.arena = loaded;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("FsImage导入InodeArena完成: [inodes={}, cost={} ms]", loaded.size(),
+                System.currentTimeMillis() - start);
+    }
+
+    @Override
+    public Node listFiles(String parent, int level) {
+        lock.readLock().lock();
+        try {
+            int id = find(parent);
+            return id == InodeArena.NIL ? null : arena.toNode(id, level);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 节点不在堆上，只能返回副本，只转换节点本身和直接的孩子节点，不会转换整棵子树
+     */
+    @Override
+    public Node unsafeListFiles(String parent) {
+        return listFiles(parent, 1);
+    }
+
+    /**
+     * 在读锁内遍历当前的目录树，只转换属于这个slot的文件；不生成快照，不会推进版本，
+     * 也不会让之后的修改复制被快照共享的页面
+     */
+    @Override
+    public Set<Metadata> findAllFileBySlot(int slot) {
+        lock.readLock().lock();
+        try {
+            return findAllFileBySlot(arena, slot);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static Set<Metadata> findAllFileBySlot(InodeArena view, int slot) {
+        Set<Metadata> ret = new HashSet<>();
+        Deque<Integer> idStack = new ArrayDeque<>();
+        Deque<String> pathStack = new ArrayDeque<>();
+        idStack.push(InodeArena.ROOT);
+        pathStack.push("");
+        while (!idStack.isEmpty()) {
+            int id = idStack.pop();
+            String path = pathStack.pop();
+            for (int child = view.firstChild(id); child != InodeArena.NIL; child = view.nextSibling(child)) {
+                String fullPath = path + "/" + view.name(child);
+                if (!view.isFile(child)) {
+                    idStack.push(child);
+                    pathStack.push(fullPath);
+                } else if (StringUtils.hash(fullPath, Constants.SLOTS_COUNT) == slot) {
+                    ret.add(Metadata.newBuilder()
+                            .setFileName(fullPath)
+                            .setType(NodeType.FILE.getValue())
+                            .putAllAttr(view.attrs(child))
+                            .build());
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static class Snapshot {
+        private final InodeArena arena;
+        private final long version;
+
+        private Snapshot(InodeArena arena, long version) {
+            this.arena = arena;
+            this.version = version;
+        }
+    }
+}
@@ -29,7 +29,8 @@ public class DiskNameSystem  extends AbstractFsNameSystem{
 
     public DiskNameSystem(NameNodeConfig nameNodeConfig, DefaultScheduler defaultScheduler,
                           DataNodeManager dataNodeManager) {
-        super();
+        super(nameNodeConfig.isFsDirectoryArena() ? new ArenaFsDirectory()
+                : new FsDirectory(nameNodeConfig.getFsPathCacheSize()));
         this.nameNodeConfig = nameNodeConfig;
         this.editLog = new FsEditLog(nameNodeConfig);
         dataNodeManager.setDiskNameSystem(this);
@@ -47,7 +48,7 @@ public class DiskNameSystem  extends AbstractFsNameSystem{
     public void recoveryNamespace() throws Exception {
         try {
             //扫描最新的FSImage文件
-            FsImage fsImage = scanLatestValidFsImage(nameNodeConfig.getBaseDir());
+            FsImage fsImage = scanLatestValidFsImage(nameNodeConfig.getBaseDir(), nameNodeConfig.isFsImageLazyLoad());
             long txId = 0L;
             if (fsImage != null) {
                 //存在fsImage文件，获取
@@ -138,7 +139,7 @@ public class DiskNameSystem  extends AbstractFsNameSystem{
      */
     public void shutdown() {
         log.info("Shutdown DiskNameSystem.");
-        this.editLog.flush();
+        this.editLog.shutdown();
     }
 
     /**
@@ -1,13 +1,15 @@
 package com.bytetenns.namenode.fs;
 
-import com.bytetenns.dfs.model.backup.INode;
 import com.bytetenns.common.enums.NodeType;
 import com.bytetenns.common.netty.Constants;
+import com.bytetenns.common.scheduler.NamedThreadFactory;
 import com.bytetenns.common.utils.StringUtils;
 import com.bytetenns.dfs.model.namenode.Metadata;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
@@ -19,12 +21,71 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
    * @return
    **/
 @Slf4j
-public class FsDirectory {
-    private Node root;
+public class FsDirectory extends AbstractFsDirectory {
+
+    /**
+     * 路径锁的分段数量
+     */
+    private static final int PATH_LOCK_STRIPES = 4096;
+
+    private volatile Node root;
+
+    /**
+     * <pre>
+     * 目录树的锁分为两级，只有修改操作需要加锁：
+     *
+     * 1. lock相当于根目录的锁，mkdir、createFile、delete都只加读锁，生成快照、加载FsImage、修改根目录属性时加写锁
+     * 2. pathLocks锁住路径上的各级目录：经过的目录加读锁，修改属性或者可能被删除的目录加写锁，
+     *    不同用户的目录互不相交，上传文件时可以并发修改目录树；
+     *    路径按哈希映射到固定数量的分段上，不相关的路径落到同一个分段时也会互相等待
+     * 3. 同一个目录下的孩子节点由Node内部加锁，同一个目录下并发创建文件也不会互相覆盖
+     * 4. 查询不加任何锁：root和孩子节点的map都通过volatile发布，属性map写时复制，
+     *    查询读到的是执行过程中某一时刻的目录，不会等待正在进行的修改
+     * </pre>
+     */
     private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+    private final PathLocks pathLocks = new PathLocks(PATH_LOCK_STRIPES);
+
+    /**
+     * <pre>
+     * 目录树当前的版本，用于写时复制：
+     *
+     * 1. 生成快照时只需要在写锁内拿到当前的root并把版本号加1
+     * 2. 修改节点之前，如果节点的版本比当前版本小，说明节点属于某个快照，先复制一份再修改，
+     *    从root到该节点路径上的节点都会被复制，快照中的节点永远不会再被修改
+     * </pre>
+     */
+    private long version = 0L;
+
+    /**
+     * 延迟加载模式下还没有加载的目录分段，每次访问路径之前都要先确保路径所属的分段已经挂载
+     */
+    private volatile LazyFsImageLoader loader;
+
+    /**
+     * 路径缓存的槽位数量，0表示不开启
+     */
+    private final int pathCacheSize;
+
+    /**
+     * 路径解析缓存和inode索引，不开启时为null，加载FsImage时整个替换
+     */
+    private volatile PathCache pathCache;
 
     public FsDirectory() {
+        this(0);
+    }
+
+    /**
+     * @param pathCacheSize 路径缓存的槽位数量，大于0时给每个节点分配inode id，并缓存热点路径
+     */
+    public FsDirectory(int pathCacheSize) {
         this.root = new Node("/", NodeType.DIRECTORY.getValue());
+        this.pathCacheSize = pathCacheSize;
+        if (pathCacheSize > 0) {
+            this.pathCache = new PathCache(pathCacheSize);
+            this.pathCache.register(root);
+        }
     }
 
     /**
@@ -32,24 +93,28 @@ public class FsDirectory {
      *
      * @param path 文件目录
      */
+    @Override
     public void mkdir(String path, Map<String, String> attr) {
-        try {
-            //获取写锁
-            lock.writeLock().lock();
-            //将路径划转换为String[]数组
-            String[] paths = StringUtils.split(path, '/');
-            Node current = root;
+        ensureLoaded(path);
+        //将路径划转换为String[]数组
+        String[] paths = StringUtils.split(path, '/');
+        // 修改根目录的属性需要锁住整棵树，其他目录只锁住自己，路径上的目录加读锁
+        Lock rootLock = paths.length == 0 ? lock.writeLock() : lock.readLock();
+        rootLock.lock();
+        try (PathLocks.Held ignored = pathLocks.lock(paths, paths.length, paths.length)) {
+            Node current = writableRoot();
             for (String p : paths) {
-                if ("".equals(p)) {
-                    continue;
-                }
-                current = findDirectory(current, p);
+                current = register(current.getOrCreateDirectory(p, version));
             }
-            //给当前节点设置属性信息
+            //给当前节点设置属性信息，路径已经是文件时文件大小可能变化
+            long size = current.subtreeSize();
             current.putAllAttr(attr);
+            if (current.isFile() && current.getParent() != null) {
+                current.getParent().updateAggregates(0L, current.getFileSize() - size);
+            }
         } finally {
             //解锁
-            lock.writeLock().unlock();
+            rootLock.unlock();
         }
     }
 
@@ -59,39 +124,60 @@ public class FsDirectory {
      * @param filename 文件名
      * @return 是否创建成功
      */
+    @Override
     public boolean createFile(String filename, Map<String, String> attr) {
-        try {
-            //获取写锁
-            lock.writeLock().lock();
-            //将文件名划分
-            String[] paths = StringUtils.split(filename, '/');
+        ensureLoaded(filename);
+        //将文件名划分
+        String[] paths = StringUtils.split(filename, '/');
+        lock.readLock().lock();
+        // 父目录下同名文件的检查和添加由Node保证原子性，路径上的目录都只加读锁
+        try (PathLocks.Held ignored = pathLocks.lock(paths, paths.length - 1, paths.length)) {
             //paths数组的最后一个元素代表文件名
             String fileNode = paths[paths.length - 1];
-            Node fileParentNode = getFileParent(paths);
-            Node childrenNode = fileParentNode.getChildren(fileNode);
-            if (childrenNode != null) {
+            Node fileParentNode = getWritableFileParent(paths);
+            Node child = new Node(fileNode, NodeType.FILE.getValue());//FILE文件节点类型
+            child.setVersion(version);
+            child.putAllAttr(attr);
+            if (!fileParentNode.addChildrenIfAbsent(child)) {
                 log.warn("文件已存在，创建失败 : {}", filename);
                 return false;
             }
-            Node child = new Node(fileNode, NodeType.FILE.getValue());//FILE文件节点类型
-            child.putAllAttr(attr);
-            fileParentNode.addChildren(child);
+            register(child);
+            fileParentNode.updateAggregates(1L, child.getFileSize());
             return true;
         } finally {
-            //释放写锁
-            lock.writeLock().unlock();
+            //释放读锁
+            lock.readLock().unlock();
         }
     }
 
+    /**
+     * 查找文件的父目录，目录不存在返回null，不会修改目录树
+     */
     private Node getFileParent(String[] paths) {
         Node current = root;
         //因为没有遍历了数组的的最后一个元素，最后一个元素的值代表文件名
+        for (int i = 0; i < paths.length - 1 && current != null; i++) {
+            String p = paths[i];
+            if ("".equals(p)) {
+                continue;
+            }
+            current = current.getChildren(p);
+        }
+        return current;
+    }
+
+    /**
+     * 查找文件的父目录用于修改，目录不存在时创建，路径上的节点都会复制成当前版本
+     */
+    private Node getWritableFileParent(String[] paths) {
+        Node current = writableRoot();
         for (int i = 0; i < paths.length - 1; i++) {
             String p = paths[i];
             if ("".equals(p)) {
                 continue;
             }
-            current = findDirectory(current, p);
+            current = register(current.getOrCreateDirectory(p, version));
         }
         return current;
     }
@@ -101,13 +187,15 @@ public class FsDirectory {
      *
      * @param filename 文件名
      */
+    @Override
     public Node delete(String filename) {
-        //获取写锁
-        lock.writeLock().lock();
-        try {
-            String[] paths = StringUtils.split(filename, '/');
+        ensureLoaded(filename);
+        String[] paths = StringUtils.split(filename, '/');
+        lock.readLock().lock();
+        // 删除之后会逐级删除空文件夹，路径上除了根目录的目录都可能被删除，全部加写锁
+        try (PathLocks.Held ignored = pathLocks.lock(paths, paths.length, 1)) {
             String name = paths[paths.length - 1];
-            Node current = getFileParent(paths);
+            Node current = getWritableFileParent(paths);
             Node childrenNode;
             //如果文件名为null
             if ("".equals(name)) {
@@ -115,7 +203,10 @@ public class FsDirectory {
                 childrenNode = current;
             } else {
                 //如果文件名不为空，就定位到该文件
-                childrenNode = current.getChildren(name);
+                childrenNode = current.getWritableChildren(name, version);
+                if (childrenNode != null) {
+                    register(childrenNode);
+                }
             }
             if (childrenNode == null) {
                 log.warn("文件不存在, 删除失败：[filename={}]", filename);
@@ -128,30 +219,79 @@ public class FsDirectory {
                 }
             }
             //删除父节点中保存的要删除节点的信息
-            Node remove = current.getChildren().remove(name);
+            Node remove = current.removeChildren(name);
+            current.updateAggregates(-remove.subtreeFileCount(), -remove.subtreeSize());
+            unregister(filename, remove);
 
             // 删除空文件夹
             Node parent = remove.getParent();
             Node child = remove;
+            // child对应路径中的前depth级，缓存中的路径按depth拼接，不从parent反推
+            int depth = paths.length;
             //逐级删除文件，从下往上删除
             while (parent != null) {
                 if (child.getChildren().isEmpty()) {
+                    if (child != remove) {
+                        unregister(fullPath(paths, depth), child);
+                    }
                     //将要删除节点中保存的父节点的信息置为null
                     child.setParent(null);
                     //将父节点的保存的孩子节点的信息删除
-                    parent.getChildren().remove(child.getPath());
+                    parent.removeChildren(child.getPath());
                 }
                 child = parent;
                 parent = parent.getParent();
+                depth--;
             }
             return Node.deepCopy(remove, Integer.MAX_VALUE);
         } finally {
             //释放锁
-            lock.writeLock().unlock();
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 拼接路径中前length级的全路径
+     */
+    private static String fullPath(String[] paths, int length) {
+        StringBuilder fullPath = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            fullPath.append('/').append(paths[i]);
+        }
+        return fullPath.toString();
+    }
+
+    /**
+     * 获取当前版本的root，root属于某个快照时先复制，多个线程同时修改时只复制一次
+     */
+    private synchronized Node writableRoot() {
+        if (root.getVersion() != version) {
+            root = register(root.copyForWrite(version));
+        }
+        return root;
+    }
+
+    /**
+     * 把当前版本的节点登记到inode索引中，没有开启路径缓存时什么都不做
+     *
+     * @return 传入的节点
+     */
+    private Node register(Node node) {
+        PathCache cache = pathCache;
+        if (cache != null) {
+            cache.register(node);
         }
+        return node;
     }
 
-    private Node findDirectory(Node current, String p) {
+    private void unregister(String path, Node node) {
+        PathCache cache = pathCache;
+        if (cache != null) {
+            cache.unregister(path, node);
+        }
+    }
+
+    private static Node findDirectory(Node current, String p) {
         Node childrenNode = current.getChildren(p);
         if (childrenNode == null) {
             //如果当前节点的孩子节点不存在孩子节点，将给节点的类型设置为文件夹
@@ -164,17 +304,75 @@ public class FsDirectory {
     }
 
     /**
-     * 根据内存目录树生成FsImage
+     * 生成目录树的快照，只在写锁内交换版本号，之后的修改都不会影响快照
      *
-     * @return FsImage
+     * @return 快照的根节点，只能读取
      */
-    public FsImage getFsImage() {
+    @Override
+    public Node snapshot() {
+        return takeSnapshot().root;
+    }
+
+    private Snapshot takeSnapshot() {
+        ensureLoaded("/");
+        lock.writeLock().lock();
         try {
-            lock.readLock().lock();
-            INode iNode = Node.toINode(root);
-            return new FsImage(0L, iNode);
+            return new Snapshot(root, version++);
         } finally {
-            lock.readLock().unlock();
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 基于目录树的快照流式写入FsImage文件，写入过程中不会阻塞其他修改操作
+     *
+     * @param maxTxId 目录树对应的最大txId
+     * @param path    FsImage文件路径
+     * @return 全量FsImage的快照信息，用于后续写入增量FsImage
+     * @throws IOException IO异常
+     */
+    @Override
+    public FsImageBase saveFsImage(long maxTxId, String path) throws IOException {
+        Snapshot snapshot = takeSnapshot();
+        Set<String> directories = new HashSet<>();
+        try (FsImageWriter writer = new FsImageWriter(path, maxTxId)) {
+            for (Node directory : writer.writeRootSection(snapshot.root)) {
+                writer.writeSection("/", directory);
+                directories.add(directory.getPath());
+            }
+            writer.finish();
+        }
+        return new FsImageBase(maxTxId, snapshot.version, directories);
+    }
+
+    /**
+     * <pre>
+     * 基于目录树的快照写入增量FsImage文件：
+     *
+     * 1. 根目录所在的分段每次都写入
+     * 2. 根目录下的目录，只有在全量FsImage之后新建或者有修改的才写入
+     * 3. 全量FsImage中有、当前已经不存在的目录，记录在分段索引中，加载时不再从全量FsImage中合并
+     * </pre>
+     *
+     * @param maxTxId 目录树对应的最大txId
+     * @param path    FsImage文件路径
+     * @param base    全量FsImage的快照信息
+     * @throws IOException IO异常
+     */
+    @Override
+    public void saveDeltaFsImage(long maxTxId, String path, FsImageBase base) throws IOException {
+        Snapshot snapshot = takeSnapshot();
+        Set<String> removed = new HashSet<>(base.getDirectories());
+        try (FsImageWriter writer = new FsImageWriter(path, maxTxId)) {
+            for (Node directory : writer.writeRootSection(snapshot.root)) {
+                removed.remove(directory.getPath());
+                if (directory.getVersion() > base.getVersion()
+                        || !base.getDirectories().contains(directory.getPath())) {
+                    writer.writeSection("/", directory);
+                }
+            }
+            writer.setDelta(base.getMaxTxId(), removed);
+            writer.finish();
         }
     }
 
@@ -183,37 +381,101 @@ public class FsDirectory {
      *
      * @param fsImage FSImage
      */
+    @Override
     public void applyFsImage(FsImage fsImage) {
+        // 延迟加载的分段在挂载时再计算
+        Node.computeAggregates(fsImage.getRoot());
+        // 新的目录树还没有发布，在锁外建立inode索引
+        PathCache cache = null;
+        if (pathCacheSize > 0) {
+            cache = new PathCache(pathCacheSize);
+            cache.registerAll(fsImage.getRoot());
+        }
         try {
             //获取写锁
             lock.writeLock().lock();
-            //构造文件目录树，调用parseINode解析INode文件，转换为Node
-            this.root = Node.parseINode(fsImage.getINode(), "");
+            //FsImage解析时已经构造好了文件目录树
+            this.root = fsImage.getRoot();
+            this.loader = fsImage.getLoader();
+            this.pathCache = cache;
         } finally {
             //不管有没有调用成功，都要解锁
             lock.writeLock().unlock();
         }
+        if (loader != null) {
+            LazyFsImageLoader warmUpLoader = loader;
+            new NamedThreadFactory("FsImage-WarmUp-", true).newThread(() -> warmUp(warmUpLoader)).start();
+        }
     }
 
     /**
-     * 查看某个目录文件
+     * 后台预热还没有加载的目录分段，全部加载完成之后不再需要检查
+     */
+    private void warmUp(LazyFsImageLoader warmUpLoader) {
+        long start = System.currentTimeMillis();
+        try {
+            warmUpLoader.loadAll(node -> attachSection(warmUpLoader, node));
+            if (loader == warmUpLoader) {
+                loader = null;
+            }
+            log.info("FsImage预热完成: [cost={} ms]", System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("FsImage预热失败：", e);
+        }
+    }
+
+    /**
+     * 确保路径所属的目录分段已经加载，根目录需要加载所有分段
      *
-     * @param parent 目录路径
-     * @return 文件路径
+     * @param path 文件路径
      */
-    public Node listFiles(String parent, int level) {
-        return Node.deepCopy(unsafeListFiles(parent), level);
+    private void ensureLoaded(String path) {
+        LazyFsImageLoader current = loader;
+        if (current == null) {
+            return;
+        }
+        for (String p : StringUtils.split(path, '/')) {
+            if (!"".equals(p)) {
+                current.load(p, node -> attachSection(current, node));
+                return;
+            }
+        }
+        current.loadAll(node -> attachSection(current, node));
     }
 
+    private void attachSection(LazyFsImageLoader owner, Node node) {
+        Node.computeAggregates(node);
+        PathCache cache = pathCache;
+        if (cache != null) {
+            cache.registerAll(node);
+        }
+        lock.writeLock().lock();
+        try {
+            // 加载过程中重新应用了FsImage，丢弃旧的分段
+            if (loader != owner) {
+                return;
+            }
+            Node current = writableRoot();
+            current.addChildren(node);
+            current.updateAggregates(node.subtreeFileCount(), node.subtreeSize());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 
     /**
-     * 查看某个目录文件
+     * 把加载出来的子树挂载到父目录下
      *
-     * @param parent 目录路径
-     * @return 文件路径
+     * @param root   目录树的根节点
+     * @param parent 父目录的全路径
+     * @param node   子树的根节点
      */
-    public Node listFiles(String parent) {
-        return listFiles(parent, Integer.MAX_VALUE);
+    static void attach(Node root, String parent, Node node) {
+        Node current = root;
+        for (String p : StringUtils.split(parent, '/')) {
+            current = findDirectory(current, p);
+        }
+        current.addChildren(node);
     }
 
     /**
@@ -222,66 +484,54 @@ public class FsDirectory {
      * @param parent 目录路径
      * @return 文件路径
      */
-    public Node unsafeListFiles(String parent) {
-        if (root.getPath().equals(parent)) {
-            return root;
-        }
-        lock.readLock().lock();
-        try {
-            String[] paths = StringUtils.split(parent, '/');
-            String name = paths[paths.length - 1];
-            Node current = getFileParent(paths);
-            return current.getChildren(name);
-        } finally {
-            lock.readLock().unlock();
-        }
+    @Override
+    public Node listFiles(String parent, int level) {
+        return Node.deepCopy(unsafeListFiles(parent), level);
     }
 
+
     /**
-     * <pre>
-     *     假设存在文件：
-     *
-     *     /aaa/bbb/c1.png
-     *     /aaa/bbb/c2.png
-     *     /bbb/ccc/c3.png
-     *
-     * 传入：/aaa，则返回：[/bbb/c1.png, /bbb/c2.png]
+     * 查看某个目录文件
      *
-     * </pre>
-     * <p>
-     * 返回文件名
+     * @param parent 目录路径
+     * @return 文件路径
      */
-    public List<String> findAllFiles(String path) {
-        Node node = listFiles(path);
-        if (node == null) {
-            return new ArrayList<>();
-        }
-        return findAllFiles(node);
-    }
-
-    private List<String> findAllFiles(Node node) {
-        List<String> ret = new ArrayList<>();
-        if (node.isFile()) {
-            ret.add(node.getFullPath());
-        } else {
-            for (String key : node.getChildren().keySet()) {
-                Node child = node.getChildren().get(key);
-                ret.addAll(findAllFiles(child));
+    @Override
+    public Node unsafeListFiles(String parent) {
+        ensureLoaded(parent);
+        PathCache cache = pathCache;
+        if (cache != null) {
+            Node cached = cache.get(parent);
+            if (cached != null) {
+                return cached;
             }
         }
-        return ret;
+        String[] paths = StringUtils.split(parent, '/');
+        if (paths.length == 0) {
+            return root;
+        }
+        // 不加锁，被删除的节点仍然是完整的，调用方最多读到删除之前的数据
+        Node current = getFileParent(paths);
+        Node node = current == null ? null : current.getChildren(paths[paths.length - 1]);
+        if (cache != null && node != null) {
+            cache.put(parent, node);
+        }
+        return node;
     }
 
-
+    @Override
     public Set<Metadata> findAllFileBySlot(int slot) {
-        return findAllFilesFilterBySlot(root, slot);
+        // 和listFiles一样不加锁遍历当前的目录树，其他线程可以同时修改，不需要生成快照
+        ensureLoaded("/");
+        return findAllFilesFilterBySlot(root, "", slot);
     }
 
-
-    public Set<Metadata> findAllFilesFilterBySlot(Node node, int slot) {
+    /**
+     * 遍历时拼接全路径，不加锁遍历或者遍历快照时，节点的parent可能指向之后复制出来的节点，不能用来计算全路径
+     */
+    private Set<Metadata> findAllFilesFilterBySlot(Node node, String fullPath, int slot) {
         Set<Metadata> ret = new HashSet<>();
         if (node.isFile()) {
-            String fullPath = node.getFullPath();
             int slotIndex = StringUtils.hash(fullPath, Constants.SLOTS_COUNT);
             if (slotIndex == slot) {
                 ret.add(Metadata.newBuilder()
@@ -291,11 +541,20 @@ public class FsDirectory {
                         .build());
             }
         } else {
-            for (String key : node.getChildren().keySet()) {
-                Node child = node.getChildren().get(key);
-                ret.addAll(findAllFilesFilterBySlot(child, slot));
+            for (Node child : node.getChildren().values()) {
+                ret.addAll(findAllFilesFilterBySlot(child, fullPath + "/" + child.getPath(), slot));
             }
         }
         return ret;
     }
+
+    private static class Snapshot {
+        private final Node root;
+        private final long version;
+
+        private Snapshot(Node root, long version) {
+            this.root = root;
+            this.version = version;
+        }
+    }
 }
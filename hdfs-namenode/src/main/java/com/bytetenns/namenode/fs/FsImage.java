@@ -1,32 +1,69 @@
 package com.bytetenns.namenode.fs;
 
+import com.bytetenns.common.metrics.Prometheus;
+import com.bytetenns.dfs.model.backup.FsImageSection;
 import com.bytetenns.dfs.model.backup.INode;
-import com.bytetenns.common.utils.ByteUtil;
 import com.bytetenns.common.utils.FileUtil;
 import com.google.protobuf.InvalidProtocolBufferException;
-import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.time.StopWatch;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
   * @Author lcb
   * @Description  代表fsimage文件
+  *
+  *  新写入的文件都是分段格式，见{@link FsImageWriter}，根目录下的每个目录分段在ForkJoinPool上并发加载。
+  *  增量FsImage只包含有修改的目录分段，需要和baseTxId对应的全量FsImage合并之后才是完整的目录树。
+  *  延迟加载模式下，根目录下的目录分段只做mmap映射，第一次访问时再解析，见{@link LazyFsImageLoader}。
+  *  读取时兼容旧格式：
+  *
+  *    4位整个文件的长度 + 8位maxId + 整棵目录树的INode
   * @Date 2022/8/10
   * @Param
   * @return
   **/
 @Slf4j
 @Data
-@AllArgsConstructor
 @NoArgsConstructor
 public class FsImage {
 
+    /**
+     * 分段格式的魔数：FSI2
+     */
+    public static final int MAGIC = 0x46534932;
+
+    /**
+     * 分段格式的文件头：magic + maxTxId
+     */
+    public static final int HEADER_SIZE = 12;
+
+    /**
+     * 分段格式的文件尾：分段索引的长度 + magic
+     */
+    public static final int FOOTER_SIZE = 8;
+
+    private static final double[] SECTION_LOAD_BUCKETS = {1, 5, 10, 50, 100, 500, 1000, 5000, 10000, 60000};
+
+    /**
+     * 并发加载目录分段的线程池，所有FsImage共用，空闲的线程会自动退出
+     */
+    private static final ForkJoinPool SECTION_LOADER = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
     private static final int LENGTH_OF_FILE_LENGTH_FIELD = 4;
     private static final int LENGTH_OF_MAX_TX_ID_FIELD = 8;
 
@@ -36,26 +73,97 @@ public class FsImage {
     private long maxTxId;
 
     /**
-     * 内容
+     * 目录树的根节点
+     */
+    private Node root;
+
+    /**
+     * 增量FsImage基于的全量FsImage的maxTxId，全量FsImage为0
+     */
+    private long baseTxId;
+
+    /**
+     * 增量FsImage中相对于全量FsImage被删除的根目录下的目录
      */
-    private INode iNode;
+    private List<String> removed = new ArrayList<>();
 
     /**
-     * 4位整个文件的长度 + 8位maxId + 文件内容
+     * 延迟加载模式下还没有加载的目录分段，全部加载完成或者非延迟加载时为null
+     */
+    private LazyFsImageLoader loader;
+
+    public FsImage(long maxTxId, Node root) {
+        this.maxTxId = maxTxId;
+        this.root = root;
+    }
+
+    /**
+     * 是否是增量FsImage
+     */
+    public boolean isDelta() {
+        return baseTxId > 0;
+    }
+
+    /**
+     * 校验延迟加载的目录分段，非延迟加载的分段在解析时已经校验过
      *
-     * @return 二进制数组
+     * @return 所有分段都完好时返回true
      */
-    public byte[] toByteArray() {
-        byte[] body = iNode.toByteArray();
-        // 文件长度包括 4位文件长度 + 8位txId + 内容长度
-        int fileLength = LENGTH_OF_FILE_LENGTH_FIELD + LENGTH_OF_MAX_TX_ID_FIELD + body.length;
-        byte[] ret = new byte[fileLength];
-        ByteUtil.setInt(ret, 0, fileLength);
-        ByteUtil.setLong(ret, LENGTH_OF_FILE_LENGTH_FIELD, maxTxId);
-        System.arraycopy(body, 0, ret, LENGTH_OF_FILE_LENGTH_FIELD + LENGTH_OF_MAX_TX_ID_FIELD, body.length);
-        return ret;
+    public boolean verifyLazySections() {
+        return loader == null || loader.verify();
     }
 
+    /**
+     * 把全量FsImage中没有修改的目录合并进增量FsImage，合并之后是完整的目录树
+     *
+     * @param base baseTxId对应的全量FsImage
+     */
+    public void mergeBase(FsImage base) {
+        for (Node directory : base.getRoot().getChildren().values()) {
+            if (directory.isFile() || !shouldMerge(directory.getPath())) {
+                continue;
+            }
+            root.addChildren(directory);
+        }
+        if (base.getLoader() != null) {
+            for (String name : base.getLoader().names()) {
+                if (!shouldMerge(name)) {
+                    continue;
+                }
+                if (loader == null) {
+                    loader = new LazyFsImageLoader();
+                }
+                loader.add(base.getLoader(), name);
+            }
+        }
+        log.info("合并增量FsImage: [maxTxId={}, baseTxId={}, removed={}]", maxTxId, baseTxId, removed.size());
+        baseTxId = 0;
+        removed = new ArrayList<>();
+    }
+
+    /**
+     * 全量FsImage中的目录在增量FsImage中没有被删除、也没有重新写入时才需要合并
+     */
+    private boolean shouldMerge(String name) {
+        return !removed.contains(name) && root.getChildren(name) == null
+                && (loader == null || !loader.contains(name));
+    }
+
+    /**
+     * 解析FsImage文件
+     *
+     * @param path 文件绝对路径
+     * @param lazy 是否延迟加载根目录下的目录分段
+     * @return 如果合法返回 FsImage，不合法返回null
+     * @throws IOException IO异常，文件不存在
+     */
+    public static FsImage parse(String path, boolean lazy) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(path, "r");
+             FileInputStream fis = new FileInputStream(raf.getFD());
+             FileChannel channel = fis.getChannel()) {
+            return parse(channel, path, raf.length(), lazy);
+        }
+    }
 
     /**
      * 解析FsImage文件
@@ -66,16 +174,119 @@ public class FsImage {
      * @return 如果合法返回 FsImage，不合法返回null
      * @throws IOException IO异常，文件不存在
      */
-    public static FsImage parse(FileChannel channel, String path, int length) throws IOException {
+    public static FsImage parse(FileChannel channel, String path, long length) throws IOException {
+        return parse(channel, path, length, false);
+    }
+
+    /**
+     * 解析FsImage文件
+     *
+     * @param channel 文件channel
+     * @param path    文件绝对路径
+     * @param length  文件长度
+     * @param lazy    是否延迟加载根目录下的目录分段，只对分段格式生效
+     * @return 如果合法返回 FsImage，不合法返回null
+     * @throws IOException IO异常，文件不存在
+     */
+    public static FsImage parse(FileChannel channel, String path, long length, boolean lazy) throws IOException {
+        //StopWatch：计时器
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+        FsImage fsImage = FsImageReader.isSectioned(channel, length) ? parseSectioned(channel, path, length, lazy)
+                : parseLegacy(channel, path, length);
+        stopWatch.stop();
+        if (fsImage != null) {
+            log.info("加载FSImage: [file={}, size={}, maxTxId={}, baseTxId={}, cost={} s]",
+                    path, FileUtil.formatSize(length),
+                    fsImage.getMaxTxId(), fsImage.getBaseTxId(), stopWatch.getTime() / 1000.0D);
+        }
+        return fsImage;
+    }
+
+    private static FsImage parseSectioned(FileChannel channel, String path, long length, boolean lazy)
+            throws IOException {
+        FsImageReader reader = FsImageReader.open(channel, path, length);
+        if (reader == null) {
+            return null;
+        }
+        List<FsImageSection> sections = reader.getSections();
+        List<ForkJoinTask<Node>> tasks = new ArrayList<>(sections.size() - 1);
+        boolean success = false;
+        try {
+            Node root = reader.readSection(sections.get(0));
+            LazyFsImageLoader loader = new LazyFsImageLoader();
+            // 根目录下的每个目录分段并发构建，全部完成之后再挂载到根目录下；延迟加载时只做mmap映射
+            List<FsImageSection> eagerSections = new ArrayList<>(sections.size() - 1);
+            for (int i = 1; i < sections.size(); i++) {
+                FsImageSection section = sections.get(i);
+                ByteBuffer buffer = lazy && isLazySection(section) ? reader.mapSection(section) : null;
+                if (buffer != null) {
+                    loader.add(path, section, buffer, reader.isChecksummed());
+                    continue;
+                }
+                eagerSections.add(section);
+                tasks.add(SECTION_LOADER.submit(() -> loadSection(reader, section, path)));
+            }
+            for (int i = 0; i < eagerSections.size(); i++) {
+                FsDirectory.attach(root, eagerSections.get(i).getParent(), tasks.get(i).get());
+            }
+            FsImage fsImage = new FsImage(reader.getMaxTxId(), root);
+            if (!loader.isEmpty()) {
+                fsImage.setLoader(loader);
+            }
+            fsImage.setBaseTxId(reader.getBaseTxId());
+            fsImage.setRemoved(new ArrayList<>(reader.getRemoved()));
+            success = true;
+            return fsImage;
+        } catch (IOException | ExecutionException e) {
+            log.error("Parse FsImage failed: [file={}]", path, e);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Parse FsImage interrupted: [file={}]", path);
+            return null;
+        } finally {
+            if (!success) {
+                // 线程池是共用的，解析失败时取消这个文件还没有完成的分段
+                for (ForkJoinTask<Node> task : tasks) {
+                    task.cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * 只有直接挂载在根目录下、记录了目录名称的分段可以延迟加载
+     */
+    private static boolean isLazySection(FsImageSection section) {
+        return "/".equals(section.getParent()) && !section.getPath().isEmpty();
+    }
+
+    /**
+     * 加载一个分段，记录每个分段的加载耗时
+     */
+    private static Node loadSection(FsImageReader reader, FsImageSection section, String path) throws IOException {
+        long start = System.nanoTime();
+        Node node = reader.readSection(section);
+        double cost = (System.nanoTime() - start) / 1000000.0D;
+        Prometheus.observe("namenode_fsimage_section_load", "NameNode加载FsImage每个分段的耗时，单位毫秒",
+                SECTION_LOAD_BUCKETS, cost);
+        log.debug("加载FsImage分段: [file={}, section={}/{}, inodes={}, cost={} ms]",
+                path, section.getParent(), node.getPath(), section.getInodes(), cost);
+        return node;
+    }
+
+    /**
+     * 解析旧格式：4位整个文件的长度 + 8位maxId + 整棵目录树的INode
+     */
+    private static FsImage parseLegacy(FileChannel channel, String path, long length) throws IOException {
         //allocate()：分配新的字节缓冲区
         ByteBuffer buffer = ByteBuffer.allocate(LENGTH_OF_FILE_LENGTH_FIELD + LENGTH_OF_MAX_TX_ID_FIELD);
         //read():将此通道中的字节序列读取到给定的缓冲区中
         channel.read(buffer);
         //flip():翻转此缓冲区。限制设置为当前位置，然后位置设置为零。如果定义了标记，则它是已丢弃。
         buffer.flip();
-        //remaining():Returns the number of elements between the current position and the limit.
-        //todo 为什么这里要限制为4
-        if (buffer.remaining() < 4) {
+        if (buffer.remaining() < LENGTH_OF_FILE_LENGTH_FIELD + LENGTH_OF_MAX_TX_ID_FIELD) {
             log.warn("FsImage文件不完整: [file={}]", path);
             return null;
         }
@@ -83,41 +294,27 @@ public class FsImage {
         if (fileLength != length) {
             log.warn("FsImage文件不完整: [file={}]", path);
             return null;
-        } else {
-            //StopWatch：计时器
-            StopWatch stopWatch = new StopWatch();
-            //开启计时器
-            stopWatch.start();
-            long maxTxId = buffer.getLong();
-            //todo 为什么要减去LENGTH_OF_FILE_LENGTH_FIELD || LENGTH_OF_MAX_TX_ID_FIELD;
-            int bodyLength = fileLength - LENGTH_OF_FILE_LENGTH_FIELD - LENGTH_OF_MAX_TX_ID_FIELD;
-            buffer = ByteBuffer.allocate(bodyLength);
-            channel.read(buffer);
-            buffer.flip();
-            byte[] body = new byte[bodyLength];
-            //此方法将字节从此缓冲区传输到给定的目标数组
-            buffer.get(body);
-            INode iNode;
-            try {
-                iNode = INode.parseFrom(body);//protobuf解析
-            } catch (InvalidProtocolBufferException e) {
-                log.error("Parse EditLog failed.", e);
-                return null;
-            }
-
-            FsImage fsImage = new FsImage(maxTxId, iNode);
-            stopWatch.stop();
-            log.info("加载FSImage: [file={}, size={}, maxTxId={}, cost={} s]",
-                    path, FileUtil.formatSize(length),
-                    fsImage.getMaxTxId(), stopWatch.getTime() / 1000.0D);
-            stopWatch.reset();
-            return fsImage;
         }
+        long maxTxId = buffer.getLong();
+        int bodyLength = fileLength - LENGTH_OF_FILE_LENGTH_FIELD - LENGTH_OF_MAX_TX_ID_FIELD;
+        buffer = ByteBuffer.allocate(bodyLength);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // 读满整个body
+        }
+        buffer.flip();
+        INode iNode;
+        try {
+            iNode = INode.parseFrom(buffer);//protobuf解析
+        } catch (InvalidProtocolBufferException e) {
+            log.error("Parse FsImage failed.", e);
+            return null;
+        }
+        return new FsImage(maxTxId, Node.parseINode(iNode, ""));
     }
 
 
     /**
-     * 校验FSImage是否合法
+     * 校验FSImage是否合法，只检查文件头和分段索引，不读取分段内容
      *
      * @param channel File Channel
      * @param path    文件路径
@@ -125,11 +322,15 @@ public class FsImage {
      * @return 如果合法返回MaxTxId, 如果不合法返回-1
      * @throws IOException 文件不存在
      */
-    public static long validate(FileChannel channel, String path, int length) throws IOException {
+    public static long validate(FileChannel channel, String path, long length) throws IOException {
+        if (FsImageReader.isSectioned(channel, length)) {
+            FsImageReader reader = FsImageReader.open(channel, path, length);
+            return reader == null ? -1 : reader.getMaxTxId();
+        }
         ByteBuffer buffer = ByteBuffer.allocate(12);
         channel.read(buffer);
         buffer.flip();
-        if (buffer.remaining() < LENGTH_OF_FILE_LENGTH_FIELD) {
+        if (buffer.remaining() < LENGTH_OF_FILE_LENGTH_FIELD + LENGTH_OF_MAX_TX_ID_FIELD) {
             log.warn("FsImage文件不完整: [file={}]", path);
             return -1;
         }
@@ -142,4 +343,81 @@ public class FsImage {
         }
     }
 
+    /**
+     * 完整校验FSImage：在{@link #validate(FileChannel, String, long)}的基础上流式计算每个分段的CRC32C，
+     * 删除旧的FsImage之前用来确认新的FsImage可以正常加载
+     *
+     * @param channel File Channel
+     * @param path    文件路径
+     * @param length  文件长度
+     * @return 如果合法返回MaxTxId, 如果不合法返回-1
+     * @throws IOException 文件不存在
+     */
+    public static long verify(FileChannel channel, String path, long length) throws IOException {
+        if (!FsImageReader.isSectioned(channel, length)) {
+            return validate(channel, path, length);
+        }
+        FsImageReader reader = FsImageReader.open(channel, path, length);
+        if (reader == null || !reader.verify()) {
+            return -1;
+        }
+        return reader.getMaxTxId();
+    }
+
+    /**
+     * 完整校验FSImage文件
+     *
+     * @param path 文件路径
+     * @return 如果合法返回MaxTxId, 如果不合法返回-1
+     * @throws IOException 文件不存在
+     */
+    public static long verify(String path) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(path, "r");
+             FileInputStream fis = new FileInputStream(raf.getFD());
+             FileChannel channel = fis.getChannel()) {
+            return verify(channel, path, raf.length());
+        }
+    }
+
+    /**
+     * 读取增量FsImage基于的全量FsImage的maxTxId
+     *
+     * @param channel File Channel
+     * @param path    文件路径
+     * @param length  文件长度
+     * @return 全量FsImage返回0，不合法返回-1
+     * @throws IOException 文件不存在
+     */
+    public static long readBaseTxId(FileChannel channel, String path, long length) throws IOException {
+        if (!FsImageReader.isSectioned(channel, length)) {
+            return 0;
+        }
+        FsImageReader reader = FsImageReader.open(channel, path, length);
+        return reader == null ? -1 : reader.getBaseTxId();
+    }
+
+    /**
+     * 查找增量FsImage基于的全量FsImage
+     *
+     * @param timeFsImageMap 所有的FsImage文件
+     * @param baseTxId       全量FsImage的maxTxId
+     * @return 全量FsImage的文件路径，找不到返回null
+     * @throws IOException IO异常
+     */
+    public static String findBaseFsImage(Map<Long, String> timeFsImageMap, long baseTxId) throws IOException {
+        for (String path : timeFsImageMap.values()) {
+            if (!new File(path).exists()) {
+                continue;
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(path, "r");
+                 FileInputStream fis = new FileInputStream(raf.getFD());
+                 FileChannel channel = fis.getChannel()) {
+                if (readBaseTxId(channel, path, raf.length()) == 0
+                        && validate(channel, path, raf.length()) == baseTxId) {
+                    return path;
+                }
+            }
+        }
+        return null;
+    }
 }
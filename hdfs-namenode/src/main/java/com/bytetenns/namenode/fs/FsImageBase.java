@@ -0,0 +1,34 @@
+package com.bytetenns.namenode.fs;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Set;
+
+/**
+ * <pre>
+ * 一次全量FsImage对应的目录树快照信息，后续的增量FsImage基于它判断哪些分段需要写入：
+ *
+ * 1. 根目录下的目录版本号比快照版本号大，说明全量FsImage之后有修改
+ * 2. 快照时根目录下的目录，在当前目录树中已经不存在，说明被删除了
+ * </pre>
+ */
+@Data
+@AllArgsConstructor
+public class FsImageBase {
+
+    /**
+     * 全量FsImage的maxTxId
+     */
+    private long maxTxId;
+
+    /**
+     * 全量FsImage对应的目录树快照版本号
+     */
+    private long version;
+
+    /**
+     * 全量FsImage中根目录下的目录
+     */
+    private Set<String> directories;
+}
@@ -46,8 +46,13 @@ public class FsImageClearTask implements Runnable {
         sortedList.sort((o1, o2) -> o1.equals(o2) ? 0 : (int) (o2 - o1));
         boolean findValidFsImage = false;
         long maxTxId = -1;
+        // 最新的合法FsImage是增量FsImage时，需要保留对应的全量FsImage
+        String basePath = null;
         for (Long time : sortedList) {
             String path = timeFsImageMap.get(time);
+            if (path.equals(basePath)) {
+                continue;
+            }
             if (findValidFsImage) {
                 FileUtil.delete(path);
                 log.info("删除FSImage: [file={}]", path);
@@ -55,7 +60,16 @@ public class FsImageClearTask implements Runnable {
             }
             try (RandomAccessFile raf = new RandomAccessFile(path, "r"); FileInputStream fis =
                     new FileInputStream(raf.getFD()); FileChannel channel = fis.getChannel()) {
-                maxTxId = FsImage.validate(channel, path, (int) raf.length());
+                // 校验所有分段的校验和，确认最新的FsImage可以正常加载之后才删除更旧的FsImage
+                maxTxId = FsImage.verify(channel, path, raf.length());
+                long baseTxId = maxTxId > 0 ? FsImage.readBaseTxId(channel, path, raf.length()) : -1;
+                if (baseTxId > 0) {
+                    basePath = FsImage.findBaseFsImage(timeFsImageMap, baseTxId);
+                    if (basePath == null || FsImage.verify(basePath) != baseTxId) {
+                        basePath = null;
+                        maxTxId = -1;
+                    }
+                }
                 if (maxTxId > 0) {
                     findValidFsImage = true;
                     log.info("清除FSImage任务，找到最新的合法的FsImage: [file={}]", path);
@@ -0,0 +1,343 @@
+package com.bytetenns.namenode.fs;
+
+import com.bytetenns.dfs.model.backup.FsImageINode;
+import com.bytetenns.dfs.model.backup.FsImageSection;
+import com.bytetenns.dfs.model.backup.FsImageTrailer;
+import com.bytetenns.common.utils.Crc32C;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Checksum;
+
+/**
+ * <pre>
+ * 读取分段格式的FsImage文件，格式见{@link FsImageWriter}
+ *
+ * 1. 先读取文件头和文件尾的分段索引，索引不合法时认为文件不完整
+ * 2. 每个分段通过固定大小的缓冲流式读取，逐条解析节点，不需要把文件内容整体读入内存
+ * 3. 读取分段使用FileChannel的按位置读取，多个分段可以并发读取
+ * 4. 也可以把分段mmap映射到内存，由{@link LazyFsImageLoader}在第一次访问时再解析
+ * 5. 解析分段时同时计算CRC32C，和分段索引中记录的不一致时认为分段损坏
+ * 6. {@link #verify()}只流式计算校验和，不解析节点，用于清理FsImage之前确认文件完好
+ * </pre>
+ */
+@Slf4j
+public class FsImageReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final String path;
+    private final long maxTxId;
+    private final FsImageTrailer trailer;
+
+    private FsImageReader(FileChannel channel, String path, long maxTxId, FsImageTrailer trailer) {
+        this.channel = channel;
+        this.path = path;
+        this.maxTxId = maxTxId;
+        this.trailer = trailer;
+    }
+
+    /**
+     * 是否是分段格式的FsImage文件
+     */
+    public static boolean isSectioned(FileChannel channel, long length) throws IOException {
+        if (length < FsImage.HEADER_SIZE + FsImage.FOOTER_SIZE) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        readFully(channel, buffer, 0);
+        return buffer.getInt(0) == FsImage.MAGIC;
+    }
+
+    /**
+     * 打开FsImage文件，读取文件头和分段索引
+     *
+     * @param channel 文件channel
+     * @param path    文件路径
+     * @param length  文件长度
+     * @return 文件不完整时返回null
+     * @throws IOException IO异常
+     */
+    public static FsImageReader open(FileChannel channel, String path, long length) throws IOException {
+        if (!isSectioned(channel, length)) {
+            log.warn("FsImage文件不完整: [file={}]", path);
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(FsImage.HEADER_SIZE);
+        readFully(channel, header, 0);
+        long maxTxId = header.getLong(4);
+        ByteBuffer footer = ByteBuffer.allocate(FsImage.FOOTER_SIZE);
+        readFully(channel, footer, length - FsImage.FOOTER_SIZE);
+        int trailerLength = footer.getInt(0);
+        long trailerOffset = length - FsImage.FOOTER_SIZE - trailerLength;
+        if (footer.getInt(4) != FsImage.MAGIC || trailerLength < 0 || trailerOffset < FsImage.HEADER_SIZE) {
+            log.warn("FsImage文件不完整: [file={}]", path);
+            return null;
+        }
+        ByteBuffer trailerBuffer = ByteBuffer.allocate(trailerLength);
+        readFully(channel, trailerBuffer, trailerOffset);
+        FsImageTrailer trailer;
+        try {
+            trailer = FsImageTrailer.parseFrom(trailerBuffer.array());
+        } catch (InvalidProtocolBufferException e) {
+            log.warn("FsImage分段索引不合法: [file={}]", path);
+            return null;
+        }
+        long expectedOffset = FsImage.HEADER_SIZE;
+        for (FsImageSection section : trailer.getSectionsList()) {
+            if (section.getOffset() != expectedOffset || section.getLength() < 0) {
+                log.warn("FsImage分段索引不合法: [file={}]", path);
+                return null;
+            }
+            expectedOffset += section.getLength();
+        }
+        if (expectedOffset != trailerOffset || trailer.getSectionsCount() == 0) {
+            log.warn("FsImage分段索引不合法: [file={}]", path);
+            return null;
+        }
+        return new FsImageReader(channel, path, maxTxId, trailer);
+    }
+
+    public long getMaxTxId() {
+        return maxTxId;
+    }
+
+    public List<FsImageSection> getSections() {
+        return trailer.getSectionsList();
+    }
+
+    /**
+     * 增量FsImage基于的全量FsImage的maxTxId，全量FsImage返回0
+     */
+    public long getBaseTxId() {
+        return trailer.getBaseTxId();
+    }
+
+    public List<String> getRemoved() {
+        return trailer.getRemovedList();
+    }
+
+    /**
+     * 读取一个分段，构造出分段对应的子树
+     *
+     * @param section 分段
+     * @return 子树的根节点
+     * @throws IOException IO异常，或者分段内容和索引不一致
+     */
+    public Node readSection(FsImageSection section) throws IOException {
+        return readSection(new ChannelInputStream(channel, section.getOffset(), section.getLength()), section, path,
+                isChecksummed());
+    }
+
+    /**
+     * 是否记录了校验和，旧版本写入的文件没有校验和
+     */
+    public boolean isChecksummed() {
+        return trailer.getChecksummed();
+    }
+
+    /**
+     * 流式计算文件头和每个分段的CRC32C，和分段索引中记录的校验和比较
+     *
+     * @return 校验和一致或者文件没有记录校验和时返回true
+     * @throws IOException IO异常
+     */
+    public boolean verify() throws IOException {
+        if (!isChecksummed()) {
+            return true;
+        }
+        ByteBuffer header = ByteBuffer.allocate(FsImage.HEADER_SIZE);
+        readFully(channel, header, 0);
+        if (Crc32C.compute(header.array(), 0, FsImage.HEADER_SIZE) != trailer.getHeaderCrc32c()) {
+            log.warn("FsImage文件头校验和不一致: [file={}]", path);
+            return false;
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (FsImageSection section : trailer.getSectionsList()) {
+            Checksum checksum = Crc32C.create();
+            ChannelInputStream inputStream = new ChannelInputStream(channel, section.getOffset(), section.getLength());
+            int read;
+            while ((read = inputStream.read(buffer, 0, buffer.length)) > 0) {
+                checksum.update(buffer, 0, read);
+            }
+            if ((int) checksum.getValue() != section.getCrc32c()) {
+                log.warn("FsImage分段校验和不一致: [file={}, section={}]", path, section.getPath());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 把一个分段mmap映射到内存，只建立映射不读取内容，关闭文件之后映射仍然有效
+     *
+     * @param section 分段
+     * @return 分段对应的只读内存映射，分段超过2GB时返回null
+     * @throws IOException IO异常
+     */
+    public ByteBuffer mapSection(FsImageSection section) throws IOException {
+        if (section.getLength() > Integer.MAX_VALUE) {
+            return null;
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, section.getOffset(), section.getLength());
+    }
+
+    /**
+     * 解析mmap映射的分段，构造出分段对应的子树
+     *
+     * @param buffer      分段的内存映射
+     * @param section     分段
+     * @param path        文件路径
+     * @param checksummed 是否校验CRC32C
+     * @return 子树的根节点
+     * @throws IOException 分段内容和索引不一致
+     */
+    public static Node readSection(ByteBuffer buffer, FsImageSection section, String path, boolean checksummed)
+            throws IOException {
+        return readSection(new ByteBufferInputStream(buffer.duplicate()), section, path, checksummed);
+    }
+
+    private static Node readSection(InputStream in, FsImageSection section, String path, boolean checksummed)
+            throws IOException {
+        CheckedInputStream checkedInputStream = new CheckedInputStream(in, Crc32C.create());
+        CodedInputStream inputStream = CodedInputStream.newInstance(checkedInputStream, BUFFER_SIZE);
+        long inodes = 1;
+        FsImageINode iNode = readNode(inputStream);
+        Node root = toNode(iNode);
+        Deque<Frame> stack = new ArrayDeque<>();
+        if (iNode.getChildrenNum() > 0) {
+            stack.push(new Frame(root, iNode.getChildrenNum()));
+        }
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            if (frame.remaining == 0) {
+                stack.pop();
+                continue;
+            }
+            iNode = readNode(inputStream);
+            inodes++;
+            Node child = toNode(iNode);
+            frame.node.addChildren(child);
+            frame.remaining--;
+            if (iNode.getChildrenNum() > 0) {
+                stack.push(new Frame(child, iNode.getChildrenNum()));
+            }
+        }
+        if (inodes != section.getInodes() || !inputStream.isAtEnd()) {
+            throw new IOException("FsImage分段内容和索引不一致: [file=" + path + ", parent=" + section.getParent() + "]");
+        }
+        // isAtEnd()会把剩余的数据全部读入缓冲，此时分段的所有字节都已经计算过校验和
+        if (checksummed && (int) checkedInputStream.getChecksum().getValue() != section.getCrc32c()) {
+            throw new IOException("FsImage分段校验和不一致: [file=" + path + ", section=" + section.getPath() + "]");
+        }
+        return root;
+    }
+
+    private static FsImageINode readNode(CodedInputStream inputStream) throws IOException {
+        // 每条记录重新计数，避免超过CodedInputStream的大小限制
+        inputStream.resetSizeCounter();
+        int size = inputStream.readRawVarint32();
+        int oldLimit = inputStream.pushLimit(size);
+        FsImageINode iNode = FsImageINode.parseFrom(inputStream);
+        inputStream.popLimit(oldLimit);
+        return iNode;
+    }
+
+    private static Node toNode(FsImageINode iNode) {
+        Node node = new Node(iNode.getPath(), iNode.getType());
+        // 旧版本写入的FsImage数值属性也在map中，放入时会转换成数值字段
+        node.putAllAttr(iNode.getAttrMap());
+        node.putNumericAttrs(iNode.getNumericAttrs(), iNode.getFileSize(), iNode.getReplicaNum(), iNode.getDelTime());
+        return node;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("FsImage文件提前结束");
+            }
+        }
+    }
+
+    private static class Frame {
+        private final Node node;
+        private int remaining;
+
+        private Frame(Node node, int remaining) {
+            this.node = node;
+            this.remaining = remaining;
+        }
+    }
+
+    /**
+     * 按位置读取FileChannel中的一段数据，不修改channel的position，可以多个线程同时使用
+     */
+    private static class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        private ChannelInputStream(FileChannel channel, long offset, long length) {
+            this.channel = channel;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int length = (int) Math.min(len, end - position);
+            int read = channel.read(ByteBuffer.wrap(b, off, length), position);
+            if (read < 0) {
+                return -1;
+            }
+            position += read;
+            return read;
+        }
+    }
+
+    /**
+     * 读取mmap映射的分段，直接从映射内存拷贝到CodedInputStream的缓冲，不需要系统调用
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int length = Math.min(len, buffer.remaining());
+            buffer.get(b, off, length);
+            return length;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.bytetenns.namenode.fs;
+
+import com.bytetenns.common.utils.Crc32C;
+import com.bytetenns.common.utils.FileUtil;
+import com.bytetenns.dfs.model.backup.FsImageINode;
+import com.bytetenns.dfs.model.backup.FsImageSection;
+import com.bytetenns.dfs.model.backup.FsImageTrailer;
+import com.google.protobuf.CodedOutputStream;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.Checksum;
+
+/**
+ * <pre>
+ * 流式写入分段格式的FsImage文件，文件格式为：
+ *
+ *    magic(4字节) + maxTxId(8字节)
+ *    分段1：长度(varint) + FsImageINode，按照深度优先的顺序逐条写入
+ *    分段2 ...
+ *    FsImageTrailer：所有分段的索引
+ *    FsImageTrailer的长度(4字节) + magic(4字节)
+ *
+ * 1. 每次只序列化一个节点，不会构造整棵树的INode，内存占用和目录树大小无关
+ * 2. 用显式的栈遍历目录树，目录层级再深也不会栈溢出
+ * 3. 所有偏移量都是long，文件大小不受2GB限制
+ * 4. 第一个分段是根目录和根目录下的文件，根目录下的每个目录（通常对应一个用户）是一个单独的分段
+ * 5. 增量FsImage只写入有修改的目录分段，在FsImageTrailer中记录基于的全量FsImage
+ * 6. 写入时同步计算文件头和每个分段的CRC32C，记录在FsImageTrailer中，不需要写完之后再读一遍文件
+ * 7. 先写入临时文件，调用{@link #finish()}写入分段索引并刷盘之后才重命名为最终的文件名；
+ *    没有调用finish()就关闭时说明写入失败，删除临时文件，不会留下能通过校验的不完整FsImage
+ * </pre>
+ */
+@Slf4j
+public class FsImageWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String TMP_SUFFIX = ".saving";
+
+    private final String path;
+    private final String tmpPath;
+    private final FileOutputStream fos;
+    private final ChecksumOutputStream checksumStream;
+    private final CodedOutputStream outputStream;
+    private final FsImageTrailer.Builder trailer = FsImageTrailer.newBuilder();
+    private long position = 0L;
+    private boolean finished = false;
+
+    public FsImageWriter(String path, long maxTxId) throws IOException {
+        this.path = path;
+        this.tmpPath = path + TMP_SUFFIX;
+        FileUtil.mkdirParent(tmpPath);
+        this.fos = new FileOutputStream(new File(tmpPath));
+        this.checksumStream = new ChecksumOutputStream(fos);
+        this.outputStream = CodedOutputStream.newInstance(checksumStream, BUFFER_SIZE);
+        ByteBuffer header = ByteBuffer.allocate(FsImage.HEADER_SIZE);
+        header.putInt(FsImage.MAGIC);
+        header.putLong(maxTxId);
+        writeRaw(header.array());
+        trailer.setChecksummed(true);
+        trailer.setHeaderCrc32c(Crc32C.compute(header.array(), 0, FsImage.HEADER_SIZE));
+    }
+
+    /**
+     * 把一棵子树写成一个分段
+     *
+     * @param parent 子树挂载的父目录的全路径，根目录传空字符串
+     * @param node   子树的根节点
+     * @throws IOException IO异常
+     */
+    public void writeSection(String parent, Node node) throws IOException {
+        long offset = beginSection();
+        long inodes = 0;
+        Deque<Iterator<Node>> stack = new ArrayDeque<>();
+        writeNode(node);
+        inodes++;
+        if (!node.getChildren().isEmpty()) {
+            stack.push(node.getChildren().values().iterator());
+        }
+        while (!stack.isEmpty()) {
+            Iterator<Node> iterator = stack.peek();
+            if (!iterator.hasNext()) {
+                stack.pop();
+                continue;
+            }
+            Node child = iterator.next();
+            writeNode(child);
+            inodes++;
+            if (!child.getChildren().isEmpty()) {
+                stack.push(child.getChildren().values().iterator());
+            }
+        }
+        addSection(parent, node.getPath(), offset, inodes);
+    }
+
+    /**
+     * <pre>
+     * 写入根目录所在的分段：只包含根目录和根目录下的文件
+     *
+     * 根目录下的每个目录都需要调用{@link #writeSection(String, Node)}单独写成一个分段，加载时可以并发构建
+     * </pre>
+     *
+     * @param root 根目录
+     * @return 根目录下需要单独写成分段的目录
+     * @throws IOException IO异常
+     */
+    public List<Node> writeRootSection(Node root) throws IOException {
+        long offset = beginSection();
+        List<Node> files = new ArrayList<>();
+        List<Node> directories = new ArrayList<>();
+        for (Node child : root.getChildren().values()) {
+            if (child.isFile()) {
+                files.add(child);
+            } else {
+                directories.add(child);
+            }
+        }
+        writeNode(root, files.size());
+        for (Node file : files) {
+            writeNode(file);
+        }
+        addSection("", root.getPath(), offset, files.size() + 1);
+        return directories;
+    }
+
+    /**
+     * 标记为增量FsImage
+     *
+     * @param baseTxId 基于的全量FsImage的maxTxId
+     * @param removed  相对于全量FsImage被删除的根目录下的目录
+     */
+    public void setDelta(long baseTxId, Collection<String> removed) {
+        trailer.setBaseTxId(baseTxId);
+        trailer.addAllRemoved(removed);
+    }
+
+    /**
+     * 开始一个分段：把缓冲中上一个分段的数据刷到文件，重新计算校验和
+     */
+    private long beginSection() throws IOException {
+        outputStream.flush();
+        checksumStream.checksum.reset();
+        return position;
+    }
+
+    private void addSection(String parent, String name, long offset, long inodes) throws IOException {
+        outputStream.flush();
+        trailer.addSections(FsImageSection.newBuilder()
+                .setParent(parent)
+                .setPath(name)
+                .setOffset(offset)
+                .setLength(position - offset)
+                .setInodes(inodes)
+                .setCrc32c((int) checksumStream.checksum.getValue())
+                .build());
+    }
+
+    private void writeNode(Node node) throws IOException {
+        writeNode(node, node.getChildren().size());
+    }
+
+    private void writeNode(Node node, int childrenNum) throws IOException {
+        FsImageINode iNode = FsImageINode.newBuilder()
+                .setPath(node.getPath())
+                .setType(node.getType())
+                .putAllAttr(node.getUserAttr())
+                .setNumericAttrs(node.getNumericAttrs())
+                .setFileSize(node.getFileSize())
+                .setReplicaNum(node.getReplicaNum())
+                .setDelTime(node.getDelTime())
+                .setChildrenNum(childrenNum)
+                .build();
+        int size = iNode.getSerializedSize();
+        outputStream.writeUInt32NoTag(size);
+        iNode.writeTo(outputStream);
+        position += CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+    }
+
+    private void writeRaw(byte[] bytes) throws IOException {
+        outputStream.writeRawBytes(bytes);
+        position += bytes.length;
+    }
+
+    /**
+     * 所有分段都写入成功之后调用：写入分段索引和文件尾，刷入磁盘，再原子地重命名为最终的文件名
+     *
+     * @throws IOException IO异常
+     */
+    public void finish() throws IOException {
+        byte[] trailerBytes = trailer.build().toByteArray();
+        writeRaw(trailerBytes);
+        ByteBuffer footer = ByteBuffer.allocate(FsImage.FOOTER_SIZE);
+        footer.putInt(trailerBytes.length);
+        footer.putInt(FsImage.MAGIC);
+        writeRaw(footer.array());
+        outputStream.flush();
+        fos.getChannel().force(true);
+        fos.close();
+        Files.move(Paths.get(tmpPath), Paths.get(path), StandardCopyOption.ATOMIC_MOVE);
+        finished = true;
+        log.info("保存FsImage文件：[file={}, size={}, sections={}, baseTxId={}]", path,
+                FileUtil.formatSize(position), trailer.getSectionsCount(), trailer.getBaseTxId());
+    }
+
+    /**
+     * 是否是写入过程中的临时文件
+     */
+    public static boolean isTmpFile(String name) {
+        return name.endsWith(TMP_SUFFIX);
+    }
+
+    /**
+     * 没有调用{@link #finish()}时说明写入失败，关闭并删除临时文件
+     */
+    @Override
+    public void close() throws IOException {
+        if (finished) {
+            return;
+        }
+        try {
+            fos.close();
+        } finally {
+            FileUtil.delete(tmpPath);
+            log.warn("FsImage没有写入完成，删除临时文件：[file={}]", tmpPath);
+        }
+    }
+
+    /**
+     * 写入文件的同时计算CRC32C
+     */
+    private static class ChecksumOutputStream extends FilterOutputStream {
+        private final Checksum checksum = Crc32C.create();
+
+        private ChecksumOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            checksum.update(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            checksum.update(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,775 @@
+package com.bytetenns.namenode.fs;
+
+import com.bytetenns.common.enums.NodeType;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
+
+/**
+ * <pre>
+ * 用分页的基本类型数组保存目录树，每个节点只占几十个字节，并且不产生需要GC扫描的对象引用
+ *
+ * 1. 每个节点是一个int编号，节点的字段按列保存在分页的int[]、long[]中，删除的编号放到空闲链表中复用
+ * 2. 节点名称按UTF-8、属性按 [数值属性标记位, 数值属性, 其他属性数量, key长度, key, value长度, value...]
+ *    编码成字节，追加写在分页的byte[]中，节点只保存字节的位置，修改属性时重新追加一份，旧的字节记为垃圾，垃圾超过一半时整理一次
+ * 3. 按名称查找孩子节点使用一个全局的开放寻址哈希表，key是(父节点编号, 名称)，删除时向后移动元素，不留墓碑
+ * 4. 同一个目录的孩子节点用双向链表串起来，用于遍历和O(1)删除，孩子节点不保证顺序
+ * 5. 快照只复制每一列的页表，页面由快照和当前目录树共享，之后第一次修改某个页面时才复制这个页面；
+ *    名称和属性的字节写入之后不再修改，快照直接共享
+ * 6. 目录汇总子树中的文件数量和大小，创建、删除文件和修改文件大小时沿父节点逐级更新
+ * 7. 不是线程安全的，由{@link ArenaFsDirectory}的读写锁保护，快照只读，可以在锁外访问
+ * </pre>
+ */
+class InodeArena {
+
+    static final int ROOT = 0;
+    static final int NIL = -1;
+
+    private static final int FREE = 0;
+    private static final long NO_REF = -1L;
+    private static final int PAGE_SHIFT = 16;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int INITIAL_TABLE_SIZE = 1 << 16;
+    /**
+     * 垃圾字节超过这个值并且超过已用字节的一半时才整理
+     */
+    private static final long COMPACT_THRESHOLD = 64L * 1024 * 1024;
+
+    private final IntColumn types;
+    private final IntColumn parents;
+    private final IntColumn firstChildren;
+    private final IntColumn nextSiblings;
+    private final IntColumn prevSiblings;
+    private final LongColumn names;
+    private final LongColumn attrs;
+    /**
+     * 节点最后一次修改时的目录树版本，只有根目录下的目录会更新，用于写入增量FsImage
+     */
+    private final LongColumn versions;
+    /**
+     * 目录下所有文件的数量和大小之和，包含子目录中的文件
+     */
+    private final LongColumn fileCounts;
+    private final LongColumn totalSizes;
+    private ByteSlab slab;
+    private final long compactThreshold;
+
+    /**
+     * 孩子节点哈希表，保存节点编号+1，0表示空位置，快照中为null
+     */
+    private int[] table;
+    private int tableSize;
+    private int capacity;
+    private int freeHead = NIL;
+    private int inodes;
+    private long garbage;
+
+    InodeArena() {
+        this(COMPACT_THRESHOLD);
+    }
+
+    /**
+     * @param compactThreshold 垃圾字节超过这个值并且超过已用字节的一半时才整理
+     */
+    InodeArena(long compactThreshold) {
+        this.compactThreshold = compactThreshold;
+        this.types = new IntColumn();
+        this.parents = new IntColumn();
+        this.firstChildren = new IntColumn();
+        this.nextSiblings = new IntColumn();
+        this.prevSiblings = new IntColumn();
+        this.names = new LongColumn();
+        this.attrs = new LongColumn();
+        this.versions = new LongColumn();
+        this.fileCounts = new LongColumn();
+        this.totalSizes = new LongColumn();
+        this.slab = new ByteSlab();
+        this.table = new int[INITIAL_TABLE_SIZE];
+        int root = allocate();
+        types.set(root, NodeType.DIRECTORY.getValue());
+        parents.set(root, NIL);
+        firstChildren.set(root, NIL);
+        nextSiblings.set(root, NIL);
+        prevSiblings.set(root, NIL);
+        names.set(root, slab.add(encode("/")));
+        attrs.set(root, NO_REF);
+        versions.set(root, 0L);
+        fileCounts.set(root, 0L);
+        totalSizes.set(root, 0L);
+    }
+
+    private InodeArena(InodeArena other) {
+        this.types = other.types.share();
+        this.parents = other.parents.share();
+        this.firstChildren = other.firstChildren.share();
+        this.nextSiblings = other.nextSiblings.share();
+        this.prevSiblings = other.prevSiblings.share();
+        this.names = other.names.share();
+        this.attrs = other.attrs.share();
+        this.versions = other.versions.share();
+        this.fileCounts = other.fileCounts.share();
+        this.totalSizes = other.totalSizes.share();
+        this.slab = other.slab.view();
+        this.compactThreshold = other.compactThreshold;
+        this.capacity = other.capacity;
+        this.inodes = other.inodes;
+    }
+
+    /**
+     * 生成只读快照，只复制页表，调用方需要持有写锁
+     */
+    InodeArena snapshot() {
+        return new InodeArena(this);
+    }
+
+    int size() {
+        return inodes;
+    }
+
+    /**
+     * 还没有整理的垃圾字节数
+     */
+    long garbage() {
+        return garbage;
+    }
+
+    int type(int id) {
+        return types.get(id);
+    }
+
+    boolean isFile(int id) {
+        return types.get(id) == NodeType.FILE.getValue();
+    }
+
+    int parent(int id) {
+        return parents.get(id);
+    }
+
+    int firstChild(int id) {
+        return firstChildren.get(id);
+    }
+
+    int nextSibling(int id) {
+        return nextSiblings.get(id);
+    }
+
+    long version(int id) {
+        return versions.get(id);
+    }
+
+    void setVersion(int id, long version) {
+        versions.set(id, version);
+    }
+
+    String name(int id) {
+        return new String(slab.get(names.get(id)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 获取全部属性，数值属性转换成字符串
+     */
+    Map<String, String> attrs(int id) {
+        Node node = new Node();
+        readAttrs(id, node);
+        return node.getAttr();
+    }
+
+    /**
+     * 合并属性，和{@link Node#putAllAttr(Map)}一样覆盖同名的属性
+     */
+    void putAllAttr(int id, Map<String, String> attr) {
+        if (attr == null || attr.isEmpty()) {
+            return;
+        }
+        Node merged = new Node();
+        readAttrs(id, merged);
+        long size = merged.getFileSize();
+        merged.putAllAttr(attr);
+        writeAttrs(id, merged, size);
+    }
+
+    /**
+     * 合并另一个节点的属性，数值属性不需要再转换成字符串
+     */
+    private void putAllAttr(int id, Node source) {
+        Node merged = new Node();
+        readAttrs(id, merged);
+        long size = merged.getFileSize();
+        merged.putAllAttr(source.getUserAttr());
+        merged.putNumericAttrs(source.getNumericAttrs(), source.getFileSize(), source.getReplicaNum(),
+                source.getDelTime());
+        writeAttrs(id, merged, size);
+    }
+
+    private void readAttrs(int id, Node node) {
+        long ref = attrs.get(id);
+        if (ref != NO_REF) {
+            decodeAttrs(slab.get(ref), node);
+        }
+    }
+
+    /**
+     * 写入属性，文件大小变化时更新父目录的汇总
+     *
+     * @param size 写入之前的文件大小
+     */
+    private void writeAttrs(int id, Node node, long size) {
+        long old = attrs.get(id);
+        boolean empty = node.getNumericAttrs() == 0 && node.getUserAttr().isEmpty();
+        attrs.set(id, empty ? NO_REF : slab.add(encodeAttrs(node)));
+        release(old);
+        if (isFile(id) && node.getFileSize() != size) {
+            updateAggregates(parents.get(id), 0L, node.getFileSize() - size);
+        }
+    }
+
+    private long fileSize(int id) {
+        Node node = new Node();
+        readAttrs(id, node);
+        return node.getFileSize();
+    }
+
+    /**
+     * 从目录开始逐级向上调整汇总的文件数量和大小
+     */
+    private void updateAggregates(int dir, long fileCount, long size) {
+        for (int id = dir; id != NIL; id = parents.get(id)) {
+            fileCounts.set(id, fileCounts.get(id) + fileCount);
+            totalSizes.set(id, totalSizes.get(id) + size);
+        }
+    }
+
+    /**
+     * 查找孩子节点
+     *
+     * @return 孩子节点编号，不存在返回{@link #NIL}
+     */
+    int child(int parent, String name) {
+        byte[] bytes = encode(name);
+        return find(parent, bytes, hash(bytes));
+    }
+
+    /**
+     * 查找孩子节点，不存在时创建一个目录，和{@link FsDirectory}一样不检查已经存在的节点的类型
+     */
+    int getOrCreateDirectory(int parent, String name) {
+        byte[] bytes = encode(name);
+        int hash = hash(bytes);
+        int id = find(parent, bytes, hash);
+        return id != NIL ? id : create(parent, bytes, hash, NodeType.DIRECTORY.getValue());
+    }
+
+    /**
+     * 创建文件节点
+     *
+     * @return 文件节点编号，同名节点已经存在时返回{@link #NIL}
+     */
+    int createFile(int parent, String name) {
+        byte[] bytes = encode(name);
+        int hash = hash(bytes);
+        if (find(parent, bytes, hash) != NIL) {
+            return NIL;
+        }
+        return create(parent, bytes, hash, NodeType.FILE.getValue());
+    }
+
+    /**
+     * 删除一个节点，调用方保证节点没有孩子节点
+     */
+    void remove(int id) {
+        removeFromTable(id);
+        int parent = parents.get(id);
+        if (isFile(id)) {
+            updateAggregates(parent, -1L, -fileSize(id));
+        }
+        int prev = prevSiblings.get(id);
+        int next = nextSiblings.get(id);
+        if (prev == NIL) {
+            firstChildren.set(parent, next);
+        } else {
+            nextSiblings.set(prev, next);
+        }
+        if (next != NIL) {
+            prevSiblings.set(next, prev);
+        }
+        release(names.get(id));
+        release(attrs.get(id));
+        types.set(id, FREE);
+        nextSiblings.set(id, freeHead);
+        freeHead = id;
+        inodes--;
+    }
+
+    /**
+     * 把一棵子树导入到父节点下，已经存在的同名目录会合并
+     *
+     * @param parent 父节点编号
+     * @param node   子树的根节点
+     */
+    void importNode(int parent, Node node) {
+        Deque<Integer> parentStack = new ArrayDeque<>();
+        Deque<Node> nodeStack = new ArrayDeque<>();
+        parentStack.push(parent);
+        nodeStack.push(node);
+        while (!nodeStack.isEmpty()) {
+            int parentId = parentStack.pop();
+            Node current = nodeStack.pop();
+            int id = current.isFile() ? createFile(parentId, current.getPath())
+                    : getOrCreateDirectory(parentId, current.getPath());
+            if (id == NIL) {
+                continue;
+            }
+            putAllAttr(id, current);
+            for (Node child : current.getChildren().values()) {
+                parentStack.push(id);
+                nodeStack.push(child);
+            }
+        }
+    }
+
+    /**
+     * 把节点转换成{@link Node}
+     *
+     * @param id    节点编号
+     * @param level 转换多少个孩子层级
+     */
+    Node toNode(int id, int level) {
+        Node node = new Node(name(id), type(id));
+        readAttrs(id, node);
+        node.setFileCount(fileCounts.get(id));
+        node.setTotalSize(totalSizes.get(id));
+        if (level > 0) {
+            for (int child = firstChildren.get(id); child != NIL; child = nextSiblings.get(child)) {
+                node.addChildren(toNode(child, level - 1));
+            }
+        }
+        return node;
+    }
+
+    /**
+     * 垃圾字节太多时重新写一份名称和属性，只保留还在使用的字节，快照继续引用旧的字节
+     */
+    void compactIfNecessary() {
+        if (garbage < compactThreshold || garbage * 2 < slab.used) {
+            return;
+        }
+        ByteSlab compacted = new ByteSlab();
+        for (int id = 0; id < capacity; id++) {
+            if (types.get(id) == FREE) {
+                continue;
+            }
+            names.set(id, compacted.add(slab.get(names.get(id))));
+            long ref = attrs.get(id);
+            if (ref != NO_REF) {
+                attrs.set(id, compacted.add(slab.get(ref)));
+            }
+        }
+        slab = compacted;
+        garbage = 0;
+    }
+
+    private int allocate() {
+        int id;
+        if (freeHead != NIL) {
+            id = freeHead;
+            freeHead = nextSiblings.get(id);
+        } else {
+            id = capacity++;
+        }
+        inodes++;
+        return id;
+    }
+
+    private int create(int parent, byte[] name, int hash, int type) {
+        int id = allocate();
+        types.set(id, type);
+        parents.set(id, parent);
+        firstChildren.set(id, NIL);
+        names.set(id, slab.add(name));
+        attrs.set(id, NO_REF);
+        versions.set(id, 0L);
+        fileCounts.set(id, 0L);
+        totalSizes.set(id, 0L);
+        int head = firstChildren.get(parent);
+        nextSiblings.set(id, head);
+        prevSiblings.set(id, NIL);
+        if (head != NIL) {
+            prevSiblings.set(head, id);
+        }
+        firstChildren.set(parent, id);
+        insert(id, slot(parent, hash));
+        if (type == NodeType.FILE.getValue()) {
+            updateAggregates(parent, 1L, 0L);
+        }
+        return id;
+    }
+
+    private void release(long ref) {
+        if (ref != NO_REF) {
+            garbage += slab.recordLength(ref);
+        }
+    }
+
+    private int find(int parent, byte[] name, int hash) {
+        int mask = table.length - 1;
+        for (int i = slot(parent, hash) & mask; ; i = (i + 1) & mask) {
+            int entry = table[i];
+            if (entry == 0) {
+                return NIL;
+            }
+            int id = entry - 1;
+            if (parents.get(id) == parent && slab.equals(names.get(id), name)) {
+                return id;
+            }
+        }
+    }
+
+    private void insert(int id, int slot) {
+        if ((tableSize + 1) * 4L > table.length * 3L) {
+            resize();
+        }
+        int mask = table.length - 1;
+        int i = slot & mask;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = id + 1;
+        tableSize++;
+    }
+
+    private void removeFromTable(int id) {
+        int mask = table.length - 1;
+        int i = slotOf(id) & mask;
+        while (table[i] != id + 1) {
+            i = (i + 1) & mask;
+        }
+        table[i] = 0;
+        tableSize--;
+        // 线性探测删除：把后面探测链上可以前移的元素移到空位，保证查找不会提前遇到空位
+        for (int j = (i + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+            int home = slotOf(table[j] - 1) & mask;
+            boolean movable = j > i ? (home <= i || home > j) : (home <= i && home > j);
+            if (movable) {
+                table[i] = table[j];
+                table[j] = 0;
+                i = j;
+            }
+        }
+    }
+
+    private void resize() {
+        int[] old = table;
+        table = new int[old.length << 1];
+        int mask = table.length - 1;
+        for (int entry : old) {
+            if (entry == 0) {
+                continue;
+            }
+            int i = slotOf(entry - 1) & mask;
+            while (table[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            table[i] = entry;
+        }
+    }
+
+    /**
+     * (父节点编号, 名称)在哈希表中的起始位置
+     */
+    int homeSlot(int parent, String name) {
+        return slot(parent, hash(encode(name))) & (table.length - 1);
+    }
+
+    private int slotOf(int id) {
+        return slot(parents.get(id), hash(slab.get(names.get(id))));
+    }
+
+    private static int slot(int parent, int hash) {
+        int h = parent * 0x9E3779B1 + hash;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    private static int hash(byte[] bytes) {
+        return Arrays.hashCode(bytes);
+    }
+
+    private static byte[] encode(String name) {
+        return name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] encodeAttrs(Node node) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int numericAttrs = node.getNumericAttrs();
+        writeVarint(out, numericAttrs);
+        if ((numericAttrs & NumericAttrs.FILE_SIZE) != 0) {
+            writeVarint64(out, node.getFileSize());
+        }
+        if ((numericAttrs & NumericAttrs.REPLICA_NUM) != 0) {
+            writeVarint64(out, node.getReplicaNum());
+        }
+        if ((numericAttrs & NumericAttrs.DEL_TIME) != 0) {
+            writeVarint64(out, node.getDelTime());
+        }
+        Map<String, String> attr = node.getUserAttr();
+        writeVarint(out, attr.size());
+        for (Map.Entry<String, String> entry : attr.entrySet()) {
+            byte[] key = encode(entry.getKey());
+            byte[] value = encode(entry.getValue());
+            writeVarint(out, key.length);
+            out.write(key, 0, key.length);
+            writeVarint(out, value.length);
+            out.write(value, 0, value.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static void decodeAttrs(byte[] bytes, Node node) {
+        int[] position = new int[1];
+        int numericAttrs = readVarint(bytes, position);
+        long fileSize = (numericAttrs & NumericAttrs.FILE_SIZE) != 0 ? readVarint64(bytes, position) : 0L;
+        int replicaNum = (numericAttrs & NumericAttrs.REPLICA_NUM) != 0 ? (int) readVarint64(bytes, position) : 0;
+        long delTime = (numericAttrs & NumericAttrs.DEL_TIME) != 0 ? readVarint64(bytes, position) : 0L;
+        int size = readVarint(bytes, position);
+        for (int i = 0; i < size; i++) {
+            int keyLength = readVarint(bytes, position);
+            String key = new String(bytes, position[0], keyLength, StandardCharsets.UTF_8);
+            position[0] += keyLength;
+            int valueLength = readVarint(bytes, position);
+            String value = new String(bytes, position[0], valueLength, StandardCharsets.UTF_8);
+            position[0] += valueLength;
+            node.putAttr(key, value);
+        }
+        node.putNumericAttrs(numericAttrs, fileSize, replicaNum, delTime);
+    }
+
+    /**
+     * 数值属性使用ZigZag编码，负数也只占用较少的字节
+     */
+    private static void writeVarint64(ByteArrayOutputStream out, long value) {
+        long zigZag = (value << 1) ^ (value >> 63);
+        while ((zigZag & ~0x7FL) != 0) {
+            out.write((int) ((zigZag & 0x7F) | 0x80));
+            zigZag >>>= 7;
+        }
+        out.write((int) zigZag);
+    }
+
+    private static long readVarint64(byte[] bytes, int[] position) {
+        long zigZag = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = bytes[position[0]++];
+            zigZag |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return (zigZag >>> 1) ^ -(zigZag & 1);
+            }
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(byte[] bytes, int[] position) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = bytes[position[0]++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * 分页的int列，页面被快照共享时，第一次修改先复制页面
+     */
+    private static class IntColumn {
+        private int[][] pages;
+        private boolean[] owned;
+
+        private IntColumn() {
+            this(new int[16][]);
+        }
+
+        private IntColumn(int[][] pages) {
+            this.pages = pages;
+            this.owned = new boolean[pages.length];
+        }
+
+        private int get(int id) {
+            return pages[id >>> PAGE_SHIFT][id & PAGE_MASK];
+        }
+
+        private void set(int id, int value) {
+            int index = id >>> PAGE_SHIFT;
+            if (index >= pages.length) {
+                pages = Arrays.copyOf(pages, pages.length << 1);
+                owned = Arrays.copyOf(owned, pages.length);
+            }
+            int[] page = pages[index];
+            if (page == null) {
+                page = new int[PAGE_SIZE];
+                pages[index] = page;
+                owned[index] = true;
+            } else if (!owned[index]) {
+                page = page.clone();
+                pages[index] = page;
+                owned[index] = true;
+            }
+            page[id & PAGE_MASK] = value;
+        }
+
+        private IntColumn share() {
+            Arrays.fill(owned, false);
+            return new IntColumn(pages.clone());
+        }
+    }
+
+    /**
+     * 分页的long列，页面被快照共享时，第一次修改先复制页面
+     */
+    private static class LongColumn {
+        private long[][] pages;
+        private boolean[] owned;
+
+        private LongColumn() {
+            this(new long[16][]);
+        }
+
+        private LongColumn(long[][] pages) {
+            this.pages = pages;
+            this.owned = new boolean[pages.length];
+        }
+
+        private long get(int id) {
+            return pages[id >>> PAGE_SHIFT][id & PAGE_MASK];
+        }
+
+        private void set(int id, long value) {
+            int index = id >>> PAGE_SHIFT;
+            if (index >= pages.length) {
+                pages = Arrays.copyOf(pages, pages.length << 1);
+                owned = Arrays.copyOf(owned, pages.length);
+            }
+            long[] page = pages[index];
+            if (page == null) {
+                page = new long[PAGE_SIZE];
+                pages[index] = page;
+                owned[index] = true;
+            } else if (!owned[index]) {
+                page = page.clone();
+                pages[index] = page;
+                owned[index] = true;
+            }
+            page[id & PAGE_MASK] = value;
+        }
+
+        private LongColumn share() {
+            Arrays.fill(owned, false);
+            return new LongColumn(pages.clone());
+        }
+    }
+
+    /**
+     * <pre>
+     * 只追加的字节页，每条记录是 [varint长度, 内容]，记录不跨页，超过一页的记录单独占用一页
+     *
+     * 位置编码成 (页号 << 32 | 页内偏移)，写入的字节不再修改，快照可以直接共享页面
+     * </pre>
+     */
+    private static class ByteSlab {
+        private static final int SLAB_PAGE_SIZE = 1 << 20;
+
+        private byte[][] pages;
+        private int pageCount;
+        private int tail;
+        private long used;
+
+        private ByteSlab() {
+            this.pages = new byte[16][];
+            this.tail = SLAB_PAGE_SIZE;
+        }
+
+        private ByteSlab(byte[][] pages) {
+            this.pages = pages;
+        }
+
+        private ByteSlab view() {
+            return new ByteSlab(pages);
+        }
+
+        private long add(byte[] bytes) {
+            int length = varintSize(bytes.length) + bytes.length;
+            byte[] page = pageCount == 0 ? null : pages[pageCount - 1];
+            if (page == null || tail + length > page.length) {
+                if (pageCount == pages.length) {
+                    pages = Arrays.copyOf(pages, pages.length << 1);
+                }
+                page = new byte[Math.max(SLAB_PAGE_SIZE, length)];
+                pages[pageCount++] = page;
+                tail = 0;
+            }
+            long ref = ((long) (pageCount - 1) << 32) | tail;
+            int value = bytes.length;
+            while ((value & ~0x7F) != 0) {
+                page[tail++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            page[tail++] = (byte) value;
+            System.arraycopy(bytes, 0, page, tail, bytes.length);
+            tail += bytes.length;
+            used += length;
+            return ref;
+        }
+
+        private byte[] get(long ref) {
+            byte[] page = pages[(int) (ref >>> 32)];
+            int[] position = {(int) ref};
+            int length = readVarint(page, position);
+            return Arrays.copyOfRange(page, position[0], position[0] + length);
+        }
+
+        private int recordLength(long ref) {
+            byte[] page = pages[(int) (ref >>> 32)];
+            int[] position = {(int) ref};
+            int length = readVarint(page, position);
+            return position[0] - (int) ref + length;
+        }
+
+        private boolean equals(long ref, byte[] bytes) {
+            byte[] page = pages[(int) (ref >>> 32)];
+            int[] position = {(int) ref};
+            int length = readVarint(page, position);
+            if (length != bytes.length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (page[position[0] + i] != bytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int varintSize(int value) {
+            int size = 1;
+            while ((value & ~0x7F) != 0) {
+                value >>>= 7;
+                size++;
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.bytetenns.namenode.fs;
+
+import com.bytetenns.common.utils.Crc32C;
+import com.bytetenns.dfs.model.backup.FsImageSection;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * <pre>
+ * 延迟加载FsImage中根目录下的目录分段
+ *
+ * 1. 加载FsImage时只解析根目录所在的分段，根目录下的目录分段只做mmap映射，不解析内容
+ * 2. 选用FsImage之前先校验所有映射分段的CRC32C，损坏的FsImage在加载时就被发现，而不是第一次访问时才失败
+ * 3. 访问某个路径时，如果路径所属的目录分段还没有加载，由访问线程同步解析并挂载到目录树
+ * 4. 同一个分段只会被解析一次，其他访问同一个分段的线程等待解析完成
+ * 5. 后台线程预热剩下的分段，全部挂载之后映射随对象一起释放
+ * </pre>
+ */
+@Slf4j
+public class LazyFsImageLoader {
+
+    private final Map<String, MappedSection> pending = new ConcurrentHashMap<>();
+
+    /**
+     * 添加一个还没有加载的目录分段
+     *
+     * @param file        FsImage文件路径
+     * @param section     分段
+     * @param buffer      分段的内存映射
+     * @param checksummed 解析时是否校验CRC32C
+     */
+    public void add(String file, FsImageSection section, ByteBuffer buffer, boolean checksummed) {
+        pending.put(section.getPath(), new MappedSection(file, section, buffer, checksummed));
+    }
+
+    /**
+     * 合并另一个FsImage中还没有加载的目录分段，用于增量FsImage合并全量FsImage
+     */
+    void add(LazyFsImageLoader other, String name) {
+        MappedSection section = other.pending.get(name);
+        if (section != null) {
+            pending.put(name, section);
+        }
+    }
+
+    public boolean contains(String name) {
+        return pending.containsKey(name);
+    }
+
+    public boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    public List<String> names() {
+        return new ArrayList<>(pending.keySet());
+    }
+
+    /**
+     * 校验所有还没有加载的分段的CRC32C，只顺序读取映射的内存，不构造目录树
+     *
+     * @return 校验和都一致或者文件没有记录校验和时返回true
+     */
+    public boolean verify() {
+        for (MappedSection section : pending.values()) {
+            if (section.checksummed && Crc32C.compute(section.buffer) != section.section.getCrc32c()) {
+                log.warn("FsImage分段校验和不一致: [file={}, section={}]", section.file, section.section.getPath());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 加载一个目录分段并挂载到目录树，分段已经加载过时直接返回
+     *
+     * @param name   根目录下的目录名称
+     * @param attach 挂载到目录树的操作
+     */
+    public void load(String name, Consumer<Node> attach) {
+        MappedSection section = pending.get(name);
+        if (section == null) {
+            return;
+        }
+        synchronized (section) {
+            if (!pending.containsKey(name)) {
+                return;
+            }
+            long start = System.nanoTime();
+            Node node;
+            try {
+                node = FsImageReader.readSection(section.buffer, section.section, section.file, section.checksummed);
+            } catch (IOException e) {
+                throw new IllegalStateException("加载FsImage分段失败: [file=" + section.file + ", section=" + name + "]", e);
+            }
+            // 先挂载再移除，其他线程看到分段不在pending中时，目录树中一定已经有这个目录
+            attach.accept(node);
+            pending.remove(name);
+            log.debug("延迟加载FsImage分段: [file={}, section={}, inodes={}, cost={} ms]", section.file, name,
+                    section.section.getInodes(), (System.nanoTime() - start) / 1000000.0D);
+        }
+    }
+
+    /**
+     * 加载所有还没有加载的目录分段
+     *
+     * @param attach 挂载到目录树的操作
+     */
+    public void loadAll(Consumer<Node> attach) {
+        for (String name : names()) {
+            load(name, attach);
+        }
+    }
+
+    private static class MappedSection {
+        private final String file;
+        private final FsImageSection section;
+        private final ByteBuffer buffer;
+        private final boolean checksummed;
+
+        private MappedSection(String file, FsImageSection section, ByteBuffer buffer, boolean checksummed) {
+            this.file = file;
+            this.section = section;
+            this.buffer = buffer;
+            this.checksummed = checksummed;
+        }
+    }
+}
@@ -2,10 +2,14 @@ package com.bytetenns.namenode.fs;
 
 import com.bytetenns.dfs.model.backup.INode;
 import com.bytetenns.common.enums.NodeType;
+import com.bytetenns.common.netty.Constants;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
  * @Author lcb
@@ -20,13 +24,25 @@ public class Node {
 
     private String path;//节点路径，最后一个元素代表文件名
     private int type;//节点类型
-    private final TreeMap<String, Node> children;//该节点下的所有孩子节点
-    private Map<String, String> attr;//
+    @Setter(AccessLevel.NONE)
+    private volatile NavigableMap<String, Node> children;//该节点下的所有孩子节点，读取不加锁，没有孩子时共用一个空map
+    @Setter(AccessLevel.NONE)
+    private volatile Map<String, String> attr;//用户自定义的属性，写时复制，文件大小、副本数、删除时间保存在下面的数值字段中
+    @Setter(AccessLevel.NONE)
+    private volatile int numericAttrs;//数值属性是否存在的标记位，见NumericAttrs，总是在数值之后写入
+    private volatile long fileSize;//文件大小，不存在时为0，和下面的数值一样不加锁读取
+    private volatile int replicaNum;//副本数
+    private volatile long delTime;//移动到垃圾箱的时间
+    private volatile long fileCount;//目录下所有文件的数量，包含子目录中的文件，创建、删除文件时逐级更新
+    private volatile long totalSize;//目录下所有文件的大小之和
     private Node parent;
+    private long version;//节点所属的目录树版本，用于写时复制
+    private long id;//inode id，开启路径缓存时分配，写时复制的节点和原节点相同，没有分配时为0
 
     public Node() {
-        this.children = new TreeMap<>();
-        this.attr = new HashMap<>();
+        this.children = Collections.emptyNavigableMap();
+        // 大部分文件只有数值属性，第一次放入其他属性时才创建map
+        this.attr = Collections.emptyMap();
         this.parent = null;
     }
 
@@ -48,21 +64,24 @@ public class Node {
     /**
      * 获取当前节点的全名路径
      *
+     * <p>通过parent反推，只对deepCopy出来的节点或者持有写锁时的当前版本节点可靠；
+     * 写时复制之后旧节点的parent可能指向新复制出来的节点，目录树内部需要全路径时在遍历中拼接
+     *
      * @return 当前节点的全路径
      */
     public String getFullPath() {
-        return getFullPathInternal(this);
-    }
-
-    private String getFullPathInternal(Node parent) {
-        if (parent == null) {
-            return null;
+        // 从当前节点向上收集各级名称，再一次拼接，根节点返回空字符串
+        Deque<String> names = new ArrayDeque<>();
+        int length = 0;
+        for (Node node = this; node.parent != null; node = node.parent) {
+            names.push(node.path);
+            length += node.path.length() + 1;
         }
-        String parentPath = getFullPathInternal(parent.getParent());
-        if (parentPath == null) {
-            return "";
+        StringBuilder fullPath = new StringBuilder(length);
+        for (String name : names) {
+            fullPath.append('/').append(name);
         }
-        return parentPath + "/" + parent.path;
+        return fullPath.toString();
     }
 
     public static INode toINode(Node node) {
@@ -131,44 +150,327 @@ public class Node {
         int type = node.getType();
         ret.setPath(path);
         ret.setType(type);
-        ret.putAllAttr(node.getAttr());
+        ret.id = node.id;
+        ret.copyAttr(node);
+        ret.fileCount = node.fileCount;
+        ret.totalSize = node.totalSize;
         if (level > 0) {
-            TreeMap<String, Node> children = node.children;
-            if (!children.isEmpty()) {
-                for (String key : children.keySet()) {
-                    //递归调用deepCopy，设置孩子节点的信息
-                    ret.addChildren(deepCopy(children.get(key), level - 1));
-                }
+            // 其他线程可能同时在这个目录下创建文件，遍历不加锁，读到的是遍历过程中某一时刻的孩子节点
+            for (Node child : node.children.values()) {
+                //递归调用deepCopy，设置孩子节点的信息
+                ret.addChildren(deepCopy(child, level - 1));
             }
         }
         return ret;
     }
 
     /**
+     * <pre>
      * 添加一个孩子节点
      *
+     * 1. 修改孩子节点的方法都在当前节点上加锁，读取孩子节点不加锁
+     * 2. 第一次添加时才创建ConcurrentSkipListMap，通过volatile发布，
+     *    孩子节点在放入map之前已经初始化完成，并发读取的线程不会看到初始化了一半的节点
+     * </pre>
+     *
      * @param child 孩子节点
      */
-    public void addChildren(Node child) {
-        synchronized (children) {
-            child.setParent(this);
-            this.children.put(child.getPath(), child);
+    public synchronized void addChildren(Node child) {
+        child.setParent(this);
+        if (!(children instanceof ConcurrentSkipListMap)) {
+            children = new ConcurrentSkipListMap<>();
         }
+        this.children.put(child.getPath(), child);
     }
 
     /**
-     * 获取孩子节点
+     * 获取孩子节点，不加锁
      *
      * @param child 孩子节点
      */
     public Node getChildren(String child) {
-        synchronized (children) {
-            return children.get(child);
+        return children.get(child);
+    }
+
+    /**
+     * 孩子节点不存在时才添加
+     *
+     * @param child 孩子节点
+     * @return 同名的孩子节点已经存在时返回false
+     */
+    public synchronized boolean addChildrenIfAbsent(Node child) {
+        if (children.containsKey(child.getPath())) {
+            return false;
+        }
+        addChildren(child);
+        return true;
+    }
+
+    /**
+     * 删除孩子节点
+     *
+     * @param child 孩子节点名称
+     * @return 被删除的节点，不存在返回null
+     */
+    public synchronized Node removeChildren(String child) {
+        return children.remove(child);
+    }
+
+    /**
+     * 获取当前版本的孩子节点用于修改，孩子节点属于某个快照时先复制，并替换当前节点中的引用
+     *
+     * 多个线程同时调用时只会复制一次，调用方需要保证当前节点属于当前版本
+     *
+     * @param child   孩子节点名称
+     * @param version 当前版本
+     * @return 当前版本的孩子节点，不存在返回null
+     */
+    public synchronized Node getWritableChildren(String child, long version) {
+        Node node = children.get(child);
+        if (node == null || node.version == version) {
+            return node;
+        }
+        Node copy = node.copyForWrite(version);
+        addChildren(copy);
+        return copy;
+    }
+
+    /**
+     * 获取当前版本的孩子目录用于修改，不存在时创建
+     *
+     * @param child   孩子目录名称
+     * @param version 当前版本
+     * @return 当前版本的孩子节点
+     */
+    public synchronized Node getOrCreateDirectory(String child, long version) {
+        Node node = getWritableChildren(child, version);
+        if (node == null) {
+            node = new Node(child, NodeType.DIRECTORY.getValue());
+            node.version = version;
+            addChildren(node);
+        }
+        return node;
+    }
+
+    /**
+     * 复制当前节点用于写入：复制属性和孩子节点的引用，孩子节点本身不复制
+     *
+     * @param version 新节点的版本
+     * @return 新节点
+     */
+    public Node copyForWrite(long version) {
+        Node copy = new Node(path, type);
+        copy.version = version;
+        copy.id = id;
+        copy.parent = parent;
+        copy.copyAttr(this);
+        copy.fileCount = fileCount;
+        copy.totalSize = totalSize;
+        // 快照中的节点不会再被修改，复制时不需要加锁
+        if (!children.isEmpty()) {
+            copy.children = new ConcurrentSkipListMap<>(children);
+        }
+        // 快照不会通过parent访问父节点，孩子节点的父节点直接指向新节点
+        for (Node child : copy.children.values()) {
+            child.setParent(copy);
+        }
+        return copy;
+    }
+
+    /**
+     * 子树中的文件数量，文件节点为1
+     */
+    public long subtreeFileCount() {
+        return isFile() ? 1L : fileCount;
+    }
+
+    /**
+     * 子树中的文件大小之和，文件节点为文件本身的大小
+     */
+    public long subtreeSize() {
+        return isFile() ? fileSize : totalSize;
+    }
+
+    /**
+     * 从当前目录开始逐级向上调整汇总的文件数量和大小，调用方需要保证路径上的节点都属于当前版本
+     *
+     * 不同子树的修改会同时更新共同的祖先目录，每个节点单独加锁
+     *
+     * @param fileCount 文件数量的变化
+     * @param size      文件大小的变化
+     */
+    public void updateAggregates(long fileCount, long size) {
+        for (Node node = this; node != null; node = node.parent) {
+            node.addAggregates(fileCount, size);
         }
     }
 
+    private synchronized void addAggregates(long fileCount, long size) {
+        this.fileCount += fileCount;
+        this.totalSize += size;
+    }
+
+    /**
+     * 重新计算子树中每个目录汇总的文件数量和大小，用于加载FsImage之后
+     *
+     * @param node 子树的根节点
+     */
+    public static void computeAggregates(Node node) {
+        if (node.isFile()) {
+            return;
+        }
+        long count = 0L;
+        long size = 0L;
+        for (Node child : node.children.values()) {
+            computeAggregates(child);
+            count += child.subtreeFileCount();
+            size += child.subtreeSize();
+        }
+        node.fileCount = count;
+        node.totalSize = size;
+    }
+
+    /**
+     * 获取全部属性，数值属性转换成字符串合并进来
+     *
+     * 每次调用都会创建新的map，修改返回的map不会影响节点，热点路径直接使用数值字段。
+     * 不加锁读取：先读标记位再读数值，写入时先写数值再写标记位，读到标记位时一定能读到对应的数值
+     *
+     * @return 全部属性
+     */
+    public Map<String, String> getAttr() {
+        Map<String, String> ret = new HashMap<>(attr);
+        if ((numericAttrs & NumericAttrs.FILE_SIZE) != 0) {
+            ret.put(Constants.ATTR_FILE_SIZE, String.valueOf(fileSize));
+        }
+        if ((numericAttrs & NumericAttrs.REPLICA_NUM) != 0) {
+            ret.put(Constants.ATTR_REPLICA_NUM, String.valueOf(replicaNum));
+        }
+        if ((numericAttrs & NumericAttrs.DEL_TIME) != 0) {
+            ret.put(Constants.ATTR_FILE_DEL_TIME, String.valueOf(delTime));
+        }
+        return ret;
+    }
+
+    /**
+     * 只获取用户自定义的属性，不包含数值属性，不能修改
+     */
+    public Map<String, String> getUserAttr() {
+        return Collections.unmodifiableMap(attr);
+    }
+
     public void putAllAttr(Map<String, String> attr) {
-        this.attr.putAll(attr);
+        for (Map.Entry<String, String> entry : attr.entrySet()) {
+            putAttr(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * 放入一个属性，数值属性保存到数值字段中
+     */
+    public void putAttr(String key, String value) {
+        int flag = NumericAttrs.flagOf(key);
+        if (flag != 0 && NumericAttrs.isCanonical(flag, value)) {
+            if (flag == NumericAttrs.FILE_SIZE) {
+                setFileSize(Long.parseLong(value));
+            } else if (flag == NumericAttrs.REPLICA_NUM) {
+                setReplicaNum(Integer.parseInt(value));
+            } else {
+                setDelTime(Long.parseLong(value));
+            }
+            return;
+        }
+        // 无法保存成数值的同名属性以字符串为准
+        if (flag != 0) {
+            clearNumericFlag(flag);
+        }
+        // 属性map写时复制，其他线程复制节点时不会读到修改了一半的map
+        Map<String, String> updated = new HashMap<>(this.attr);
+        updated.put(key, value);
+        this.attr = updated;
+    }
+
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+        setNumericFlag(NumericAttrs.FILE_SIZE);
+    }
+
+    public void setReplicaNum(int replicaNum) {
+        this.replicaNum = replicaNum;
+        setNumericFlag(NumericAttrs.REPLICA_NUM);
+    }
+
+    public void setDelTime(long delTime) {
+        this.delTime = delTime;
+        setNumericFlag(NumericAttrs.DEL_TIME);
+    }
+
+    /**
+     * 副本数，没有设置时返回默认值
+     */
+    public int getReplicaNum(int defaultValue) {
+        return (numericAttrs & NumericAttrs.REPLICA_NUM) != 0 ? replicaNum : defaultValue;
+    }
+
+    public boolean hasDelTime() {
+        return (numericAttrs & NumericAttrs.DEL_TIME) != 0;
+    }
+
+    /**
+     * 放入FsImage或者editlog中保存的数值属性
+     *
+     * @param numericAttrs 数值属性的标记位
+     */
+    public void putNumericAttrs(int numericAttrs, long fileSize, int replicaNum, long delTime) {
+        if ((numericAttrs & NumericAttrs.FILE_SIZE) != 0) {
+            setFileSize(fileSize);
+        }
+        if ((numericAttrs & NumericAttrs.REPLICA_NUM) != 0) {
+            setReplicaNum(replicaNum);
+        }
+        if ((numericAttrs & NumericAttrs.DEL_TIME) != 0) {
+            setDelTime(delTime);
+        }
+    }
+
+    private void setNumericFlag(int flag) {
+        numericAttrs |= flag;
+        if (attr.containsKey(keyOf(flag))) {
+            Map<String, String> updated = new HashMap<>(attr);
+            updated.remove(keyOf(flag));
+            this.attr = updated;
+        }
+    }
+
+    private void clearNumericFlag(int flag) {
+        numericAttrs &= ~flag;
+        if (flag == NumericAttrs.FILE_SIZE) {
+            fileSize = 0L;
+        } else if (flag == NumericAttrs.REPLICA_NUM) {
+            replicaNum = 0;
+        } else {
+            delTime = 0L;
+        }
+    }
+
+    private static String keyOf(int flag) {
+        if (flag == NumericAttrs.FILE_SIZE) {
+            return Constants.ATTR_FILE_SIZE;
+        }
+        return flag == NumericAttrs.REPLICA_NUM ? Constants.ATTR_REPLICA_NUM : Constants.ATTR_FILE_DEL_TIME;
+    }
+
+    /**
+     * 复制另一个节点的全部属性
+     */
+    private void copyAttr(Node node) {
+        if (!node.attr.isEmpty()) {
+            this.attr = new HashMap<>(node.attr);
+        }
+        this.numericAttrs = node.numericAttrs;
+        this.fileSize = node.fileSize;
+        this.replicaNum = node.replicaNum;
+        this.delTime = node.delTime;
     }
 
     @Override
@@ -177,7 +479,7 @@ public class Node {
                 "path='" + path + '\'' +
                 ", type=" + type +
                 ", children=" + children +
-                ", attr=" + attr +
+                ", attr=" + getAttr() +
                 '}';
     }
 }
@@ -0,0 +1,59 @@
+package com.bytetenns.namenode.fs;
+
+import com.bytetenns.common.netty.Constants;
+
+/**
+ * <pre>
+ * 文件大小、副本数、删除时间这三个数值属性的标记位和编码规则
+ *
+ * 1. 内存目录树、FsImage和editlog都用数值保存这三个属性，用一个int的标记位记录哪些属性存在
+ * 2. 只有解析之后再转回字符串还完全一样的值才保存成数值，保证转换回map之后属性不变，
+ *    其他的值仍然作为字符串保存在属性map中
+ * </pre>
+ */
+public final class NumericAttrs {
+
+    public static final int FILE_SIZE = 1;
+    public static final int REPLICA_NUM = 1 << 1;
+    public static final int DEL_TIME = 1 << 2;
+
+    private NumericAttrs() {
+    }
+
+    /**
+     * 属性名对应的标记位，不是数值属性返回0
+     */
+    public static int flagOf(String key) {
+        if (Constants.ATTR_FILE_SIZE.equals(key)) {
+            return FILE_SIZE;
+        } else if (Constants.ATTR_REPLICA_NUM.equals(key)) {
+            return REPLICA_NUM;
+        } else if (Constants.ATTR_FILE_DEL_TIME.equals(key)) {
+            return DEL_TIME;
+        }
+        return 0;
+    }
+
+    /**
+     * 属性值是否可以按照属性名对应的类型保存成数值
+     */
+    public static boolean isCanonical(int flag, String value) {
+        return flag == REPLICA_NUM ? isCanonicalInt(value) : isCanonicalLong(value);
+    }
+
+    public static boolean isCanonicalLong(String value) {
+        try {
+            return String.valueOf(Long.parseLong(value)).equals(value);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public static boolean isCanonicalInt(String value) {
+        try {
+            return String.valueOf(Integer.parseInt(value)).equals(value);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
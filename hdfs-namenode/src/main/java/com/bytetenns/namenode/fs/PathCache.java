@@ -0,0 +1,119 @@
+package com.bytetenns.namenode.fs;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <pre>
+ * 热点文件的路径解析缓存
+ *
+ * 1. 目录树中的每个节点都分配一个64位的inode id，inodes保存id到当前版本节点的映射，
+ *    节点写时复制之后替换成新节点，节点删除时移除
+ * 2. 路径缓存是固定大小的直接映射表：路径哈希到一个槽位，槽位里保存路径和inode id，冲突时直接覆盖，
+ *    查询和更新都不加锁，也不需要维护LRU链表，访问集中在少量热点文件时命中率很高
+ * 3. 命中路径之后还要在inodes中找到节点才有效，删除节点时会从inodes中移除，
+ *    所以缓存中残留的旧路径只会多一次查找，删除之后不会再返回已经删除的节点
+ * 4. 重新加载FsImage时整个替换成新的实例
+ * </pre>
+ */
+final class PathCache {
+
+    private final AtomicLong lastInodeId = new AtomicLong();
+    private final Map<Long, Node> inodes = new ConcurrentHashMap<>();
+    private final Entry[] slots;
+    private final int mask;
+
+    /**
+     * @param size 路径缓存的槽位数量，向上取整到2的幂
+     */
+    PathCache(int size) {
+        int capacity = size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+        this.slots = new Entry[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * 登记当前版本的节点，还没有inode id时先分配
+     */
+    void register(Node node) {
+        if (node.getId() == 0L) {
+            node.setId(lastInodeId.incrementAndGet());
+        }
+        if (inodes.get(node.getId()) != node) {
+            inodes.put(node.getId(), node);
+        }
+    }
+
+    /**
+     * 登记整棵子树，用于加载FsImage之后
+     */
+    void registerAll(Node subtree) {
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(subtree);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            register(node);
+            for (Node child : node.getChildren().values()) {
+                stack.push(child);
+            }
+        }
+    }
+
+    /**
+     * 节点从目录树中删除，同时清理路径缓存
+     *
+     * @param path 节点的路径
+     * @param node 被删除的节点
+     */
+    void unregister(String path, Node node) {
+        inodes.remove(node.getId());
+        int slot = slotOf(path);
+        Entry entry = slots[slot];
+        if (entry != null && entry.path.equals(path)) {
+            slots[slot] = null;
+        }
+    }
+
+    /**
+     * 根据路径查找节点
+     *
+     * @return 没有缓存或者节点已经删除时返回null
+     */
+    Node get(String path) {
+        Entry entry = slots[slotOf(path)];
+        if (entry == null || !entry.path.equals(path)) {
+            return null;
+        }
+        return inodes.get(entry.inodeId);
+    }
+
+    /**
+     * 缓存路径解析的结果，还没有分配inode id的节点不缓存
+     */
+    void put(String path, Node node) {
+        if (node.getId() != 0L) {
+            slots[slotOf(path)] = new Entry(path, node.getId());
+        }
+    }
+
+    private int slotOf(String path) {
+        int h = path.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * 槽位中的内容不可变，整体替换，不加锁读取时不会读到一半的数据
+     */
+    private static final class Entry {
+        private final String path;
+        private final long inodeId;
+
+        private Entry(String path, long inodeId) {
+            this.path = path;
+            this.inodeId = inodeId;
+        }
+    }
+}
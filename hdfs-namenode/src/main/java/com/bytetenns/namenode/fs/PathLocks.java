@@ -0,0 +1,86 @@
+package com.bytetenns.namenode.fs;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <pre>
+ * 按路径分段的读写锁，FsDirectory用它锁住路径上的各级目录，互不相交的子树可以并发修改
+ *
+ * 1. 第i层的锁对应路径的前i级目录，比如/a/b/c.png的第1层是/a，第2层是/a/b，根目录由FsDirectory自己的锁负责
+ * 2. 路径哈希之后映射到固定数量的分段上，不需要为每个目录创建锁，不同的路径可能共用一个分段，只会多等待，不会漏掉互斥
+ * 3. 一次操作需要的锁在开始之前全部算出来，按分段编号从小到大加锁，同一个分段既要读锁又要写锁时只加写锁，
+ *    所以加锁顺序全局一致，不会死锁
+ * </pre>
+ */
+final class PathLocks {
+
+    private final ReentrantReadWriteLock[] stripes;
+    private final int mask;
+
+    /**
+     * @param stripes 分段数量，向上取整到2的幂
+     */
+    PathLocks(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new ReentrantReadWriteLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantReadWriteLock();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * 锁住路径上第1层到第levels层的目录
+     *
+     * @param paths     路径拆分之后的各级名称
+     * @param levels    需要加锁的层数，不能超过paths的长度
+     * @param writeFrom 从第几层开始加写锁，更浅的层加读锁
+     * @return 已经加上的锁，用完之后必须关闭
+     */
+    Held lock(String[] paths, int levels, int writeFrom) {
+        // 分段编号左移一位，最低位表示是否加写锁，排序之后同一个分段相邻，写锁排在后面
+        int[] keys = new int[levels];
+        int hash = 0;
+        for (int i = 0; i < levels; i++) {
+            hash = hash * 31 + paths[i].hashCode();
+            int h = hash ^ (hash >>> 16);
+            keys[i] = ((h & mask) << 1) | (i + 1 >= writeFrom ? 1 : 0);
+        }
+        Arrays.sort(keys);
+        Lock[] locks = new Lock[levels];
+        int count = 0;
+        for (int i = 0; i < levels; i++) {
+            int stripe = keys[i] >>> 1;
+            if (i + 1 < levels && keys[i + 1] >>> 1 == stripe) {
+                continue;
+            }
+            ReentrantReadWriteLock lock = stripes[stripe];
+            locks[count] = (keys[i] & 1) != 0 ? lock.writeLock() : lock.readLock();
+            locks[count].lock();
+            count++;
+        }
+        return new Held(locks, count);
+    }
+
+    /**
+     * 一次操作持有的锁，按加锁的相反顺序释放
+     */
+    static final class Held implements AutoCloseable {
+        private final Lock[] locks;
+        private final int count;
+
+        private Held(Lock[] locks, int count) {
+            this.locks = locks;
+            this.count = count;
+        }
+
+        @Override
+        public void close() {
+            for (int i = count - 1; i >= 0; i--) {
+                locks[i].unlock();
+            }
+        }
+    }
+}
@@ -9,7 +9,7 @@ import lombok.extern.slf4j.Slf4j;
 import java.io.File;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.TreeMap;
+import java.util.NavigableMap;
 
 /**
  * 默认的垃圾清除机制
@@ -36,7 +36,7 @@ public class TrashPolicyDefault implements Runnable {
         }
         long currentTime = System.currentTimeMillis();
         Node node = diskNameSystem.listFiles("/");
-        TreeMap<String, Node> children = node.getChildren();
+        NavigableMap<String, Node> children = node.getChildren();
         for (String user : children.keySet()) {
             Node userTrashNode = node.getChildren().get(user).getChildren().get(Constants.TRASH_DIR);
             if (userTrashNode != null) {
@@ -62,11 +62,10 @@ public class TrashPolicyDefault implements Runnable {
     private void scan(String path, Node node, long currentTime, List<String> toRemoveFilename) {
         String basePath = path + File.separator + node.getPath();
         if (node.getChildren().isEmpty()) {
-            String deleteTime = node.getAttr().get(Constants.ATTR_FILE_DEL_TIME);
-            if (deleteTime == null) {
+            if (!node.hasDelTime()) {
                 return;
             }
-            long delTime = Long.parseLong(deleteTime);
+            long delTime = node.getDelTime();
             boolean isFile = NodeType.FILE.getValue() == node.getType();
             if (currentTime - clearStorageThreshold > delTime && isFile) {
                 toRemoveFilename.add(basePath);
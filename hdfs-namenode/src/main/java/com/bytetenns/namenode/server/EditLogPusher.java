@@ -0,0 +1,219 @@
+package com.bytetenns.namenode.server;
+
+import com.bytetenns.common.enums.PacketType;
+import com.bytetenns.common.netty.NettyPacket;
+import com.bytetenns.common.scheduler.DefaultThread;
+import com.bytetenns.dfs.model.backup.BackupNodeSlots;
+import com.bytetenns.dfs.model.backup.FetchEditsLogResponse;
+import com.bytetenns.namenode.NameNodeConfig;
+import com.bytetenns.namenode.editlog.EditLogWrapper;
+import com.bytetenns.namenode.editlog.FsEditLog;
+import io.netty.channel.Channel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+/**
+ * <pre>
+ * 往订阅了EditLog的BackupNode主动推送刷盘之后的EditLog
+ *
+ * 1. BackupNode订阅时带上自己已经回放的txid，从这个txid之后开始推送
+ * 2. FsEditLog每次刷盘完成之后唤醒推送线程，推送线程读取已经刷盘的EditLog发送给BackupNode
+ * 3. 流控：已经推送但BackupNode还没有确认的EditLog超过窗口大小，或者channel不可写时暂停推送
+ * 4. BackupNode发现txid不连续时会重新订阅，推送位置重置为重新订阅的txid
+ *    如果需要的EditLog已经被清理，推送一个带错误信息的包并停止推送，BackupNode无法再追上，不再重新订阅
+ * 5. 集群模式下槽位信息也通过推送下发：订阅成功之后先推送一次当前的槽位，之后槽位每次变化都再推送一次
+ * 6. 推送线程只在读取和更新推送位置时持有锁，读取EditLog文件和写channel都在锁外，
+ *    Netty线程里的确认、订阅和取消订阅不会被磁盘IO阻塞；读取期间重新订阅过的批次直接丢弃
+ * </pre>
+ */
+@Slf4j
+public class EditLogPusher {
+
+    private final FsEditLog editLog;
+    private final NameNodeConfig nameNodeConfig;
+    private final DefaultThread pushThread;
+    private volatile boolean running = true;
+    private Channel channel;
+    private boolean acceptCompression;
+    private long pushedTxId;
+    private long ackedTxId;
+    private Map<Integer, Integer> slots;
+    private boolean slotsPending;
+    /**
+     * 每次订阅加1，用来发现读取EditLog期间BackupNode重新订阅了
+     */
+    private long generation;
+
+    public EditLogPusher(NameNodeConfig nameNodeConfig, FsEditLog editLog) {
+        this.nameNodeConfig = nameNodeConfig;
+        this.editLog = editLog;
+        this.pushThread = new DefaultThread("EditLog-Pusher", this::pushLoop, true);
+        this.pushThread.start();
+        this.editLog.addSyncListener(this::wakeup);
+    }
+
+    /**
+     * BackupNode订阅EditLog
+     *
+     * @param channel           BackupNode的连接
+     * @param txId              从这个txid之后开始推送
+     * @param acceptCompression BackupNode是否支持压缩
+     */
+    public void subscribe(Channel channel, long txId, boolean acceptCompression) {
+        synchronized (this) {
+            this.channel = channel;
+            this.acceptCompression = acceptCompression;
+            this.pushedTxId = txId;
+            this.ackedTxId = txId;
+            this.slotsPending = true;
+            this.generation++;
+        }
+        log.info("BackupNode订阅EditLog：[txId={}]", txId);
+        wakeup();
+    }
+
+    /**
+     * 槽位分配发生变化，推送给已经订阅的BackupNode
+     *
+     * @param slots 最新的槽位分配
+     */
+    public void updateSlots(Map<Integer, Integer> slots) {
+        synchronized (this) {
+            this.slots = slots;
+            this.slotsPending = true;
+        }
+        wakeup();
+    }
+
+    /**
+     * 当前的槽位分配，还没有分配时返回null
+     */
+    public synchronized Map<Integer, Integer> getSlots() {
+        return slots;
+    }
+
+    /**
+     * BackupNode确认已经回放的EditLog
+     */
+    public void ack(Channel channel, long txId) {
+        synchronized (this) {
+            if (this.channel != channel) {
+                return;
+            }
+            this.ackedTxId = Math.max(ackedTxId, txId);
+        }
+        wakeup();
+    }
+
+    /**
+     * BackupNode断开连接
+     */
+    public synchronized void unsubscribe(Channel channel) {
+        if (this.channel == channel) {
+            this.channel = null;
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        wakeup();
+    }
+
+    private void wakeup() {
+        LockSupport.unpark(pushThread);
+    }
+
+    private void pushLoop() {
+        while (running) {
+            boolean pushed = false;
+            try {
+                pushed = pushOnce();
+            } catch (Exception e) {
+                log.error("推送EditLog失败：", e);
+            }
+            if (!pushed) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+            }
+        }
+    }
+
+    /**
+     * 推送一批EditLog
+     *
+     * @return 是否推送了数据
+     */
+    private boolean pushOnce() throws IOException {
+        Channel channel;
+        boolean acceptCompression;
+        long pushedTxId;
+        long generation;
+        Map<Integer, Integer> slots = null;
+        int maxCount;
+        synchronized (this) {
+            channel = this.channel;
+            if (channel == null || !channel.isActive() || !channel.isWritable()) {
+                return false;
+            }
+            if (slotsPending && this.slots != null) {
+                slots = this.slots;
+                slotsPending = false;
+            }
+            acceptCompression = this.acceptCompression;
+            pushedTxId = this.pushedTxId;
+            generation = this.generation;
+            long inflight = pushedTxId - ackedTxId;
+            int window = nameNodeConfig.getEditLogPushWindow();
+            maxCount = (int) Math.min(FetchEditLogBuffer.BACKUP_NODE_MAX_FETCH_SIZE, window - inflight);
+        }
+        if (slots != null) {
+            log.info("下发给BackupNode最新的槽位信息.");
+            BackupNodeSlots backupNodeSlots = BackupNodeSlots.newBuilder()
+                    .putAllSlots(slots)
+                    .build();
+            channel.writeAndFlush(NettyPacket.buildPacket(backupNodeSlots.toByteArray(), PacketType.BACKUP_NODE_SLOT));
+        }
+        if (maxCount <= 0 || editLog.getSyncTxid() <= pushedTxId) {
+            return false;
+        }
+        List<EditLogWrapper> editLogs = editLog.readSyncedEditLogs(pushedTxId, maxCount);
+        if (editLogs.isEmpty()) {
+            return false;
+        }
+        long firstTxId = editLogs.get(0).getTxId();
+        if (firstTxId > pushedTxId + 1) {
+            synchronized (this) {
+                if (this.generation != generation) {
+                    return false;
+                }
+                this.channel = null;
+            }
+            log.error("BackupNode需要的EditLog已经被清理，停止推送：[txId={}, 最早的txId={}]", pushedTxId, firstTxId);
+            NettyPacket packet = NettyPacket.buildPacket(new byte[0], PacketType.PUSH_EDIT_LOG);
+            packet.setError("EditLog已经被清理：[txId=" + pushedTxId + ", 最早的txId=" + firstTxId + "]");
+            channel.writeAndFlush(packet);
+            return false;
+        }
+        FetchEditsLogResponse response = FetchEditsLogResponse.newBuilder()
+                .addAllEditLogs(editLogs.stream()
+                        .map(EditLogWrapper::getEditLog)
+                        .collect(Collectors.toList()))
+                .build();
+        if (acceptCompression) {
+            response = FetchEditLogBuffer.compress(response, nameNodeConfig.getEditLogFetchCompressionType());
+        }
+        synchronized (this) {
+            if (this.generation != generation) {
+                return false;
+            }
+            this.pushedTxId = editLogs.get(editLogs.size() - 1).getTxId();
+        }
+        channel.writeAndFlush(NettyPacket.buildPacket(response.toByteArray(), PacketType.PUSH_EDIT_LOG));
+        return true;
+    }
+}
@@ -1,8 +1,12 @@
 package com.bytetenns.namenode.server;
 
+import com.bytetenns.common.enums.CompressionType;
+import com.bytetenns.common.utils.CompressUtil;
+import com.bytetenns.dfs.model.backup.FetchEditsLogResponse;
 import com.bytetenns.namenode.editlog.EditLogWrapper;
 import com.bytetenns.namenode.editlog.EditslogInfo;
 import com.bytetenns.namenode.fs.DiskNameSystem;
+import com.google.protobuf.ByteString;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
@@ -21,6 +25,14 @@ import java.util.List;
 public class FetchEditLogBuffer {
 
     public static final int BACKUP_NODE_FETCH_SIZE = 10;
+    /**
+     * 从内存缓存中一次最多返回的editlog条数
+     */
+    public static final int BACKUP_NODE_MAX_FETCH_SIZE = 10000;
+    /**
+     * 响应超过这个大小才压缩
+     */
+    private static final int COMPRESS_THRESHOLD = 1024;
     private List<EditLogWrapper> bufferedEditLog = new ArrayList<>();
     private DiskNameSystem nameSystem;
 
@@ -31,6 +43,7 @@ public class FetchEditLogBuffer {
     /**
      * <pre>
      * 抓取Editlog
+     * 0. 优先从FsEditLog的内存缓存中读取，缓存中的数据已经被覆盖时再走下面读文件的流程
      * 1. 判断缓冲区的editslog数量没有达到阈值
      *      1.1 尝试从editslog日志文件中读取editslog
      *      1.2 如果editslog日志明显已经读取过了，直接将内存中最新的editslog读取到缓存中
@@ -43,6 +56,11 @@ public class FetchEditLogBuffer {
      * @return editLog结果
      */
     public List<EditLogWrapper> fetch(long txId) throws IOException {
+        List<EditLogWrapper> cached = nameSystem.getEditLog().fetchFromTailCache(txId, BACKUP_NODE_MAX_FETCH_SIZE);
+        if (cached != null) {
+            bufferedEditLog.clear();
+            return cached.size() >= BACKUP_NODE_FETCH_SIZE ? cached : new ArrayList<>();
+        }
         List<EditLogWrapper> result = new ArrayList<>();
         if (bufferedEditLog.size() <= BACKUP_NODE_FETCH_SIZE) {
             fetchEditLogAppendBuffer(txId);
@@ -73,7 +91,7 @@ public class FetchEditLogBuffer {
                     // 如果当前最大的txid已经入了缓存了，则检查下一个文件
                     continue;
                 }
-                List<EditLogWrapper> editsLogs = nameSystem.getEditLog().readEditLogFromFile(each.getName());
+                List<EditLogWrapper> editsLogs = nameSystem.getEditLog().readEditLogFromFile(each);
                 // 整个文件保存到buffer中
                 appendInternal(txId, editsLogs);
                 // 如果当前文件缓存到editlog中已经满足抓取的需求，则跳出循环
@@ -112,4 +130,27 @@ public class FetchEditLogBuffer {
             }
         }
     }
+
+    /**
+     * 按照压缩算法压缩editLogs，数据太小或者没有开启压缩时原样返回
+     *
+     * @param response        响应
+     * @param compressionType 压缩算法
+     * @return 压缩后的响应
+     */
+    public static FetchEditsLogResponse compress(FetchEditsLogResponse response, CompressionType compressionType) {
+        if (compressionType == CompressionType.NONE || response.getSerializedSize() < COMPRESS_THRESHOLD) {
+            return response;
+        }
+        byte[] raw = response.toByteArray();
+        byte[] compressed = CompressUtil.compress(compressionType, raw);
+        if (compressed.length >= raw.length) {
+            return response;
+        }
+        return FetchEditsLogResponse.newBuilder()
+                .setCompression(compressionType.getValue())
+                .setCompressedEditLogs(ByteString.copyFrom(compressed))
+                .setRawLength(raw.length)
+                .build();
+    }
 }
@@ -0,0 +1,240 @@
+package com.bytetenns.namenode.server;
+
+import com.bytetenns.common.exception.NameNodeException;
+import com.bytetenns.common.scheduler.DefaultScheduler;
+import com.bytetenns.common.utils.Crc32C;
+import com.bytetenns.common.utils.FileUtil;
+import com.bytetenns.dfs.model.backup.FsImageChunk;
+import com.bytetenns.dfs.model.backup.FsImageUploadCommit;
+import com.bytetenns.dfs.model.backup.FsImageUploadRequest;
+import com.bytetenns.namenode.NameNodeConfig;
+import com.bytetenns.namenode.fs.DiskNameSystem;
+import com.bytetenns.namenode.fs.FsImage;
+import com.bytetenns.namenode.fs.FsImageClearTask;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.regex.Pattern;
+import java.util.zip.Checksum;
+
+/**
+ * <pre>
+ * 接收BackupNode分块上传的FsImage，支持断点续传
+ *
+ * 1. 上传中的数据写在临时文件：checkpoint-{uploadId}.uploading，文件名不包含fsimage，不会被当成FsImage扫描
+ * 2. 每个分块带有CRC32C，校验通过之后才写入，并累加整个文件的CRC32C
+ * 3. 断线重连之后BackupNode用同一个uploadId重新开始，NameNode返回已经写入的字节数，从这个位置继续上传；
+ *    NameNode重启之后从临时文件的长度继续，整个文件的CRC32C从临时文件重新计算
+ * 4. 上传完成之后比较整个文件的CRC32C，并校验FsImage每个分段的校验和，都通过之后才重命名为FsImage文件
+ * 5. 同一时间只保留一个上传任务，开始新的上传时删除旧的临时文件
+ * 6. 校验整个文件比较耗时，BackupNode等待COMMIT超时之后会用同一个uploadId重试BEGIN和COMMIT，
+ *    所以记住最后一次提交成功的uploadId，重复的BEGIN和COMMIT直接返回成功，不会从头重新上传
+ * </pre>
+ */
+@Slf4j
+public class FsImageUploadReceiver {
+
+    private static final Pattern UPLOAD_ID_PATTERN = Pattern.compile("\\d+_\\d+");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final NameNodeConfig nameNodeConfig;
+    private final DefaultScheduler defaultScheduler;
+    private final FsImageClearTask fsImageClearTask;
+    private Upload upload;
+    private String committedUploadId;
+    private long committedSize;
+
+    public FsImageUploadReceiver(NameNodeConfig nameNodeConfig, DefaultScheduler defaultScheduler,
+                                 DiskNameSystem diskNameSystem) {
+        this.nameNodeConfig = nameNodeConfig;
+        this.defaultScheduler = defaultScheduler;
+        this.fsImageClearTask = new FsImageClearTask(diskNameSystem, nameNodeConfig.getBaseDir(),
+                diskNameSystem.getEditLog());
+    }
+
+    /**
+     * 开始或者续传一个FsImage
+     *
+     * @return 已经收到并且校验通过的字节数
+     */
+    public synchronized long begin(FsImageUploadRequest request) throws IOException, NameNodeException {
+        String uploadId = request.getUploadId();
+        if (!UPLOAD_ID_PATTERN.matcher(uploadId).matches()) {
+            throw new NameNodeException("FsImage上传任务id不合法：" + uploadId);
+        }
+        if (uploadId.equals(committedUploadId)) {
+            log.info("FsImage已经接收完成：[uploadId={}, size={}]", uploadId, committedSize);
+            return committedSize;
+        }
+        if (upload != null && upload.uploadId.equals(uploadId)) {
+            log.info("续传FsImage：[uploadId={}, offset={}, size={}]", uploadId, upload.offset, upload.size);
+            return upload.offset;
+        }
+        abort();
+        clearUploadingFiles(uploadId);
+        upload = new Upload(uploadId, request.getSize(), getUploadingFile(uploadId));
+        log.info("开始接收FsImage：[uploadId={}, offset={}, size={}]", uploadId, upload.offset, upload.size);
+        return upload.offset;
+    }
+
+    /**
+     * 写入一个分块
+     *
+     * @return 写入之后已经收到的字节数
+     */
+    public synchronized long append(FsImageChunk chunk) throws IOException, NameNodeException {
+        Upload current = getUpload(chunk.getUploadId());
+        byte[] data = chunk.getData().toByteArray();
+        if (Crc32C.compute(data, 0, data.length) != chunk.getCrc32c()) {
+            throw new NameNodeException("FsImage分块校验和不一致：[uploadId=" + chunk.getUploadId()
+                    + ", offset=" + chunk.getOffset() + "]");
+        }
+        if (chunk.getOffset() + data.length <= current.offset) {
+            // 重连之前已经写入的分块，直接返回当前位置
+            return current.offset;
+        }
+        if (chunk.getOffset() != current.offset) {
+            throw new NameNodeException("FsImage分块不连续：[uploadId=" + chunk.getUploadId() + ", offset="
+                    + chunk.getOffset() + ", expected=" + current.offset + "]");
+        }
+        current.append(data);
+        return current.offset;
+    }
+
+    /**
+     * 完成上传：校验整个文件之后重命名为FsImage文件
+     *
+     * @return 文件大小
+     */
+    public synchronized long commit(FsImageUploadCommit commit) throws IOException, NameNodeException {
+        if (commit.getUploadId().equals(committedUploadId)) {
+            return committedSize;
+        }
+        Upload current = getUpload(commit.getUploadId());
+        if (current.offset != current.size || (int) current.checksum.getValue() != commit.getCrc32c()) {
+            abort();
+            throw new NameNodeException("FsImage上传不完整：[uploadId=" + commit.getUploadId() + "]");
+        }
+        current.close(true);
+        upload = null;
+        if (FsImage.verify(current.path) < 0) {
+            FileUtil.delete(current.path);
+            throw new NameNodeException("FsImage校验失败：[uploadId=" + commit.getUploadId() + "]");
+        }
+        String fsImageFile = nameNodeConfig.getFsimageFile(String.valueOf(System.currentTimeMillis()));
+        Files.move(Paths.get(current.path), Paths.get(fsImageFile), StandardCopyOption.ATOMIC_MOVE);
+        committedUploadId = commit.getUploadId();
+        committedSize = current.size;
+        log.info("FsImage接收完成：[uploadId={}, file={}, size={}]", commit.getUploadId(), fsImageFile,
+                FileUtil.formatSize(current.size));
+        defaultScheduler.scheduleOnce("删除FSImage任务", fsImageClearTask, 0);
+        return current.size;
+    }
+
+    private Upload getUpload(String uploadId) throws NameNodeException {
+        if (upload == null || !upload.uploadId.equals(uploadId)) {
+            throw new NameNodeException("FsImage上传任务不存在：" + uploadId);
+        }
+        return upload;
+    }
+
+    /**
+     * 放弃当前的上传任务，删除临时文件
+     */
+    private void abort() {
+        if (upload == null) {
+            return;
+        }
+        try {
+            upload.close(false);
+        } catch (IOException e) {
+            log.error("关闭FsImage临时文件失败：", e);
+        }
+        FileUtil.delete(upload.path);
+        log.info("放弃FsImage上传：[uploadId={}, offset={}]", upload.uploadId, upload.offset);
+        upload = null;
+    }
+
+    /**
+     * 删除其他上传任务留下的临时文件，比如NameNode重启之前没有完成的上传
+     */
+    private void clearUploadingFiles(String uploadId) {
+        File[] files = new File(nameNodeConfig.getBaseDir()).listFiles();
+        if (files == null) {
+            return;
+        }
+        String keep = new File(getUploadingFile(uploadId)).getName();
+        for (File file : files) {
+            if (file.getName().startsWith("checkpoint-") && file.getName().endsWith(".uploading")
+                    && !file.getName().equals(keep)) {
+                FileUtil.delete(file);
+                log.info("删除FsImage临时文件：[file={}]", file.getAbsolutePath());
+            }
+        }
+    }
+
+    private String getUploadingFile(String uploadId) {
+        return nameNodeConfig.getBaseDir() + File.separator + "checkpoint-" + uploadId + ".uploading";
+    }
+
+    private static class Upload {
+        private final String uploadId;
+        private final long size;
+        private final String path;
+        private final RandomAccessFile raf;
+        private final FileChannel channel;
+        private final Checksum checksum = Crc32C.create();
+        private long offset;
+
+        private Upload(String uploadId, long size, String path) throws IOException {
+            this.uploadId = uploadId;
+            this.size = size;
+            this.path = path;
+            FileUtil.mkdirParent(path);
+            this.raf = new RandomAccessFile(path, "rw");
+            this.channel = raf.getChannel();
+            // 临时文件是NameNode重启之前写入的，从文件末尾继续，重新计算已有数据的校验和
+            long length = Math.min(raf.length(), size);
+            channel.truncate(length);
+            try (FileInputStream fis = new FileInputStream(path)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long remaining = length;
+                int read;
+                while (remaining > 0 && (read = fis.read(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0) {
+                    checksum.update(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+            this.offset = length;
+        }
+
+        private void append(byte[] data) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, offset + buffer.position());
+            }
+            // 整个分块写入成功之后再更新位置和校验和，写入失败时续传会覆盖这个分块
+            offset += data.length;
+            checksum.update(data, 0, data.length);
+        }
+
+        private void close(boolean force) throws IOException {
+            try {
+                if (force) {
+                    channel.force(true);
+                }
+            } finally {
+                channel.close();
+                raf.close();
+            }
+        }
+    }
+}
@@ -45,7 +45,6 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 /**
@@ -64,9 +63,9 @@ public class NameNodeApis extends AbstractChannelHandler {
     protected int nodeId;
     private final NameNodeLaunchMode mode;
     private final FetchEditLogBuffer fetchEditLogBuffer;
-    private final AtomicBoolean slotsChanged = new AtomicBoolean(false);
-    private Map<Integer, Integer> slots;
+    private final EditLogPusher editLogPusher;
     private final FileReceiveHandler fileReceiveHandler;
+    private final FsImageUploadReceiver fsImageUploadReceiver;
     private BackupNodeInfoHolder backupNodeInfoHolder;
 
     public NameNodeApis(NameNodeConfig nameNodeConfig, DataNodeManager dataNodeManager,
@@ -80,14 +79,12 @@ public class NameNodeApis extends AbstractChannelHandler {
         this.mode = nameNodeConfig.getMode();
         this.defaultScheduler = defaultScheduler;
         this.fetchEditLogBuffer = new FetchEditLogBuffer(diskNameSystem);
-//        this.shardingManager.addOnSlotAllocateCompletedListener(slots -> {
-//            if (slotsChanged.compareAndSet(false, true)) {
-//                this.slots = slots;
-//            }
-//        });
+        this.editLogPusher = new EditLogPusher(nameNodeConfig, diskNameSystem.getEditLog());
+//        this.shardingManager.addOnSlotAllocateCompletedListener(editLogPusher::updateSlots);
         FsImageFileTransportCallback fsImageFileTransportCallback = new FsImageFileTransportCallback(nameNodeConfig,
                 defaultScheduler, diskNameSystem);
         this.fileReceiveHandler = new FileReceiveHandler(fsImageFileTransportCallback);
+        this.fsImageUploadReceiver = new FsImageUploadReceiver(nameNodeConfig, defaultScheduler, diskNameSystem);
         this.executor = new ThreadPoolExecutor(nameNodeConfig.getNameNodeApiCoreSize(), nameNodeConfig.getNameNodeApiMaximumPoolSize(),
                 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(nameNodeConfig.getNameNodeApiQueueSize()));
     }
@@ -119,6 +116,7 @@ public class NameNodeApis extends AbstractChannelHandler {
         if (backupNodeInfoHolder != null && backupNodeInfoHolder.match(ctx.channel())) {
             backupNodeInfoHolder = null;
         }
+        editLogPusher.unsubscribe(ctx.channel());
         ctx.fireChannelInactive();
     }
 
@@ -160,9 +158,24 @@ public class NameNodeApis extends AbstractChannelHandler {
                 case FETCH_EDIT_LOG://获取editlog的请求
                     handleFetchEditLogRequest(requestWrapper);
                     break;
+                case SUBSCRIBE_EDIT_LOG://BackupNode订阅editlog
+                    handleSubscribeEditLogRequest(requestWrapper);
+                    break;
+                case PUSH_EDIT_LOG_ACK://BackupNode确认已经回放的editlog
+                    handlePushEditLogAckRequest(requestWrapper);
+                    break;
                 case TRANSFER_FILE://二进制数据包处理
                     handleFileTransferRequest(requestWrapper);
                     break;
+                case FSIMAGE_UPLOAD_BEGIN://BackupNode开始或者续传FsImage
+                    handleFsImageUploadBeginRequest(requestWrapper);
+                    break;
+                case FSIMAGE_UPLOAD_CHUNK://BackupNode上传FsImage分块
+                    handleFsImageUploadChunkRequest(requestWrapper);
+                    break;
+                case FSIMAGE_UPLOAD_COMMIT://BackupNode上传FsImage完成
+                    handleFsImageUploadCommitRequest(requestWrapper);
+                    break;
                 case REPORT_STORAGE_INFO://dataNode上报存储信息
                     handleDataNodeReportStorageInfoRequest(requestWrapper);
                     break;
@@ -352,7 +365,7 @@ public class NameNodeApis extends AbstractChannelHandler {
             if (node == null || !node.isFile()) {
                 throw new NameNodeException("文件路径错误：" + request.getFilename());
             }
-            int replica = Integer.parseInt(node.getAttr().get(Constants.ATTR_REPLICA_NUM));
+            int replica = node.getReplicaNum(nameNodeConfig.getReplicaNum());
             ReadStorageInfoResponse response = ReadStorageInfoResponse.newBuilder()
                     .setDatanodes(String.join(",", dataNodeHosts))
                     .setReplica(replica)
@@ -455,7 +468,9 @@ public class NameNodeApis extends AbstractChannelHandler {
             return Node.parseINode(iNode);
         }
         Node otherNode = Node.parseINode(iNode);
-        node.getChildren().putAll(otherNode.getChildren());
+        for (Node child : otherNode.getChildren().values()) {
+            node.addChildren(child);
+        }
         return node;
     }
 
@@ -939,6 +954,23 @@ public class NameNodeApis extends AbstractChannelHandler {
         }
     }
 
+    /**
+     * BackupNode订阅editlog，之后每次刷盘都会主动推送
+     */
+    private void handleSubscribeEditLogRequest(RequestWrapper requestWrapper) throws InvalidProtocolBufferException {
+        EditLogSubscription subscription = EditLogSubscription.parseFrom(requestWrapper.getRequest().getBody());
+        editLogPusher.subscribe(requestWrapper.getCtx().channel(), subscription.getTxId(),
+                subscription.getAcceptCompression());
+    }
+
+    /**
+     * BackupNode确认已经回放的editlog
+     */
+    private void handlePushEditLogAckRequest(RequestWrapper requestWrapper) throws InvalidProtocolBufferException {
+        EditLogAck ack = EditLogAck.parseFrom(requestWrapper.getRequest().getBody());
+        editLogPusher.ack(requestWrapper.getCtx().channel(), ack.getTxId());
+    }
+
     /**
      * 处理BackupNode拉取EditLog
      */
@@ -962,24 +994,24 @@ public class NameNodeApis extends AbstractChannelHandler {
 //                        .map(User::toEntity)
 //                        .collect(Collectors.toList()))
                 .build();
+        if (fetchEditsLogRequest.getAcceptCompression()) {
+            response = FetchEditLogBuffer.compress(response, nameNodeConfig.getEditLogFetchCompressionType());
+        }
         //发送请求
         requestWrapper.sendResponse(response);
         if (NameNodeLaunchMode.SINGLE.equals(mode)) {
             return;
         }
-        //资源单位
-        if (fetchEditsLogRequest.getNeedSlots() || slotsChanged.get()) {
-            if (slotsChanged.compareAndSet(true, false)) {
-                log.info("检测到Slots槽位分配发生了变化，下发给BackupNode最新的槽位信息.");
-                if (slots != null) {
-                    BackupNodeSlots backupNodeSlots = BackupNodeSlots.newBuilder()
-                            .putAllSlots(slots)
-                            .build();
-                    NettyPacket nettyPacket = NettyPacket.buildPacket(backupNodeSlots.toByteArray(),
-                            PacketType.BACKUP_NODE_SLOT);
-                    requestWrapper.sendResponse(nettyPacket, null);
-                }
-            }
+        //资源单位，订阅模式下由EditLogPusher推送，这里只处理定时拉取的BackupNode
+        Map<Integer, Integer> slots = editLogPusher.getSlots();
+        if (fetchEditsLogRequest.getNeedSlots() && slots != null) {
+            log.info("BackupNode还没有槽位信息，下发最新的槽位信息.");
+            BackupNodeSlots backupNodeSlots = BackupNodeSlots.newBuilder()
+                    .putAllSlots(slots)
+                    .build();
+            NettyPacket nettyPacket = NettyPacket.buildPacket(backupNodeSlots.toByteArray(),
+                    PacketType.BACKUP_NODE_SLOT);
+            requestWrapper.sendResponse(nettyPacket, null);
         }
     }
 
@@ -991,6 +1023,33 @@ public class NameNodeApis extends AbstractChannelHandler {
         fileReceiveHandler.handleRequest(filePacket);
     }
 
+    /**
+     * BackupNode开始或者续传FsImage，返回已经收到的字节数
+     */
+    private void handleFsImageUploadBeginRequest(RequestWrapper requestWrapper) throws IOException, NameNodeException {
+        FsImageUploadRequest request = FsImageUploadRequest.parseFrom(requestWrapper.getRequest().getBody());
+        long offset = fsImageUploadReceiver.begin(request);
+        requestWrapper.sendResponse(FsImageUploadResponse.newBuilder().setOffset(offset).build());
+    }
+
+    /**
+     * BackupNode上传FsImage分块
+     */
+    private void handleFsImageUploadChunkRequest(RequestWrapper requestWrapper) throws IOException, NameNodeException {
+        FsImageChunk chunk = FsImageChunk.parseFrom(requestWrapper.getRequest().getBody());
+        long offset = fsImageUploadReceiver.append(chunk);
+        requestWrapper.sendResponse(FsImageUploadResponse.newBuilder().setOffset(offset).build());
+    }
+
+    /**
+     * BackupNode上传FsImage完成
+     */
+    private void handleFsImageUploadCommitRequest(RequestWrapper requestWrapper) throws IOException, NameNodeException {
+        FsImageUploadCommit commit = FsImageUploadCommit.parseFrom(requestWrapper.getRequest().getBody());
+        long offset = fsImageUploadReceiver.commit(commit);
+        requestWrapper.sendResponse(FsImageUploadResponse.newBuilder().setOffset(offset).build());
+    }
+
     /**
      * 处理DataNode上报存储信息
      */
@@ -0,0 +1,129 @@
+package com.bytetenns.namenode.editlog;
+
+import com.bytetenns.common.enums.CompressionType;
+import com.bytetenns.common.utils.FileUtil;
+import com.bytetenns.namenode.NameNodeConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 结束的editlog分段文件压缩：压缩和解压之后内容一致、校验和不一致时报错，以及后台压缩之后仍然可以读取
+ */
+@Slf4j
+public class EditLogCompressorTest {
+
+    private static final int RECORDS = 100;
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] raw = records(RECORDS);
+        for (CompressionType type : new CompressionType[]{CompressionType.DEFLATE, CompressionType.LZ4}) {
+            ByteBuffer compressed = EditLogCompressor.compress(type, raw);
+            assertNotNull(compressed, type.getCodec());
+            assertTrue(compressed.remaining() < raw.length);
+            assertTrue(EditLogCompressor.isCompressed(compressed));
+            assertEquals(type, EditLogCompressor.compressionType(compressed));
+            assertEquals(ByteBuffer.wrap(raw), EditLogCompressor.decompress(compressed));
+        }
+        // 没有压缩过的editlog文件以记录的魔数开头
+        assertFalse(EditLogCompressor.isCompressed(ByteBuffer.wrap(raw)));
+    }
+
+    @Test
+    public void testIncompressible() {
+        byte[] data = new byte[4096];
+        new Random(7).nextBytes(data);
+        // 压缩之后没有变小，保留原来的文件
+        assertNull(EditLogCompressor.compress(CompressionType.DEFLATE, data));
+        assertNull(EditLogCompressor.compress(CompressionType.LZ4, data));
+    }
+
+    @Test
+    public void testChecksumMismatch() {
+        byte[] raw = records(RECORDS);
+        for (CompressionType type : new CompressionType[]{CompressionType.DEFLATE, CompressionType.LZ4}) {
+            ByteBuffer compressed = EditLogCompressor.compress(type, raw);
+            assertNotNull(compressed);
+            // 修改文件头中保存的原始数据的校验和
+            compressed.put(9, (byte) (compressed.get(9) ^ 0xFF));
+            assertThrows(IOException.class, () -> EditLogCompressor.decompress(compressed), type.getCodec());
+        }
+    }
+
+    @Test
+    public void testCompressFinalizedSegments() throws Exception {
+        NameNodeConfig nameNodeConfig = new NameNodeConfig();
+        nameNodeConfig.setBaseDir(tempDir.getAbsolutePath());
+        nameNodeConfig.setEditLogGroupCommit(false);
+        nameNodeConfig.setEditLogForceSync(false);
+        nameNodeConfig.setEditLogSegmentTxids(RECORDS);
+        nameNodeConfig.setEditLogTypedRecord(false);
+        nameNodeConfig.setEditLogCompression(CompressionType.LZ4.getCodec());
+        FsEditLog fsEditLog = new FsEditLog(nameNodeConfig);
+        for (int i = 1; i <= RECORDS * 2 + 5; i++) {
+            fsEditLog.logEdit(new EditLogWrapper(1, "/user/photos/img-" + i + ".png"));
+        }
+
+        // 滚动之后的分段在后台压缩，正在写入的分段不压缩
+        List<EditslogInfo> files = fsEditLog.getSortedEditLogFiles(0L);
+        assertEquals(3, files.size());
+        for (EditslogInfo info : files.subList(0, 2)) {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!EditLogCompressor.isCompressed(FileUtil.readBuffer(info.getName()))) {
+                assertTrue(System.currentTimeMillis() < deadline, "分段文件没有压缩：" + info.getName());
+                Thread.sleep(10);
+            }
+        }
+        assertFalse(EditLogCompressor.isCompressed(FileUtil.readBuffer(files.get(2).getName())));
+
+        // 读取时自动解压
+        List<Long> txIds = new ArrayList<>();
+        for (EditslogInfo info : files) {
+            for (EditLogWrapper editLog : fsEditLog.readEditLogFromFile(info)) {
+                txIds.add(editLog.getTxId());
+            }
+        }
+        assertEquals(RECORDS * 2 + 5, txIds.size());
+        for (int i = 0; i < txIds.size(); i++) {
+            assertEquals(i + 1, txIds.get(i).longValue());
+        }
+        fsEditLog.shutdown();
+    }
+
+    private static byte[] records(int count) {
+        int size = 0;
+        List<EditLogWrapper> editLogs = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            EditLogWrapper editLog = new EditLogWrapper(1, "/user/photos/img-" + i + ".png");
+            editLog.setTxId(i);
+            editLogs.add(editLog);
+            size += editLog.getSerializedSize();
+        }
+        byte[] raw = new byte[size];
+        int offset = 0;
+        for (EditLogWrapper editLog : editLogs) {
+            byte[] bytes = editLog.toByteArray();
+            System.arraycopy(bytes, 0, raw, offset, bytes.length);
+            offset += bytes.length;
+        }
+        return raw;
+    }
+}
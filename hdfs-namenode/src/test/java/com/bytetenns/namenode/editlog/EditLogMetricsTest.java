@@ -0,0 +1,71 @@
+package com.bytetenns.namenode.editlog;
+
+import com.bytetenns.common.utils.NetUtils;
+import com.bytetenns.namenode.NameNodeConfig;
+import io.prometheus.client.CollectorRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * editlog写入链路的直方图：每条editlog只在一个刷盘批次中统计一次，每个批次统计一次fsync
+ */
+@Slf4j
+public class EditLogMetricsTest {
+
+    private static final int EDITS = 50;
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void testSyncHistograms() {
+        testSyncHistograms(false);
+    }
+
+    @Test
+    public void testGroupCommitSyncHistograms() {
+        testSyncHistograms(true);
+    }
+
+    private void testSyncHistograms(boolean groupCommit) {
+        NameNodeConfig nameNodeConfig = new NameNodeConfig();
+        nameNodeConfig.setBaseDir(new File(tempDir, groupCommit ? "group" : "single").getAbsolutePath());
+        nameNodeConfig.setEditLogGroupCommit(groupCommit);
+        nameNodeConfig.setEditLogForceSync(true);
+        FsEditLog fsEditLog = new FsEditLog(nameNodeConfig);
+        // 直方图是全局注册的，只比较写入前后的差值
+        double batches = sample("namenode_editlog_batch_edits_count");
+        double edits = sample("namenode_editlog_batch_edits_sum");
+        double bytes = sample("namenode_editlog_batch_bytes_sum");
+        double fsyncs = sample("namenode_editlog_fsync_count");
+        double bufferWrites = sample("namenode_editlog_buffer_write_count");
+        for (int i = 1; i <= EDITS; i++) {
+            fsEditLog.logEdit(new EditLogWrapper(1, "/user/file-" + i));
+        }
+
+        double batchDelta = sample("namenode_editlog_batch_edits_count") - batches;
+        assertTrue(batchDelta >= 1 && batchDelta <= EDITS);
+        assertEquals(EDITS, sample("namenode_editlog_batch_edits_sum") - edits, 0);
+        assertTrue(sample("namenode_editlog_batch_bytes_sum") - bytes > 0);
+        assertEquals(batchDelta, sample("namenode_editlog_fsync_count") - fsyncs, 0);
+        assertEquals(EDITS, sample("namenode_editlog_buffer_write_count") - bufferWrites, 0);
+        assertTrue(sample("namenode_editlog_sync_txid_lag_count") > 0);
+        // 和其他指标一样名称不带单位后缀
+        assertNull(CollectorRegistry.defaultRegistry.getSampleValue("namenode_editlog_fsync_ms_count",
+                new String[]{"hostname"}, new String[]{NetUtils.getHostName()}));
+        fsEditLog.shutdown();
+    }
+
+    private static double sample(String name) {
+        Double value = CollectorRegistry.defaultRegistry.getSampleValue(name,
+                new String[]{"hostname"}, new String[]{NetUtils.getHostName()});
+        return value == null ? 0 : value;
+    }
+}
@@ -0,0 +1,163 @@
+package com.bytetenns.namenode.editlog;
+
+import com.bytetenns.namenode.NameNodeConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * EditLogReader对带CRC32C校验的记录的处理：损坏的记录、写了一半的尾部和预分配的空白区域
+ */
+@Slf4j
+public class EditLogReaderTest {
+
+    private static final int RECORDS = 5;
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void testReadAll() throws Exception {
+        ByteBuffer buffer = write(RECORDS);
+        EditLogReader reader = new EditLogReader(buffer, "memory");
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), readTxIds(reader));
+        assertFalse(reader.isCorrupted());
+        assertEquals(buffer.limit(), reader.position());
+    }
+
+    @Test
+    public void testChecksumMismatch() throws Exception {
+        ByteBuffer buffer = write(RECORDS);
+        int[] ends = recordEnds(buffer);
+        // 修改第3条记录的最后一个字节，长度和魔数都正确，只有校验和不一致
+        int offset = ends[2] - 1;
+        buffer.put(offset, (byte) (buffer.get(offset) ^ 0xFF));
+
+        EditLogReader reader = new EditLogReader(buffer, "memory");
+        assertEquals(Arrays.asList(1L, 2L), readTxIds(reader));
+        assertTrue(reader.isCorrupted());
+        assertEquals(ends[1], reader.position());
+    }
+
+    @Test
+    public void testBadMagic() throws Exception {
+        ByteBuffer buffer = write(RECORDS);
+        int[] ends = recordEnds(buffer);
+        buffer.putInt(ends[0], 0x12345678);
+
+        EditLogReader reader = new EditLogReader(buffer, "memory");
+        assertEquals(Arrays.asList(1L), readTxIds(reader));
+        assertTrue(reader.isCorrupted());
+        assertEquals(ends[0], reader.position());
+    }
+
+    @Test
+    public void testTornTail() throws Exception {
+        ByteBuffer full = write(RECORDS);
+        int[] ends = recordEnds(full);
+        // 最后一条记录只写了一部分记录头，或者记录头完整但记录体不完整
+        for (int torn : new int[]{ends[3] + 6, ends[3] + EditLogWrapper.HEADER_SIZE + 2, ends[4] - 1}) {
+            ByteBuffer buffer = full.duplicate();
+            buffer.limit(torn);
+            EditLogReader reader = new EditLogReader(buffer.slice(), "memory");
+            assertEquals(Arrays.asList(1L, 2L, 3L, 4L), readTxIds(reader));
+            assertEquals(ends[3], reader.position());
+        }
+    }
+
+    @Test
+    public void testPreallocatedTail() throws Exception {
+        ByteBuffer records = write(RECORDS);
+        ByteBuffer buffer = ByteBuffer.allocate(records.limit() + 4096);
+        buffer.put(records);
+        buffer.flip();
+        buffer.limit(buffer.capacity());
+
+        EditLogReader reader = new EditLogReader(buffer, "memory");
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), readTxIds(reader));
+        assertFalse(reader.isCorrupted());
+        assertEquals(records.limit(), reader.position());
+    }
+
+    @Test
+    public void testSkipTo() throws Exception {
+        EditLogReader reader = new EditLogReader(write(RECORDS), "memory");
+        reader.skipTo(3L);
+        assertEquals(Arrays.asList(4L, 5L), readTxIds(reader));
+    }
+
+    @Test
+    public void testRecoverTruncatesTornTail() throws Exception {
+        NameNodeConfig nameNodeConfig = new NameNodeConfig();
+        nameNodeConfig.setBaseDir(tempDir.getAbsolutePath());
+        ByteBuffer full = write(RECORDS);
+        int[] ends = recordEnds(full);
+        File file = new File(nameNodeConfig.getEditlogsInProgressFile(1L));
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(full.array(), 0, ends[3] + EditLogWrapper.HEADER_SIZE + 2);
+            // 预分配的空白区域
+            fos.write(new byte[1024]);
+        }
+
+        EditslogInfo info = EditLogSegment.recover(nameNodeConfig, file, 1L);
+        assertEquals(1L, info.getStart());
+        assertEquals(4L, info.getEnd());
+        assertFalse(file.exists());
+        File recovered = new File(info.getName());
+        assertEquals(nameNodeConfig.getEditlogsFile(1L, 4L), recovered.getAbsolutePath());
+        assertEquals(ends[3], recovered.length());
+        try (EditLogReader reader = new EditLogReader(recovered.getAbsolutePath())) {
+            assertEquals(Arrays.asList(1L, 2L, 3L, 4L), readTxIds(reader));
+            assertFalse(reader.isCorrupted());
+        }
+    }
+
+    private static ByteBuffer write(int records) throws Exception {
+        List<EditLogWrapper> editLogs = new ArrayList<>();
+        int size = 0;
+        for (int i = 1; i <= records; i++) {
+            EditLogWrapper editLog = new EditLogWrapper(1, "/user/dir/file-" + i);
+            editLog.setTxId(i);
+            editLogs.add(editLog);
+            size += editLog.getSerializedSize();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (EditLogWrapper editLog : editLogs) {
+            editLog.writeTo(buffer);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 每条记录的结束位置
+     */
+    private static int[] recordEnds(ByteBuffer buffer) {
+        List<Integer> ends = new ArrayList<>();
+        int position = 0;
+        while (position + EditLogWrapper.HEADER_SIZE <= buffer.limit()) {
+            position += EditLogWrapper.HEADER_SIZE + buffer.getInt(position + 4);
+            ends.add(position);
+        }
+        return ends.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static List<Long> readTxIds(EditLogReader reader) {
+        List<Long> txIds = new ArrayList<>();
+        while (reader.hasNext()) {
+            txIds.add(reader.next().getTxId());
+        }
+        return txIds;
+    }
+}
@@ -0,0 +1,147 @@
+package com.bytetenns.namenode.editlog;
+
+import com.bytetenns.namenode.NameNodeConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * editlog分段文件：按txid数量滚动、结束时截断预分配的空间，以及启动时恢复写了一半的分段文件
+ */
+@Slf4j
+public class EditLogSegmentTest {
+
+    private static final int SEGMENT_TXIDS = 10;
+    private static final int PREALLOCATE_SIZE = 4096;
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void testRollAndFinalize() throws Exception {
+        NameNodeConfig nameNodeConfig = config();
+        FsEditLog fsEditLog = new FsEditLog(nameNodeConfig);
+        logEdits(fsEditLog, 1, 25);
+
+        List<EditslogInfo> files = fsEditLog.getSortedEditLogFiles(0L);
+        assertEquals(3, files.size());
+        assertSegment(nameNodeConfig.getEditlogsFile(1L, 10L), 1L, 10L, files.get(0));
+        assertSegment(nameNodeConfig.getEditlogsFile(11L, 20L), 11L, 20L, files.get(1));
+        EditslogInfo inProgress = files.get(2);
+        assertSegment(nameNodeConfig.getEditlogsInProgressFile(21L), 21L, 25L, inProgress);
+        // 结束的分段截断了预分配的空间，正在写入的分段按预分配的大小扩展
+        for (EditslogInfo info : files.subList(0, 2)) {
+            File file = new File(info.getName());
+            assertTrue(file.length() < PREALLOCATE_SIZE);
+            try (EditLogReader reader = new EditLogReader(info.getName())) {
+                assertEquals(10, readTxIds(reader).size());
+                assertEquals(file.length(), reader.position());
+            }
+        }
+        assertEquals(PREALLOCATE_SIZE, new File(inProgress.getName()).length());
+        assertEquals(range(21, 25), txIds(fsEditLog.readEditLogFromFile(inProgress)));
+
+        // 分段滚动之后，之前拿到的正在写入的文件信息改用结束之后的文件名读取
+        logEdits(fsEditLog, 26, 30);
+        assertFalse(new File(inProgress.getName()).exists());
+        assertEquals(range(21, 30), txIds(fsEditLog.readEditLogFromFile(inProgress)));
+
+        logEdits(fsEditLog, 31, 33);
+        fsEditLog.shutdown();
+        files = fsEditLog.getSortedEditLogFiles(0L);
+        assertEquals(4, files.size());
+        assertSegment(nameNodeConfig.getEditlogsFile(31L, 33L), 31L, 33L, files.get(3));
+        assertFalse(new File(nameNodeConfig.getEditlogsInProgressFile(31L)).exists());
+    }
+
+    @Test
+    public void testRecoverTornInProgressSegment() throws Exception {
+        NameNodeConfig nameNodeConfig = config();
+        FsEditLog fsEditLog = new FsEditLog(nameNodeConfig);
+        logEdits(fsEditLog, 1, 15);
+
+        // 没有正常关闭，最后一条记录只写了记录头和一部分记录体，后面是预分配的空白区域
+        File inProgress = new File(nameNodeConfig.getEditlogsInProgressFile(11L));
+        List<Long> ends = new ArrayList<>();
+        try (EditLogReader reader = new EditLogReader(inProgress.getAbsolutePath())) {
+            while (reader.hasNext()) {
+                reader.next();
+                ends.add((long) reader.position());
+            }
+        }
+        assertEquals(5, ends.size());
+        try (RandomAccessFile raf = new RandomAccessFile(inProgress, "rw")) {
+            long torn = ends.get(3) + EditLogWrapper.HEADER_SIZE + 2;
+            raf.seek(torn);
+            raf.write(new byte[(int) (ends.get(4) - torn)]);
+        }
+
+        // 重新启动时截断到最后一条完整的记录，并重命名为结束之后的文件名
+        FsEditLog recovered = new FsEditLog(nameNodeConfig);
+        List<EditslogInfo> files = recovered.getSortedEditLogFiles(0L);
+        assertEquals(2, files.size());
+        assertSegment(nameNodeConfig.getEditlogsFile(1L, 10L), 1L, 10L, files.get(0));
+        assertSegment(nameNodeConfig.getEditlogsFile(11L, 14L), 11L, 14L, files.get(1));
+        assertFalse(inProgress.exists());
+        assertEquals(ends.get(3).longValue(), new File(files.get(1).getName()).length());
+        assertEquals(range(11, 14), txIds(recovered.readEditLogFromFile(files.get(1))));
+        recovered.shutdown();
+    }
+
+    private NameNodeConfig config() {
+        NameNodeConfig nameNodeConfig = new NameNodeConfig();
+        nameNodeConfig.setBaseDir(tempDir.getAbsolutePath());
+        nameNodeConfig.setEditLogGroupCommit(false);
+        nameNodeConfig.setEditLogForceSync(false);
+        nameNodeConfig.setEditLogSegmentTxids(SEGMENT_TXIDS);
+        nameNodeConfig.setEditLogPreallocateSize(PREALLOCATE_SIZE);
+        return nameNodeConfig;
+    }
+
+    private static void logEdits(FsEditLog fsEditLog, int from, int to) {
+        for (int i = from; i <= to; i++) {
+            EditLogWrapper editLog = new EditLogWrapper(1, "/user/file-" + i);
+            fsEditLog.logEdit(editLog);
+            assertEquals(i, editLog.getTxId());
+        }
+    }
+
+    private static void assertSegment(String name, long start, long end, EditslogInfo info) {
+        assertEquals(name, info.getName());
+        assertEquals(start, info.getStart());
+        assertEquals(end, info.getEnd());
+    }
+
+    private static List<Long> readTxIds(EditLogReader reader) {
+        List<Long> txIds = new ArrayList<>();
+        while (reader.hasNext()) {
+            txIds.add(reader.next().getTxId());
+        }
+        return txIds;
+    }
+
+    private static List<Long> txIds(List<EditLogWrapper> editLogs) {
+        List<Long> txIds = new ArrayList<>();
+        for (EditLogWrapper editLog : editLogs) {
+            txIds.add(editLog.getTxId());
+        }
+        return txIds;
+    }
+
+    private static List<Long> range(long from, long to) {
+        List<Long> txIds = new ArrayList<>();
+        for (long txId = from; txId <= to; txId++) {
+            txIds.add(txId);
+        }
+        return txIds;
+    }
+}
@@ -0,0 +1,111 @@
+package com.bytetenns.namenode.editlog;
+
+import com.bytetenns.namenode.NameNodeConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * editlog环形缓存：写满之后覆盖最旧的editlog，读取被覆盖的范围时返回false，由调用方改为读取磁盘
+ */
+@Slf4j
+public class EditLogTailCacheTest {
+
+    private static final int CAPACITY = 8;
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void testWraparound() {
+        EditLogTailCache cache = new EditLogTailCache(CAPACITY);
+        for (long txId = 1; txId <= 20; txId++) {
+            cache.append(editLog(txId));
+        }
+        List<EditLogWrapper> result = new ArrayList<>();
+        assertTrue(cache.read(13L, 20L, result));
+        assertEquals(range(13, 20), txIds(result));
+
+        // 超过容量的范围、被覆盖的槽位和还没有写入的txid都读不到
+        assertFalse(cache.read(12L, 20L, new ArrayList<>()));
+        assertFalse(cache.read(12L, 12L, new ArrayList<>()));
+        assertFalse(cache.read(5L, 5L, new ArrayList<>()));
+        assertFalse(cache.read(20L, 21L, new ArrayList<>()));
+
+        // 再写入一轮，原来的槽位全部被新的txid覆盖
+        for (long txId = 21; txId <= 28; txId++) {
+            cache.append(editLog(txId));
+        }
+        result = new ArrayList<>();
+        assertTrue(cache.read(21L, 28L, result));
+        assertEquals(range(21, 28), txIds(result));
+        assertFalse(cache.read(20L, 20L, new ArrayList<>()));
+    }
+
+    @Test
+    public void testCapacityRoundedUp() {
+        EditLogTailCache cache = new EditLogTailCache(5);
+        for (long txId = 1; txId <= 8; txId++) {
+            cache.append(editLog(txId));
+        }
+        // 容量向上取整到2的幂
+        List<EditLogWrapper> result = new ArrayList<>();
+        assertTrue(cache.read(1L, 8L, result));
+        assertEquals(range(1, 8), txIds(result));
+        cache.append(editLog(9L));
+        assertFalse(cache.read(1L, 1L, new ArrayList<>()));
+    }
+
+    @Test
+    public void testFallbackToFiles() throws Exception {
+        NameNodeConfig nameNodeConfig = new NameNodeConfig();
+        nameNodeConfig.setBaseDir(tempDir.getAbsolutePath());
+        nameNodeConfig.setEditLogGroupCommit(false);
+        nameNodeConfig.setEditLogForceSync(false);
+        nameNodeConfig.setEditLogTailCacheSize(CAPACITY);
+        FsEditLog fsEditLog = new FsEditLog(nameNodeConfig);
+        for (int i = 1; i <= 20; i++) {
+            fsEditLog.logEdit(new EditLogWrapper(1, "/user/file-" + i));
+        }
+
+        assertEquals(range(13, 20), txIds(fsEditLog.fetchFromTailCache(12L, CAPACITY)));
+        assertEquals(range(19, 20), txIds(fsEditLog.fetchFromTailCache(18L, CAPACITY)));
+        assertTrue(fsEditLog.fetchFromTailCache(20L, CAPACITY).isEmpty());
+        // 已经被覆盖的editlog从磁盘读取
+        assertNull(fsEditLog.fetchFromTailCache(0L, 5));
+        assertEquals(range(1, 5), txIds(fsEditLog.readSyncedEditLogs(0L, 5)));
+        assertEquals(range(1, 20), txIds(fsEditLog.readSyncedEditLogs(0L, 20)));
+        fsEditLog.shutdown();
+    }
+
+    private static EditLogWrapper editLog(long txId) {
+        EditLogWrapper editLog = new EditLogWrapper(1, "/user/file-" + txId);
+        editLog.setTxId(txId);
+        return editLog;
+    }
+
+    private static List<Long> txIds(List<EditLogWrapper> editLogs) {
+        List<Long> txIds = new ArrayList<>();
+        for (EditLogWrapper editLog : editLogs) {
+            txIds.add(editLog.getTxId());
+        }
+        return txIds;
+    }
+
+    private static List<Long> range(long from, long to) {
+        List<Long> txIds = new ArrayList<>();
+        for (long txId = from; txId <= to; txId++) {
+            txIds.add(txId);
+        }
+        return txIds;
+    }
+}
@@ -0,0 +1,114 @@
+package com.bytetenns.namenode.editlog;
+
+import com.bytetenns.namenode.NameNodeConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * FsEditLog写入editlog：只有刷盘成功之后才返回，刷盘失败时写入的线程抛出异常
+ */
+@Slf4j
+public class FsEditLogTest {
+
+    private static final int THREADS = 4;
+    private static final int EDITS_PER_THREAD = 200;
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void testGroupCommitAckAfterSync() throws Exception {
+        testAckAfterSync(true);
+    }
+
+    @Test
+    public void testAckAfterSync() throws Exception {
+        testAckAfterSync(false);
+    }
+
+    @Test
+    public void testGroupCommitSyncError() {
+        testSyncError(true);
+    }
+
+    @Test
+    public void testSyncError() {
+        testSyncError(false);
+    }
+
+    private void testAckAfterSync(boolean groupCommit) throws Exception {
+        FsEditLog fsEditLog = new FsEditLog(config(groupCommit));
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Void>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(executor.submit((Callable<Void>) () -> {
+                    for (int i = 0; i < EDITS_PER_THREAD; i++) {
+                        EditLogWrapper editLog = new EditLogWrapper(1, "/user" + thread + "/file-" + i);
+                        fsEditLog.logEdit(editLog);
+                        // 返回的时候这条editlog一定已经刷盘，拉取和推送editlog也能读到
+                        assertTrue(editLog.getTxId() <= fsEditLog.getSyncTxid());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        int total = THREADS * EDITS_PER_THREAD;
+        assertEquals(total, fsEditLog.getSyncTxid());
+        assertEquals(total, fsEditLog.readSyncedEditLogs(0L, total).size());
+        fsEditLog.shutdown();
+
+        Set<Long> txIds = new HashSet<>();
+        for (EditslogInfo info : fsEditLog.getSortedEditLogFiles(0L)) {
+            for (EditLogWrapper editLog : fsEditLog.readEditLogFromFile(info)) {
+                txIds.add(editLog.getTxId());
+            }
+        }
+        assertEquals(total, txIds.size());
+    }
+
+    private void testSyncError(boolean groupCommit) {
+        NameNodeConfig nameNodeConfig = config(groupCommit);
+        // 分段文件的位置已经有一个目录，第一次刷盘就会失败
+        assertTrue(new File(nameNodeConfig.getEditlogsInProgressFile(1L)).mkdirs());
+        FsEditLog fsEditLog = new FsEditLog(nameNodeConfig);
+
+        assertThrows(UncheckedIOException.class, () -> fsEditLog.logEdit(new EditLogWrapper(1, "/a")));
+        assertEquals(0L, fsEditLog.getSyncTxid());
+        // 刷盘失败之后不再接受新的写入
+        assertThrows(UncheckedIOException.class, () -> fsEditLog.logEdit(new EditLogWrapper(1, "/b")));
+        assertEquals(0L, fsEditLog.getSyncTxid());
+        fsEditLog.shutdown();
+    }
+
+    private NameNodeConfig config(boolean groupCommit) {
+        NameNodeConfig nameNodeConfig = new NameNodeConfig();
+        nameNodeConfig.setBaseDir(new File(tempDir, groupCommit ? "group" : "single").getAbsolutePath());
+        nameNodeConfig.setEditLogGroupCommit(groupCommit);
+        return nameNodeConfig;
+    }
+}
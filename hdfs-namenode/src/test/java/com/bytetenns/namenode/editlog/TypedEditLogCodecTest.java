@@ -0,0 +1,170 @@
+package com.bytetenns.namenode.editlog;
+
+import com.bytetenns.common.netty.Constants;
+import com.bytetenns.dfs.model.backup.EditLog;
+import com.bytetenns.dfs.model.backup.TypedEditLog;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * EditLog和紧凑格式TypedEditLog之间的转换，以及EditLogReader读取紧凑格式的记录
+ */
+@Slf4j
+public class TypedEditLogCodecTest {
+
+    @Test
+    public void testRoundTrip() {
+        String previousPath = null;
+        for (EditLog editLog : editLogs()) {
+            TypedEditLog typedEditLog = TypedEditLogCodec.encode(editLog, previousPath);
+            assertEquals(editLog, TypedEditLogCodec.decode(typedEditLog, previousPath));
+            previousPath = editLog.getPath();
+        }
+    }
+
+    @Test
+    public void testPrefixCompression() {
+        EditLog first = editLog(1L, "/user1/photos/a.png", attr("100", "2"));
+        EditLog second = editLog(2L, "/user1/photos/b.png", attr("200", "2"));
+
+        TypedEditLog typedFirst = TypedEditLogCodec.encode(first, null);
+        assertEquals(0, typedFirst.getSharedPrefix());
+        assertEquals("/user1/photos/a.png", typedFirst.getPathSuffix());
+
+        TypedEditLog typedSecond = TypedEditLogCodec.encode(second, first.getPath());
+        assertEquals("/user1/photos/".length(), typedSecond.getSharedPrefix());
+        assertEquals("b.png", typedSecond.getPathSuffix());
+        // 数值属性用varint保存，不再放在map里
+        assertEquals(200L, typedSecond.getFileSize());
+        assertEquals(2, typedSecond.getReplicaNum());
+        assertFalse(typedSecond.getAttrMap().containsKey(Constants.ATTR_FILE_SIZE));
+        assertTrue(typedSecond.getAttrMap().containsKey("tag"));
+    }
+
+    @Test
+    public void testNonCanonicalNumericAttrs() {
+        // 不是规范格式的数字转换之后会变，只能原样保存在map里
+        Map<String, String> attr = attr("007", "+2");
+        attr.put(Constants.ATTR_FILE_DEL_TIME, "not-a-number");
+        EditLog editLog = editLog(1L, "/a", attr);
+        TypedEditLog typedEditLog = TypedEditLogCodec.encode(editLog, null);
+        assertEquals(0, typedEditLog.getNumericAttrs());
+        assertEquals("007", typedEditLog.getAttrMap().get(Constants.ATTR_FILE_SIZE));
+        assertEquals(editLog, TypedEditLogCodec.decode(typedEditLog, null));
+    }
+
+    @Test
+    public void testSurrogatePairNotSplit() {
+        // 两个路径的第一个代理项相同，第二个代理项不同，前缀不能停在代理对的中间
+        String previousPath = "/photos/😀.png";
+        EditLog editLog = editLog(2L, "/photos/😁.png", attr("1", "1"));
+        TypedEditLog typedEditLog = TypedEditLogCodec.encode(editLog, previousPath);
+        assertEquals("/photos/".length(), typedEditLog.getSharedPrefix());
+        assertEquals(editLog, TypedEditLogCodec.decode(typedEditLog, previousPath));
+    }
+
+    @Test
+    public void testReadTypedRecords() throws Exception {
+        List<EditLog> editLogs = editLogs();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        String previousPath = null;
+        for (EditLog editLog : editLogs) {
+            EditLogWrapper.writeRecord(buffer, EditLogWrapper.TYPED_MAGIC,
+                    TypedEditLogCodec.encode(editLog, previousPath));
+            previousPath = editLog.getPath();
+        }
+        buffer.flip();
+
+        EditLogReader reader = new EditLogReader(buffer.duplicate(), "memory");
+        List<EditLog> read = new ArrayList<>();
+        while (reader.hasNext()) {
+            read.add(reader.next().getEditLog());
+        }
+        assertEquals(editLogs, read);
+        assertFalse(reader.isCorrupted());
+
+        // 跳过的记录也要解析路径，后面的记录才能还原出完整路径
+        reader = new EditLogReader(buffer.duplicate(), "memory");
+        reader.skipTo(3L);
+        read.clear();
+        while (reader.hasNext()) {
+            read.add(reader.next().getEditLog());
+        }
+        assertEquals(editLogs.subList(3, editLogs.size()), read);
+    }
+
+    @Test
+    public void testUndecodableRecord() throws Exception {
+        List<EditLog> editLogs = editLogs();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        String previousPath = null;
+        int corruptedOffset = 0;
+        for (EditLog editLog : editLogs) {
+            TypedEditLog typedEditLog = TypedEditLogCodec.encode(editLog, previousPath);
+            if (editLog.getTxId() == 3L) {
+                // 校验和正确，但是共享前缀比上一条路径还长，无法还原路径
+                corruptedOffset = buffer.position();
+                typedEditLog = typedEditLog.toBuilder().setSharedPrefix(1000).build();
+            }
+            EditLogWrapper.writeRecord(buffer, EditLogWrapper.TYPED_MAGIC, typedEditLog);
+            previousPath = editLog.getPath();
+        }
+        buffer.flip();
+
+        EditLogReader reader = new EditLogReader(buffer.duplicate(), "memory");
+        List<EditLog> read = new ArrayList<>();
+        while (reader.hasNext()) {
+            read.add(reader.next().getEditLog());
+        }
+        // 后面记录的路径依赖这条记录，不能跳过继续读取
+        assertEquals(editLogs.subList(0, 2), read);
+        assertTrue(reader.isCorrupted());
+        assertEquals(corruptedOffset, reader.position());
+
+        reader = new EditLogReader(buffer.duplicate(), "memory");
+        reader.skipTo(4L);
+        assertFalse(reader.hasNext());
+        assertTrue(reader.isCorrupted());
+    }
+
+    private static List<EditLog> editLogs() {
+        List<EditLog> editLogs = new ArrayList<>();
+        editLogs.add(editLog(1L, "/user1/photos/a.png", attr("100", "2")));
+        editLogs.add(editLog(2L, "/user1/photos/b.png", attr("200", "3")));
+        editLogs.add(editLog(3L, "/user1/docs/c.txt", new HashMap<>()));
+        Map<String, String> trash = attr("300", "2");
+        trash.put(Constants.ATTR_FILE_DEL_TIME, String.valueOf(System.currentTimeMillis()));
+        editLogs.add(editLog(4L, "/.Trash/user1/docs/c.txt", trash));
+        editLogs.add(editLog(5L, "/user2", new HashMap<>()));
+        editLogs.add(editLog(6L, "/user2/文件/图片.png", attr("400", "1")));
+        editLogs.add(editLog(7L, "/user2/文件/图片-2.png", attr("0", "1")));
+        return editLogs;
+    }
+
+    private static EditLog editLog(long txId, String path, Map<String, String> attr) {
+        return EditLog.newBuilder()
+                .setTxId(txId)
+                .setOpType(1)
+                .setPath(path)
+                .putAllAttr(attr)
+                .build();
+    }
+
+    private static Map<String, String> attr(String fileSize, String replicaNum) {
+        Map<String, String> attr = new HashMap<>();
+        attr.put(Constants.ATTR_FILE_SIZE, fileSize);
+        attr.put(Constants.ATTR_REPLICA_NUM, replicaNum);
+        attr.put("tag", "t-" + fileSize);
+        return attr;
+    }
+}
@@ -0,0 +1,129 @@
+package com.bytetenns.namenode.editlog.buffer;
+
+import com.bytetenns.common.netty.Constants;
+import com.bytetenns.namenode.NameNodeConfig;
+import com.bytetenns.namenode.editlog.EditLogReader;
+import com.bytetenns.namenode.editlog.EditLogSegment;
+import com.bytetenns.namenode.editlog.EditLogWrapper;
+import com.bytetenns.namenode.editlog.EditslogInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * EditLogBuffer直接序列化到堆外缓冲：空间不足时扩容，刷盘之后清空复用，写入文件的内容可以完整读回
+ */
+@Slf4j
+public class EditLogBufferTest {
+
+    private static final int FLUSH_THRESHOLD = 64;
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void testWriteTo() throws Exception {
+        EditLogWrapper editLog = editLog(7L);
+        ByteBuffer direct = ByteBuffer.allocateDirect(editLog.getSerializedSize() + 8);
+        direct.position(8);
+        editLog.writeTo(direct);
+        assertEquals(direct.capacity(), direct.position());
+
+        // 堆外缓冲中的记录和堆内序列化的结果一致
+        byte[] bytes = new byte[editLog.getSerializedSize()];
+        direct.position(8);
+        direct.get(bytes);
+        assertArrayEquals(editLog.toByteArray(), bytes);
+    }
+
+    @Test
+    public void testGrowFlushAndReuse() throws Exception {
+        testGrowFlushAndReuse(false);
+    }
+
+    @Test
+    public void testTypedGrowFlushAndReuse() throws Exception {
+        testGrowFlushAndReuse(true);
+    }
+
+    private void testGrowFlushAndReuse(boolean typedRecord) throws Exception {
+        NameNodeConfig nameNodeConfig = new NameNodeConfig();
+        nameNodeConfig.setBaseDir(new File(tempDir, typedRecord ? "typed" : "plain").getAbsolutePath());
+        nameNodeConfig.setEditLogFlushThreshold(FLUSH_THRESHOLD);
+        nameNodeConfig.setEditLogTypedRecord(typedRecord);
+        nameNodeConfig.setEditLogForceSync(false);
+        EditLogBuffer buffer = new EditLogBuffer(nameNodeConfig);
+        EditLogSegment segment = new EditLogSegment(nameNodeConfig);
+
+        // 初始容量是刷盘阈值的2倍，写入的数据超过之后扩容
+        for (long txId = 1; txId <= 20; txId++) {
+            buffer.write(editLog(txId));
+        }
+        assertTrue(buffer.size() > FLUSH_THRESHOLD * 2);
+        assertEquals(range(1, 20), txIds(buffer.getCurrentEditLog()));
+        assertTrue(buffer.flush(segment));
+
+        // 清空之后复用同一块缓冲，不会带上之前的数据
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        assertFalse(buffer.flush(segment));
+        for (long txId = 21; txId <= 25; txId++) {
+            buffer.write(editLog(txId));
+        }
+        assertEquals(range(21, 25), txIds(buffer.getCurrentEditLog()));
+        assertTrue(buffer.flush(segment));
+        buffer.clear();
+
+        EditslogInfo info = segment.finalizeSegment();
+        assertEquals(1L, info.getStart());
+        assertEquals(25L, info.getEnd());
+        List<EditLogWrapper> editLogs = new ArrayList<>();
+        try (EditLogReader reader = new EditLogReader(info.getName())) {
+            while (reader.hasNext()) {
+                editLogs.add(reader.next());
+            }
+            assertFalse(reader.isCorrupted());
+        }
+        assertEquals(range(1, 25), txIds(editLogs));
+        for (EditLogWrapper editLog : editLogs) {
+            assertEquals(editLog(editLog.getTxId()).getEditLog(), editLog.getEditLog());
+        }
+    }
+
+    private static EditLogWrapper editLog(long txId) {
+        Map<String, String> attr = new HashMap<>();
+        attr.put(Constants.ATTR_FILE_SIZE, String.valueOf(txId * 100));
+        attr.put(Constants.ATTR_REPLICA_NUM, "2");
+        EditLogWrapper editLog = new EditLogWrapper(1, "/user/photos/img-" + txId + ".png", attr);
+        editLog.setTxId(txId);
+        return editLog;
+    }
+
+    private static List<Long> txIds(List<EditLogWrapper> editLogs) {
+        List<Long> txIds = new ArrayList<>();
+        for (EditLogWrapper editLog : editLogs) {
+            txIds.add(editLog.getTxId());
+        }
+        return txIds;
+    }
+
+    private static List<Long> range(long from, long to) {
+        List<Long> txIds = new ArrayList<>();
+        for (long txId = from; txId <= to; txId++) {
+            txIds.add(txId);
+        }
+        return txIds;
+    }
+}
@@ -0,0 +1,152 @@
+package com.bytetenns.namenode.fs;
+
+import com.bytetenns.common.netty.Constants;
+import com.bytetenns.common.utils.StringUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * ArenaFsDirectory和FsDirectory执行相同的操作之后，查询结果和FsImage都要一致
+ */
+@Slf4j
+public class ArenaFsDirectoryTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void testCreateDeleteLookup() {
+        ArenaFsDirectory arena = new ArenaFsDirectory();
+        FsDirectory expected = new FsDirectory();
+        for (AbstractFsDirectory directory : new AbstractFsDirectory[]{arena, expected}) {
+            populate(directory);
+            assertFalse(directory.createFile("/user1/photos/0/img-0.png", attr(1L, "dup")));
+            // 文件夹不为空时不能删除
+            assertNull(directory.delete("/user1/photos/1"));
+            assertNull(directory.delete("/user1/not-exists.txt"));
+            for (int i = 0; i < 3; i++) {
+                assertNotNull(directory.delete("/user2/docs/file-" + i + ".txt"));
+            }
+        }
+        assertSameTree(expected, arena);
+        // 删除最后一个文件之后空的父目录也被删除
+        assertNull(arena.listFiles("/user2"));
+        assertEquals("img-0.png", arena.delete("/user1/photos/0/img-0.png").getPath());
+        assertNull(arena.listFiles("/user1/photos/0/img-0.png"));
+    }
+
+    @Test
+    public void testUnsafeListFilesConvertsOneLevel() {
+        ArenaFsDirectory directory = new ArenaFsDirectory();
+        populate(directory);
+        Node user1 = directory.unsafeListFiles("/user1");
+        assertNotNull(user1);
+        assertEquals(20, user1.getFileCount());
+        Node photos = user1.getChildren("photos");
+        assertNotNull(photos);
+        // 只转换直接的孩子节点，汇总信息仍然完整
+        assertTrue(photos.getChildren().isEmpty());
+        assertEquals(20, photos.getFileCount());
+        assertEquals("img0", directory.unsafeListFiles("/user1/photos/0/img-0.png").getAttr().get("tag"));
+        assertNull(directory.unsafeListFiles("/user9"));
+    }
+
+    @Test
+    public void testFindAllFileBySlot() {
+        ArenaFsDirectory arena = new ArenaFsDirectory();
+        FsDirectory expected = new FsDirectory();
+        populate(arena);
+        populate(expected);
+        Set<Integer> slots = new HashSet<>();
+        for (String filename : expected.findAllFiles("/")) {
+            slots.add(StringUtils.hash(filename, Constants.SLOTS_COUNT));
+        }
+        for (int slot : slots) {
+            assertEquals(expected.findAllFileBySlot(slot), arena.findAllFileBySlot(slot));
+            assertFalse(arena.findAllFileBySlot(slot).isEmpty());
+        }
+    }
+
+    @Test
+    public void testFsImageRoundTrip() throws Exception {
+        ArenaFsDirectory arena = new ArenaFsDirectory();
+        populate(arena);
+        String basePath = new File(tempDir, "fsimage-100").getAbsolutePath();
+        FsImageBase base = arena.saveFsImage(100L, basePath);
+
+        ArenaFsDirectory loaded = new ArenaFsDirectory();
+        loaded.applyFsImage(FsImage.parse(basePath, false));
+        assertSameTree(arena, loaded);
+
+        // 增量FsImage只包含修改过的根目录下的目录，合并全量FsImage之后和当前的目录树一致
+        arena.createFile("/user1/photos/new.png", attr(7L, "new"));
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(arena.delete("/user2/docs/file-" + i + ".txt"));
+        }
+        String deltaPath = new File(tempDir, "fsimage-200").getAbsolutePath();
+        arena.saveDeltaFsImage(200L, deltaPath, base);
+        FsImage delta = FsImage.parse(deltaPath, false);
+        assertNotNull(delta);
+        assertTrue(delta.isDelta());
+        assertNull(delta.getRoot().getChildren("user4"));
+        delta.mergeBase(FsImage.parse(basePath, false));
+        loaded = new ArenaFsDirectory();
+        loaded.applyFsImage(delta);
+        assertSameTree(arena, loaded);
+    }
+
+    private static void populate(AbstractFsDirectory directory) {
+        directory.createFile("/root-file.txt", attr(1L, "root"));
+        for (int i = 0; i < 20; i++) {
+            directory.createFile("/user1/photos/" + (i % 4) + "/img-" + i + ".png", attr(100L + i, "img" + i));
+        }
+        for (int i = 0; i < 3; i++) {
+            directory.createFile("/user2/docs/file-" + i + ".txt", attr(10L + i, "doc" + i));
+        }
+        directory.createFile("/user4/a.txt", attr(5L, "a"));
+        directory.mkdir("/user4/empty", new HashMap<>());
+    }
+
+    private static void assertSameTree(AbstractFsDirectory expected, AbstractFsDirectory actual) {
+        assertEquals(new HashSet<>(expected.findAllFiles("/")), new HashSet<>(actual.findAllFiles("/")));
+        for (String filename : expected.findAllFiles("/")) {
+            assertEquals(expected.listFiles(filename).getAttr(), actual.listFiles(filename).getAttr(), filename);
+        }
+        assertNotNull(actual.listFiles("/user4/empty"));
+        assertSameAggregates(expected.listFiles("/"), actual.listFiles("/"));
+    }
+
+    private static void assertSameAggregates(Node expected, Node actual) {
+        if (expected.isFile()) {
+            assertTrue(actual.isFile(), expected.getPath());
+            return;
+        }
+        assertEquals(expected.getFileCount(), actual.getFileCount(), expected.getPath());
+        assertEquals(expected.getTotalSize(), actual.getTotalSize(), expected.getPath());
+        assertEquals(expected.getChildren().keySet(), actual.getChildren().keySet(), expected.getPath());
+        for (Node child : expected.getChildren().values()) {
+            assertSameAggregates(child, actual.getChildren(child.getPath()));
+        }
+    }
+
+    private static Map<String, String> attr(long size, String tag) {
+        Map<String, String> attr = new HashMap<>();
+        attr.put(Constants.ATTR_FILE_SIZE, String.valueOf(size));
+        attr.put(Constants.ATTR_REPLICA_NUM, "2");
+        attr.put("tag", tag);
+        return attr;
+    }
+}
@@ -0,0 +1,174 @@
+package com.bytetenns.namenode.fs;
+
+import com.bytetenns.common.netty.Constants;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 目录汇总的文件数量和大小：创建、删除、移动到垃圾箱和从垃圾箱恢复，以及加载FsImage之后都和重新计算的结果一致
+ */
+@Slf4j
+public class DirectoryAggregatesTest {
+
+    private static final String TRASH = "/user1/" + Constants.TRASH_DIR;
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void testCreateAndDelete() {
+        FsDirectory directory = newDirectory();
+        assertAggregates(directory, "/", 6, 1 + 10 + 20 + 30 + 40 + 50);
+        assertAggregates(directory, "/user1", 3, 10 + 20 + 30);
+        assertAggregates(directory, "/user1/photos", 2, 10 + 20);
+        assertAggregates(directory, "/user2/docs/2022", 2, 40 + 50);
+        // 文件节点返回文件本身
+        assertAggregates(directory, "/user1/photos/a.png", 1, 10);
+
+        assertNotNull(directory.delete("/user1/photos/a.png"));
+        assertAggregates(directory, "/user1/photos", 1, 20);
+        assertAggregates(directory, "/user1", 2, 20 + 30);
+        assertAggregates(directory, "/", 5, 1 + 20 + 30 + 40 + 50);
+
+        // 删除最后一个文件之后空目录也被删除，祖先目录的汇总一起减少
+        assertNotNull(directory.delete("/user2/docs/2022/d.txt"));
+        assertNotNull(directory.delete("/user2/docs/2022/e.txt"));
+        assertNull(directory.listFiles("/user2", 0));
+        assertAggregates(directory, "/", 3, 1 + 20 + 30);
+        assertRecomputed(directory);
+    }
+
+    @Test
+    public void testTrashMoveAndResume() {
+        FsDirectory directory = newDirectory();
+        String filename = "/user1/photos/a.png";
+
+        // 和删除文件的请求一样：删除原来的文件，带上删除时间在垃圾箱中重新创建
+        Node node = directory.listFiles(filename, 0);
+        assertNotNull(directory.delete(filename));
+        Map<String, String> attr = node.getAttr();
+        attr.put(Constants.ATTR_FILE_DEL_TIME, String.valueOf(System.currentTimeMillis()));
+        assertTrue(directory.createFile(TRASH + "/photos/a.png", attr));
+        assertAggregates(directory, "/user1/photos", 1, 20);
+        assertAggregates(directory, TRASH, 1, 10);
+        // 文件仍然在用户目录下，用户目录和根目录的汇总不变
+        assertAggregates(directory, "/user1", 3, 10 + 20 + 30);
+        assertAggregates(directory, "/", 6, 1 + 10 + 20 + 30 + 40 + 50);
+        assertRecomputed(directory);
+
+        // 从垃圾箱恢复之后空的垃圾箱目录被删除
+        node = directory.listFiles(TRASH + "/photos/a.png", 0);
+        assertNotNull(directory.delete(TRASH + "/photos/a.png"));
+        attr = node.getAttr();
+        attr.remove(Constants.ATTR_FILE_DEL_TIME);
+        assertTrue(directory.createFile(filename, attr));
+        assertNull(directory.listFiles(TRASH, 0));
+        assertAggregates(directory, "/user1/photos", 2, 10 + 20);
+        assertAggregates(directory, "/user1", 3, 10 + 20 + 30);
+        assertRecomputed(directory);
+    }
+
+    @Test
+    public void testFsImageLoad() throws Exception {
+        FsDirectory directory = newDirectory();
+        String path = new File(tempDir, "fsimage-100").getAbsolutePath();
+        directory.saveFsImage(100L, path);
+
+        for (boolean lazy : new boolean[]{false, true}) {
+            FsDirectory loaded = new FsDirectory();
+            loaded.applyFsImage(FsImage.parse(path, lazy));
+            // 延迟加载时访问路径才挂载对应的分段，挂载之后根目录的汇总也要包含这个分段
+            assertAggregates(loaded, "/user2/docs", 2, 40 + 50);
+            assertAggregates(loaded, "/user1", 3, 10 + 20 + 30);
+            assertAggregates(loaded, "/", 6, 1 + 10 + 20 + 30 + 40 + 50);
+            assertRecomputed(loaded);
+
+            assertTrue(loaded.createFile("/user2/docs/f.txt", attr(60L)));
+            assertNotNull(loaded.delete("/user1/photos/b.png"));
+            assertAggregates(loaded, "/user2", 3, 40 + 50 + 60);
+            assertAggregates(loaded, "/", 6, 1 + 10 + 30 + 40 + 50 + 60);
+            assertRecomputed(loaded);
+        }
+    }
+
+    @Test
+    public void testCalculate() {
+        AbstractFsNameSystem nameSystem = new AggregatesNameSystem(newDirectory());
+        CalculateResult result = nameSystem.calculate("/user1");
+        assertEquals(3, result.getFileCount());
+        assertEquals(10 + 20 + 30, result.getTotalSize());
+        result = nameSystem.calculate("/not-exists");
+        assertEquals(0, result.getFileCount());
+        assertEquals(0, result.getTotalSize());
+    }
+
+    /**
+     * 只用来计算文件数量和大小
+     */
+    private static class AggregatesNameSystem extends AbstractFsNameSystem {
+        private AggregatesNameSystem(AbstractFsDirectory directory) {
+            super(directory);
+        }
+
+        @Override
+        public void recoveryNamespace() {
+        }
+    }
+
+    private static FsDirectory newDirectory() {
+        FsDirectory directory = new FsDirectory();
+        directory.createFile("/root-file.txt", attr(1L));
+        directory.createFile("/user1/photos/a.png", attr(10L));
+        directory.createFile("/user1/photos/b.png", attr(20L));
+        directory.createFile("/user1/c.txt", attr(30L));
+        directory.createFile("/user2/docs/2022/d.txt", attr(40L));
+        directory.createFile("/user2/docs/2022/e.txt", attr(50L));
+        directory.mkdir("/user3/empty", new HashMap<>());
+        return directory;
+    }
+
+    private static void assertAggregates(FsDirectory directory, String path, long fileCount, long totalSize) {
+        Node node = directory.listFiles(path, 0);
+        assertNotNull(node, path);
+        assertEquals(fileCount, node.subtreeFileCount(), path);
+        assertEquals(totalSize, node.subtreeSize(), path);
+    }
+
+    /**
+     * 逐级更新的汇总结果要和重新计算的结果一致
+     */
+    private static void assertRecomputed(FsDirectory directory) {
+        Node root = directory.listFiles("/");
+        Node recomputed = Node.deepCopy(root, Integer.MAX_VALUE);
+        Node.computeAggregates(recomputed);
+        assertSameAggregates(root, recomputed, "");
+    }
+
+    private static void assertSameAggregates(Node actual, Node expected, String fullPath) {
+        if (actual.isFile()) {
+            return;
+        }
+        assertEquals(expected.getFileCount(), actual.getFileCount(), fullPath);
+        assertEquals(expected.getTotalSize(), actual.getTotalSize(), fullPath);
+        for (Node child : actual.getChildren().values()) {
+            assertSameAggregates(child, expected.getChildren(child.getPath()), fullPath + "/" + child.getPath());
+        }
+    }
+
+    private static Map<String, String> attr(long size) {
+        Map<String, String> attr = new HashMap<>();
+        attr.put(Constants.ATTR_FILE_SIZE, String.valueOf(size));
+        attr.put(Constants.ATTR_REPLICA_NUM, "2");
+        return attr;
+    }
+}
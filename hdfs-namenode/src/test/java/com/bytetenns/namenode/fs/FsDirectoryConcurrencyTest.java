@@ -0,0 +1,283 @@
+package com.bytetenns.namenode.fs;
+
+import com.bytetenns.common.netty.Constants;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 多线程并发修改FsDirectory，检查最终的目录树和每个目录汇总的文件数量、大小
+ */
+@Slf4j
+public class FsDirectoryConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int FILES_PER_THREAD = 2000;
+    private static final int SHARED_FILES = 500;
+
+    @Test
+    public void testDisjointParents() throws Exception {
+        runDisjoint(new FsDirectory());
+        runDisjoint(new FsDirectory(1024));
+    }
+
+    @Test
+    public void testSharedParents() throws Exception {
+        runShared(new FsDirectory());
+        runShared(new FsDirectory(1024));
+    }
+
+    @Test
+    public void testReadWhileWriting() throws Exception {
+        runReadWhileWriting(new FsDirectory());
+        runReadWhileWriting(new FsDirectory(1024));
+    }
+
+    /**
+     * 一半线程创建和删除文件，另一半线程同时不加锁读取，读到的节点属性要完整
+     */
+    private void runReadWhileWriting(FsDirectory directory) throws Exception {
+        int writers = THREADS / 2;
+        AtomicInteger finished = new AtomicInteger();
+        AtomicInteger reads = new AtomicInteger();
+        runConcurrently(t -> {
+            if (t < writers) {
+                try {
+                    for (int i = 0; i < FILES_PER_THREAD; i++) {
+                        assertTrue(directory.createFile(disjointFile(t, i), attr(size(t, i))));
+                        if (i % 2 == 0) {
+                            assertNotNull(directory.delete(disjointFile(t, i)));
+                        }
+                    }
+                } finally {
+                    finished.incrementAndGet();
+                }
+                return;
+            }
+            while (finished.get() < writers) {
+                Node root = directory.listFiles("/");
+                assertFiles(root, "");
+                for (int w = 0; w < writers; w++) {
+                    Node user = directory.listFiles("/user" + w, 0);
+                    if (user != null) {
+                        assertTrue(user.getFileCount() >= 0 && user.getTotalSize() >= 0);
+                    }
+                    int i = reads.incrementAndGet() % FILES_PER_THREAD;
+                    Node file = directory.unsafeListFiles(disjointFile(w, i));
+                    if (file != null) {
+                        assertEquals(size(w, i), file.subtreeSize());
+                        assertEquals(attr(size(w, i)), file.getAttr());
+                    }
+                }
+            }
+        });
+        assertTrue(reads.get() > 0);
+        for (int t = 0; t < writers; t++) {
+            assertEquals(FILES_PER_THREAD / 2, directory.listFiles("/user" + t, 0).getFileCount());
+        }
+        assertAggregates(directory.listFiles("/"));
+    }
+
+    /**
+     * 复制出来的每个文件的属性都和创建时一致
+     */
+    private void assertFiles(Node node, String fullPath) {
+        if (node.isFile()) {
+            String[] names = fullPath.split("/");
+            int thread = Integer.parseInt(names[1].substring("user".length()));
+            int i = Integer.parseInt(names[3].substring("file-".length()));
+            assertEquals(attr(size(thread, i)), node.getAttr(), fullPath);
+            return;
+        }
+        for (Node child : node.getChildren().values()) {
+            assertFiles(child, fullPath + "/" + child.getPath());
+        }
+    }
+
+    /**
+     * 每个线程只修改自己的/user{n}目录，创建文件之后删除其中一半
+     */
+    private void runDisjoint(FsDirectory directory) throws Exception {
+        runConcurrently(t -> {
+            for (int i = 0; i < FILES_PER_THREAD; i++) {
+                assertTrue(directory.createFile(disjointFile(t, i), attr(size(t, i))));
+            }
+            for (int i = 0; i < FILES_PER_THREAD; i += 2) {
+                assertNotNull(directory.delete(disjointFile(t, i)));
+            }
+        });
+
+        Set<String> expected = new HashSet<>();
+        long expectedSize = 0L;
+        for (int t = 0; t < THREADS; t++) {
+            long userSize = 0L;
+            for (int i = 1; i < FILES_PER_THREAD; i += 2) {
+                expected.add(disjointFile(t, i));
+                userSize += size(t, i);
+            }
+            Node user = directory.listFiles("/user" + t, 0);
+            assertEquals(FILES_PER_THREAD / 2, user.getFileCount());
+            assertEquals(userSize, user.getTotalSize());
+            expectedSize += userSize;
+        }
+        assertTree(directory, expected, expectedSize);
+    }
+
+    /**
+     * 所有线程在相同的父目录下修改：
+     *
+     * 1. 每个线程在共享目录下创建和删除自己的文件
+     * 2. 所有线程同时创建同一批文件，再同时删除其中一半，每个文件只能有一个线程成功
+     * 3. 所有线程同时创建同一批目录
+     */
+    private void runShared(FsDirectory directory) throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger deleted = new AtomicInteger();
+        runConcurrently(t -> {
+            for (int i = 0; i < FILES_PER_THREAD; i++) {
+                assertTrue(directory.createFile(sharedFile(t, i), attr(size(t, i))));
+                if (i % 3 == 0) {
+                    assertNotNull(directory.delete(sharedFile(t, i)));
+                }
+            }
+            for (int i = 0; i < SHARED_FILES; i++) {
+                if (directory.createFile(contendedFile(i), attr(i))) {
+                    created.incrementAndGet();
+                }
+                directory.mkdir("/shared/mkdir/m" + (i % 10), new HashMap<>());
+            }
+        });
+        // 等所有线程都创建完再删除，否则删除之后可能被其他线程重新创建
+        runConcurrently(t -> {
+            for (int i = 0; i < SHARED_FILES; i += 2) {
+                if (directory.delete(contendedFile(i)) != null) {
+                    deleted.incrementAndGet();
+                }
+            }
+        });
+        assertEquals(SHARED_FILES, created.get());
+        assertEquals(SHARED_FILES / 2, deleted.get());
+
+        Set<String> expected = new HashSet<>();
+        long expectedSize = 0L;
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 0; i < FILES_PER_THREAD; i++) {
+                if (i % 3 != 0) {
+                    expected.add(sharedFile(t, i));
+                    expectedSize += size(t, i);
+                }
+            }
+        }
+        for (int i = 1; i < SHARED_FILES; i += 2) {
+            expected.add(contendedFile(i));
+            expectedSize += i;
+        }
+        assertTree(directory, expected, expectedSize);
+        for (int i = 0; i < 10; i++) {
+            Node dir = directory.listFiles("/shared/mkdir/m" + i, 0);
+            assertNotNull(dir);
+            assertEquals(0, dir.getChildren().size());
+        }
+        assertNull(directory.listFiles(contendedFile(0)));
+    }
+
+    private void assertTree(FsDirectory directory, Set<String> expected, long expectedSize) {
+        assertEquals(expected, new HashSet<>(directory.findAllFiles("/")));
+        for (String filename : expected) {
+            Node file = directory.unsafeListFiles(filename);
+            assertNotNull(file, filename);
+            assertEquals(filename, file.getFullPath());
+        }
+        Node root = directory.listFiles("/");
+        assertEquals(expected.size(), root.getFileCount());
+        assertEquals(expectedSize, root.getTotalSize());
+        assertAggregates(root);
+    }
+
+    /**
+     * 逐级更新的汇总结果要和重新计算的结果一致
+     */
+    private void assertAggregates(Node snapshot) {
+        Node recomputed = Node.deepCopy(snapshot, Integer.MAX_VALUE);
+        Node.computeAggregates(recomputed);
+        assertSameAggregates(snapshot, recomputed);
+    }
+
+    private void assertSameAggregates(Node actual, Node expected) {
+        if (actual.isFile()) {
+            return;
+        }
+        assertEquals(expected.getFileCount(), actual.getFileCount(), actual.getFullPath());
+        assertEquals(expected.getTotalSize(), actual.getTotalSize(), actual.getFullPath());
+        for (Node child : actual.getChildren().values()) {
+            assertSameAggregates(child, expected.getChildren(child.getPath()));
+        }
+    }
+
+    private void runConcurrently(Worker worker) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(executor.submit((Callable<Void>) () -> {
+                    start.await();
+                    worker.run(thread);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String disjointFile(int thread, int i) {
+        return "/user" + thread + "/dir" + (i % 7) + "/file-" + i;
+    }
+
+    private static String sharedFile(int thread, int i) {
+        return "/shared/dir" + (i % 5) + "/sub" + (i % 3) + "/t" + thread + "-file-" + i;
+    }
+
+    private static String contendedFile(int i) {
+        return "/shared/contended/dir" + (i % 4) + "/file-" + i;
+    }
+
+    private static long size(int thread, int i) {
+        return thread * 10000L + i;
+    }
+
+    private static Map<String, String> attr(long size) {
+        Map<String, String> attr = new HashMap<>();
+        attr.put(Constants.ATTR_FILE_SIZE, String.valueOf(size));
+        attr.put(Constants.ATTR_REPLICA_NUM, "2");
+        return attr;
+    }
+
+    private interface Worker {
+        void run(int thread) throws Exception;
+    }
+}
@@ -0,0 +1,197 @@
+package com.bytetenns.namenode.fs;
+
+import com.bytetenns.common.netty.Constants;
+import com.bytetenns.dfs.model.backup.FsImageSection;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * FsImageWriter写入、FsImageReader读取分段格式的FsImage，以及增量FsImage和全量FsImage的合并
+ */
+@Slf4j
+public class FsImageTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        FsDirectory directory = newDirectory();
+        String path = path("fsimage-100");
+        directory.saveFsImage(100L, path);
+
+        assertEquals(100L, FsImage.verify(path));
+        for (boolean lazy : new boolean[]{false, true}) {
+            FsImage fsImage = FsImage.parse(path, lazy);
+            assertNotNull(fsImage);
+            assertEquals(100L, fsImage.getMaxTxId());
+            assertFalse(fsImage.isDelta());
+            assertTrue(fsImage.verifyLazySections());
+            assertSameTree(directory, load(fsImage));
+        }
+    }
+
+    @Test
+    public void testDeltaMergeBase() throws Exception {
+        FsDirectory directory = newDirectory();
+        String basePath = path("fsimage-100");
+        FsImageBase base = directory.saveFsImage(100L, basePath);
+
+        // user1有修改，user2整个删除，user3是新建的，user4没有修改，只能从全量FsImage中合并
+        directory.createFile("/user1/photos/new.png", attr(7L, "new"));
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(directory.delete("/user2/docs/file-" + i + ".txt"));
+        }
+        directory.createFile("/user3/a/b/c.txt", attr(11L, "c"));
+        directory.createFile("/root-file-2.txt", attr(13L, "root"));
+        String deltaPath = path("fsimage-200");
+        directory.saveDeltaFsImage(200L, deltaPath, base);
+
+        assertEquals(200L, FsImage.verify(deltaPath));
+        for (boolean lazy : new boolean[]{false, true}) {
+            FsImage delta = FsImage.parse(deltaPath, lazy);
+            assertNotNull(delta);
+            assertTrue(delta.isDelta());
+            assertEquals(100L, delta.getBaseTxId());
+            assertEquals(Collections.singletonList("user2"), delta.getRemoved());
+            assertNull(delta.getRoot().getChildren("user4"));
+
+            FsImage full = FsImage.parse(basePath, lazy);
+            assertNotNull(full);
+            delta.mergeBase(full);
+            assertFalse(delta.isDelta());
+            assertEquals(200L, delta.getMaxTxId());
+            assertSameTree(directory, load(delta));
+        }
+    }
+
+    @Test
+    public void testCorruptedSection() throws Exception {
+        FsDirectory directory = newDirectory();
+        String path = path("fsimage-100");
+        directory.saveFsImage(100L, path);
+
+        try (RandomAccessFile raf = new RandomAccessFile(path, "rw")) {
+            FsImageReader reader = FsImageReader.open(raf.getChannel(), path, raf.length());
+            assertNotNull(reader);
+            FsImageSection section = reader.getSections().get(1);
+            long offset = section.getOffset() + section.getLength() / 2;
+            raf.seek(offset);
+            int b = raf.read();
+            raf.seek(offset);
+            raf.write(b ^ 0xFF);
+        }
+
+        assertEquals(-1L, FsImage.verify(path));
+        assertNull(FsImage.parse(path, false));
+        // 延迟加载时分段只做了映射，需要单独校验
+        FsImage lazy = FsImage.parse(path, true);
+        assertNotNull(lazy);
+        assertFalse(lazy.verifyLazySections());
+    }
+
+    @Test
+    public void testTruncatedFile() throws Exception {
+        FsDirectory directory = newDirectory();
+        String path = path("fsimage-100");
+        directory.saveFsImage(100L, path);
+        try (RandomAccessFile raf = new RandomAccessFile(path, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(path, "r")) {
+            FileChannel channel = raf.getChannel();
+            assertEquals(-1L, FsImage.validate(channel, path, raf.length()));
+        }
+        assertNull(FsImage.parse(path, false));
+    }
+
+    @Test
+    public void testUnfinishedWriterLeavesNoImage() throws Exception {
+        FsDirectory directory = newDirectory();
+        String path = path("fsimage-100");
+        try (FsImageWriter writer = new FsImageWriter(path, 100L)) {
+            writer.writeRootSection(directory.listFiles("/"));
+            // 写入过程中失败，没有调用finish()
+        }
+        assertFalse(new File(path).exists());
+        assertEquals(0, tempDir.listFiles().length);
+
+        // 上次写入失败留下的临时文件不会被当成FsImage
+        assertTrue(new File(path + ".saving").createNewFile());
+        directory.saveFsImage(200L, path("fsimage-200"));
+        assertEquals(Collections.singleton(path("fsimage-200")),
+                new HashSet<>(new ScanOnlyNameSystem().scanFsImageMap(tempDir.getAbsolutePath()).values()));
+    }
+
+    /**
+     * 只用来扫描FsImage文件
+     */
+    private static class ScanOnlyNameSystem extends AbstractFsNameSystem {
+        @Override
+        public void recoveryNamespace() {
+        }
+    }
+
+    /**
+     * 根目录下的文件、多个用户目录、多层目录和空目录
+     */
+    private FsDirectory newDirectory() {
+        FsDirectory directory = new FsDirectory();
+        directory.createFile("/root-file.txt", attr(1L, "root"));
+        for (int i = 0; i < 20; i++) {
+            directory.createFile("/user1/photos/" + (i % 4) + "/img-" + i + ".png", attr(100L + i, "img" + i));
+        }
+        for (int i = 0; i < 3; i++) {
+            directory.createFile("/user2/docs/file-" + i + ".txt", attr(10L + i, "doc" + i));
+        }
+        directory.createFile("/user4/a.txt", attr(5L, "a"));
+        directory.mkdir("/user4/empty", new HashMap<>());
+        return directory;
+    }
+
+    private FsDirectory load(FsImage fsImage) {
+        FsDirectory directory = new FsDirectory();
+        directory.applyFsImage(fsImage);
+        return directory;
+    }
+
+    private void assertSameTree(FsDirectory expected, FsDirectory actual) {
+        assertEquals(new HashSet<>(expected.findAllFiles("/")), new HashSet<>(actual.findAllFiles("/")));
+        for (String filename : expected.findAllFiles("/")) {
+            assertEquals(expected.unsafeListFiles(filename).getAttr(), actual.unsafeListFiles(filename).getAttr(),
+                    filename);
+        }
+        assertNotNull(actual.listFiles("/user4/empty"));
+        Node expectedRoot = expected.listFiles("/");
+        Node actualRoot = actual.listFiles("/");
+        assertEquals(expectedRoot.getFileCount(), actualRoot.getFileCount());
+        assertEquals(expectedRoot.getTotalSize(), actualRoot.getTotalSize());
+    }
+
+    private String path(String name) {
+        return new File(tempDir, name).getAbsolutePath();
+    }
+
+    private static Map<String, String> attr(long size, String tag) {
+        Map<String, String> attr = new HashMap<>();
+        attr.put(Constants.ATTR_FILE_SIZE, String.valueOf(size));
+        attr.put(Constants.ATTR_REPLICA_NUM, "2");
+        attr.put("tag", tag);
+        return attr;
+    }
+}
@@ -0,0 +1,201 @@
+package com.bytetenns.namenode.fs;
+
+import com.bytetenns.common.netty.Constants;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * InodeArena的节点增删查、哈希表删除时的后移、字节页整理，以及快照和当前目录树之间的隔离
+ */
+@Slf4j
+public class InodeArenaTest {
+
+    /**
+     * 初始的哈希表有65536个位置
+     */
+    private static final int LAST_SLOT = (1 << 16) - 1;
+
+    @Test
+    public void testCreateLookupRemove() {
+        InodeArena arena = new InodeArena();
+        int user = arena.getOrCreateDirectory(InodeArena.ROOT, "user");
+        assertEquals(user, arena.getOrCreateDirectory(InodeArena.ROOT, "user"));
+        int file = arena.createFile(user, "a.txt");
+        assertNotEquals(InodeArena.NIL, file);
+        // 同名节点已经存在
+        assertEquals(InodeArena.NIL, arena.createFile(user, "a.txt"));
+        arena.putAllAttr(file, attr(100L));
+        int other = arena.createFile(user, "b.txt");
+        arena.putAllAttr(other, attr(20L));
+
+        assertEquals(file, arena.child(user, "a.txt"));
+        assertEquals(InodeArena.NIL, arena.child(InodeArena.ROOT, "a.txt"));
+        assertEquals("100", arena.attrs(file).get(Constants.ATTR_FILE_SIZE));
+        assertEquals(4, arena.size());
+        Node root = arena.toNode(InodeArena.ROOT, Integer.MAX_VALUE);
+        assertEquals(2, root.getFileCount());
+        assertEquals(120L, root.getTotalSize());
+
+        arena.remove(file);
+        assertEquals(InodeArena.NIL, arena.child(user, "a.txt"));
+        assertEquals(other, arena.child(user, "b.txt"));
+        assertEquals(3, arena.size());
+        root = arena.toNode(InodeArena.ROOT, Integer.MAX_VALUE);
+        assertEquals(1, root.getFileCount());
+        assertEquals(20L, root.getTotalSize());
+        assertEquals(1, root.getChildren("user").getChildren().size());
+
+        // 删除的编号会被复用
+        assertEquals(file, arena.createFile(user, "c.txt"));
+        assertEquals("c.txt", arena.name(file));
+    }
+
+    @Test
+    public void testBackshiftDeletion() {
+        InodeArena arena = new InodeArena();
+        // 4个名称的起始位置是哈希表最后一个位置，2个名称的起始位置是第一个位置，探测链会绕回表头
+        List<String> tail = namesWithHomeSlot(arena, LAST_SLOT, 4);
+        List<String> head = namesWithHomeSlot(arena, 0, 2);
+        List<String> names = new ArrayList<>();
+        names.add(tail.get(0));
+        names.add(tail.get(1));
+        names.add(tail.get(2));
+        names.add(head.get(0));
+        names.add(head.get(1));
+        names.add(tail.get(3));
+        Map<String, Integer> ids = new HashMap<>();
+        for (String name : names) {
+            ids.put(name, arena.createFile(InodeArena.ROOT, name));
+        }
+
+        // 按不同的顺序删除，每次删除之后剩下的节点都要能找到
+        for (String removed : new String[]{tail.get(0), head.get(0), tail.get(3), tail.get(1)}) {
+            arena.remove(ids.remove(removed));
+            assertEquals(InodeArena.NIL, arena.child(InodeArena.ROOT, removed), removed);
+            for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+                assertEquals(entry.getValue().intValue(), arena.child(InodeArena.ROOT, entry.getKey()), entry.getKey());
+            }
+        }
+    }
+
+    @Test
+    public void testRandomCreateAndRemove() {
+        InodeArena arena = new InodeArena();
+        Random random = new Random(7);
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        // 超过初始哈希表的容量，中间会扩容
+        for (int i = 0; i < 100000; i++) {
+            String name = "file-" + i;
+            int parent = arena.getOrCreateDirectory(InodeArena.ROOT, "dir" + (i % 16));
+            ids.put(name, arena.createFile(parent, name));
+            names.add(name);
+        }
+        Collections.shuffle(names, random);
+        for (String name : names.subList(0, names.size() / 2)) {
+            arena.remove(ids.remove(name));
+        }
+        for (int i = 0; i < 100000; i++) {
+            String name = "file-" + i;
+            int parent = arena.child(InodeArena.ROOT, "dir" + (i % 16));
+            Integer id = ids.get(name);
+            assertEquals(id == null ? InodeArena.NIL : id, arena.child(parent, name), name);
+        }
+        assertEquals(ids.size(), arena.toNode(InodeArena.ROOT, 0).getFileCount());
+    }
+
+    @Test
+    public void testCompaction() {
+        InodeArena arena = new InodeArena(1024);
+        int dir = arena.getOrCreateDirectory(InodeArena.ROOT, "dir");
+        int file = arena.createFile(dir, "file");
+        arena.putAllAttr(file, attr(1L));
+        InodeArena snapshot = arena.snapshot();
+
+        // 每次修改属性都会重新追加一份，旧的字节变成垃圾
+        for (int i = 2; i <= 1000; i++) {
+            arena.putAllAttr(file, attr(i));
+        }
+        assertTrue(arena.garbage() >= 1024);
+        arena.compactIfNecessary();
+        assertEquals(0L, arena.garbage());
+
+        assertEquals("file", arena.name(file));
+        assertEquals("dir", arena.name(dir));
+        assertEquals("1000", arena.attrs(file).get(Constants.ATTR_FILE_SIZE));
+        assertEquals("tag-1000", arena.attrs(file).get("tag"));
+        assertEquals(file, arena.child(dir, "file"));
+        assertEquals(1000L, arena.toNode(InodeArena.ROOT, 0).getTotalSize());
+        // 整理之前生成的快照继续引用旧的字节
+        assertEquals("1", snapshot.attrs(file).get(Constants.ATTR_FILE_SIZE));
+        assertEquals("file", snapshot.name(file));
+    }
+
+    @Test
+    public void testSnapshotIsolation() {
+        InodeArena arena = new InodeArena();
+        int dir = arena.getOrCreateDirectory(InodeArena.ROOT, "dir");
+        int kept = arena.createFile(dir, "kept");
+        arena.putAllAttr(kept, attr(10L));
+        int removed = arena.createFile(dir, "removed");
+        arena.putAllAttr(removed, attr(5L));
+        // 超过一个页面的节点，修改时需要复制不同的页面
+        for (int i = 0; i < 70000; i++) {
+            arena.createFile(InodeArena.ROOT, "root-" + i);
+        }
+        InodeArena snapshot = arena.snapshot();
+        Node before = snapshot.toNode(dir, Integer.MAX_VALUE);
+
+        arena.putAllAttr(kept, attr(1000L));
+        arena.remove(removed);
+        int added = arena.createFile(dir, "added");
+        arena.putAllAttr(added, attr(7L));
+        arena.remove(arena.child(InodeArena.ROOT, "root-69999"));
+
+        // 快照中的节点、属性和汇总都不受之后的修改影响
+        Node after = snapshot.toNode(dir, Integer.MAX_VALUE);
+        assertEquals(before.getChildren().keySet(), after.getChildren().keySet());
+        assertEquals(2, after.getChildren().size());
+        assertEquals(15L, after.getTotalSize());
+        assertEquals("10", after.getChildren("kept").getAttr().get(Constants.ATTR_FILE_SIZE));
+        assertEquals(70002, snapshot.toNode(InodeArena.ROOT, 0).getFileCount());
+        assertEquals(70004, snapshot.size());
+
+        Node current = arena.toNode(dir, Integer.MAX_VALUE);
+        assertEquals(2, current.getChildren().size());
+        assertEquals(1007L, current.getTotalSize());
+        assertEquals(70001, arena.toNode(InodeArena.ROOT, 0).getFileCount());
+    }
+
+    /**
+     * 找出在根目录下起始位置是slot的名称
+     */
+    private static List<String> namesWithHomeSlot(InodeArena arena, int slot, int count) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; names.size() < count; i++) {
+            String name = "n" + i;
+            if (arena.homeSlot(InodeArena.ROOT, name) == slot) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    private static Map<String, String> attr(long size) {
+        Map<String, String> attr = new HashMap<>();
+        attr.put(Constants.ATTR_FILE_SIZE, String.valueOf(size));
+        attr.put("tag", "tag-" + size);
+        return attr;
+    }
+}
@@ -0,0 +1,89 @@
+package com.bytetenns.namenode.fs;
+
+import com.bytetenns.common.enums.NodeType;
+import com.bytetenns.common.netty.Constants;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 节点的数值属性：规范格式的值保存成数值，其他值按字符串原样保存，转换回属性map之后不变
+ */
+@Slf4j
+public class NodeTest {
+
+    @Test
+    public void testCanonicalNumericAttrs() {
+        Node node = new Node("a.txt", NodeType.FILE.getValue());
+        Map<String, String> attr = new HashMap<>();
+        attr.put(Constants.ATTR_FILE_SIZE, "100");
+        attr.put(Constants.ATTR_REPLICA_NUM, "2");
+        attr.put(Constants.ATTR_FILE_DEL_TIME, "1660000000000");
+        attr.put("tag", "photo");
+        node.putAllAttr(attr);
+
+        assertEquals(attr, node.getAttr());
+        // 数值属性不保存在属性map中
+        assertEquals(1, node.getUserAttr().size());
+        assertEquals(100L, node.subtreeSize());
+        assertEquals(2, node.getReplicaNum(3));
+        assertTrue(node.hasDelTime());
+    }
+
+    @Test
+    public void testNonCanonicalNumericAttrs() {
+        Node node = new Node("a.txt", NodeType.FILE.getValue());
+        node.putAttr(Constants.ATTR_FILE_SIZE, "100");
+        node.putAttr(Constants.ATTR_REPLICA_NUM, "2");
+        node.putAttr(Constants.ATTR_FILE_DEL_TIME, "1660000000000");
+
+        // 转换回字符串之后会变的值按字符串保存，同名的数值被清除
+        node.putAttr(Constants.ATTR_FILE_SIZE, "007");
+        node.putAttr(Constants.ATTR_REPLICA_NUM, "2147483648");
+        node.putAttr(Constants.ATTR_FILE_DEL_TIME, "+1");
+        Map<String, String> expected = new HashMap<>();
+        expected.put(Constants.ATTR_FILE_SIZE, "007");
+        expected.put(Constants.ATTR_REPLICA_NUM, "2147483648");
+        expected.put(Constants.ATTR_FILE_DEL_TIME, "+1");
+        assertEquals(expected, node.getAttr());
+        assertEquals(expected, node.getUserAttr());
+        assertEquals(0L, node.subtreeSize());
+        assertEquals(3, node.getReplicaNum(3));
+        assertFalse(node.hasDelTime());
+
+        // 重新放入规范格式的值之后，属性map中的字符串被移除
+        node.putAttr(Constants.ATTR_FILE_SIZE, "7");
+        assertEquals("7", node.getAttr().get(Constants.ATTR_FILE_SIZE));
+        assertFalse(node.getUserAttr().containsKey(Constants.ATTR_FILE_SIZE));
+        assertEquals(7L, node.subtreeSize());
+        assertEquals(3, node.getAttr().size());
+    }
+
+    @Test
+    public void testCopyKeepsNumericAttrs() {
+        Node node = new Node("a.txt", NodeType.FILE.getValue());
+        node.putAttr(Constants.ATTR_FILE_SIZE, "100");
+        node.putAttr(Constants.ATTR_REPLICA_NUM, "02");
+        node.putAttr("tag", "photo");
+
+        Node copy = node.copyForWrite(1L);
+        Node deepCopy = Node.deepCopy(node, 0);
+        assertEquals(node.getAttr(), copy.getAttr());
+        assertEquals(node.getAttr(), deepCopy.getAttr());
+        assertEquals(100L, deepCopy.subtreeSize());
+
+        // 复制出来的节点和原来的节点互不影响
+        copy.putAttr(Constants.ATTR_FILE_SIZE, "200");
+        copy.putAttr(Constants.ATTR_REPLICA_NUM, "3");
+        assertEquals("100", node.getAttr().get(Constants.ATTR_FILE_SIZE));
+        assertEquals("02", node.getAttr().get(Constants.ATTR_REPLICA_NUM));
+        assertEquals(3, copy.getReplicaNum(1));
+        assertEquals(1, copy.getUserAttr().size());
+    }
+}
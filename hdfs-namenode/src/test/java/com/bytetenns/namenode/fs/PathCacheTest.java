@@ -0,0 +1,152 @@
+package com.bytetenns.namenode.fs;
+
+import com.bytetenns.common.enums.NodeType;
+import com.bytetenns.common.netty.Constants;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * 路径缓存：删除之后失效、写时复制之后解析到最新的节点、槽位冲突，以及加载FsImage之后整体替换
+ */
+@Slf4j
+public class PathCacheTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void testUnregister() {
+        PathCache cache = new PathCache(16);
+        Node node = new Node("a.txt", NodeType.FILE.getValue());
+        cache.register(node);
+        cache.put("/a.txt", node);
+        assertSame(node, cache.get("/a.txt"));
+
+        cache.unregister("/a.txt", node);
+        assertNull(cache.get("/a.txt"));
+        // 删除之后重新放入旧节点也不会再返回
+        cache.put("/a.txt", node);
+        assertNull(cache.get("/a.txt"));
+    }
+
+    @Test
+    public void testResolveCopyForWrite() {
+        PathCache cache = new PathCache(16);
+        Node node = new Node("dir", NodeType.DIRECTORY.getValue());
+        cache.register(node);
+        cache.put("/dir", node);
+
+        // 复制出来的节点沿用inode id，登记之后缓存的路径解析到新节点
+        Node copy = node.copyForWrite(1L);
+        assertEquals(node.getId(), copy.getId());
+        cache.register(copy);
+        assertSame(copy, cache.get("/dir"));
+    }
+
+    @Test
+    public void testSlotCollision() {
+        // 只有一个槽位，所有路径都冲突
+        PathCache cache = new PathCache(1);
+        Node a = new Node("a", NodeType.FILE.getValue());
+        Node b = new Node("b", NodeType.FILE.getValue());
+        cache.register(a);
+        cache.register(b);
+        cache.put("/a", a);
+        cache.put("/b", b);
+        // 被覆盖的路径不会返回其他路径的节点
+        assertNull(cache.get("/a"));
+        assertSame(b, cache.get("/b"));
+
+        // 删除其他路径的节点不会清掉当前槽位中的路径
+        cache.unregister("/a", a);
+        assertSame(b, cache.get("/b"));
+    }
+
+    @Test
+    public void testDeleteInvalidatesCachedPaths() {
+        FsDirectory directory = new FsDirectory(1024);
+        directory.createFile("/user/photos/a.png", attr(1L));
+        directory.createFile("/user/b.txt", attr(2L));
+        assertNotNull(directory.unsafeListFiles("/user/photos/a.png"));
+        assertNotNull(directory.unsafeListFiles("/user/photos"));
+
+        // 删除最后一个文件之后，空的父目录也被删除，缓存中的路径不再返回被删除的节点
+        assertNotNull(directory.delete("/user/photos/a.png"));
+        assertNull(directory.unsafeListFiles("/user/photos/a.png"));
+        assertNull(directory.unsafeListFiles("/user/photos"));
+        assertNotNull(directory.unsafeListFiles("/user/b.txt"));
+
+        // 重新创建同名文件之后解析到新的节点
+        directory.createFile("/user/photos/a.png", attr(3L));
+        assertEquals("3", directory.unsafeListFiles("/user/photos/a.png").getAttr().get(Constants.ATTR_FILE_SIZE));
+    }
+
+    @Test
+    public void testResolveNewestVersionAfterSnapshot() {
+        FsDirectory directory = new FsDirectory(1024);
+        directory.createFile("/user/a.txt", attr(1L));
+        Node cached = directory.unsafeListFiles("/user");
+        assertNotNull(cached);
+
+        // 快照之后修改目录会复制出新的节点，缓存的路径要解析到新节点
+        Node snapshot = directory.snapshot();
+        directory.createFile("/user/b.txt", attr(2L));
+        Node current = directory.unsafeListFiles("/user");
+        assertNotNull(current.getChildren("b.txt"));
+        assertEquals(2, current.getFileCount());
+        assertNull(snapshot.getChildren("user").getChildren("b.txt"));
+    }
+
+    @Test
+    public void testSlotCollisionInDirectory() {
+        FsDirectory directory = new FsDirectory(1);
+        for (int i = 0; i < 10; i++) {
+            directory.createFile("/dir/file-" + i, attr(i));
+        }
+        // 所有路径共用一个槽位，交替访问时每次都会覆盖，但不会解析到其他路径的节点
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 10; i++) {
+                Node node = directory.unsafeListFiles("/dir/file-" + i);
+                assertEquals("file-" + i, node.getPath());
+                assertEquals(String.valueOf(i), node.getAttr().get(Constants.ATTR_FILE_SIZE));
+            }
+        }
+    }
+
+    @Test
+    public void testApplyFsImageReplacesCache() throws Exception {
+        FsDirectory image = new FsDirectory();
+        image.createFile("/user/a.txt", attr(100L));
+        String path = new File(tempDir, "fsimage-100").getAbsolutePath();
+        image.saveFsImage(100L, path);
+
+        FsDirectory directory = new FsDirectory(1024);
+        directory.createFile("/user/a.txt", attr(1L));
+        directory.createFile("/user/b.txt", attr(2L));
+        assertNotNull(directory.unsafeListFiles("/user/a.txt"));
+        assertNotNull(directory.unsafeListFiles("/user/b.txt"));
+
+        // 加载FsImage之后，之前缓存的路径不能解析到旧目录树中的节点
+        directory.applyFsImage(FsImage.parse(path, false));
+        assertEquals("100", directory.unsafeListFiles("/user/a.txt").getAttr().get(Constants.ATTR_FILE_SIZE));
+        assertNull(directory.unsafeListFiles("/user/b.txt"));
+        directory.createFile("/user/c.txt", attr(3L));
+        assertEquals(2, directory.unsafeListFiles("/user").getFileCount());
+    }
+
+    private static Map<String, String> attr(long size) {
+        Map<String, String> attr = new HashMap<>();
+        attr.put(Constants.ATTR_FILE_SIZE, String.valueOf(size));
+        return attr;
+    }
+}
@@ -0,0 +1,140 @@
+package com.bytetenns.namenode.server;
+
+import com.bytetenns.common.enums.PacketType;
+import com.bytetenns.common.netty.NettyPacket;
+import com.bytetenns.dfs.model.backup.EditLog;
+import com.bytetenns.dfs.model.backup.FetchEditsLogResponse;
+import com.bytetenns.namenode.NameNodeConfig;
+import com.bytetenns.namenode.editlog.EditLogWrapper;
+import com.bytetenns.namenode.editlog.FsEditLog;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 往BackupNode推送EditLog：窗口流控、确认之后继续推送，以及重新订阅之后从新的位置推送
+ */
+@Slf4j
+public class EditLogPusherTest {
+
+    private static final int WINDOW = 10;
+    private static final int EDITS = 25;
+
+    @TempDir
+    File tempDir;
+
+    private FsEditLog fsEditLog;
+    private EditLogPusher pusher;
+    private BlockingQueue<NettyPacket> packets;
+    private EmbeddedChannel channel;
+
+    @BeforeEach
+    public void setUp() {
+        NameNodeConfig nameNodeConfig = new NameNodeConfig();
+        nameNodeConfig.setBaseDir(tempDir.getAbsolutePath());
+        nameNodeConfig.setEditLogGroupCommit(false);
+        nameNodeConfig.setEditLogPushWindow(WINDOW);
+        fsEditLog = new FsEditLog(nameNodeConfig);
+        for (int i = 1; i <= EDITS; i++) {
+            fsEditLog.logEdit(new EditLogWrapper(1, "/file-" + i));
+        }
+        pusher = new EditLogPusher(nameNodeConfig, fsEditLog);
+        packets = new LinkedBlockingQueue<>();
+        channel = newChannel();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        pusher.shutdown();
+        fsEditLog.shutdown();
+    }
+
+    @Test
+    public void testWindowAndAck() throws Exception {
+        pusher.subscribe(channel, 0L, false);
+        assertEquals(range(1, 10), receive(10));
+        // 窗口已满，没有确认之前不再推送
+        assertNull(packets.poll(300, TimeUnit.MILLISECONDS));
+
+        // 其他连接的确认直接忽略
+        pusher.ack(newChannel(), 10L);
+        assertNull(packets.poll(300, TimeUnit.MILLISECONDS));
+
+        pusher.ack(channel, 4L);
+        assertEquals(range(11, 14), receive(4));
+        pusher.ack(channel, 20L);
+        assertEquals(range(15, 25), receive(11));
+        assertNull(packets.poll(300, TimeUnit.MILLISECONDS));
+
+        // 新的editlog刷盘之后继续推送
+        pusher.ack(channel, 25L);
+        fsEditLog.logEdit(new EditLogWrapper(1, "/file-26"));
+        assertEquals(range(26, 26), receive(1));
+    }
+
+    @Test
+    public void testResubscribe() throws Exception {
+        pusher.subscribe(channel, 0L, false);
+        assertEquals(range(1, 10), receive(10));
+
+        // BackupNode发现txid不连续，从已经回放的位置重新订阅
+        pusher.subscribe(channel, 5L, false);
+        assertEquals(range(6, 15), receive(10));
+
+        // 断开连接之后不再推送
+        pusher.unsubscribe(channel);
+        pusher.ack(channel, 15L);
+        assertNull(packets.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * 接收推送的editlog，直到收到count条
+     */
+    private List<Long> receive(int count) throws Exception {
+        List<Long> txIds = new ArrayList<>();
+        while (txIds.size() < count) {
+            NettyPacket packet = packets.poll(10, TimeUnit.SECONDS);
+            assertNotNull(packet, "没有收到推送的EditLog：" + txIds);
+            assertEquals(PacketType.PUSH_EDIT_LOG.getValue(), packet.getPacketType());
+            for (EditLog editLog : FetchEditsLogResponse.parseFrom(packet.getBody()).getEditLogsList()) {
+                txIds.add(editLog.getTxId());
+            }
+        }
+        return txIds;
+    }
+
+    private EmbeddedChannel newChannel() {
+        return new EmbeddedChannel(new ChannelOutboundHandlerAdapter() {
+            @Override
+            public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+                packets.add((NettyPacket) msg);
+                promise.setSuccess();
+            }
+        });
+    }
+
+    private static List<Long> range(long from, long to) {
+        List<Long> txIds = new ArrayList<>();
+        for (long txId = from; txId <= to; txId++) {
+            txIds.add(txId);
+        }
+        return txIds;
+    }
+}
@@ -0,0 +1,196 @@
+package com.bytetenns.namenode.server;
+
+import com.bytetenns.common.exception.NameNodeException;
+import com.bytetenns.common.netty.Constants;
+import com.bytetenns.common.scheduler.DefaultScheduler;
+import com.bytetenns.common.utils.Crc32C;
+import com.bytetenns.dfs.model.backup.FsImageChunk;
+import com.bytetenns.dfs.model.backup.FsImageUploadCommit;
+import com.bytetenns.dfs.model.backup.FsImageUploadRequest;
+import com.bytetenns.namenode.NameNodeConfig;
+import com.bytetenns.namenode.datanode.DataNodeManager;
+import com.bytetenns.namenode.fs.DiskNameSystem;
+import com.bytetenns.namenode.fs.FsDirectory;
+import com.google.protobuf.ByteString;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 分块上传FsImage的断点续传：断线重连、NameNode重启之后续传，以及重复提交
+ */
+@Slf4j
+public class FsImageUploadReceiverTest {
+
+    private static final String UPLOAD_ID = "100_1";
+    private static final int CHUNK_SIZE = 1024;
+
+    @TempDir
+    File tempDir;
+
+    private NameNodeConfig nameNodeConfig;
+    private DefaultScheduler defaultScheduler;
+    private DiskNameSystem diskNameSystem;
+    private byte[] fsImage;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        nameNodeConfig = new NameNodeConfig();
+        nameNodeConfig.setBaseDir(new File(tempDir, "namenode").getAbsolutePath());
+        nameNodeConfig.setEditLogGroupCommit(false);
+        defaultScheduler = new DefaultScheduler("FsImageUploadReceiverTest-", 1, true);
+        diskNameSystem = new DiskNameSystem(nameNodeConfig, defaultScheduler,
+                new DataNodeManager(nameNodeConfig, defaultScheduler));
+
+        // BackupNode一侧生成的FsImage
+        FsDirectory directory = new FsDirectory();
+        for (int i = 0; i < 500; i++) {
+            Map<String, String> attr = new HashMap<>();
+            attr.put(Constants.ATTR_FILE_SIZE, String.valueOf(i));
+            directory.createFile("/user" + (i % 5) + "/dir" + (i % 7) + "/file-" + i, attr);
+        }
+        File source = new File(tempDir, "backupnode/fsimage-100");
+        directory.saveFsImage(100L, source.getAbsolutePath());
+        fsImage = Files.readAllBytes(source.toPath());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        defaultScheduler.shutdown();
+    }
+
+    @Test
+    public void testResumeAfterReconnect() throws Exception {
+        FsImageUploadReceiver receiver = newReceiver();
+        assertEquals(0L, receiver.begin(request()));
+        int half = fsImage.length / 2;
+        long offset = sendChunks(receiver, 0, half);
+
+        // 断线重连之后用同一个uploadId重新开始，从已经写入的位置继续
+        assertEquals(offset, receiver.begin(request()));
+        // 重连之前已经发出、重连之后才到达的分块直接忽略
+        assertEquals(offset, receiver.append(chunk(0, CHUNK_SIZE)));
+        // 跳过了一部分数据的分块
+        assertThrows(NameNodeException.class, () -> receiver.append(chunk((int) offset + CHUNK_SIZE, CHUNK_SIZE)));
+
+        sendChunks(receiver, (int) offset, fsImage.length);
+        assertCommitted(receiver);
+    }
+
+    @Test
+    public void testResumeAfterRestart() throws Exception {
+        FsImageUploadReceiver receiver = newReceiver();
+        receiver.begin(request());
+        long offset = sendChunks(receiver, 0, fsImage.length / 3);
+
+        // NameNode重启之后从临时文件的长度继续，整个文件的校验和从临时文件重新计算
+        FsImageUploadReceiver restarted = newReceiver();
+        assertEquals(offset, restarted.begin(request()));
+        sendChunks(restarted, (int) offset, fsImage.length);
+        assertCommitted(restarted);
+    }
+
+    @Test
+    public void testRepeatedCommit() throws Exception {
+        FsImageUploadReceiver receiver = newReceiver();
+        receiver.begin(request());
+        sendChunks(receiver, 0, fsImage.length);
+        assertCommitted(receiver);
+
+        // COMMIT超时之后BackupNode用同一个uploadId重试
+        assertEquals(fsImage.length, receiver.begin(request()));
+        assertEquals(fsImage.length, receiver.commit(commit(Crc32C.compute(fsImage, 0, fsImage.length))));
+        assertEquals(1, fsImageFiles().length);
+    }
+
+    @Test
+    public void testCorruptedChunk() throws Exception {
+        FsImageUploadReceiver receiver = newReceiver();
+        receiver.begin(request());
+        FsImageChunk chunk = chunk(0, CHUNK_SIZE).toBuilder()
+                .setCrc32c(Crc32C.compute(fsImage, 0, CHUNK_SIZE) + 1)
+                .build();
+        assertThrows(NameNodeException.class, () -> receiver.append(chunk));
+        assertEquals(0L, receiver.begin(request()));
+    }
+
+    @Test
+    public void testIncompleteCommit() throws Exception {
+        FsImageUploadReceiver receiver = newReceiver();
+        receiver.begin(request());
+        sendChunks(receiver, 0, fsImage.length / 2);
+        assertThrows(NameNodeException.class,
+                () -> receiver.commit(commit(Crc32C.compute(fsImage, 0, fsImage.length))));
+        assertEquals(0, fsImageFiles().length);
+        // 放弃之后同一个uploadId从头开始
+        assertEquals(0L, receiver.begin(request()));
+    }
+
+    private void assertCommitted(FsImageUploadReceiver receiver) throws Exception {
+        assertEquals(fsImage.length, receiver.commit(commit(Crc32C.compute(fsImage, 0, fsImage.length))));
+        File[] files = fsImageFiles();
+        assertEquals(1, files.length);
+        assertArrayEquals(fsImage, Files.readAllBytes(files[0].toPath()));
+        assertFalse(new File(nameNodeConfig.getBaseDir(), "checkpoint-" + UPLOAD_ID + ".uploading").exists());
+    }
+
+    private File[] fsImageFiles() {
+        File[] files = new File(nameNodeConfig.getBaseDir()).listFiles((dir, name) -> name.startsWith("fsimage-"));
+        assertNotNull(files);
+        return files;
+    }
+
+    /**
+     * 按分块发送[from, to)之间的数据
+     *
+     * @return 发送之后NameNode已经收到的字节数
+     */
+    private long sendChunks(FsImageUploadReceiver receiver, int from, int to) throws Exception {
+        long offset = from;
+        for (int position = from; position < to; position += CHUNK_SIZE) {
+            offset = receiver.append(chunk(position, Math.min(CHUNK_SIZE, to - position)));
+        }
+        assertEquals(to, offset);
+        return offset;
+    }
+
+    private FsImageUploadReceiver newReceiver() {
+        return new FsImageUploadReceiver(nameNodeConfig, defaultScheduler, diskNameSystem);
+    }
+
+    private FsImageUploadRequest request() {
+        return FsImageUploadRequest.newBuilder()
+                .setUploadId(UPLOAD_ID)
+                .setSize(fsImage.length)
+                .build();
+    }
+
+    private FsImageChunk chunk(int offset, int length) {
+        return FsImageChunk.newBuilder()
+                .setUploadId(UPLOAD_ID)
+                .setOffset(offset)
+                .setData(ByteString.copyFrom(fsImage, offset, length))
+                .setCrc32c(Crc32C.compute(fsImage, offset, length))
+                .build();
+    }
+
+    private static FsImageUploadCommit commit(int crc32c) {
+        return FsImageUploadCommit.newBuilder()
+                .setUploadId(UPLOAD_ID)
+                .setCrc32c(crc32c)
+                .build();
+    }
+}